@@ -0,0 +1,314 @@
+package eisenwave.nbt;
+
+import java.util.*;
+
+/**
+ * <p>
+ *     The storage of small mutable compounds.
+ * </p>
+ * <p>
+ *     The keys are stored in a {@link Shape} which is shared with all compounds that have the same keys in the same
+ *     order, so that each compound only stores its values in parallel arrays indexed by the slots of the shape.
+ *     Primitive values can be stored unboxed as a type id and 64 bits. They are boxed into a tag when it is
+ *     retrieved, and the tag is stored in place of the unboxed value so that its modifications are tracked.
+ * </p>
+ * <p>
+ *     Compounds replace this storage with a {@link LinkedHashMap} once it exceeds {@link #MAX_SIZE} entries.
+ * </p>
+ */
+final class CompactMap extends AbstractMap<String, NBTTag> {
+    
+    /** The maximum size of compact storage. */
+    final static int MAX_SIZE = 32;
+    
+    private final static NBTTag[] NO_TAGS = new NBTTag[0];
+    private final static long[] NO_BITS = new long[0];
+    private final static byte[] NO_TYPES = new byte[0];
+    
+    private final NBTTag owner;
+    
+    private Shape shape = Shape.EMPTY;
+    /** The tags of boxed values or null for unboxed values. */
+    private NBTTag[] tags = NO_TAGS;
+    private long[] bits = NO_BITS;
+    private byte[] types = NO_TYPES;
+    private int size;
+    
+    private final Set<Map.Entry<String, NBTTag>> entrySet = new EntrySet();
+    
+    /**
+     * Constructs empty storage.
+     *
+     * @param owner the compound which adopts boxed tags
+     */
+    CompactMap(NBTTag owner) {
+        this.owner = owner;
+    }
+    
+    // GETTERS
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    int indexOf(Object key) {
+        return shape.indexOf(key);
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+    
+    @Override
+    public NBTTag get(Object key) {
+        int i = indexOf(key);
+        return i < 0? null : tagAt(i);
+    }
+    
+    /**
+     * Returns the tag at the given index, boxing it if necessary.
+     *
+     * @param i the index
+     * @return the tag
+     */
+    NBTTag tagAt(int i) {
+        NBTTag tag = tags[i];
+        if (tag == null) {
+            tags[i] = tag = box(types[i], bits[i]);
+            owner.adopt(tag);
+        }
+        return tag;
+    }
+    
+    /**
+     * Returns the tag at the given index without boxing it into this storage. Unboxed values are returned as
+     * temporary frozen tags.
+     *
+     * @param i the index
+     * @return the tag
+     */
+    NBTTag peek(int i) {
+        NBTTag tag = tags[i];
+        return tag != null? tag : flyweight(types[i], bits[i]);
+    }
+    
+    /**
+     * Returns the tag at the given index as a tag which outlives its entry. Unboxed values are boxed into a new
+     * mutable tag which is not stored in this storage, so that a removed or replaced value can be returned.
+     *
+     * @param i the index
+     * @return the tag
+     */
+    private NBTTag detach(int i) {
+        NBTTag tag = tags[i];
+        return tag != null? tag : box(types[i], bits[i]);
+    }
+    
+    /**
+     * Returns the index of the value with the given key if it is stored unboxed and of the given type.
+     *
+     * @param key the key
+     * @param type the type
+     * @return the index or -1
+     */
+    int indexOfUnboxed(String key, NBTType type) {
+        int i = indexOf(key);
+        return isUnboxed(i, type)? i : -1;
+    }
+    
+    /**
+     * Returns the index of the given key handle.
+     *
+     * @param key the key
+     * @return the index or -1
+     */
+    int indexOf(NBTKey key) {
+        return key.slotIn(shape);
+    }
+    
+    /**
+     * Returns whether the value at the given index is stored unboxed and of the given type.
+     *
+     * @param i the index or -1
+     * @param type the type
+     * @return whether the value is unboxed
+     */
+    boolean isUnboxed(int i, NBTType type) {
+        return i >= 0 && tags[i] == null && types[i] == type.getId();
+    }
+    
+    /**
+     * Returns the bits of the unboxed value at the given index.
+     *
+     * @param i the index
+     * @return the bits
+     */
+    long bitsAt(int i) {
+        return bits[i];
+    }
+    
+    /**
+     * Returns an iterator which does not box any values into this storage.
+     *
+     * @return an iterator over all entries
+     * @see #peek(int)
+     */
+    Iterator<Map.Entry<String, NBTTag>> peekIterator() {
+        return new Iterator<Map.Entry<String, NBTTag>>() {
+            private int next;
+            
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+            
+            @Override
+            public Map.Entry<String, NBTTag> next() {
+                if (next >= size) throw new NoSuchElementException();
+                Map.Entry<String, NBTTag> entry = new SimpleImmutableEntry<>(shape.keyAt(next), peek(next));
+                next++;
+                return entry;
+            }
+        };
+    }
+    
+    // MUTATORS
+    
+    @Override
+    public NBTTag put(String key, NBTTag tag) {
+        Objects.requireNonNull(tag);
+        int i = indexOf(key);
+        NBTTag previous = i < 0? null : detach(i);
+        if (i < 0) i = append(key);
+        tags[i] = tag;
+        return previous;
+    }
+    
+    /**
+     * Maps a key to an unboxed value.
+     *
+     * @param key the key
+     * @param type the type of the value
+     * @param bits the bits of the value
+     * @return the previous tag, which is temporary if it was unboxed, or null
+     */
+    NBTTag putUnboxed(String key, NBTType type, long bits) {
+        Objects.requireNonNull(key);
+        int i = indexOf(key);
+        NBTTag previous = null;
+        if (i < 0)
+            i = append(key);
+        else
+            previous = peek(i);
+        this.tags[i] = null;
+        this.types[i] = type.getId();
+        this.bits[i] = bits;
+        return previous;
+    }
+    
+    private int append(String key) {
+        Objects.requireNonNull(key);
+        shape = shape.with(key);
+        if (size == tags.length) {
+            int capacity = size == 0? 2 : Math.min(size * 2, MAX_SIZE + 1);
+            tags = Arrays.copyOf(tags, capacity);
+            bits = Arrays.copyOf(bits, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        return size++;
+    }
+    
+    @Override
+    public NBTTag remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) return null;
+        NBTTag previous = detach(i);
+        removeAt(i);
+        return previous;
+    }
+    
+    private void removeAt(int i) {
+        int moved = size - i - 1;
+        shape = shape.without(i);
+        System.arraycopy(tags, i + 1, tags, i, moved);
+        System.arraycopy(bits, i + 1, bits, i, moved);
+        System.arraycopy(types, i + 1, types, i, moved);
+        size--;
+        tags[size] = null;
+    }
+    
+    @Override
+    public void clear() {
+        shape = Shape.EMPTY;
+        Arrays.fill(tags, 0, size, null);
+        size = 0;
+    }
+    
+    @Override
+    public Set<Map.Entry<String, NBTTag>> entrySet() {
+        return entrySet;
+    }
+    
+    // UTIL
+    
+    private static NBTTag box(byte type, long bits) {
+        switch (NBTType.getById(type)) {
+            case BYTE: return new NBTByte((byte) bits);
+            case SHORT: return new NBTShort((short) bits);
+            case INT: return new NBTInt((int) bits);
+            case LONG: return new NBTLong(bits);
+            case FLOAT: return new NBTFloat(Float.intBitsToFloat((int) bits));
+            case DOUBLE: return new NBTDouble(Double.longBitsToDouble(bits));
+            default: throw new AssertionError(type);
+        }
+    }
+    
+    private static NBTTag flyweight(byte type, long bits) {
+        switch (NBTType.getById(type)) {
+            case BYTE: return NBTByte.valueOf((byte) bits);
+            case SHORT: return NBTShort.valueOf((short) bits);
+            case INT: return NBTInt.valueOf((int) bits);
+            case LONG: return NBTLong.valueOf(bits);
+            default: return box(type, bits).freeze();
+        }
+    }
+    
+    private final class EntrySet extends AbstractSet<Map.Entry<String, NBTTag>> {
+        
+        @Override
+        public int size() {
+            return size;
+        }
+        
+        @Override
+        public Iterator<Map.Entry<String, NBTTag>> iterator() {
+            return new Iterator<Map.Entry<String, NBTTag>>() {
+                private int next, current = -1;
+                
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+                
+                @Override
+                public Map.Entry<String, NBTTag> next() {
+                    if (next >= size) throw new NoSuchElementException();
+                    current = next++;
+                    return new SimpleImmutableEntry<>(shape.keyAt(current), tagAt(current));
+                }
+                
+                @Override
+                public void remove() {
+                    if (current < 0) throw new IllegalStateException();
+                    removeAt(current);
+                    next = current;
+                    current = -1;
+                }
+            };
+        }
+    
+    }
+
+}
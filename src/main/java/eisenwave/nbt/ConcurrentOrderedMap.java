@@ -0,0 +1,189 @@
+package eisenwave.nbt;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * <p>
+ *     The thread-safe storage of concurrent compounds.
+ * </p>
+ * <p>
+ *     Tags are stored in a {@link ConcurrentHashMap}, so reads are lock-free and writes only lock the bin of their
+ *     key. Each key receives a sequence number when it is inserted, which orders the keys in a
+ *     {@link ConcurrentSkipListMap}. The order is only modified within the atomic updates of the hash map, so both
+ *     maps are consistent for every key.
+ * </p>
+ * <p>
+ *     Iteration is weakly consistent: it never fails, it returns the keys in insertion order and it reflects all
+ *     modifications which have completed before the iteration started.
+ * </p>
+ */
+final class ConcurrentOrderedMap extends AbstractMap<String, NBTTag> {
+    
+    private final ConcurrentHashMap<String, Slot> map = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, String> order = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    
+    private final Set<Map.Entry<String, NBTTag>> entrySet = new EntrySet();
+    
+    // GETTERS
+    
+    @Override
+    public int size() {
+        return map.size();
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && map.containsKey(key);
+    }
+    
+    @Override
+    public NBTTag get(Object key) {
+        Slot slot = key == null? null : map.get(key);
+        return slot == null? null : slot.tag;
+    }
+    
+    @Override
+    public Set<Map.Entry<String, NBTTag>> entrySet() {
+        return entrySet;
+    }
+    
+    // ATOMIC OPERATIONS
+    
+    @Override
+    public NBTTag put(String key, NBTTag tag) {
+        Objects.requireNonNull(tag);
+        NBTTag[] previous = new NBTTag[1];
+        map.compute(key, (k, old) -> {
+            previous[0] = old == null? null : old.tag;
+            return update(k, old, tag);
+        });
+        return previous[0];
+    }
+    
+    @Override
+    public NBTTag remove(Object key) {
+        if (key == null) return null;
+        NBTTag[] previous = new NBTTag[1];
+        map.computeIfPresent((String) key, (k, old) -> {
+            previous[0] = old.tag;
+            return update(k, old, null);
+        });
+        return previous[0];
+    }
+    
+    @Override
+    public NBTTag compute(String key, BiFunction<? super String, ? super NBTTag, ? extends NBTTag> function) {
+        Objects.requireNonNull(function);
+        Slot slot = map.compute(key, (k, old) -> update(k, old, function.apply(k, old == null? null : old.tag)));
+        return slot == null? null : slot.tag;
+    }
+    
+    @Override
+    public NBTTag merge(String key, NBTTag tag,
+                        BiFunction<? super NBTTag, ? super NBTTag, ? extends NBTTag> function) {
+        Objects.requireNonNull(tag);
+        Objects.requireNonNull(function);
+        Slot slot = map.compute(key, (k, old) -> update(k, old, old == null? tag : function.apply(old.tag, tag)));
+        return slot == null? null : slot.tag;
+    }
+    
+    @Override
+    public void clear() {
+        // removing key by key keeps the order consistent with concurrent insertions
+        for (String key : map.keySet())
+            remove(key);
+    }
+    
+    /**
+     * Computes the new slot of a key. Must only be called within an atomic update of the key.
+     *
+     * @param key the key
+     * @param old the old slot or null
+     * @param tag the new tag or null if the key is to be removed
+     * @return the new slot or null
+     */
+    private Slot update(String key, Slot old, NBTTag tag) {
+        if (tag == null) {
+            if (old != null) order.remove(old.sequence);
+            return null;
+        }
+        if (old != null)
+            return old.tag == tag? old : new Slot(old.sequence, tag);
+        long sequence = this.sequence.getAndIncrement();
+        order.put(sequence, key);
+        return new Slot(sequence, tag);
+    }
+    
+    private static final class Slot {
+        
+        private final long sequence;
+        private final NBTTag tag;
+        
+        private Slot(long sequence, NBTTag tag) {
+            this.sequence = sequence;
+            this.tag = tag;
+        }
+    
+    }
+    
+    private final class EntrySet extends AbstractSet<Map.Entry<String, NBTTag>> {
+        
+        @Override
+        public int size() {
+            return map.size();
+        }
+        
+        @Override
+        public Iterator<Map.Entry<String, NBTTag>> iterator() {
+            Iterator<Map.Entry<Long, String>> iterator = order.entrySet().iterator();
+            
+            return new Iterator<Map.Entry<String, NBTTag>>() {
+                private Map.Entry<String, NBTTag> next, current;
+                private long nextSequence, currentSequence;
+                
+                @Override
+                public boolean hasNext() {
+                    while (next == null && iterator.hasNext()) {
+                        Map.Entry<Long, String> entry = iterator.next();
+                        Slot slot = map.get(entry.getValue());
+                        // the key may have been removed or re-inserted since the order has been read
+                        if (slot != null && slot.sequence == entry.getKey()) {
+                            next = new SimpleImmutableEntry<>(entry.getValue(), slot.tag);
+                            nextSequence = slot.sequence;
+                        }
+                    }
+                    return next != null;
+                }
+                
+                @Override
+                public Map.Entry<String, NBTTag> next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    current = next;
+                    currentSequence = nextSequence;
+                    next = null;
+                    return current;
+                }
+                
+                @Override
+                public void remove() {
+                    if (current == null) throw new IllegalStateException();
+                    map.computeIfPresent(current.getKey(),
+                        (k, old) -> old.sequence == currentSequence? update(k, old, null) : old);
+                    current = null;
+                }
+            };
+        }
+    
+    }
+
+}
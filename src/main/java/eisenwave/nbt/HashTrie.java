@@ -0,0 +1,260 @@
+package eisenwave.nbt;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     An immutable hash array mapped trie. Putting and removing keys creates a new trie in {@code O(log n)} which
+ *     shares all unchanged nodes with the original.
+ * </p>
+ * <p>
+ *     Each node consumes five bits of the hash of a key and stores its entries and children in an array which only
+ *     contains the slots marked in a bitmap. Keys with equal hashes are stored in collision nodes.
+ * </p>
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class HashTrie<K, V> {
+    
+    private final static int BITS = 5, MASK = (1 << BITS) - 1;
+    
+    private final static HashTrie<?, ?> EMPTY = new HashTrie<>(null, 0);
+    
+    private final Node root;
+    private final int size;
+    
+    private HashTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    static <K, V> HashTrie<K, V> empty() {
+        return (HashTrie<K, V>) EMPTY;
+    }
+    
+    // GETTERS
+    
+    int size() {
+        return size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        return root == null? null : (V) root.get(key, spread(key.hashCode()), 0);
+    }
+    
+    // PERSISTENT OPERATIONS
+    
+    /**
+     * Returns a new trie in which the given key is mapped to the given value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the new trie
+     */
+    HashTrie<K, V> with(K key, V value) {
+        boolean[] added = new boolean[1];
+        int hash = spread(key.hashCode());
+        Node newRoot = root == null?
+            new BitmapNode(1 << (hash & MASK), new Object[] {key, value}) :
+            root.with(key, hash, 0, value, added);
+        if (root == null) added[0] = true;
+        return newRoot == root? this : new HashTrie<>(newRoot, added[0]? size + 1 : size);
+    }
+    
+    /**
+     * Returns a new trie in which the given key is not mapped.
+     *
+     * @param key the key
+     * @return the new trie
+     */
+    HashTrie<K, V> without(Object key) {
+        if (root == null) return this;
+        Node newRoot = root.without(key, spread(key.hashCode()), 0);
+        return newRoot == root? this : new HashTrie<>(newRoot, size - 1);
+    }
+    
+    // UTIL
+    
+    private static int spread(int hash) {
+        return hash ^ hash >>> 16;
+    }
+    
+    private static abstract class Node {
+        
+        abstract Object get(Object key, int hash, int shift);
+        
+        abstract Node with(Object key, int hash, int shift, Object value, boolean[] added);
+        
+        /**
+         * Returns the node without the given key, itself if the key is not contained or null if the node is empty.
+         */
+        abstract Node without(Object key, int hash, int shift);
+    
+    }
+    
+    /**
+     * A node which stores pairs of keys and values, or pairs of null and a child node, in the order of their slots.
+     */
+    private static final class BitmapNode extends Node {
+        
+        private final int bitmap;
+        private final Object[] array;
+        
+        private BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+        
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1)) * 2;
+        }
+        
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return null;
+            int index = index(bit);
+            Object k = array[index];
+            if (k == null)
+                return ((Node) array[index + 1]).get(key, hash, shift + BITS);
+            return key.equals(k)? array[index + 1] : null;
+        }
+        
+        @Override
+        Node with(Object key, int hash, int shift, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, index);
+                newArray[index] = key;
+                newArray[index + 1] = value;
+                System.arraycopy(array, index, newArray, index + 2, array.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            
+            Object k = array[index], v = array[index + 1];
+            Node child;
+            if (k == null) {
+                Node node = (Node) v;
+                child = node.with(key, hash, shift + BITS, value, added);
+                if (child == node) return this;
+            }
+            else if (key.equals(k)) {
+                if (v == value) return this;
+                return new BitmapNode(bitmap, replace(index + 1, value));
+            }
+            else {
+                child = pair(k, spread(k.hashCode()), v, key, hash, value, shift + BITS);
+                added[0] = true;
+            }
+            Object[] newArray = replace(index + 1, child);
+            newArray[index] = null;
+            return new BitmapNode(bitmap, newArray);
+        }
+        
+        @Override
+        Node without(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return this;
+            int index = index(bit);
+            Object k = array[index];
+            if (k == null) {
+                Node node = (Node) array[index + 1];
+                Node child = node.without(key, hash, shift + BITS);
+                if (child == node) return this;
+                if (child != null) return new BitmapNode(bitmap, replace(index + 1, child));
+            }
+            else if (!key.equals(k)) return this;
+            
+            if (bitmap == bit) return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new BitmapNode(bitmap & ~bit, newArray);
+        }
+        
+        private Object[] replace(int index, Object value) {
+            Object[] newArray = array.clone();
+            newArray[index] = value;
+            return newArray;
+        }
+        
+        private static Node pair(Object k1, int h1, Object v1, Object k2, int h2, Object v2, int shift) {
+            if (h1 == h2)
+                return new CollisionNode(h1, new Object[] {k1, v1, k2, v2});
+            int b1 = (h1 >>> shift) & MASK, b2 = (h2 >>> shift) & MASK;
+            if (b1 == b2)
+                return new BitmapNode(1 << b1, new Object[] {null, pair(k1, h1, v1, k2, h2, v2, shift + BITS)});
+            return b1 < b2?
+                new BitmapNode(1 << b1 | 1 << b2, new Object[] {k1, v1, k2, v2}) :
+                new BitmapNode(1 << b1 | 1 << b2, new Object[] {k2, v2, k1, v1});
+        }
+    
+    }
+    
+    /**
+     * A node which stores pairs of keys and values which have the same hash.
+     */
+    private static final class CollisionNode extends Node {
+        
+        private final int hash;
+        private final Object[] array;
+        
+        private CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+        
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2)
+                if (key.equals(array[i])) return i;
+            return -1;
+        }
+        
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int index = indexOf(key);
+            return index < 0? null : array[index + 1];
+        }
+        
+        @Override
+        Node with(Object key, int hash, int shift, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // the colliding keys are pushed one level down next to the new key
+                int bit = 1 << ((this.hash >>> shift) & MASK);
+                added[0] = true;
+                return new BitmapNode(bit, new Object[] {null, this}).with(key, hash, shift, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) return this;
+                Object[] newArray = array.clone();
+                newArray[index + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+        
+        @Override
+        Node without(Object key, int hash, int shift) {
+            int index = indexOf(key);
+            if (index < 0) return this;
+            if (array.length == 2) return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new CollisionNode(hash, newArray);
+        }
+    
+    }
+
+}
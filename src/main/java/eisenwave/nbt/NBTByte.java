@@ -5,11 +5,28 @@ package eisenwave.nbt;
  */
 public final class NBTByte extends NBTTag implements Cloneable {
 
+    private final static NBTByte[] CACHE = new NBTByte[256];
+    
+    static {
+        for (int i = 0; i < CACHE.length; i++)
+            CACHE[i] = (NBTByte) new NBTByte((byte) (i + Byte.MIN_VALUE)).freeze();
+    }
+    
     private byte value;
     
     public NBTByte(byte value) {
         this.value = value;
     }
+    
+    /**
+     * Returns a frozen byte tag with the given value. All byte tags returned by this method are shared.
+     *
+     * @param value the value
+     * @return a frozen tag
+     */
+    public static NBTByte valueOf(byte value) {
+        return CACHE[value - Byte.MIN_VALUE];
+    }
 
     @Override
     public Byte getValue() {
@@ -21,7 +38,9 @@ public final class NBTByte extends NBTTag implements Cloneable {
     }
     
     public void setByteValue(byte value) {
+        checkMutable();
         this.value = value;
+        modified();
     }
     
     @Override
@@ -45,11 +64,21 @@ public final class NBTByte extends NBTTag implements Cloneable {
         return Byte.hashCode(value);
     }
     
+    @Override
+    public long contentHash() {
+        return hash(NBTType.BYTE, value);
+    }
+    
     @Override
     public String toMSONString() {
         return Byte.toUnsignedInt(value)+"b";
     }
     
+    @Override
+    public NBTByte toMutable() {
+        return frozen? clone() : this;
+    }
+    
     @Override
     public NBTByte clone() {
         return new NBTByte(value);
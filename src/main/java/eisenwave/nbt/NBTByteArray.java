@@ -28,6 +28,12 @@ public final class NBTByteArray extends NBTTag {
         return value.length;
     }
     
+    /**
+     * Returns the array of this tag. Modifications of the array are not tracked, so the array should not be modified
+     * while this tag is part of a compound or list whose hash may be cached.
+     *
+     * @return the array of this tag
+     */
     @Override
     public byte[] getValue() {
         return value;
@@ -48,7 +54,30 @@ public final class NBTByteArray extends NBTTag {
     public boolean equals(NBTByteArray tag) {
         return Arrays.equals(this.value, tag.value);
     }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(value);
+    }
+    
+    @Override
+    public long contentHash() {
+        long hash = value.length;
+        for (int i = 0; i < value.length; i++)
+            hash = hash * 0x100000001b3L + value[i];
+        return hash(NBTType.BYTE_ARRAY, hash);
+    }
+    
+    @Override
+    boolean isTracked() {
+        return false;
+    }
 
+    @Override
+    public NBTByteArray toMutable() {
+        return frozen? new NBTByteArray(value.clone()) : this;
+    }
+    
     @Override
     public String toMSONString() {
         StringBuilder stringbuilder = new StringBuilder("[B;");
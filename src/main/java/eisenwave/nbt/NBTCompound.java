@@ -1,7 +1,9 @@
 package eisenwave.nbt;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 
 /**
@@ -11,21 +13,79 @@ public final class NBTCompound extends NBTTag {
     
     private static final Pattern SIMPLE_STRING = Pattern.compile("[A-Za-z0-9._+-]+");
 
-    private final Map<String, NBTTag> value;
+    /** A {@link LinkedHashMap} or, if this compound is frozen or has been thawed, a {@link PersistentMap}. */
+    private Map<String, NBTTag> value;
+    private final Map<String, NBTTag> view = new MapView();
+    
+    /** Whether the frozen children of this compound are copied when they are retrieved. */
+    private boolean thawing;
+    /** Whether this compound uses thread-safe storage and neither tracks its children nor caches. */
+    private boolean concurrent;
+    
+    private long hash;
+    // volatile, so that frozen tags can cache lazily while being shared between threads
+    private volatile boolean hashed;
+    private volatile ByteBuffer payload;
     
     public NBTCompound(Map<String, NBTTag> value) {
-        this.value = new LinkedHashMap<>(value);
+        this.value = newStorage(value.size());
+        value.forEach(this::put);
     }
     
     public NBTCompound(NBTNamedTag... tags) {
-        this.value = new LinkedHashMap<>();
+        this.value = newStorage(tags.length);
         
         for (NBTNamedTag tag : tags)
-            this.value.put(tag.getName(), tag.getTag());
+            put(tag.getName(), tag.getTag());
     }
     
     public NBTCompound() {
-        this.value = new LinkedHashMap<>();
+        this.value = new CompactMap(this);
+    }
+    
+    /**
+     * Creates an empty compound with storage presized for the given amount of entries.
+     *
+     * @param capacity the expected amount of entries
+     */
+    public NBTCompound(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("negative capacity: " + capacity);
+        this.value = newStorage(capacity);
+    }
+    
+    /**
+     * Constructs a frozen or thawing compound.
+     *
+     * @param value the storage
+     * @param frozen whether the compound is frozen or thawing
+     */
+    private NBTCompound(PersistentMap value, boolean frozen) {
+        this.value = value;
+        this.frozen = frozen;
+        this.thawing = !frozen;
+    }
+    
+    /**
+     * <p>
+     *     Creates an empty, thread-safe compound.
+     * </p>
+     * <p>
+     *     Reads of concurrent compounds are lock-free and writes only lock the modified key. {@link #compute(String,
+     *     BiFunction)}, {@link #merge(String, NBTTag, BiFunction)} and {@link #incrementInt(String, int)} are atomic.
+     *     Iteration is weakly consistent and returns keys in the order in which they have been inserted, just like the
+     *     iteration of regular compounds. Concurrent compounds do not cache their hash or payload.
+     * </p>
+     * <p>
+     *     Only the compound itself is thread-safe, the tags stored in it should be frozen or not be modified.
+     * </p>
+     *
+     * @return a new concurrent compound
+     */
+    public static NBTCompound concurrent() {
+        NBTCompound result = new NBTCompound();
+        result.value = new ConcurrentOrderedMap();
+        result.concurrent = true;
+        return result;
     }
     
     // GETTERS
@@ -39,9 +99,14 @@ public final class NBTCompound extends NBTTag {
         return value.size();
     }
 
+    /**
+     * Returns a live view of the entries of this compound. Modifications of the view are applied to this compound.
+     *
+     * @return the entries of this compound
+     */
     @Override
     public Map<String, NBTTag> getValue() {
-        return value;
+        return view;
     }
 
     @Override
@@ -57,8 +122,9 @@ public final class NBTCompound extends NBTTag {
      * @throws NoSuchElementException if there is no tag with given name
      */
     public NBTTag getTag(String key) {
-        if (!hasKey(key)) throw new NoSuchElementException(key);
-        return value.get(key);
+        NBTTag tag = value.get(key);
+        if (tag == null) throw new NoSuchElementException(key);
+        return thaw(key, tag);
     }
 
     /**
@@ -69,7 +135,12 @@ public final class NBTCompound extends NBTTag {
      * @throws NoSuchElementException if there is no byte with given name
      */
     public byte getByte(String key) {
-        NBTTag tag = value.get(key);
+        int slot = slotOf(key);
+        if (isUnboxed(slot, NBTType.BYTE)) {
+            long bits = bitsAt(slot);
+            return (byte) bits;
+        }
+        NBTTag tag = peekAt(slot, key);
         if (!(tag instanceof NBTByte)) throw new NoSuchElementException(key);
         return ((NBTByte) tag).getValue();
     }
@@ -82,7 +153,12 @@ public final class NBTCompound extends NBTTag {
      * @throws NoSuchElementException if there is no short with given name
      */
     public short getShort(String key) {
-        NBTTag tag = value.get(key);
+        int slot = slotOf(key);
+        if (isUnboxed(slot, NBTType.SHORT)) {
+            long bits = bitsAt(slot);
+            return (short) bits;
+        }
+        NBTTag tag = peekAt(slot, key);
         if (!(tag instanceof NBTShort)) throw new NoSuchElementException(key);
         return ((NBTShort) tag).getValue();
     }
@@ -95,7 +171,12 @@ public final class NBTCompound extends NBTTag {
      * @throws NoSuchElementException if there is no int with given name
      */
     public int getInt(String key) {
-        NBTTag tag = value.get(key);
+        int slot = slotOf(key);
+        if (isUnboxed(slot, NBTType.INT)) {
+            long bits = bitsAt(slot);
+            return (int) bits;
+        }
+        NBTTag tag = peekAt(slot, key);
         if (!(tag instanceof NBTInt)) throw new NoSuchElementException(key);
         return ((NBTInt) tag).getValue();
     }
@@ -108,7 +189,12 @@ public final class NBTCompound extends NBTTag {
      * @throws NoSuchElementException if there is no long with given name
      */
     public long getLong(String key) {
-        NBTTag tag = value.get(key);
+        int slot = slotOf(key);
+        if (isUnboxed(slot, NBTType.LONG)) {
+            long bits = bitsAt(slot);
+            return bits;
+        }
+        NBTTag tag = peekAt(slot, key);
         if (!(tag instanceof NBTLong)) throw new NoSuchElementException(key);
         return ((NBTLong) tag).getValue();
     }
@@ -121,7 +207,12 @@ public final class NBTCompound extends NBTTag {
      * @throws NoSuchElementException if there is no float with given name
      */
     public float getFloat(String key) {
-        NBTTag tag = value.get(key);
+        int slot = slotOf(key);
+        if (isUnboxed(slot, NBTType.FLOAT)) {
+            long bits = bitsAt(slot);
+            return Float.intBitsToFloat((int) bits);
+        }
+        NBTTag tag = peekAt(slot, key);
         if (!(tag instanceof NBTFloat)) throw new NoSuchElementException(key);
         return ((NBTFloat) tag).getValue();
     }
@@ -134,7 +225,12 @@ public final class NBTCompound extends NBTTag {
      * @throws NoSuchElementException if there is no int with given name
      */
     public double getDouble(String key) {
-        NBTTag tag = value.get(key);
+        int slot = slotOf(key);
+        if (isUnboxed(slot, NBTType.DOUBLE)) {
+            long bits = bitsAt(slot);
+            return Double.longBitsToDouble(bits);
+        }
+        NBTTag tag = peekAt(slot, key);
         if (!(tag instanceof NBTDouble)) throw new NoSuchElementException(key);
         return ((NBTDouble) tag).getValue();
     }
@@ -186,7 +282,7 @@ public final class NBTCompound extends NBTTag {
     public NBTList getTagList(String key) {
         NBTTag tag = value.get(key);
         if (!(tag instanceof NBTList)) throw new NoSuchElementException(key);
-        return (NBTList) tag;
+        return (NBTList) thaw(key, tag);
     }
 
     /**
@@ -210,7 +306,7 @@ public final class NBTCompound extends NBTTag {
     public NBTCompound getCompoundTag(String key) {
         NBTTag tag = value.get(key);
         if (!(tag instanceof NBTCompound)) throw new NoSuchElementException(key);
-        return (NBTCompound) tag;
+        return (NBTCompound) thaw(key, tag);
     }
 
     /**
@@ -245,7 +341,7 @@ public final class NBTCompound extends NBTTag {
      * @return an immutable set
      */
     public Set<String> getKeys() {
-        return Collections.unmodifiableSet(value.keySet());
+        return Collections.unmodifiableSet(view.keySet());
     }
     
     // PREDICATES
@@ -278,7 +374,413 @@ public final class NBTCompound extends NBTTag {
      */
     public boolean hasKeyOfType(String key, NBTType type) {
         Objects.requireNonNull(type);
-        return value.containsKey(key) && value.get(key).getType() == type;
+        NBTTag tag = peek(key);
+        return tag != null && tag.getType() == type;
+    }
+    
+    /**
+     * Returns whether this compound is thread-safe.
+     *
+     * @return whether this compound is concurrent
+     * @see #concurrent()
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+    
+    // OPTIONAL GETTERS
+    
+    /**
+     * Returns whether this compound tag contains the given key.
+     *
+     * @param key the key
+     * @return true if the tag contains the given key
+     */
+    public boolean hasKey(NBTKey key) {
+        return value instanceof CompactMap? slotOf(key) >= 0 : value.containsKey(key.getName());
+    }
+    
+    /**
+     * Returns the tag named with the given key if there is one.
+     *
+     * @param key the key
+     * @return the tag or an empty optional
+     */
+    public Optional<NBTTag> tryGet(String key) {
+        return Optional.ofNullable(tagAt(slotOf(key), key));
+    }
+    
+    /**
+     * Returns the tag named with the given key if there is one.
+     *
+     * @param key the key
+     * @return the tag or an empty optional
+     */
+    public Optional<NBTTag> tryGet(NBTKey key) {
+        return Optional.ofNullable(tagAt(slotOf(key), key.getName()));
+    }
+    
+    /**
+     * <p>
+     *     Returns the tag named with the given key or null if there is none.
+     * </p>
+     * <p>
+     *     Unlike {@link #tryGet(NBTKey)}, this does not box primitive values which are stored unboxed. Their tags are
+     *     temporary and frozen, so they must not be modified. Frozen compounds and lists of a thawing compound are not
+     *     copied either.
+     * </p>
+     *
+     * @param key the key
+     * @return the tag or null
+     */
+    public NBTTag peek(NBTKey key) {
+        return peekAt(slotOf(key), key.getName());
+    }
+    
+    /**
+     * Returns a byte named with the given key or a default value if there is no byte with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a byte
+     */
+    public byte getByte(String key, byte def) {
+        return byteValue(slotOf(key), key, def);
+    }
+    
+    /**
+     * Returns a byte named with the given key or a default value if there is no byte with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a byte
+     */
+    public byte getByte(NBTKey key, byte def) {
+        return byteValue(slotOf(key), key.getName(), def);
+    }
+    
+    /**
+     * Returns a short named with the given key or a default value if there is no short with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a short
+     */
+    public short getShort(String key, short def) {
+        return shortValue(slotOf(key), key, def);
+    }
+    
+    /**
+     * Returns a short named with the given key or a default value if there is no short with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a short
+     */
+    public short getShort(NBTKey key, short def) {
+        return shortValue(slotOf(key), key.getName(), def);
+    }
+    
+    /**
+     * Returns an int named with the given key or a default value if there is no int with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return an int
+     */
+    public int getInt(String key, int def) {
+        return intValue(slotOf(key), key, def);
+    }
+    
+    /**
+     * Returns an int named with the given key or a default value if there is no int with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return an int
+     */
+    public int getInt(NBTKey key, int def) {
+        return intValue(slotOf(key), key.getName(), def);
+    }
+    
+    /**
+     * Returns a long named with the given key or a default value if there is no long with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a long
+     */
+    public long getLong(String key, long def) {
+        return longValue(slotOf(key), key, def);
+    }
+    
+    /**
+     * Returns a long named with the given key or a default value if there is no long with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a long
+     */
+    public long getLong(NBTKey key, long def) {
+        return longValue(slotOf(key), key.getName(), def);
+    }
+    
+    /**
+     * Returns a float named with the given key or a default value if there is no float with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a float
+     */
+    public float getFloat(String key, float def) {
+        return floatValue(slotOf(key), key, def);
+    }
+    
+    /**
+     * Returns a float named with the given key or a default value if there is no float with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a float
+     */
+    public float getFloat(NBTKey key, float def) {
+        return floatValue(slotOf(key), key.getName(), def);
+    }
+    
+    /**
+     * Returns a double named with the given key or a default value if there is no double with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a double
+     */
+    public double getDouble(String key, double def) {
+        return doubleValue(slotOf(key), key, def);
+    }
+    
+    /**
+     * Returns a double named with the given key or a default value if there is no double with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a double
+     */
+    public double getDouble(NBTKey key, double def) {
+        return doubleValue(slotOf(key), key.getName(), def);
+    }
+    
+    /**
+     * Returns an int named with the given key if there is one.
+     *
+     * @param key the key
+     * @return an int or an empty optional
+     */
+    public OptionalInt getOptionalInt(String key) {
+        return optionalInt(slotOf(key), key);
+    }
+    
+    /**
+     * Returns an int named with the given key if there is one.
+     *
+     * @param key the key
+     * @return an int or an empty optional
+     */
+    public OptionalInt getOptionalInt(NBTKey key) {
+        return optionalInt(slotOf(key), key.getName());
+    }
+    
+    /**
+     * Returns a long named with the given key if there is one.
+     *
+     * @param key the key
+     * @return a long or an empty optional
+     */
+    public OptionalLong getOptionalLong(String key) {
+        return optionalLong(slotOf(key), key);
+    }
+    
+    /**
+     * Returns a long named with the given key if there is one.
+     *
+     * @param key the key
+     * @return a long or an empty optional
+     */
+    public OptionalLong getOptionalLong(NBTKey key) {
+        return optionalLong(slotOf(key), key.getName());
+    }
+    
+    /**
+     * Returns a double named with the given key if there is one.
+     *
+     * @param key the key
+     * @return a double or an empty optional
+     */
+    public OptionalDouble getOptionalDouble(String key) {
+        return optionalDouble(slotOf(key), key);
+    }
+    
+    /**
+     * Returns a double named with the given key if there is one.
+     *
+     * @param key the key
+     * @return a double or an empty optional
+     */
+    public OptionalDouble getOptionalDouble(NBTKey key) {
+        return optionalDouble(slotOf(key), key.getName());
+    }
+    
+    /**
+     * Returns a string named with the given key or a default value if there is no string with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a string
+     */
+    public String getString(String key, String def) {
+        NBTTag tag = peek(key);
+        return tag instanceof NBTString? ((NBTString) tag).getValue() : def;
+    }
+    
+    /**
+     * Returns a string named with the given key or a default value if there is no string with the given name.
+     *
+     * @param key the key
+     * @param def the default value
+     * @return a string
+     */
+    public String getString(NBTKey key, String def) {
+        NBTTag tag = peekAt(slotOf(key), key.getName());
+        return tag instanceof NBTString? ((NBTString) tag).getValue() : def;
+    }
+    
+    private byte byteValue(int slot, String key, byte def) {
+        if (isUnboxed(slot, NBTType.BYTE)) {
+            long bits = bitsAt(slot);
+            return (byte) bits;
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTByte? ((NBTByte) tag).getByteValue() : def;
+    }
+    
+    private short shortValue(int slot, String key, short def) {
+        if (isUnboxed(slot, NBTType.SHORT)) {
+            long bits = bitsAt(slot);
+            return (short) bits;
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTShort? ((NBTShort) tag).getShortValue() : def;
+    }
+    
+    private int intValue(int slot, String key, int def) {
+        if (isUnboxed(slot, NBTType.INT)) {
+            long bits = bitsAt(slot);
+            return (int) bits;
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTInt? ((NBTInt) tag).getIntValue() : def;
+    }
+    
+    private long longValue(int slot, String key, long def) {
+        if (isUnboxed(slot, NBTType.LONG)) {
+            long bits = bitsAt(slot);
+            return bits;
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTLong? ((NBTLong) tag).getLongValue() : def;
+    }
+    
+    private float floatValue(int slot, String key, float def) {
+        if (isUnboxed(slot, NBTType.FLOAT)) {
+            long bits = bitsAt(slot);
+            return Float.intBitsToFloat((int) bits);
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTFloat? ((NBTFloat) tag).getFloatValue() : def;
+    }
+    
+    private double doubleValue(int slot, String key, double def) {
+        if (isUnboxed(slot, NBTType.DOUBLE)) {
+            long bits = bitsAt(slot);
+            return Double.longBitsToDouble(bits);
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTDouble? ((NBTDouble) tag).getDoubleValue() : def;
+    }
+    
+    private OptionalInt optionalInt(int slot, String key) {
+        if (isUnboxed(slot, NBTType.INT)) {
+            long bits = bitsAt(slot);
+            return OptionalInt.of((int) bits);
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTInt? OptionalInt.of(((NBTInt) tag).getIntValue()) : OptionalInt.empty();
+    }
+    
+    private OptionalLong optionalLong(int slot, String key) {
+        if (isUnboxed(slot, NBTType.LONG)) {
+            long bits = bitsAt(slot);
+            return OptionalLong.of(bits);
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTLong? OptionalLong.of(((NBTLong) tag).getLongValue()) : OptionalLong.empty();
+    }
+    
+    private OptionalDouble optionalDouble(int slot, String key) {
+        if (isUnboxed(slot, NBTType.DOUBLE)) {
+            long bits = bitsAt(slot);
+            return OptionalDouble.of(Double.longBitsToDouble(bits));
+        }
+        NBTTag tag = peekAt(slot, key);
+        return tag instanceof NBTDouble? OptionalDouble.of(((NBTDouble) tag).getDoubleValue()) : OptionalDouble.empty();
+    }
+    
+    // SLOT ACCESS
+    
+    /**
+     * Returns the index of a key in compact storage.
+     *
+     * @param key the key
+     * @return the index or -1 if the key is not contained or the storage is not compact
+     */
+    private int slotOf(String key) {
+        return value instanceof CompactMap? ((CompactMap) value).indexOf(key) : -1;
+    }
+    
+    private int slotOf(NBTKey key) {
+        return value instanceof CompactMap? ((CompactMap) value).indexOf(key) : -1;
+    }
+    
+    private boolean isUnboxed(int slot, NBTType type) {
+        return value instanceof CompactMap && ((CompactMap) value).isUnboxed(slot, type);
+    }
+    
+    private long bitsAt(int slot) {
+        return ((CompactMap) value).bitsAt(slot);
+    }
+    
+    /**
+     * Returns a tag without boxing it into compact storage.
+     *
+     * @param slot the index in compact storage
+     * @param key the key, which is used if the storage is not compact
+     * @return the tag, which is temporary if it is stored unboxed, or null
+     * @see CompactMap#peek(int)
+     */
+    private NBTTag peekAt(int slot, String key) {
+        if (!(value instanceof CompactMap)) return value.get(key);
+        return slot < 0? null : ((CompactMap) value).peek(slot);
+    }
+    
+    /**
+     * Returns a tag, boxing it into compact storage and thawing it if necessary.
+     *
+     * @param slot the index in compact storage
+     * @param key the key, which is used if the storage is not compact
+     * @return the tag or null
+     */
+    private NBTTag tagAt(int slot, String key) {
+        if (!(value instanceof CompactMap)) return thaw(key, value.get(key));
+        return slot < 0? null : thaw(key, ((CompactMap) value).tagAt(slot));
     }
     
     // MUTATORS
@@ -290,7 +792,218 @@ public final class NBTCompound extends NBTTag {
      * @param tag the tag value
      */
     public void put(String name, NBTTag tag) {
-        this.value.put(name, tag);
+        putTag(name, tag);
+    }
+    
+    private NBTTag putTag(String name, NBTTag tag) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(tag);
+        NBTTag previous = mutableValue().put(name, tag);
+        if (previous != tag) changed(previous, tag);
+        promote();
+        return previous;
+    }
+    
+    /**
+     * Removes the tag with the given key from the compound.
+     *
+     * @param key the key
+     * @return the removed tag or null if there was no tag with the given key
+     */
+    public NBTTag remove(String key) {
+        NBTTag previous = mutableValue().remove(key);
+        if (previous != null) changed(previous, null);
+        return previous;
+    }
+    
+    /**
+     * Removes all tags from the compound.
+     */
+    public void clear() {
+        checkMutable();
+        if (concurrent) {
+            value.clear();
+            return;
+        }
+        if (value.isEmpty()) return;
+        entries().forEach(entry -> release(entry.getValue()));
+        value = new CompactMap(this);
+        modified();
+    }
+    
+    /**
+     * <p>
+     *     Computes the tag of a key from its current tag, which is null if the key is not mapped. The key is removed
+     *     if the function returns null.
+     * </p>
+     * <p>
+     *     This operation is atomic if this compound is {@link #concurrent() concurrent}.
+     * </p>
+     *
+     * @param key the key
+     * @param function the function which computes the new tag
+     * @return the new tag or null
+     * @see Map#compute(Object, BiFunction)
+     */
+    public NBTTag compute(String key, BiFunction<? super String, ? super NBTTag, ? extends NBTTag> function) {
+        Objects.requireNonNull(key);
+        return concurrent? value.compute(key, function) : view.compute(key, function);
+    }
+    
+    /**
+     * <p>
+     *     Maps a key to the given tag if it is not mapped, or to the result of the function applied to its current tag
+     *     and the given tag otherwise. The key is removed if the function returns null.
+     * </p>
+     * <p>
+     *     This operation is atomic if this compound is {@link #concurrent() concurrent}.
+     * </p>
+     *
+     * @param key the key
+     * @param tag the tag
+     * @param function the function which merges the current tag and the given tag
+     * @return the new tag or null
+     * @see Map#merge(Object, Object, BiFunction)
+     */
+    public NBTTag merge(String key, NBTTag tag, BiFunction<? super NBTTag, ? super NBTTag, ? extends NBTTag> function) {
+        Objects.requireNonNull(key);
+        return concurrent? value.merge(key, tag, function) : view.merge(key, tag, function);
+    }
+    
+    /**
+     * <p>
+     *     Adds a value to the int named with the given key, or puts the value if there is no tag with the given key.
+     *     The int is replaced with a new tag rather than modified.
+     * </p>
+     * <p>
+     *     This operation is atomic if this compound is {@link #concurrent() concurrent}.
+     * </p>
+     *
+     * @param key the key
+     * @param delta the value to be added
+     * @return the new int
+     * @throws IllegalArgumentException if the tag with the given key is not an int
+     */
+    public int incrementInt(String key, int delta) {
+        int i = frozen? -1 : indexOfUnboxed(key, NBTType.INT);
+        if (i >= 0) {
+            int result = (int) ((CompactMap) value).bitsAt(i) + delta;
+            putUnboxed(key, NBTType.INT, result);
+            return result;
+        }
+        NBTTag result = compute(key, (k, tag) -> {
+            if (tag == null) return new NBTInt(delta);
+            if (!(tag instanceof NBTInt)) throw new IllegalArgumentException(k + " is not an int");
+            return new NBTInt(((NBTInt) tag).getIntValue() + delta);
+        });
+        return ((NBTInt) result).getIntValue();
+    }
+    
+    /**
+     * Must be called after a tag has been replaced or removed.
+     *
+     * @param previous the previous tag or null
+     * @param tag the new tag or null
+     */
+    private void changed(NBTTag previous, NBTTag tag) {
+        // concurrent compounds have no caches which need to be discarded
+        if (concurrent) return;
+        release(previous);
+        if (tag != null) adopt(tag);
+        modified();
+    }
+    
+    /**
+     * Returns the storage of this compound after replacing persistent storage with mutable storage.
+     *
+     * @return the mutable storage
+     * @throws UnsupportedOperationException if this compound is frozen
+     */
+    private Map<String, NBTTag> mutableValue() {
+        checkMutable();
+        if (value instanceof PersistentMap) {
+            Map<String, NBTTag> storage = newStorage(value.size());
+            storage.putAll(value);
+            value = storage;
+        }
+        return value;
+    }
+    
+    /**
+     * Creates empty mutable storage for the given amount of entries.
+     *
+     * @param size the expected size
+     * @return new storage
+     */
+    private Map<String, NBTTag> newStorage(int size) {
+        return size <= CompactMap.MAX_SIZE? new CompactMap(this) : new LinkedHashMap<>(size * 4 / 3 + 1);
+    }
+    
+    /**
+     * Replaces compact storage with a {@link LinkedHashMap} once it has grown too large.
+     */
+    private void promote() {
+        if (value instanceof CompactMap && value.size() > CompactMap.MAX_SIZE)
+            value = new LinkedHashMap<>(value);
+    }
+    
+    /**
+     * Returns the index of a value in compact storage if it is stored unboxed and of the given type.
+     *
+     * @param key the key
+     * @param type the type
+     * @return the index or -1
+     */
+    private int indexOfUnboxed(String key, NBTType type) {
+        return value instanceof CompactMap? ((CompactMap) value).indexOfUnboxed(key, type) : -1;
+    }
+    
+    /**
+     * Returns the tag with the given key without boxing it into compact storage.
+     *
+     * @param key the key
+     * @return the tag, which is temporary if it is stored unboxed, or null
+     * @see CompactMap#peek(int)
+     */
+    private NBTTag peek(String key) {
+        if (!(value instanceof CompactMap)) return value.get(key);
+        CompactMap map = (CompactMap) value;
+        int i = map.indexOf(key);
+        return i < 0? null : map.peek(i);
+    }
+    
+    /**
+     * Puts a primitive value into compact storage without boxing it.
+     *
+     * @param key the key
+     * @param type the type
+     * @param bits the bits of the value
+     * @return whether the value could be stored unboxed
+     */
+    private boolean putUnboxed(String key, NBTType type, long bits) {
+        if (!(value instanceof CompactMap) || frozen) return false;
+        NBTTag previous = ((CompactMap) value).putUnboxed(key, type, bits);
+        changed(previous, null);
+        promote();
+        return true;
+    }
+    
+    /**
+     * Replaces a frozen compound or list with a mutable copy if this compound is thawing.
+     *
+     * @param key the key of the tag
+     * @param tag the tag
+     * @return the tag or its mutable copy
+     */
+    private NBTTag thaw(String key, NBTTag tag) {
+        if (!thawing || tag == null || !tag.frozen || !(tag instanceof NBTCompound || tag instanceof NBTList))
+            return tag;
+        // the copy inherits the caches of the tag, which must be complete if this compound has cached its hash
+        if (hashed) tag.contentHash();
+        NBTTag copy = tag.toMutable();
+        mutableValue().put(key, copy);
+        adopt(copy);
+        return copy;
     }
     
     /**
@@ -310,7 +1023,8 @@ public final class NBTCompound extends NBTTag {
      * @param value the value
      */
     public void putByte(String key, byte value) {
-        put(key, new NBTByte(value));
+        if (!putUnboxed(key, NBTType.BYTE, value))
+            put(key, new NBTByte(value));
     }
     
     /**
@@ -320,7 +1034,8 @@ public final class NBTCompound extends NBTTag {
      * @param value the value
      */
     public void putDouble(String key, double value) {
-        put(key, new NBTDouble(value));
+        if (!putUnboxed(key, NBTType.DOUBLE, Double.doubleToRawLongBits(value)))
+            put(key, new NBTDouble(value));
     }
     
     /**
@@ -330,7 +1045,8 @@ public final class NBTCompound extends NBTTag {
      * @param value the value
      */
     public void putFloat(String key, float value) {
-        put(key, new NBTFloat(value));
+        if (!putUnboxed(key, NBTType.FLOAT, Float.floatToRawIntBits(value)))
+            put(key, new NBTFloat(value));
     }
     
     /**
@@ -360,7 +1076,8 @@ public final class NBTCompound extends NBTTag {
      * @param value the valu
      */
     public void putInt(String key, int value) {
-        put(key, new NBTInt(value));
+        if (!putUnboxed(key, NBTType.INT, value))
+            put(key, new NBTInt(value));
     }
     
     /**
@@ -370,7 +1087,8 @@ public final class NBTCompound extends NBTTag {
      * @param value the value
      */
     public void putLong(String key, long value) {
-        put(key, new NBTLong(value));
+        if (!putUnboxed(key, NBTType.LONG, value))
+            put(key, new NBTLong(value));
     }
     
     /**
@@ -380,7 +1098,8 @@ public final class NBTCompound extends NBTTag {
      * @param value the value
      */
     public void putShort(String key, short value) {
-        put(key, new NBTShort(value));
+        if (!putUnboxed(key, NBTType.SHORT, value))
+            put(key, new NBTShort(value));
     }
     
     /**
@@ -401,7 +1120,97 @@ public final class NBTCompound extends NBTTag {
      * @param action the action
      */
     public void forEach(BiConsumer<String, ? super NBTTag> action) {
-        this.value.forEach(action::accept);
+        if (thawing)
+            this.view.forEach(action::accept);
+        else
+            this.value.forEach(action::accept);
+    }
+    
+    /**
+     * <p>
+     *     Returns the entries of this compound for reading.
+     * </p>
+     * <p>
+     *     Unlike {@link #getValue()}, this does not box primitive values which are stored unboxed. Their tags are
+     *     temporary and frozen, so they must not be modified. Frozen compounds and lists of a thawing compound are not
+     *     copied either.
+     * </p>
+     *
+     * @return the entries of this compound
+     */
+    public Iterable<Map.Entry<String, NBTTag>> entries() {
+        if (value instanceof CompactMap) {
+            CompactMap map = (CompactMap) value;
+            return map::peekIterator;
+        }
+        return value.entrySet();
+    }
+    
+    // PERSISTENT OPERATIONS
+    
+    /**
+     * Freezes this compound and all of its descendants in place.
+     *
+     * @return this compound
+     * @see NBTTag#freeze()
+     */
+    @Override
+    public NBTCompound freeze() {
+        if (!frozen) freezeTree(this);
+        return this;
+    }
+    
+    @Override
+    void freezeContainer() {
+        if (!(value instanceof PersistentMap))
+            value = PersistentMap.of(entries(), value.size());
+        frozen = true;
+        thawing = false;
+        concurrent = false;
+    }
+    
+    @Override
+    public NBTCompound toMutable() {
+        if (!frozen) return this;
+        NBTCompound result = new NBTCompound((PersistentMap) value, false);
+        result.hash = hash;
+        result.hashed = hashed;
+        result.payload = payload;
+        return result;
+    }
+    
+    /**
+     * Returns a frozen copy of this frozen compound in which the given key is mapped to the given tag, which is
+     * frozen as well. The copy is created in {@code O(log n)} and shares all other entries with this compound.
+     *
+     * @param key the key
+     * @param tag the tag
+     * @return the modified copy
+     * @throws IllegalStateException if this compound is not frozen
+     */
+    public NBTCompound with(String key, NBTTag tag) {
+        checkFrozen();
+        Objects.requireNonNull(key);
+        PersistentMap result = ((PersistentMap) value).with(key, tag.freeze());
+        return result == value? this : new NBTCompound(result, true);
+    }
+    
+    /**
+     * Returns a frozen copy of this frozen compound in which the given key is not mapped. The copy is created in
+     * {@code O(log n)} and shares all other entries with this compound.
+     *
+     * @param key the key
+     * @return the modified copy
+     * @throws IllegalStateException if this compound is not frozen
+     */
+    public NBTCompound without(String key) {
+        checkFrozen();
+        PersistentMap result = ((PersistentMap) value).without(key);
+        return result == value? this : new NBTCompound(result, true);
+    }
+    
+    private void checkFrozen() {
+        if (!frozen) throw new IllegalStateException("compound is not frozen");
     }
     
     // MISC
@@ -412,26 +1221,232 @@ public final class NBTCompound extends NBTTag {
     }
     
     public boolean equals(NBTCompound tag) {
-        return this.isEmpty() && tag.isEmpty()
-            || this.value.equals(tag.value);
+        if (this == tag) return true;
+        if (this.size() != tag.size()) return false;
+        if (this.hashed && tag.hashed && this.hash != tag.hash) return false;
+        for (Map.Entry<String, NBTTag> entry : entries())
+            if (!entry.getValue().equals(tag.peek(entry.getKey()))) return false;
+        return true;
+    }
+    
+    @Override
+    public long contentHash() {
+        return hashed? hash : hashTree(this);
+    }
+    
+    @Override
+    Iterator<?> hashChildren() {
+        return entries().iterator();
+    }
+    
+    @Override
+    NBTTag hashChild(Object child) {
+        return (NBTTag) ((Map.Entry<?, ?>) child).getValue();
+    }
+    
+    @Override
+    long hashSeed() {
+        return 0;
+    }
+    
+    @Override
+    long combineHash(long sum, Object child, long hash) {
+        // the sum of entry hashes does not depend on the order of keys
+        return sum + mix(hash((String) ((Map.Entry<?, ?>) child).getKey()) * 0x9e3779b97f4a7c15L + hash);
+    }
+    
+    @Override
+    long completeHash(long sum, boolean cacheable) {
+        long result = hash(NBTType.COMPOUND, sum + value.size());
+        if (cacheable && !concurrent) {
+            this.hash = result;
+            this.hashed = true;
+        }
+        return result;
+    }
+    
+    @Override
+    boolean isHashStable() {
+        return hashed;
+    }
+    
+    @Override
+    public ByteBuffer getCachedPayload() {
+        return payload;
+    }
+    
+    @Override
+    public boolean cachePayload(ByteBuffer payload) {
+        if (concurrent) return false;
+        for (Map.Entry<String, NBTTag> entry : entries())
+            if (!isPayloadCacheable(entry.getValue())) return false;
+        this.payload = Objects.requireNonNull(payload);
+        return true;
+    }
+    
+    @Override
+    boolean isPayloadStable() {
+        return payload != null;
+    }
+    
+    @Override
+    boolean discardCache() {
+        boolean cached = hashed || payload != null;
+        hashed = false;
+        payload = null;
+        return cached;
     }
     
     @Override
     public String toMSONString() {
         StringBuilder builder = new StringBuilder("{");
-        Set<String> keys = this.value.keySet();
-    
-        for (String key : keys) {
+        
+        for (Map.Entry<String, NBTTag> entry : entries()) {
             if (builder.length() > 1) {
                 builder.append(',');
             }
+            String key = entry.getKey();
             builder
                 .append(SIMPLE_STRING.matcher(key).matches()? key : NBTString.toMSONString(key))
                 .append(':')
-                .append(this.value.get(key).toMSONString());
+                .append(entry.getValue().toMSONString());
         }
         
         return builder.append("}").toString();
     }
+    
+    /**
+     * A live view of the entries of a compound which routes all modifications through the compound.
+     */
+    private final class MapView extends AbstractMap<String, NBTTag> {
+        
+        private final Set<Map.Entry<String, NBTTag>> entries = new EntrySetView();
+        
+        @Override
+        public int size() {
+            return value.size();
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return value.containsKey(key);
+        }
+        
+        @Override
+        public NBTTag get(Object key) {
+            NBTTag tag = value.get(key);
+            return tag == null? null : thaw((String) key, tag);
+        }
+        
+        @Override
+        public NBTTag put(String key, NBTTag tag) {
+            return putTag(key, tag);
+        }
+        
+        @Override
+        public NBTTag remove(Object key) {
+            return key instanceof String? NBTCompound.this.remove((String) key) : null;
+        }
+        
+        @Override
+        public void clear() {
+            NBTCompound.this.clear();
+        }
+        
+        @Override
+        public Set<Map.Entry<String, NBTTag>> entrySet() {
+            return entries;
+        }
+    
+    }
+    
+    private final class EntrySetView extends AbstractSet<Map.Entry<String, NBTTag>> {
+        
+        @Override
+        public int size() {
+            return value.size();
+        }
+        
+        @Override
+        public Iterator<Map.Entry<String, NBTTag>> iterator() {
+            Map<String, NBTTag> storage = value;
+            Iterator<Map.Entry<String, NBTTag>> iterator = storage.entrySet().iterator();
+            
+            return new Iterator<Map.Entry<String, NBTTag>>() {
+                private Map.Entry<String, NBTTag> current;
+                
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                
+                @Override
+                public Map.Entry<String, NBTTag> next() {
+                    current = iterator.next();
+                    return new EntryView(current);
+                }
+                
+                @Override
+                public void remove() {
+                    if (current == null) throw new IllegalStateException();
+                    // persistent storage is replaced by the removal, but the iteration continues over the old storage
+                    if (storage != value || storage instanceof PersistentMap) {
+                        NBTCompound.this.remove(current.getKey());
+                    }
+                    else {
+                        checkMutable();
+                        iterator.remove();
+                        changed(current.getValue(), null);
+                    }
+                    current = null;
+                }
+            };
+        }
+    
+    }
+    
+    private final class EntryView implements Map.Entry<String, NBTTag> {
+        
+        private final Map.Entry<String, NBTTag> entry;
+        
+        private EntryView(Map.Entry<String, NBTTag> entry) {
+            this.entry = entry;
+        }
+        
+        @Override
+        public String getKey() {
+            return entry.getKey();
+        }
+        
+        @Override
+        public NBTTag getValue() {
+            // the entry may belong to storage which has been replaced since
+            return thawing? thaw(entry.getKey(), value.get(entry.getKey())) : entry.getValue();
+        }
+        
+        @Override
+        public NBTTag setValue(NBTTag tag) {
+            // replacing the value of an existing key does not invalidate iterators
+            return putTag(entry.getKey(), tag);
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
+            return getKey().equals(entry.getKey()) && getValue().equals(entry.getValue());
+        }
+        
+        @Override
+        public int hashCode() {
+            return entry.hashCode();
+        }
+        
+        @Override
+        public String toString() {
+            return entry.toString();
+        }
+    
+    }
 
 }
@@ -0,0 +1,537 @@
+package eisenwave.nbt;
+
+import java.util.*;
+
+/**
+ * <p>
+ *     A patch which transforms one tag into another.
+ * </p>
+ * <p>
+ *     Patches are computed using {@link #compute(NBTTag, NBTTag)} and consist of a sequence of {@link Edit edits}
+ *     which put or remove compound entries, splice lists and splice arrays. Subtrees with different
+ *     {@link NBTTag#contentHash() content hashes} are known to be changed without being compared, subtrees with equal
+ *     hashes are compared before they are skipped, since different tags may have the same hash.
+ * </p>
+ * <p>
+ *     Patches are immutable and contain copies of all tags, so they remain valid if the tags which they have been
+ *     computed from are modified.
+ * </p>
+ */
+public final class NBTDiff implements Iterable<NBTDiff.Edit> {
+    
+    private final List<Edit> edits;
+    
+    /**
+     * Constructs a new patch from a sequence of edits.
+     *
+     * @param edits the edits
+     */
+    public NBTDiff(List<Edit> edits) {
+        this.edits = Collections.unmodifiableList(new ArrayList<>(edits));
+    }
+    
+    // GETTERS
+    
+    /**
+     * Returns an immutable list of the edits of this patch in the order in which they are applied.
+     *
+     * @return the edits
+     */
+    public List<Edit> getEdits() {
+        return edits;
+    }
+    
+    /**
+     * Returns the amount of edits in this patch.
+     *
+     * @return the amount of edits
+     */
+    public int size() {
+        return edits.size();
+    }
+    
+    /**
+     * Returns whether this patch contains no edits, meaning that the tags it was computed from are equal.
+     *
+     * @return whether this patch is empty
+     */
+    public boolean isEmpty() {
+        return edits.isEmpty();
+    }
+    
+    @Override
+    public Iterator<Edit> iterator() {
+        return edits.iterator();
+    }
+    
+    // COMPUTATION
+    
+    /**
+     * Computes a patch which transforms one tag into another.
+     *
+     * @param before the original tag
+     * @param after the modified tag
+     * @return the patch
+     */
+    public static NBTDiff compute(NBTTag before, NBTTag after) {
+        List<Edit> edits = new ArrayList<>();
+        diff(Objects.requireNonNull(before), Objects.requireNonNull(after), new ArrayList<>(), edits);
+        return new NBTDiff(edits);
+    }
+    
+    private static void diff(NBTTag before, NBTTag after, List<Object> path, List<Edit> edits) {
+        if (unchanged(before, after)) return;
+        
+        NBTType type = before.getType();
+        if (type != after.getType()) {
+            edits.add(new Edit(Operation.PUT, path, 0, 0, after));
+            return;
+        }
+        switch (type) {
+            case COMPOUND: diffCompound((NBTCompound) before, (NBTCompound) after, path, edits); break;
+            case LIST: diffList((NBTList) before, (NBTList) after, path, edits); break;
+            case BYTE_ARRAY:
+            case INT_ARRAY:
+            case LONG_ARRAY: diffArray(before, after, path, edits); break;
+            default: edits.add(new Edit(Operation.PUT, path, 0, 0, after));
+        }
+    }
+    
+    /**
+     * Returns whether two tags are equal, using their content hashes to rule out equality quickly.
+     */
+    private static boolean unchanged(NBTTag before, NBTTag after) {
+        return before == after || before.contentHash() == after.contentHash() && before.equals(after);
+    }
+    
+    private static void diffCompound(NBTCompound before, NBTCompound after, List<Object> path, List<Edit> edits) {
+        Map<String, NBTTag> beforeMap = before.getValue(), afterMap = after.getValue();
+        for (String key : beforeMap.keySet()) {
+            if (!afterMap.containsKey(key))
+                edits.add(new Edit(Operation.REMOVE, child(path, key), 0, 0, null));
+        }
+        for (Map.Entry<String, NBTTag> entry : afterMap.entrySet()) {
+            NBTTag previous = beforeMap.get(entry.getKey());
+            if (previous == null)
+                edits.add(new Edit(Operation.PUT, child(path, entry.getKey()), 0, 0, entry.getValue()));
+            else
+                diff(previous, entry.getValue(), child(path, entry.getKey()), edits);
+        }
+    }
+    
+    private static void diffList(NBTList before, NBTList after, List<Object> path, List<Edit> edits) {
+        if (before.getElementType() != after.getElementType()) {
+            edits.add(new Edit(Operation.PUT, path, 0, 0, after));
+            return;
+        }
+        int beforeSize = before.size(), afterSize = after.size();
+        int min = Math.min(beforeSize, afterSize);
+        
+        int prefix = 0;
+        while (prefix < min && unchanged(before.get(prefix), after.get(prefix)))
+            prefix++;
+        int suffix = 0;
+        while (suffix < min - prefix
+            && unchanged(before.get(beforeSize - suffix - 1), after.get(afterSize - suffix - 1)))
+            suffix++;
+        
+        int deleted = beforeSize - prefix - suffix, inserted = afterSize - prefix - suffix;
+        if (deleted == inserted) {
+            // same length, the changed elements are diffed individually
+            for (int i = prefix; i < prefix + deleted; i++)
+                diff(before.get(i), after.get(i), child(path, i), edits);
+        }
+        else {
+            NBTList insertion = new NBTList(after.getElementType());
+            for (int i = prefix; i < prefix + inserted; i++)
+                insertion.add(after.get(i));
+            edits.add(new Edit(Operation.SPLICE, path, prefix, deleted, insertion));
+        }
+    }
+    
+    private static void diffArray(NBTTag before, NBTTag after, List<Object> path, List<Edit> edits) {
+        int beforeSize = arrayLength(before), afterSize = arrayLength(after);
+        int min = Math.min(beforeSize, afterSize);
+        
+        int prefix = 0;
+        while (prefix < min && arrayEquals(before, prefix, after, prefix))
+            prefix++;
+        int suffix = 0;
+        while (suffix < min - prefix && arrayEquals(before, beforeSize - suffix - 1, after, afterSize - suffix - 1))
+            suffix++;
+        
+        int deleted = beforeSize - prefix - suffix;
+        NBTTag insertion = subArray(after, prefix, afterSize - suffix);
+        edits.add(new Edit(Operation.ARRAY_SPLICE, path, prefix, deleted, insertion));
+    }
+    
+    // APPLICATION
+    
+    /**
+     * <p>
+     *     Applies a patch to a tag in place.
+     * </p>
+     * <p>
+     *     The tag is modified directly, except if the patch replaces the tag as a whole or if the tag is an array which
+     *     is spliced. The result of the patch is returned in any case.
+     * </p>
+     *
+     * @param diff the patch
+     * @param tag the tag to be patched
+     * @return the patched tag
+     * @throws IllegalArgumentException if the patch can not be applied to the tag
+     */
+    public static NBTTag apply(NBTDiff diff, NBTTag tag) {
+        for (Edit edit : diff.edits)
+            tag = apply(edit, tag);
+        return tag;
+    }
+    
+    private static NBTTag apply(Edit edit, NBTTag root) {
+        Object[] path = edit.path;
+        if (path.length == 0) {
+            return edit.operation == Operation.PUT? copy(edit.tag) : applyToTarget(edit, root);
+        }
+        
+        NBTTag parent = root;
+        for (int i = 0; i < path.length - 1; i++)
+            parent = resolve(parent, path[i]);
+        Object last = path[path.length - 1];
+        
+        switch (edit.operation) {
+            case PUT: {
+                replace(parent, last, copy(edit.tag));
+                break;
+            }
+            case REMOVE: {
+                if (!(parent instanceof NBTCompound) || !(last instanceof String))
+                    throw new IllegalArgumentException("can not remove " + last + " from " + parent.getType());
+                ((NBTCompound) parent).remove((String) last);
+                break;
+            }
+            default: {
+                NBTTag target = resolve(parent, last);
+                NBTTag result = applyToTarget(edit, target);
+                if (result != target) replace(parent, last, result);
+            }
+        }
+        return root;
+    }
+    
+    private static NBTTag applyToTarget(Edit edit, NBTTag target) {
+        if (edit.operation == Operation.SPLICE) {
+            if (!(target instanceof NBTList))
+                throw new IllegalArgumentException("can not splice " + target.getType());
+            NBTList list = (NBTList) target;
+            if (edit.index < 0 || edit.deleteCount < 0 || edit.index + edit.deleteCount > list.size())
+                throw new IllegalArgumentException(
+                    "splice " + edit.index + "+" + edit.deleteCount + " out of bounds " + list.size());
+            for (int i = 0; i < edit.deleteCount; i++)
+                list.remove(edit.index);
+            int index = edit.index;
+            for (NBTTag element : (NBTList) edit.tag)
+                list.add(index++, copy(element));
+            return list;
+        }
+        if (edit.operation == Operation.ARRAY_SPLICE) {
+            if (target.getType() != edit.tag.getType())
+                throw new IllegalArgumentException(
+                    "can not splice " + edit.tag.getType() + " into " + target.getType());
+            return spliceArray(target, edit.index, edit.deleteCount, edit.tag);
+        }
+        throw new IllegalArgumentException(edit.operation + " requires a non-empty path");
+    }
+    
+    private static NBTTag resolve(NBTTag parent, Object key) {
+        NBTTag result = null;
+        if (parent instanceof NBTCompound && key instanceof String)
+            result = ((NBTCompound) parent).getValue().get(key);
+        else if (parent instanceof NBTList && key instanceof Integer) {
+            int index = (Integer) key;
+            if (index >= 0 && index < ((NBTList) parent).size())
+                result = ((NBTList) parent).get(index);
+        }
+        if (result == null)
+            throw new IllegalArgumentException("no element " + key + " in " + parent.getType());
+        return result;
+    }
+    
+    private static void replace(NBTTag parent, Object key, NBTTag tag) {
+        if (parent instanceof NBTCompound && key instanceof String)
+            ((NBTCompound) parent).put((String) key, tag);
+        else if (parent instanceof NBTList && key instanceof Integer) {
+            resolve(parent, key);
+            ((NBTList) parent).set((Integer) key, tag);
+        }
+        else
+            throw new IllegalArgumentException("can not put " + key + " into " + parent.getType());
+    }
+    
+    // ARRAYS
+    
+    private static int arrayLength(NBTTag array) {
+        switch (array.getType()) {
+            case BYTE_ARRAY: return ((NBTByteArray) array).length();
+            case INT_ARRAY: return ((NBTIntArray) array).length();
+            case LONG_ARRAY: return ((NBTLongArray) array).length();
+            default: throw new AssertionError(array.getType());
+        }
+    }
+    
+    private static boolean arrayEquals(NBTTag a, int i, NBTTag b, int j) {
+        switch (a.getType()) {
+            case BYTE_ARRAY: return ((NBTByteArray) a).getValue()[i] == ((NBTByteArray) b).getValue()[j];
+            case INT_ARRAY: return ((NBTIntArray) a).getValue()[i] == ((NBTIntArray) b).getValue()[j];
+            case LONG_ARRAY: return ((NBTLongArray) a).getValue()[i] == ((NBTLongArray) b).getValue()[j];
+            default: throw new AssertionError(a.getType());
+        }
+    }
+    
+    private static NBTTag subArray(NBTTag array, int from, int to) {
+        switch (array.getType()) {
+            case BYTE_ARRAY: return new NBTByteArray(Arrays.copyOfRange(((NBTByteArray) array).getValue(), from, to));
+            case INT_ARRAY: return new NBTIntArray(Arrays.copyOfRange(((NBTIntArray) array).getValue(), from, to));
+            case LONG_ARRAY: return new NBTLongArray(Arrays.copyOfRange(((NBTLongArray) array).getValue(), from, to));
+            default: throw new AssertionError(array.getType());
+        }
+    }
+    
+    private static NBTTag spliceArray(NBTTag target, int index, int deleteCount, NBTTag insertion) {
+        int length = arrayLength(target), inserted = arrayLength(insertion);
+        if (index < 0 || deleteCount < 0 || index + deleteCount > length)
+            throw new IllegalArgumentException("splice " + index + "+" + deleteCount + " out of bounds " + length);
+        Object source = target.getValue(), result;
+        switch (target.getType()) {
+            case BYTE_ARRAY: result = new byte[length - deleteCount + inserted]; break;
+            case INT_ARRAY: result = new int[length - deleteCount + inserted]; break;
+            case LONG_ARRAY: result = new long[length - deleteCount + inserted]; break;
+            default: throw new AssertionError(target.getType());
+        }
+        System.arraycopy(source, 0, result, 0, index);
+        System.arraycopy(insertion.getValue(), 0, result, index, inserted);
+        System.arraycopy(source, index + deleteCount, result, index + inserted, length - index - deleteCount);
+        
+        switch (target.getType()) {
+            case BYTE_ARRAY: return new NBTByteArray((byte[]) result);
+            case INT_ARRAY: return new NBTIntArray((int[]) result);
+            default: return new NBTLongArray((long[]) result);
+        }
+    }
+    
+    // UTIL
+    
+    private static List<Object> child(List<Object> path, Object key) {
+        List<Object> result = new ArrayList<>(path.size() + 1);
+        result.addAll(path);
+        result.add(key);
+        return result;
+    }
+    
+    /**
+     * Returns a deep copy of a tag. Descendants are copied on an explicit stack instead of the call stack, so that the
+     * depth of the tree is not limited. Frozen compounds and lists of a thawing tag are not thawed by copying it.
+     *
+     * @param tag the tag
+     * @return the copy
+     */
+    private static NBTTag copy(NBTTag tag) {
+        NBTTag result = copyShallow(tag);
+        if (result == tag || !(tag instanceof NBTCompound || tag instanceof NBTList)) return result;
+        
+        Deque<Copy> stack = new ArrayDeque<>();
+        stack.push(new Copy(tag, result));
+        while (!stack.isEmpty()) {
+            Copy top = stack.peek();
+            NBTTag child;
+            if (top.entries != null) {
+                if (!top.entries.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Map.Entry<String, NBTTag> entry = top.entries.next();
+                child = entry.getValue();
+                NBTTag copy = copyShallow(child);
+                ((NBTCompound) top.target).put(entry.getKey(), copy);
+                if (child instanceof NBTCompound || child instanceof NBTList) stack.push(new Copy(child, copy));
+            }
+            else {
+                NBTList list = (NBTList) top.source;
+                if (top.index == list.size()) {
+                    stack.pop();
+                    continue;
+                }
+                child = list.peek(top.index++);
+                NBTTag copy = copyShallow(child);
+                ((NBTList) top.target).append(copy);
+                if (child instanceof NBTCompound || child instanceof NBTList) stack.push(new Copy(child, copy));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns a copy of a tag, which is empty if the tag is a compound or list.
+     *
+     * @param tag the tag
+     * @return the copy
+     */
+    private static NBTTag copyShallow(NBTTag tag) {
+        switch (tag.getType()) {
+            case END: return tag;
+            case BYTE: return new NBTByte(((NBTByte) tag).getByteValue());
+            case SHORT: return new NBTShort(((NBTShort) tag).getShortValue());
+            case INT: return new NBTInt(((NBTInt) tag).getIntValue());
+            case LONG: return new NBTLong(((NBTLong) tag).getLongValue());
+            case FLOAT: return new NBTFloat(((NBTFloat) tag).getFloatValue());
+            case DOUBLE: return new NBTDouble(((NBTDouble) tag).getDoubleValue());
+            case STRING: return new NBTString(((NBTString) tag).getValue());
+            case BYTE_ARRAY: return new NBTByteArray(((NBTByteArray) tag).getValue().clone());
+            case INT_ARRAY: return new NBTIntArray(((NBTIntArray) tag).getValue().clone());
+            case LONG_ARRAY: return new NBTLongArray(((NBTLongArray) tag).getValue().clone());
+            case LIST: return new NBTList(((NBTList) tag).getElementType());
+            case COMPOUND: return new NBTCompound();
+            default: throw new AssertionError(tag.getType());
+        }
+    }
+    
+    /**
+     * A compound or list which is being copied, with its remaining entries or the index of its next element.
+     */
+    private static final class Copy {
+        
+        private final NBTTag source, target;
+        private final Iterator<Map.Entry<String, NBTTag>> entries;
+        private int index;
+        
+        private Copy(NBTTag source, NBTTag target) {
+            this.source = source;
+            this.target = target;
+            this.entries = source instanceof NBTCompound? ((NBTCompound) source).entries().iterator() : null;
+        }
+    
+    }
+    
+    /**
+     * The operation of an {@link Edit}.
+     */
+    public enum Operation {
+        /**
+         * Puts a tag into a compound, replaces an element of a list or replaces the tag as a whole if the path is
+         * empty.
+         */
+        PUT,
+        /**
+         * Removes an entry from a compound.
+         */
+        REMOVE,
+        /**
+         * Removes a range of elements from a list and inserts other elements at the same index.
+         */
+        SPLICE,
+        /**
+         * Removes a range of values from a {@link NBTType#isArray() array} and inserts other values at the same index.
+         */
+        ARRAY_SPLICE
+    }
+    
+    /**
+     * <p>
+     *     A single edit of a patch.
+     * </p>
+     * <p>
+     *     The path of an edit consists of compound keys ({@link String}) and list indices ({@link Integer}) which
+     *     lead from the root tag to the edited tag. {@link Operation#PUT} and {@link Operation#REMOVE} edit the last
+     *     element of the path inside its parent, {@link Operation#SPLICE} and {@link Operation#ARRAY_SPLICE} edit the
+     *     list or array at the path.
+     * </p>
+     */
+    public static final class Edit {
+        
+        private final Operation operation;
+        private final Object[] path;
+        private final int index, deleteCount;
+        private final NBTTag tag;
+        
+        /**
+         * Constructs a new edit.
+         *
+         * @param operation the operation
+         * @param path the path, consisting of strings and integers
+         * @param index the index of a splice
+         * @param deleteCount the amount of removed elements of a splice
+         * @param tag the put tag, the inserted {@link NBTList} of a list splice, the inserted array of an array splice
+         * or null for removals
+         */
+        public Edit(Operation operation, List<?> path, int index, int deleteCount, NBTTag tag) {
+            this.operation = Objects.requireNonNull(operation);
+            this.path = path.toArray();
+            for (Object key : this.path)
+                if (!(key instanceof String || key instanceof Integer))
+                    throw new IllegalArgumentException("invalid path element: " + key);
+            this.index = index;
+            this.deleteCount = deleteCount;
+            this.tag = tag == null? null : copy(tag).freeze();
+            if (operation != Operation.REMOVE && tag == null)
+                throw new IllegalArgumentException(operation + " requires a tag");
+            if (operation == Operation.SPLICE && !(tag instanceof NBTList))
+                throw new IllegalArgumentException("SPLICE requires a list");
+            if (operation == Operation.ARRAY_SPLICE && !tag.getType().isArray())
+                throw new IllegalArgumentException("ARRAY_SPLICE requires an array");
+        }
+        
+        /**
+         * Returns the operation of this edit.
+         *
+         * @return the operation
+         */
+        public Operation getOperation() {
+            return operation;
+        }
+        
+        /**
+         * Returns an immutable list of the path of this edit.
+         *
+         * @return the path
+         */
+        public List<Object> getPath() {
+            return Collections.unmodifiableList(Arrays.asList(path));
+        }
+        
+        /**
+         * Returns the index of a splice.
+         *
+         * @return the index
+         */
+        public int getIndex() {
+            return index;
+        }
+        
+        /**
+         * Returns the amount of elements removed by a splice.
+         *
+         * @return the amount of removed elements
+         */
+        public int getDeleteCount() {
+            return deleteCount;
+        }
+        
+        /**
+         * Returns the tag of this edit or null if this edit is a removal. The tag is a frozen copy of the tag which
+         * this edit has been constructed with, so it can be shared without being copied again.
+         *
+         * @return the frozen tag
+         */
+        public NBTTag getTag() {
+            return tag;
+        }
+        
+        @Override
+        public String toString() {
+            return operation + " " + Arrays.toString(path) + (operation == Operation.SPLICE
+                || operation == Operation.ARRAY_SPLICE? " " + index + "+" + deleteCount : "")
+                + (tag == null? "" : " " + tag.toMSONString());
+        }
+    
+    }
+
+}
@@ -22,7 +22,9 @@ public final class NBTDouble extends NBTTag implements Cloneable {
     }
     
     public void setDoubleValue(double value) {
+        checkMutable();
         this.value = value;
+        modified();
     }
     
     @Override
@@ -43,7 +45,13 @@ public final class NBTDouble extends NBTTag implements Cloneable {
     
     @Override
     public int hashCode() {
-        return Double.hashCode(value);
+        // zeros of both signs are equal
+        return value == 0? 0 : Double.hashCode(value);
+    }
+    
+    @Override
+    public long contentHash() {
+        return hash(NBTType.DOUBLE, value == 0? 0 : Double.doubleToLongBits(value));
     }
     
     @Override
@@ -51,6 +59,11 @@ public final class NBTDouble extends NBTTag implements Cloneable {
         return value+"d";
     }
     
+    @Override
+    public NBTDouble toMutable() {
+        return frozen? clone() : this;
+    }
+    
     @Override
     public NBTDouble clone() {
         return new NBTDouble(value);
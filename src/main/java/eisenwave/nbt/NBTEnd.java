@@ -26,6 +26,21 @@ public final class NBTEnd extends NBTTag implements Cloneable {
         return obj instanceof NBTEnd;
     }
 
+    @Override
+    public long contentHash() {
+        return hash(NBTType.END, 0);
+    }
+    
+    @Override
+    boolean isTracked() {
+        return false;
+    }
+    
+    @Override
+    public NBTEnd toMutable() {
+        return this;
+    }
+    
     @Override
     public String toMSONString() {
         return "END";
@@ -21,7 +21,9 @@ public final class NBTFloat extends NBTTag implements Cloneable {
     }
     
     public void setFloatValue(float value) {
+        checkMutable();
         this.value = value;
+        modified();
     }
     
     @Override
@@ -42,7 +44,13 @@ public final class NBTFloat extends NBTTag implements Cloneable {
     
     @Override
     public int hashCode() {
-        return Float.hashCode(value);
+        // zeros of both signs are equal
+        return value == 0? 0 : Float.hashCode(value);
+    }
+    
+    @Override
+    public long contentHash() {
+        return hash(NBTType.FLOAT, value == 0? 0 : Float.floatToIntBits(value));
     }
     
     @Override
@@ -50,6 +58,11 @@ public final class NBTFloat extends NBTTag implements Cloneable {
         return value+"f";
     }
     
+    @Override
+    public NBTFloat toMutable() {
+        return frozen? clone() : this;
+    }
+    
     @Override
     public NBTFloat clone() {
         return new NBTFloat(value);
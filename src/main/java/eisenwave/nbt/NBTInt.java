@@ -5,12 +5,32 @@ package eisenwave.nbt;
  */
 public final class NBTInt extends NBTTag implements Cloneable {
 
+    private final static int CACHE_LOW = -128, CACHE_HIGH = 1024;
+    private final static NBTInt[] CACHE = new NBTInt[CACHE_HIGH - CACHE_LOW];
+    
+    static {
+        for (int i = 0; i < CACHE.length; i++)
+            CACHE[i] = (NBTInt) new NBTInt(i + CACHE_LOW).freeze();
+    }
+    
     private int value;
     
     public NBTInt(int value) {
         this.value = value;
     }
     
+    /**
+     * Returns a frozen int tag with the given value. Tags of small values are cached and shared.
+     *
+     * @param value the value
+     * @return a frozen tag
+     */
+    public static NBTInt valueOf(int value) {
+        if (value >= CACHE_LOW && value < CACHE_HIGH)
+            return CACHE[value - CACHE_LOW];
+        return (NBTInt) new NBTInt(value).freeze();
+    }
+    
     @Override
     public Integer getValue() {
         return value;
@@ -21,7 +41,9 @@ public final class NBTInt extends NBTTag implements Cloneable {
     }
     
     public void setIntValue(int value) {
+        checkMutable();
         this.value = value;
+        modified();
     }
     
     @Override
@@ -45,11 +67,21 @@ public final class NBTInt extends NBTTag implements Cloneable {
         return Integer.hashCode(value);
     }
     
+    @Override
+    public long contentHash() {
+        return hash(NBTType.INT, value);
+    }
+    
     @Override
     public String toMSONString() {
         return Integer.toString(value);
     }
     
+    @Override
+    public NBTInt toMutable() {
+        return frozen? clone() : this;
+    }
+    
     @Override
     public NBTInt clone() {
         return new NBTInt(value);
@@ -34,6 +34,12 @@ public final class NBTIntArray extends NBTTag implements Cloneable {
         return value.length;
     }
     
+    /**
+     * Returns the array of this tag. Modifications of the array are not tracked, so the array should not be modified
+     * while this tag is part of a compound or list whose hash may be cached.
+     *
+     * @return the array of this tag
+     */
     @Override
     public int[] getValue() {
         return value;
@@ -55,6 +61,29 @@ public final class NBTIntArray extends NBTTag implements Cloneable {
         return Arrays.equals(this.value, tag.value);
     }
     
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(value);
+    }
+    
+    @Override
+    public long contentHash() {
+        long hash = value.length;
+        for (int i = 0; i < value.length; i++)
+            hash = hash * 0x100000001b3L + value[i];
+        return hash(NBTType.INT_ARRAY, hash);
+    }
+    
+    @Override
+    boolean isTracked() {
+        return false;
+    }
+    
+    @Override
+    public NBTIntArray toMutable() {
+        return frozen? new NBTIntArray(value.clone()) : this;
+    }
+    
     @Override
     public String toMSONString() {
         StringBuilder stringbuilder = new StringBuilder("[I;");
@@ -0,0 +1,258 @@
+package eisenwave.nbt;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * <p>
+ *     A table of canonical frozen tags which deduplicates identical subtrees across documents.
+ * </p>
+ * <p>
+ *     Interning a tag freezes it and replaces it and each of its descendants with the canonical instance of an
+ *     identical tag which has been interned before. Identical enchantment lists, item stacks or attributes thereby
+ *     share a single instance no matter how many documents contain them. Tags are identical if they are serialized
+ *     to the same bytes, so unlike {@link NBTTag#equals(Object)}, zeros of different signs and empty lists of
+ *     different types are kept apart.
+ * </p>
+ * <p>
+ *     Canonical tags are looked up by their {@link NBTTag#contentHash() content hash} and only weakly referenced, so
+ *     they are removed from the table once no document uses them anymore. Interners are thread-safe.
+ * </p>
+ */
+public class NBTInterner {
+    
+    private final Map<Long, List<Entry>> table = new HashMap<>();
+    private final ReferenceQueue<NBTTag> queue = new ReferenceQueue<>();
+    private int size;
+    
+    // the containers which are being canonicalized, their remaining children, the child which is being
+    // canonicalized, the copy with replaced children or null and the index of the next child
+    private NBTTag[] containers = new NBTTag[16];
+    private Iterator<?>[] children = new Iterator<?>[16];
+    private Object[] pending = new Object[16];
+    private Object[] results = new Object[16];
+    private int[] indices = new int[16];
+    private int depth;
+    
+    /**
+     * Interns a tag and all of its descendants. The tag is frozen in place, the returned tag may be a different
+     * instance which is identical to it.
+     *
+     * @param tag the tag
+     * @param <T> the type of tag
+     * @return the canonical tag
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends NBTTag> T intern(T tag) {
+        expunge();
+        try {
+            return (T) canonicalize(tag.freeze());
+        } finally {
+            // only an interrupted canonicalization leaves containers on the stack
+            Arrays.fill(containers, 0, depth, null);
+            Arrays.fill(children, 0, depth, null);
+            Arrays.fill(pending, 0, depth, null);
+            Arrays.fill(results, 0, depth, null);
+            depth = 0;
+        }
+    }
+    
+    /**
+     * Returns the amount of canonical tags in this table, including ones which are no longer used but have not been
+     * removed yet.
+     *
+     * @return the amount of canonical tags
+     */
+    public synchronized int size() {
+        expunge();
+        return size;
+    }
+    
+    /**
+     * Replaces a tag and its descendants with canonical tags. Descendants are canonicalized in post-order on an
+     * explicit stack instead of the call stack, so that the depth of the tree is not limited.
+     *
+     * @param root the frozen tag
+     * @return the canonical tag
+     */
+    private NBTTag canonicalize(NBTTag root) {
+        if (!isContainer(root)) return lookup(root);
+        push(root);
+        while (true) {
+            int top = depth - 1;
+            if (children[top].hasNext()) {
+                Object child = children[top].next();
+                NBTTag tag = containers[top].hashChild(child);
+                if (isContainer(tag)) {
+                    pending[top] = child;
+                    push(tag);
+                }
+                else replace(top, child, tag, lookup(tag));
+                continue;
+            }
+            
+            NBTTag canonical = lookup(complete(top));
+            containers[top] = null;
+            children[top] = null;
+            results[top] = null;
+            if (--depth == 0) return canonical;
+            
+            Object child = pending[depth - 1];
+            pending[depth - 1] = null;
+            replace(depth - 1, child, containers[depth - 1].hashChild(child), canonical);
+        }
+    }
+    
+    private static boolean isContainer(NBTTag tag) {
+        return tag instanceof NBTCompound || tag instanceof NBTList;
+    }
+    
+    // STACK
+    
+    private void push(NBTTag container) {
+        if (depth == containers.length) {
+            int capacity = depth * 2;
+            containers = Arrays.copyOf(containers, capacity);
+            children = Arrays.copyOf(children, capacity);
+            pending = Arrays.copyOf(pending, capacity);
+            results = Arrays.copyOf(results, capacity);
+            indices = Arrays.copyOf(indices, capacity);
+        }
+        containers[depth] = container;
+        children[depth] = container.hashChildren();
+        indices[depth++] = 0;
+    }
+    
+    /**
+     * Records the canonical tag of a child of a container on the stack. The container is copied as soon as the first
+     * of its children is replaced.
+     *
+     * @param frame the frame of the container
+     * @param child the child as returned by {@link NBTTag#hashChildren()}
+     * @param tag the tag of the child
+     * @param canonical the canonical tag of the child
+     */
+    @SuppressWarnings("unchecked")
+    private void replace(int frame, Object child, NBTTag tag, NBTTag canonical) {
+        int index = indices[frame]++;
+        if (containers[frame] instanceof NBTList) {
+            NBTList list = (NBTList) containers[frame];
+            if (canonical != tag && results[frame] == null) {
+                // copy the elements which have been visited so far, they are canonical already
+                List<NBTTag> elements = new ArrayList<>(list.size());
+                for (int i = 0; i < index; i++)
+                    elements.add(list.peek(i));
+                results[frame] = elements;
+            }
+            if (results[frame] != null) ((List<NBTTag>) results[frame]).add(canonical);
+        }
+        else {
+            NBTCompound compound = (NBTCompound) containers[frame];
+            String key = ((Map.Entry<String, ?>) child).getKey();
+            if (canonical != tag && results[frame] == null) {
+                // copy the entries which have been visited so far, they are canonical already
+                NBTCompound result = new NBTCompound(compound.size());
+                for (Map.Entry<String, NBTTag> previous : compound.entries()) {
+                    if (previous.getKey().equals(key)) break;
+                    result.put(previous.getKey(), previous.getValue());
+                }
+                results[frame] = result;
+            }
+            if (results[frame] != null) ((NBTCompound) results[frame]).put(key, canonical);
+        }
+    }
+    
+    /**
+     * Returns the container on the stack with its canonical children, which is a frozen copy if any child has been
+     * replaced.
+     *
+     * @param frame the frame of the container
+     * @return the container with canonical children
+     */
+    @SuppressWarnings("unchecked")
+    private NBTTag complete(int frame) {
+        NBTTag container = containers[frame];
+        if (results[frame] == null) return container;
+        if (container instanceof NBTList)
+            return new NBTList(((NBTList) container).getElementType(), (List<NBTTag>) results[frame]).freeze();
+        return ((NBTCompound) results[frame]).freeze();
+    }
+    
+    // TABLE
+    
+    /**
+     * Returns the canonical tag which is identical to the given tag, whose descendants must be canonical, or adds the
+     * tag to the table if there is none.
+     *
+     * @param tag the tag
+     * @return the canonical tag
+     */
+    private NBTTag lookup(NBTTag tag) {
+        if (tag.getType() == NBTType.END) return tag;
+        long hash = tag.contentHash();
+        List<Entry> bucket = table.computeIfAbsent(hash, h -> new ArrayList<>(1));
+        for (Entry entry : bucket) {
+            NBTTag canonical = entry.get();
+            if (canonical != null && identical(canonical, tag)) return canonical;
+        }
+        bucket.add(new Entry(tag, hash, queue));
+        size++;
+        return tag;
+    }
+    
+    /**
+     * Returns whether two tags are serialized to the same bytes, given that the descendants of both are canonical.
+     */
+    private static boolean identical(NBTTag a, NBTTag b) {
+        if (a.getClass() != b.getClass()) return false;
+        switch (a.getType()) {
+            case FLOAT:
+                return Float.floatToRawIntBits(((NBTFloat) a).getFloatValue())
+                    == Float.floatToRawIntBits(((NBTFloat) b).getFloatValue());
+            case DOUBLE:
+                return Double.doubleToRawLongBits(((NBTDouble) a).getDoubleValue())
+                    == Double.doubleToRawLongBits(((NBTDouble) b).getDoubleValue());
+            case LIST: {
+                NBTList x = (NBTList) a, y = (NBTList) b;
+                if (x.getElementType() != y.getElementType() || x.size() != y.size()) return false;
+                for (int i = 0; i < x.size(); i++)
+                    if (x.get(i) != y.get(i)) return false;
+                return true;
+            }
+            case COMPOUND: {
+                NBTCompound x = (NBTCompound) a, y = (NBTCompound) b;
+                if (x.size() != y.size()) return false;
+                Iterator<Map.Entry<String, NBTTag>> iterator = y.entries().iterator();
+                for (Map.Entry<String, NBTTag> entry : x.entries()) {
+                    Map.Entry<String, NBTTag> other = iterator.next();
+                    if (!entry.getKey().equals(other.getKey()) || entry.getValue() != other.getValue()) return false;
+                }
+                return true;
+            }
+            default: return a.equals(b);
+        }
+    }
+    
+    private void expunge() {
+        for (Entry entry; (entry = (Entry) queue.poll()) != null; ) {
+            List<Entry> bucket = table.get(entry.hash);
+            if (bucket != null && bucket.remove(entry)) {
+                size--;
+                if (bucket.isEmpty()) table.remove(entry.hash);
+            }
+        }
+    }
+    
+    private static final class Entry extends WeakReference<NBTTag> {
+        
+        private final long hash;
+        
+        private Entry(NBTTag tag, long hash, ReferenceQueue<NBTTag> queue) {
+            super(tag, queue);
+            this.hash = hash;
+        }
+    
+    }
+
+}
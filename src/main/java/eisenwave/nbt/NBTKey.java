@@ -0,0 +1,85 @@
+package eisenwave.nbt;
+
+import java.util.Objects;
+
+/**
+ * <p>
+ *     A handle of a compound key for repeated lookups in many compounds.
+ * </p>
+ * <p>
+ *     A key remembers the slot at which it has last been found in a compound. Compounds which share their shape, such
+ *     as all elements of a list of items, store the key at the same slot, so looking up the key in such a compound only
+ *     compares the key at the remembered slot. Otherwise the key is looked up by its name in the shape, which
+ *     compares the keys of small shapes one by one and hashes the name for large shapes.
+ * </p>
+ * <p>
+ *     Keys are thread-safe and are typically stored in constants:
+ *     <blockquote>
+ *         <code>static final NBTKey HEALTH = NBTKey.of("Health");</code>
+ *     </blockquote>
+ * </p>
+ */
+public final class NBTKey {
+    
+    private final String name;
+    
+    // a racy hint which is validated against the shape before it is used
+    private int slot;
+    
+    private NBTKey(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Returns a key handle for the given name.
+     *
+     * @param name the name of the key
+     * @return a new key
+     */
+    public static NBTKey of(String name) {
+        return new NBTKey(Objects.requireNonNull(name));
+    }
+    
+    // GETTERS
+    
+    /**
+     * Returns the name of this key.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Returns the slot of this key in the given shape.
+     *
+     * @param shape the shape
+     * @return the slot or -1
+     */
+    int slotIn(Shape shape) {
+        int slot = this.slot;
+        if (slot < shape.size() && name.equals(shape.keyAt(slot))) return slot;
+        slot = shape.indexOf(name);
+        if (slot >= 0) this.slot = slot;
+        return slot;
+    }
+    
+    // MISC
+    
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof NBTKey && name.equals(((NBTKey) obj).name);
+    }
+    
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -1,5 +1,6 @@
 package eisenwave.nbt;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -9,7 +10,17 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
     
     private NBTType type;
     
-    private final List<NBTTag> list = new ArrayList<>();
+    /** An {@link ArrayList} or, if this list is frozen or has been thawed, a {@link PersistentVector}. */
+    private List<NBTTag> list = new ArrayList<>();
+    private final List<NBTTag> view = new ListView();
+    
+    /** Whether the frozen elements of this list are copied when they are retrieved. */
+    private boolean thawing;
+    
+    private long hash;
+    // volatile, so that frozen tags can cache lazily while being shared between threads
+    private volatile boolean hashed;
+    private volatile ByteBuffer payload;
 
     /**
      * Creates the list with a type and a series of elements.
@@ -19,6 +30,7 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
      */
     public NBTList(NBTType type, List<? extends NBTTag> value) {
         this.type = type;
+        this.list = new ArrayList<>(value.size());
         value.forEach(this::add);
     }
     
@@ -41,6 +53,17 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
         this.type = type;
     }
     
+    /**
+     * Creates an empty list with a type and storage presized for the given amount of elements.
+     *
+     * @param type the type of tag or null if the list has no type yet
+     * @param capacity the expected amount of elements
+     */
+    public NBTList(NBTType type, int capacity) {
+        this.type = type;
+        this.list = new ArrayList<>(capacity);
+    }
+    
     /**
      * Creates an empty list without a type.
      */
@@ -48,6 +71,20 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
         this(null);
     }
     
+    /**
+     * Creates a frozen or thawing list.
+     *
+     * @param type the type of tag
+     * @param list the storage
+     * @param frozen whether the list is frozen or thawing
+     */
+    private NBTList(NBTType type, PersistentVector<NBTTag> list, boolean frozen) {
+        this.type = type;
+        this.list = list;
+        this.frozen = frozen;
+        this.thawing = !frozen;
+    }
+    
     // GETTERS
     
     /**
@@ -59,9 +96,14 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
         return list.size();
     }
     
+    /**
+     * Returns a live view of the elements of this list. Modifications of the view are applied to this list.
+     *
+     * @return the elements of this list
+     */
     @Override
     public List<NBTTag> getValue() {
-        return list;
+        return view;
     }
     
     @Override
@@ -86,6 +128,32 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
      * @throws NoSuchElementException if there is no tag with given index
      */
     public NBTTag get(int index) {
+        NBTTag tag = list.get(index);
+        if (!thawing || !tag.frozen || !(tag instanceof NBTCompound || tag instanceof NBTList))
+            return tag;
+        
+        // the copy inherits the caches of the tag, which must be complete if this list has cached its hash
+        if (hashed) tag.contentHash();
+        NBTTag copy = tag.toMutable();
+        mutableList().set(index, copy);
+        adopt(copy);
+        return copy;
+    }
+    
+    /**
+     * <p>
+     *     Returns the tag with the given index for reading.
+     * </p>
+     * <p>
+     *     Unlike {@link #get(int)}, this does not copy frozen compounds and lists of a thawing list, so the tag must
+     *     not be modified.
+     * </p>
+     *
+     * @param index the index
+     * @return the tag
+     * @throws IndexOutOfBoundsException if there is no tag with given index
+     */
+    public NBTTag peek(int index) {
         return list.get(index);
     }
     
@@ -108,26 +176,121 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
      * @param value the tag
      */
     public void add(NBTTag value) {
-        if (this.type == null)
-            this.type = value.getType();
-        else if (this.type != value.getType())
-            throw new IllegalArgumentException(value.getType() + " is not of expected type " + type);
+        List<NBTTag> list = mutableList();
+        checkType(value);
         list.add(value);
+        adopt(value);
+        modified();
+    }
+    
+    /**
+     * <p>
+     *     Appends a tag to a list which is being built, such as by a decoder.
+     * </p>
+     * <p>
+     *     As long as this list has not been added to any container, caches nothing and the tag is of the element type
+     *     of this list, the tag is appended without checking its type or propagating the modification. Otherwise, this
+     *     is equivalent to {@link #add(NBTTag)}.
+     * </p>
+     *
+     * @param value the tag
+     */
+    public void append(NBTTag value) {
+        if (parent != null || shared || !(list instanceof ArrayList) || hashed || payload != null
+            || value.getType() != type) {
+            add(value);
+            return;
+        }
+        list.add(value);
+        adopt(value);
     }
     
     /**
      * Add the given tag at the given index in the list.
      *
+     * @param index the index
      * @param value the tag
      */
     public void add(int index, NBTTag value) {
-        if (index < 0 || index >= list.size())
+        if (index < 0 || index > list.size())
             throw new IndexOutOfBoundsException(Integer.toString(index));
-        if (this.type == null)
-            this.type = value.getType();
-        else if (this.type != value.getType())
-            throw new IllegalArgumentException(value.getType() + " is not of expected type " + type);
+        List<NBTTag> list = mutableList();
+        checkType(value);
         list.add(index, value);
+        adopt(value);
+        modified();
+    }
+    
+    /**
+     * Replaces the tag at the given index in the list.
+     *
+     * @param index the index
+     * @param value the tag
+     * @return the replaced tag
+     */
+    public NBTTag set(int index, NBTTag value) {
+        List<NBTTag> list = mutableList();
+        checkType(value);
+        NBTTag previous = list.set(index, value);
+        if (previous != value) {
+            release(previous);
+            adopt(value);
+            modified();
+        }
+        return previous;
+    }
+    
+    /**
+     * Removes the tag at the given index from the list.
+     *
+     * @param index the index
+     * @return the removed tag
+     */
+    public NBTTag remove(int index) {
+        NBTTag previous = mutableList().remove(index);
+        release(previous);
+        modified();
+        return previous;
+    }
+    
+    /**
+     * Removes all tags from the list. The element type is retained.
+     */
+    public void clear() {
+        checkMutable();
+        if (list.isEmpty()) return;
+        list.forEach(this::release);
+        list = new ArrayList<>();
+        modified();
+    }
+    
+    /**
+     * Returns the storage of this list after replacing persistent storage with mutable storage.
+     *
+     * @return the mutable storage
+     * @throws UnsupportedOperationException if this list is frozen
+     */
+    private List<NBTTag> mutableList() {
+        checkMutable();
+        if (list instanceof PersistentVector)
+            list = new ArrayList<>(list);
+        return list;
+    }
+    
+    /**
+     * Verifies that a tag can be inserted into this list. Empty lists without type or of type {@link NBTType#END}
+     * adopt the type of the tag.
+     *
+     * @param value the tag
+     * @throws IllegalArgumentException if the tag is not of the element type of this list
+     */
+    private void checkType(NBTTag value) {
+        NBTType valueType = value.getType();
+        if (this.type == valueType) return;
+        if (this.type == null || this.type == NBTType.END && list.isEmpty())
+            this.type = valueType;
+        else
+            throw new IllegalArgumentException(valueType + " is not of expected type " + type);
     }
     
     /**
@@ -139,6 +302,97 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
         values.forEach(this::add);
     }
     
+    // PERSISTENT OPERATIONS
+    
+    /**
+     * Freezes this list and all of its elements in place.
+     *
+     * @return this list
+     * @see NBTTag#freeze()
+     */
+    @Override
+    public NBTList freeze() {
+        if (!frozen) freezeTree(this);
+        return this;
+    }
+    
+    @Override
+    void freezeContainer() {
+        if (!(list instanceof PersistentVector))
+            list = PersistentVector.of(list);
+        frozen = true;
+        thawing = false;
+    }
+    
+    @Override
+    public NBTList toMutable() {
+        if (!frozen) return this;
+        NBTList result = new NBTList(type, (PersistentVector<NBTTag>) list, false);
+        result.hash = hash;
+        result.hashed = hashed;
+        result.payload = payload;
+        return result;
+    }
+    
+    /**
+     * Returns a frozen copy of this frozen list in which the element at the given index has been replaced with the
+     * given tag, which is frozen as well. The copy is created in {@code O(log n)} and shares all other elements with
+     * this list.
+     *
+     * @param index the index
+     * @param tag the tag
+     * @return the modified copy
+     * @throws IllegalStateException if this list is not frozen
+     * @throws IllegalArgumentException if the tag is not of the element type of this list
+     */
+    public NBTList with(int index, NBTTag tag) {
+        NBTType type = persistentType(tag);
+        return new NBTList(type, ((PersistentVector<NBTTag>) list).with(index, tag.freeze()), true);
+    }
+    
+    /**
+     * Returns a frozen copy of this frozen list with the given tag appended to its end, which is frozen as well. The
+     * copy is created in {@code O(log n)} and shares all other elements with this list.
+     *
+     * @param tag the tag
+     * @return the modified copy
+     * @throws IllegalStateException if this list is not frozen
+     * @throws IllegalArgumentException if the tag is not of the element type of this list
+     */
+    public NBTList plus(NBTTag tag) {
+        NBTType type = persistentType(tag);
+        return new NBTList(type, ((PersistentVector<NBTTag>) list).plus(tag.freeze()), true);
+    }
+    
+    /**
+     * Returns a frozen copy of this frozen list without the element at the given index. Unlike the other persistent
+     * operations, this operation copies all elements in {@code O(n)}.
+     *
+     * @param index the index
+     * @return the modified copy
+     * @throws IllegalStateException if this list is not frozen
+     */
+    public NBTList without(int index) {
+        if (!frozen) throw new IllegalStateException("list is not frozen");
+        List<NBTTag> result = new ArrayList<>(list);
+        result.remove(index);
+        return new NBTList(type, PersistentVector.of(result), true);
+    }
+    
+    /**
+     * Returns the type of this list after inserting a tag in a persistent operation.
+     *
+     * @param tag the tag
+     * @return the element type
+     */
+    private NBTType persistentType(NBTTag tag) {
+        if (!frozen) throw new IllegalStateException("list is not frozen");
+        NBTType valueType = tag.getType();
+        if (this.type == valueType || this.type == null || this.type == NBTType.END && list.isEmpty())
+            return valueType;
+        throw new IllegalArgumentException(valueType + " is not of expected type " + type);
+    }
+    
     // MISC
     
     @Override
@@ -147,19 +401,90 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
     }
     
     public boolean equals(NBTList tag) {
-        return this.isEmpty() && tag.isEmpty()
-            || this.type == tag.type && this.list.equals(tag.list);
+        if (this == tag || this.isEmpty() && tag.isEmpty()) return true;
+        if (this.type != tag.type || this.size() != tag.size()) return false;
+        if (this.hashed && tag.hashed && this.hash != tag.hash) return false;
+        return this.list.equals(tag.list);
     }
     
     @Override
-    public Iterator<NBTTag> iterator() {
+    public long contentHash() {
+        return hashed? hash : hashTree(this);
+    }
+    
+    @Override
+    Iterator<?> hashChildren() {
         return list.iterator();
     }
+    
+    @Override
+    NBTTag hashChild(Object child) {
+        return (NBTTag) child;
+    }
+    
+    @Override
+    long hashSeed() {
+        // the type of an empty list may be unknown
+        return list.isEmpty()? 0 : type.getId();
+    }
+    
+    @Override
+    long combineHash(long sum, Object child, long hash) {
+        return sum * 0x100000001b3L + hash;
+    }
+    
+    @Override
+    long completeHash(long sum, boolean cacheable) {
+        // empty lists are equal regardless of their type
+        if (list.isEmpty()) return hash(NBTType.LIST, 0);
+        long result = hash(NBTType.LIST, sum);
+        if (cacheable) {
+            this.hash = result;
+            this.hashed = true;
+        }
+        return result;
+    }
+    
+    @Override
+    boolean isHashStable() {
+        return hashed;
+    }
+    
+    @Override
+    public ByteBuffer getCachedPayload() {
+        return payload;
+    }
+    
+    @Override
+    public boolean cachePayload(ByteBuffer payload) {
+        for (NBTTag tag : list)
+            if (!isPayloadCacheable(tag)) return false;
+        this.payload = Objects.requireNonNull(payload);
+        return true;
+    }
+    
+    @Override
+    boolean isPayloadStable() {
+        return payload != null;
+    }
+    
+    @Override
+    boolean discardCache() {
+        boolean cached = hashed || payload != null;
+        hashed = false;
+        payload = null;
+        return cached;
+    }
+    
+    @Override
+    public Iterator<NBTTag> iterator() {
+        return view.iterator();
+    }
 
     @Override
     public String toMSONString() {
         StringBuilder builder = new StringBuilder("[");
-        Iterator<NBTTag> iter = iterator();
+        Iterator<NBTTag> iter = list.iterator();
         
         boolean first = true;
         while (iter.hasNext()) {
@@ -175,5 +500,42 @@ public final class NBTList extends NBTTag implements Iterable<NBTTag>, Cloneable
     public NBTList clone() {
         return new NBTList(type, list);
     }
+    
+    /**
+     * A live view of the elements of a list which routes all modifications through the list.
+     */
+    private final class ListView extends AbstractList<NBTTag> implements RandomAccess {
+        
+        @Override
+        public NBTTag get(int index) {
+            return NBTList.this.get(index);
+        }
+        
+        @Override
+        public int size() {
+            return list.size();
+        }
+        
+        @Override
+        public NBTTag set(int index, NBTTag element) {
+            return NBTList.this.set(index, element);
+        }
+        
+        @Override
+        public void add(int index, NBTTag element) {
+            NBTList.this.add(index, element);
+        }
+        
+        @Override
+        public NBTTag remove(int index) {
+            return NBTList.this.remove(index);
+        }
+        
+        @Override
+        public void clear() {
+            NBTList.this.clear();
+        }
+    
+    }
 
 }
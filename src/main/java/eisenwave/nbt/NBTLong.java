@@ -5,12 +5,32 @@ package eisenwave.nbt;
  */
 public final class NBTLong extends NBTTag implements Cloneable {
 
+    private final static int CACHE_LOW = -128, CACHE_HIGH = 1024;
+    private final static NBTLong[] CACHE = new NBTLong[CACHE_HIGH - CACHE_LOW];
+    
+    static {
+        for (int i = 0; i < CACHE.length; i++)
+            CACHE[i] = (NBTLong) new NBTLong((long) (i + CACHE_LOW)).freeze();
+    }
+    
     private long value;
     
     public NBTLong(long value) {
         this.value = value;
     }
     
+    /**
+     * Returns a frozen long tag with the given value. Tags of small values are cached and shared.
+     *
+     * @param value the value
+     * @return a frozen tag
+     */
+    public static NBTLong valueOf(long value) {
+        if (value >= CACHE_LOW && value < CACHE_HIGH)
+            return CACHE[(int) value - CACHE_LOW];
+        return (NBTLong) new NBTLong(value).freeze();
+    }
+    
     @Override
     public Long getValue() {
         return value;
@@ -21,7 +41,9 @@ public final class NBTLong extends NBTTag implements Cloneable {
     }
     
     public void setLongValue(long value) {
+        checkMutable();
         this.value = value;
+        modified();
     }
     
     @Override
@@ -45,11 +67,21 @@ public final class NBTLong extends NBTTag implements Cloneable {
         return Long.hashCode(value);
     }
     
+    @Override
+    public long contentHash() {
+        return hash(NBTType.LONG, value);
+    }
+    
     @Override
     public String toMSONString() {
         return value+"L";
     }
     
+    @Override
+    public NBTLong toMutable() {
+        return frozen? clone() : this;
+    }
+    
     @Override
     public NBTLong clone() {
         return new NBTLong(value);
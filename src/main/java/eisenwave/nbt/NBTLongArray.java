@@ -33,6 +33,12 @@ public final class NBTLongArray extends NBTTag {
         return value.length;
     }
     
+    /**
+     * Returns the array of this tag. Modifications of the array are not tracked, so the array should not be modified
+     * while this tag is part of a compound or list whose hash may be cached.
+     *
+     * @return the array of this tag
+     */
     @Override
     public long[] getValue() {
         return value;
@@ -54,14 +60,37 @@ public final class NBTLongArray extends NBTTag {
         return Arrays.equals(this.value, tag.value);
     }
     
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(value);
+    }
+    
+    @Override
+    public long contentHash() {
+        long hash = value.length;
+        for (int i = 0; i < value.length; i++)
+            hash = hash * 0x100000001b3L + value[i];
+        return hash(NBTType.LONG_ARRAY, hash);
+    }
+    
+    @Override
+    boolean isTracked() {
+        return false;
+    }
+    
+    @Override
+    public NBTLongArray toMutable() {
+        return frozen? new NBTLongArray(value.clone()) : this;
+    }
+    
     @Override
     public String toMSONString() {
-        StringBuilder stringbuilder = new StringBuilder("[I;");
+        StringBuilder stringbuilder = new StringBuilder("[L;");
         for (int i = 0; i < this.value.length; i++) {
             if (i != 0) {
                 stringbuilder.append(',');
             }
-            stringbuilder.append(this.value[i]);
+            stringbuilder.append(this.value[i]).append('L');
         }
         return stringbuilder.append(']').toString();
     }
@@ -1,88 +1,459 @@
 package eisenwave.nbt;
 
-import java.util.List;
+import eisenwave.nbt.io.NBTInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
 
+/**
+ * <p>
+ *     Matches tags against a pattern tag.
+ * </p>
+ * <p>
+ *     The pattern is compiled once on construction into a tree of match nodes with precomputed type ids, hashes and
+ *     copies of all values, so later modifications of the pattern tag do not affect the matcher. Matchers are
+ *     immutable and may be shared between threads.
+ * </p>
+ * <p>
+ *     By default, a tag matches if it contains the pattern:
+ * </p>
+ * <ul>
+ *     <li>compounds match if every key of the pattern is present and its value matches</li>
+ *     <li>lists match if every element of the pattern matches at least one element of the list, an empty pattern list
+ *     only matches empty lists</li>
+ *     <li>all other tags match if they are equal to the pattern</li>
+ * </ul>
+ * <p>
+ *     This behavior can be modified using the {@link #EXACT} and {@link #TYPES_ONLY} flags.
+ * </p>
+ * <p>
+ *     Matchers can also be evaluated directly on binary NBT using {@link #matches(NBTInputStream)}. Only the paths
+ *     referenced by the pattern are decoded, everything else is skipped, and reading stops at the first mismatch.
+ * </p>
+ */
 public class NBTMatcher {
     
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
     /**
      * Check whether the pattern and the matching tag are completely identical. This will cause values which are
      * present in the matching tag but not in the pattern tag to prevent a match.
      */
-    private final static int
+    public final static int
     EXACT = 0b1,
     /**
      * Ignore values, only verify that the NBT tags match in types.
      */
     TYPES_ONLY = 0b10;
-    
-    private final NBTTag pattern;
+
     private final int flags;
-    
+    private final Node root;
+
+    /**
+     * Constructs a new matcher.
+     *
+     * @param pattern the pattern tag
+     * @param flags the flags, a combination of {@link #EXACT} and {@link #TYPES_ONLY}
+     */
     public NBTMatcher(NBTTag pattern, int flags) {
-        this.pattern = Objects.requireNonNull(pattern);
         this.flags = flags;
+        this.root = compile(Objects.requireNonNull(pattern), flags);
     }
-    
+
+    /**
+     * Constructs a new matcher without any flags.
+     *
+     * @param pattern the pattern tag
+     */
+    public NBTMatcher(NBTTag pattern) {
+        this(pattern, 0);
+    }
+
+    // GETTERS
+
+    /**
+     * Returns the flags of this matcher.
+     *
+     * @return the flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    // PREDICATES
+
+    /**
+     * Returns whether the given tag matches the pattern of this matcher.
+     *
+     * @param tag the tag
+     * @return whether the tag matches
+     */
     public boolean matches(NBTTag tag) {
-        return pattern.equals(tag);
+        return tag != null && root.matches(tag);
     }
-    
+
     /**
      * <p>
-     *     Custom implementation of a {@link NBTType#LIST} tag which caches the type id, hash and emptiness.
+     *     Reads a named tag from the stream and returns whether it matches the pattern of this matcher.
      * </p>
      * <p>
-     *     This custom list is optimized for being matched against a high quantity of other lists.
+     *     No tags are constructed unless necessary. Values which are not referenced by the pattern are skipped and
+     *     reading stops as soon as a mismatch is found, leaving the stream inside the tag. Only if the tag matches
+     *     is it guaranteed to be read completely.
      * </p>
+     *
+     * @param stream the stream
+     * @return whether the tag matches or false if the stream has ended
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean matches(NBTInputStream stream) throws IOException {
+        int id = stream.read();
+        if (id == -1) return false;
+        NBTType type = NBTType.getById((byte) id);
+        if (type == NBTType.END) return false;
+        stream.skipTag(NBTType.STRING);
+
+        return root.matches(stream, type, new byte[64]);
+    }
+
+    /**
+     * Reads a named tag from uncompressed binary NBT and returns whether it matches the pattern of this matcher.
+     *
+     * @param bytes the binary NBT
+     * @return whether the tag matches
+     * @throws IOException if the NBT is malformed
+     * @see #matches(NBTInputStream)
+     */
+    public boolean matches(byte[] bytes) throws IOException {
+        return matches(new NBTInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    // COMPILATION
+
+    private static Node compile(NBTTag pattern, int flags) {
+        boolean typesOnly = (flags & TYPES_ONLY) != 0;
+        switch (pattern.getType()) {
+            case COMPOUND: return new CompoundNode((NBTCompound) pattern, flags);
+            case LIST: return new ListNode((NBTList) pattern, flags);
+            default: return typesOnly? new TypeNode(pattern.getTypeId()) : new ValueNode(pattern);
+        }
+    }
+
+    /**
+     * A compiled part of a pattern.
+     */
+    private static abstract class Node {
+
+        protected final byte type;
+
+        protected Node(byte type) {
+            this.type = type;
+        }
+
+        abstract boolean matches(NBTTag tag);
+
+        /**
+         * Reads the payload of a tag of the given type and returns whether it matches. The payload is only guaranteed
+         * to be read completely if it matches.
+         *
+         * @param stream the stream
+         * @param type the type of the payload
+         * @param buffer a buffer for reading keys and strings
+         * @return whether the payload matches
+         * @throws IOException if an I/O error occurs
+         */
+        abstract boolean matches(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException;
+
+    }
+
+    /**
+     * Matches any tag of the given type.
+     */
+    private static class TypeNode extends Node {
+
+        TypeNode(byte type) {
+            super(type);
+        }
+
+        @Override
+        boolean matches(NBTTag tag) {
+            return tag.getTypeId() == type;
+        }
+
+        @Override
+        boolean matches(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            if (type.getId() != this.type) return false;
+            stream.skipTag(type);
+            return true;
+        }
+
+    }
+
+    /**
+     * Matches primitives, strings and arrays by value. Numbers are stored unboxed, arrays are copied.
      */
-    private static class NBTMatcherList extends NBTTag {
-        
+    private static class ValueNode extends Node {
+
+        private final long bits;
+        private final double real;
         private final int hash;
-        private final byte type;
-        private final boolean empty;
-        private final NBTTag[] value;
-        
-        public NBTMatcherList(NBTList tag) {
-            this.empty = tag.isEmpty();
-            this.hash = tag.hashCode();
-            this.type = tag.getTypeId();
-            this.value = tag.getValue().toArray(new NBTTag[tag.size()]);
+        private final Object value;
+        private final byte[] utf;
+
+        ValueNode(NBTTag pattern) {
+            super(pattern.getTypeId());
+            long bits = 0;
+            double real = 0;
+            Object value = null;
+            switch (pattern.getType()) {
+                case BYTE: bits = ((NBTByte) pattern).getByteValue(); break;
+                case SHORT: bits = ((NBTShort) pattern).getShortValue(); break;
+                case INT: bits = ((NBTInt) pattern).getIntValue(); break;
+                case LONG: bits = ((NBTLong) pattern).getLongValue(); break;
+                case FLOAT: real = ((NBTFloat) pattern).getFloatValue(); break;
+                case DOUBLE: real = ((NBTDouble) pattern).getDoubleValue(); break;
+                case STRING: value = ((NBTString) pattern).getValue(); break;
+                case BYTE_ARRAY: value = ((NBTByteArray) pattern).getValue().clone(); break;
+                case INT_ARRAY: value = ((NBTIntArray) pattern).getValue().clone(); break;
+                case LONG_ARRAY: value = ((NBTLongArray) pattern).getValue().clone(); break;
+                case END: break;
+                default: throw new AssertionError(pattern.getType());
+            }
+            this.bits = bits;
+            this.real = real;
+            this.value = value;
+            this.hash = value instanceof String? value.hashCode() : 0;
+            this.utf = value instanceof String? ((String) value).getBytes(UTF_8) : null;
         }
-    
+
         @Override
-        public boolean equals(Object obj) {
-            return obj instanceof NBTList && equals((NBTList) obj);
+        boolean matches(NBTTag tag) {
+            if (tag.getTypeId() != type) return false;
+            switch (tag.getType()) {
+                case BYTE: return ((NBTByte) tag).getByteValue() == bits;
+                case SHORT: return ((NBTShort) tag).getShortValue() == bits;
+                case INT: return ((NBTInt) tag).getIntValue() == bits;
+                case LONG: return ((NBTLong) tag).getLongValue() == bits;
+                case FLOAT: return ((NBTFloat) tag).getFloatValue() == real;
+                case DOUBLE: return ((NBTDouble) tag).getDoubleValue() == real;
+                case STRING: {
+                    String str = ((NBTString) tag).getValue();
+                    return str.hashCode() == hash && str.equals(value);
+                }
+                case BYTE_ARRAY: return Arrays.equals((byte[]) value, ((NBTByteArray) tag).getValue());
+                case INT_ARRAY: return Arrays.equals((int[]) value, ((NBTIntArray) tag).getValue());
+                case LONG_ARRAY: return Arrays.equals((long[]) value, ((NBTLongArray) tag).getValue());
+                default: return true;
+            }
         }
-    
-        public boolean equals(NBTList tag) {
-            return this.empty && tag.isEmpty()
-                || this.type == tag.getTypeId() && this.hash == tag.hashCode() && this.equals(tag.getValue());
+
+        @Override
+        boolean matches(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            if (type.getId() != this.type) return false;
+            switch (type) {
+                case BYTE: return stream.readByte() == bits;
+                case SHORT: return stream.readShortValue() == bits;
+                case INT: return stream.readIntValue() == bits;
+                case LONG: return stream.readLongValue() == bits;
+                case FLOAT: return stream.readFloatValue() == real;
+                case DOUBLE: return stream.readDoubleValue() == real;
+                case STRING: return stream.readStringLength() == utf.length && readEquals(stream, utf, buffer);
+                case BYTE_ARRAY: {
+                    byte[] array = (byte[]) value;
+                    return stream.readIntValue() == array.length && readEquals(stream, array, buffer);
+                }
+                case INT_ARRAY: {
+                    int[] array = (int[]) value;
+                    if (stream.readIntValue() != array.length) return false;
+                    for (int element : array)
+                        if (stream.readIntValue() != element) return false;
+                    return true;
+                }
+                case LONG_ARRAY: {
+                    long[] array = (long[]) value;
+                    if (stream.readIntValue() != array.length) return false;
+                    for (long element : array)
+                        if (stream.readLongValue() != element) return false;
+                    return true;
+                }
+                default: return true;
+            }
         }
-        
-        public boolean equals(List<NBTTag> tags) {
+
+    }
+
+    /**
+     * Matches compounds by matching the values of all pattern keys.
+     */
+    private static class CompoundNode extends Node {
+
+        private final boolean exact;
+        private final NBTKey[] keys;
+        private final byte[][] keyBytes;
+        private final Node[] values;
+
+        CompoundNode(NBTCompound pattern, int flags) {
+            super(NBTType.COMPOUND.getId());
+            this.exact = (flags & EXACT) != 0;
+            this.keys = new NBTKey[pattern.size()];
+            this.values = new Node[keys.length];
             int index = 0;
-            for (NBTTag tag : tags)
-                if (!tag.equals(value[index++]))
+            for (Map.Entry<String, NBTTag> entry : pattern.entries()) {
+                keys[index] = NBTKey.of(entry.getKey());
+                values[index++] = compile(entry.getValue(), flags);
+            }
+            this.keyBytes = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++)
+                keyBytes[i] = keys[i].getName().getBytes(UTF_8);
+        }
+
+        @Override
+        boolean matches(NBTTag tag) {
+            if (tag.getTypeId() != type) return false;
+            // peeking neither boxes unboxed values nor thaws frozen values, so matching does not modify the tag
+            NBTCompound compound = (NBTCompound) tag;
+            if (exact? compound.size() != keys.length : compound.size() < keys.length) return false;
+
+            for (int i = 0; i < keys.length; i++) {
+                NBTTag value = compound.peek(keys[i]);
+                if (value == null || !values[i].matches(value))
                     return false;
+            }
             return true;
         }
-    
+
         @Override
-        public Object getValue() {
-            return value;
+        boolean matches(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            if (type.getId() != this.type) return false;
+            boolean[] found = new boolean[keys.length];
+            int remaining = keys.length;
+
+            int id;
+            while ((id = stream.readByte()) != NBTType.END.getId()) {
+                NBTType valueType = NBTType.getById((byte) id);
+                int length = stream.readStringLength();
+                byte[] name = length > buffer.length? new byte[length] : buffer;
+                stream.readFully(name, 0, length);
+                int key = remaining == 0? -1 : indexOf(name, length);
+
+                if (key < 0) {
+                    if (exact) return false;
+                    stream.skipTag(valueType);
+                }
+                else if (found[key] || !values[key].matches(stream, valueType, buffer)) {
+                    return false;
+                }
+                else {
+                    found[key] = true;
+                    remaining--;
+                }
+            }
+            return remaining == 0;
         }
-    
+
+        private int indexOf(byte[] buffer, int length) {
+            outer:
+            for (int i = 0; i < keyBytes.length; i++) {
+                byte[] key = keyBytes[i];
+                if (key.length != length) continue;
+                for (int j = 0; j < length; j++)
+                    if (key[j] != buffer[j]) continue outer;
+                return i;
+            }
+            return -1;
+        }
+
+    }
+
+    /**
+     * Matches lists either element-wise or by finding a matching element for every pattern element.
+     */
+    private static class ListNode extends Node {
+
+        private final boolean exact;
+        private final byte elementType;
+        private final Node[] elements;
+
+        ListNode(NBTList pattern, int flags) {
+            super(NBTType.LIST.getId());
+            this.exact = (flags & EXACT) != 0;
+            this.elementType = pattern.isEmpty()? NBTType.END.getId() : pattern.getElementType().getId();
+            this.elements = new Node[pattern.size()];
+            for (int i = 0; i < elements.length; i++)
+                elements[i] = compile(pattern.peek(i), flags);
+        }
+
         @Override
-        public NBTType getType() {
-            return NBTType.LIST;
+        boolean matches(NBTTag tag) {
+            if (tag.getTypeId() != type) return false;
+            NBTList list = (NBTList) tag;
+            int size = list.size();
+            if (elements.length == 0) return size == 0;
+            if (size == 0 || list.getElementType().getId() != elementType) return false;
+
+            if (exact) {
+                if (size != elements.length) return false;
+                for (int i = 0; i < size; i++)
+                    if (!elements[i].matches(list.peek(i)))
+                        return false;
+                return true;
+            }
+
+            return containsAll(list);
         }
-    
+
+        private boolean containsAll(NBTList list) {
+            outer:
+            for (Node element : elements) {
+                for (int i = 0; i < list.size(); i++)
+                    if (element.matches(list.peek(i)))
+                        continue outer;
+                return false;
+            }
+            return true;
+        }
+
         @Override
-        public String toMSONString() {
-            throw new UnsupportedOperationException();
+        boolean matches(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            if (type.getId() != this.type) return false;
+            NBTType elementType = NBTType.getById(stream.readByte());
+            int size = stream.readIntValue();
+            if (elements.length == 0) return size == 0;
+            if (size == 0 || elementType.getId() != this.elementType) return false;
+
+            if (exact) {
+                if (size != elements.length) return false;
+                for (Node element : elements)
+                    if (!element.matches(stream, elementType, buffer))
+                        return false;
+                return true;
+            }
+
+            // every element may have to be compared against every pattern element, so the list is read as a whole
+            NBTList list = new NBTList(elementType);
+            for (int i = 0; i < size; i++)
+                list.add(stream.readTag(elementType, 1));
+            return containsAll(list);
         }
-        
+
     }
-    
+
+    // UTIL
+
+    private static boolean readEquals(NBTInputStream stream, byte[] expected, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < expected.length) {
+            int length = Math.min(buffer.length, expected.length - offset);
+            stream.readFully(buffer, 0, length);
+            for (int i = 0; i < length; i++)
+                if (buffer[i] != expected[offset + i]) return false;
+            offset += length;
+        }
+        return true;
+    }
+
 }
@@ -0,0 +1,476 @@
+package eisenwave.nbt;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ *     An index of many patterns which finds all patterns matching a tag at once.
+ * </p>
+ * <p>
+ *     Every pattern is decomposed into constraints on the paths it references: primitive and string values must be
+ *     equal, empty compounds only require a compound and lists and arrays are checked using an {@link NBTMatcher}.
+ *     The constraints of all patterns are merged into one discrimination tree keyed on compound keys, which is walked
+ *     once per matched tag. Only the parts of the tree which are present in the tag are visited and only patterns
+ *     with at least one satisfied constraint are ever looked at, so matching cost depends on the size of the tag and
+ *     the amount of candidate patterns rather than the total amount of patterns.
+ * </p>
+ * <p>
+ *     A pattern in this index matches exactly the tags which a {@link NBTMatcher} without flags would match.
+ * </p>
+ * <p>
+ *     Patterns can be added and removed at any time. All operations are thread-safe, matching can happen concurrently.
+ * </p>
+ *
+ * @param <K> the type of the identifiers of patterns
+ */
+public class NBTMatcherIndex<K> {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Node root = new Node(null);
+    private final Map<K, Rule<K>> rules = new HashMap<>();
+
+    private final List<Rule<K>> slots = new ArrayList<>();
+    private final IntList freeSlots = new IntList();
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // GETTERS
+
+    /**
+     * Returns the amount of patterns in this index.
+     *
+     * @return the amount of patterns
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rules.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether this index contains a pattern with the given identifier.
+     *
+     * @param id the identifier
+     * @return whether the pattern is present
+     */
+    public boolean contains(K id) {
+        lock.readLock().lock();
+        try {
+            return rules.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // MUTATORS
+
+    /**
+     * Adds a pattern to the index. An existing pattern with the same identifier is replaced.
+     *
+     * @param id the identifier of the pattern
+     * @param pattern the pattern
+     */
+    public void put(K id, NBTTag pattern) {
+        Objects.requireNonNull(id);
+        List<Constraint> constraints = new ArrayList<>();
+        decompose(Objects.requireNonNull(pattern), new ArrayList<>(), constraints);
+
+        lock.writeLock().lock();
+        try {
+            removeRule(id);
+            int slot = freeSlots.isEmpty()? slots.size() : freeSlots.pop();
+            Rule<K> rule = new Rule<>(id, slot, constraints);
+            if (slot == slots.size()) slots.add(rule);
+            else slots.set(slot, rule);
+            rules.put(id, rule);
+
+            for (Constraint constraint : constraints)
+                constraint.register(root.resolve(constraint.path), slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the pattern with the given identifier from the index.
+     *
+     * @param id the identifier of the pattern
+     * @return whether a pattern was removed
+     */
+    public boolean remove(K id) {
+        lock.writeLock().lock();
+        try {
+            return removeRule(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all patterns from the index.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            rules.clear();
+            slots.clear();
+            freeSlots.clear();
+            root.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeRule(K id) {
+        Rule<K> rule = rules.remove(id);
+        if (rule == null) return false;
+
+        for (Constraint constraint : rule.constraints)
+            root.unregister(constraint, 0, rule.slot);
+        slots.set(rule.slot, null);
+        freeSlots.add(rule.slot);
+        return true;
+    }
+
+    // MATCHING
+
+    /**
+     * Returns the identifiers of all patterns which match the given tag.
+     *
+     * @param tag the tag
+     * @return a new set containing the identifiers of all matching patterns
+     */
+    public Set<K> match(NBTTag tag) {
+        Set<K> result = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            Scratch scratch = this.scratch.get();
+            scratch.ensureCapacity(slots.size());
+            root.visit(Objects.requireNonNull(tag), scratch);
+
+            int[] counts = scratch.counts;
+            IntList touched = scratch.touched;
+            for (int i = 0; i < touched.size; i++) {
+                int slot = touched.values[i];
+                Rule<K> rule = slots.get(slot);
+                if (counts[slot] == rule.constraints.size())
+                    result.add(rule.id);
+                counts[slot] = 0;
+            }
+            touched.clear();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    // DECOMPOSITION
+
+    private static void decompose(NBTTag pattern, List<String> path, List<Constraint> constraints) {
+        switch (pattern.getType()) {
+            case COMPOUND: {
+                NBTCompound compound = (NBTCompound) pattern;
+                if (compound.isEmpty()) {
+                    constraints.add(new Constraint(path, pattern.getTypeId(), null, null));
+                    break;
+                }
+                compound.forEach((key, value) -> {
+                    List<String> childPath = new ArrayList<>(path.size() + 1);
+                    childPath.addAll(path);
+                    childPath.add(key);
+                    decompose(value, childPath, constraints);
+                });
+                break;
+            }
+            case LIST:
+            case BYTE_ARRAY:
+            case INT_ARRAY:
+            case LONG_ARRAY:
+            case END:
+                constraints.add(new Constraint(path, pattern.getTypeId(), null, new NBTMatcher(pattern)));
+                break;
+            default: {
+                Value value = Value.of(pattern);
+                if (value == null)
+                    constraints.add(new Constraint(path, pattern.getTypeId(), null, new NBTMatcher(pattern)));
+                else
+                    constraints.add(new Constraint(path, pattern.getTypeId(), value, null));
+            }
+        }
+    }
+
+    /**
+     * A single requirement of a pattern which is attached to the node of its path.
+     */
+    private static class Constraint {
+
+        private final String[] path;
+        private final byte type;
+        private final Value value;
+        private final NBTMatcher matcher;
+
+        Constraint(List<String> path, byte type, Value value, NBTMatcher matcher) {
+            this.path = path.toArray(new String[path.size()]);
+            this.type = type;
+            this.value = value;
+            this.matcher = matcher;
+        }
+
+        void register(Node node, int slot) {
+            if (matcher != null)
+                node.residuals.add(new Residual(slot, matcher));
+            else if (value != null)
+                node.values.computeIfAbsent(value, v -> new IntList()).add(slot);
+            else
+                node.types(type).add(slot);
+        }
+
+    }
+
+    private static class Rule<K> {
+
+        private final K id;
+        private final int slot;
+        private final List<Constraint> constraints;
+
+        Rule(K id, int slot, List<Constraint> constraints) {
+            this.id = id;
+            this.slot = slot;
+            this.constraints = constraints;
+        }
+
+    }
+
+    private static class Residual {
+
+        private final int slot;
+        private final NBTMatcher matcher;
+
+        Residual(int slot, NBTMatcher matcher) {
+            this.slot = slot;
+            this.matcher = matcher;
+        }
+
+    }
+
+    /**
+     * A node of the discrimination tree, representing one path.
+     */
+    private static class Node {
+
+        /** The key under which this node is a child of its parent, or null for the root. */
+        private final NBTKey key;
+        private final Map<String, Node> children = new HashMap<>();
+        private final Map<Value, IntList> values = new HashMap<>();
+        private final List<Residual> residuals = new ArrayList<>();
+        private IntList[] types;
+
+        Node(NBTKey key) {
+            this.key = key;
+        }
+        
+        IntList types(byte type) {
+            if (types == null) types = new IntList[NBTType.values().length];
+            if (types[type] == null) types[type] = new IntList();
+            return types[type];
+        }
+
+        Node resolve(String[] path) {
+            Node node = this;
+            for (String key : path)
+                node = node.children.computeIfAbsent(key, k -> new Node(NBTKey.of(k)));
+            return node;
+        }
+
+        void unregister(Constraint constraint, int depth, int slot) {
+            if (depth < constraint.path.length) {
+                String key = constraint.path[depth];
+                Node child = children.get(key);
+                child.unregister(constraint, depth + 1, slot);
+                if (child.isEmpty()) children.remove(key);
+            }
+            else if (constraint.matcher != null) {
+                residuals.removeIf(residual -> residual.slot == slot);
+            }
+            else if (constraint.value != null) {
+                IntList list = values.get(constraint.value);
+                list.remove(slot);
+                if (list.isEmpty()) values.remove(constraint.value);
+            }
+            else {
+                types[constraint.type].remove(slot);
+            }
+        }
+
+        boolean isEmpty() {
+            if (!children.isEmpty() || !values.isEmpty() || !residuals.isEmpty()) return false;
+            if (types != null) for (IntList list : types)
+                if (list != null && !list.isEmpty()) return false;
+            return true;
+        }
+
+        void clear() {
+            children.clear();
+            values.clear();
+            residuals.clear();
+            types = null;
+        }
+
+        void visit(NBTTag tag, Scratch scratch) {
+            if (types != null) {
+                IntList list = types[tag.getTypeId()];
+                if (list != null) scratch.increment(list);
+            }
+            if (!values.isEmpty()) {
+                Value value = Value.of(tag);
+                IntList list = value == null? null : values.get(value);
+                if (list != null) scratch.increment(list);
+            }
+            for (Residual residual : residuals)
+                if (residual.matcher.matches(tag)) scratch.increment(residual.slot);
+
+            if (!children.isEmpty() && tag instanceof NBTCompound) {
+                // reading entries and peeking neither boxes nor thaws the values of the compound
+                NBTCompound compound = (NBTCompound) tag;
+                if (compound.size() < children.size()) {
+                    for (Map.Entry<String, NBTTag> entry : compound.entries()) {
+                        Node child = children.get(entry.getKey());
+                        if (child != null) child.visit(entry.getValue(), scratch);
+                    }
+                }
+                else {
+                    for (Node child : children.values()) {
+                        NBTTag value = compound.peek(child.key);
+                        if (value != null) child.visit(value, scratch);
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * An immutable, unboxed copy of a primitive or string value which can be used as a hash key.
+     */
+    private static final class Value {
+
+        private final byte type;
+        private final long bits;
+        private final String string;
+
+        private Value(byte type, long bits, String string) {
+            this.type = type;
+            this.bits = bits;
+            this.string = string;
+        }
+
+        /**
+         * Returns the value of a tag or null if the tag can not be indexed by value.
+         *
+         * @param tag the tag
+         * @return the value or null
+         */
+        static Value of(NBTTag tag) {
+            byte type = tag.getTypeId();
+            switch (tag.getType()) {
+                case BYTE: return new Value(type, ((NBTByte) tag).getByteValue(), null);
+                case SHORT: return new Value(type, ((NBTShort) tag).getShortValue(), null);
+                case INT: return new Value(type, ((NBTInt) tag).getIntValue(), null);
+                case LONG: return new Value(type, ((NBTLong) tag).getLongValue(), null);
+                case FLOAT: {
+                    float value = ((NBTFloat) tag).getFloatValue();
+                    // NaN never equals itself, zeros of both signs are equal
+                    if (Float.isNaN(value)) return null;
+                    return new Value(type, value == 0? 0 : Float.floatToIntBits(value), null);
+                }
+                case DOUBLE: {
+                    double value = ((NBTDouble) tag).getDoubleValue();
+                    if (Double.isNaN(value)) return null;
+                    return new Value(type, value == 0? 0 : Double.doubleToLongBits(value), null);
+                }
+                case STRING: return new Value(type, 0, ((NBTString) tag).getValue());
+                default: return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Value)) return false;
+            Value value = (Value) obj;
+            return this.type == value.type && this.bits == value.bits && Objects.equals(this.string, value.string);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * type + Long.hashCode(bits)) + (string == null? 0 : string.hashCode());
+        }
+
+    }
+
+    /**
+     * Per-thread counters of satisfied constraints, indexed by slot.
+     */
+    private static class Scratch {
+
+        private int[] counts = new int[16];
+        private final IntList touched = new IntList();
+
+        void ensureCapacity(int capacity) {
+            if (counts.length < capacity)
+                counts = Arrays.copyOf(counts, Math.max(capacity, counts.length * 2));
+        }
+
+        void increment(int slot) {
+            if (counts[slot]++ == 0) touched.add(slot);
+        }
+
+        void increment(IntList slots) {
+            for (int i = 0; i < slots.size; i++)
+                increment(slots.values[i]);
+        }
+
+    }
+
+    /**
+     * A minimal growable list of ints.
+     */
+    private static class IntList {
+
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+    }
+
+}
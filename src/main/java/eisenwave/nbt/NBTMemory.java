@@ -0,0 +1,251 @@
+package eisenwave.nbt;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <p>
+ *     Estimates how much heap memory tags retain.
+ * </p>
+ * <p>
+ *     Estimates assume a 64-bit JVM with compressed references, which is the default for heaps smaller than 32 GB:
+ *     objects have a header of 12 bytes, arrays of 16 bytes, references take 4 bytes and all objects are aligned to
+ *     8 bytes.
+ * </p>
+ * <ul>
+ *     <li>{@link #estimateRetainedBytes(NBTTag)} walks every object which the tag references, including the internal
+ *     storage of compounds and lists, cached payloads, keys and boxed values. Instances which are shared within the
+ *     tree, such as interned subtrees, persistent structure shared between versions or keys of compounds of the same
+ *     shape, are counted once. The enclosing containers of the tag are not counted. Collections of the JDK are
+ *     accounted for by their entries and backing arrays.</li>
+ *     <li>{@link #approximateRetainedBytes(NBTTag)} only visits the tags and assumes that the entries of every compound
+ *     are stored in a {@code LinkedHashMap} and the elements of every list in an {@code ArrayList}. Shared instances
+ *     are counted once per occurrence and unboxed primitives as if they were boxed, so the approximation is an upper
+ *     bound of the exact estimate in most cases.</li>
+ * </ul>
+ */
+public final class NBTMemory {
+    
+    private final static int
+        OBJECT_HEADER = 12,
+        ARRAY_HEADER = 16,
+        REFERENCE = 4,
+        ALIGNMENT = 8;
+    
+    /** Whether strings store their characters as bytes if possible, which is the case since Java 9. */
+    private final static boolean COMPACT_STRINGS = !System.getProperty("java.specification.version").startsWith("1.");
+    
+    private final static String PACKAGE = NBTTag.class.getPackage().getName() + ".";
+    
+    private final static ClassValue<Long> SHALLOW_SIZES = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long size = OBJECT_HEADER;
+            for (Class<?> c = type; c != null; c = c.getSuperclass())
+                for (Field field : c.getDeclaredFields())
+                    if (!Modifier.isStatic(field.getModifiers())) size += sizeOf(field.getType());
+            return align(size);
+        }
+    };
+    
+    private final static ClassValue<Field[]> REFERENCES = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            // fields of superclasses of the JDK, such as the views of an AbstractMap, are not accessible
+            for (Class<?> c = type; c != null && c.getName().startsWith(PACKAGE); c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) continue;
+                    // shapes are interned globally, their transitions to other shapes are not retained by any tag
+                    if (c == Shape.class && !field.getName().equals("keys") && !field.getName().equals("slots"))
+                        continue;
+                    // back-pointers to enclosing containers are not retained by the tag
+                    if (c == NBTTag.class && field.getName().equals("parent")
+                        || c == CompactMap.class && field.getName().equals("owner"))
+                        continue;
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            return fields.toArray(new Field[0]);
+        }
+    };
+    
+    /** The sizes of the storage and views of empty containers, which are measured once. */
+    private final static long
+        COMPOUND_STORAGE = estimateRetainedBytes(new NBTCompound()) - SHALLOW_SIZES.get(NBTCompound.class),
+        LIST_STORAGE = estimateRetainedBytes(new NBTList(NBTType.END)) - SHALLOW_SIZES.get(NBTList.class);
+    
+    private NBTMemory() {}
+    
+    /**
+     * Estimates the amount of bytes which a tag and all objects referenced by it occupy on the heap, counting every
+     * instance once.
+     *
+     * @param tag the tag
+     * @return the estimated amount of bytes
+     */
+    public static long estimateRetainedBytes(NBTTag tag) {
+        return new Walker().walk(Objects.requireNonNull(tag));
+    }
+    
+    /**
+     * Quickly approximates the amount of bytes which a tag occupies on the heap, assuming that compounds and lists use
+     * their default storage and that no instances are shared.
+     *
+     * @param tag the tag
+     * @return the approximate amount of bytes
+     */
+    public static long approximateRetainedBytes(NBTTag tag) {
+        long size = 0;
+        Deque<NBTTag> stack = new ArrayDeque<>();
+        stack.push(Objects.requireNonNull(tag));
+        while (!stack.isEmpty()) {
+            NBTTag current = stack.pop();
+            size += SHALLOW_SIZES.get(current.getClass());
+            switch (current.getType()) {
+                case STRING: size += sizeOf(((NBTString) current).getValue()); break;
+                case BYTE_ARRAY: size += arraySize(byte.class, ((NBTByteArray) current).getValue().length); break;
+                case INT_ARRAY: size += arraySize(int.class, ((NBTIntArray) current).getValue().length); break;
+                case LONG_ARRAY: size += arraySize(long.class, ((NBTLongArray) current).getValue().length); break;
+                case LIST: {
+                    NBTList list = (NBTList) current;
+                    size += LIST_STORAGE + arraySize(Object.class, list.size());
+                    for (NBTTag element : list)
+                        stack.push(element);
+                    break;
+                }
+                case COMPOUND: {
+                    NBTCompound compound = (NBTCompound) current;
+                    size += COMPOUND_STORAGE + hashMapSize(compound.size(), true);
+                    for (Map.Entry<String, NBTTag> entry : compound.entries()) {
+                        size += sizeOf(entry.getKey());
+                        stack.push(entry.getValue());
+                    }
+                    break;
+                }
+                default: break;
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Walks the object graph of a tag and sums up the sizes of all objects which it reaches.
+     */
+    private static final class Walker {
+        
+        private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Deque<Object> stack = new ArrayDeque<>();
+        private long size;
+        
+        private long walk(Object root) {
+            add(root);
+            while (!stack.isEmpty())
+                visit(stack.pop());
+            return size;
+        }
+        
+        private void add(Object object) {
+            if (object != null && seen.add(object)) stack.push(object);
+        }
+        
+        private void visit(Object object) {
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                int length = Array.getLength(object);
+                size += arraySize(type.getComponentType(), length);
+                if (!type.getComponentType().isPrimitive())
+                    for (Object element : (Object[]) object) add(element);
+                return;
+            }
+            
+            size += SHALLOW_SIZES.get(type);
+            if (type.getName().startsWith(PACKAGE)) {
+                try {
+                    for (Field field : REFERENCES.get(type))
+                        add(field.get(object));
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+            // the internals of the JDK are not accessible, so they are accounted for by their known layouts
+            else if (object instanceof String) {
+                size += sizeOf((String) object) - SHALLOW_SIZES.get(String.class);
+            }
+            else if (object instanceof ConcurrentSkipListMap) {
+                Map<?, ?> map = (Map<?, ?>) object;
+                // every entry has a node and on average a third of an index node
+                size += map.size() * (align(OBJECT_HEADER + 3 * REFERENCE) * 4L / 3);
+                addAll(map);
+            }
+            else if (object instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) object;
+                size += hashMapSize(map.size(), object instanceof LinkedHashMap);
+                addAll(map);
+            }
+            else if (object instanceof Collection) {
+                Collection<?> collection = (Collection<?>) object;
+                size += arraySize(Object.class, collection.size());
+                for (Object element : collection) add(element);
+            }
+            else if (object instanceof ByteBuffer) {
+                // cached payloads may share the array of an enclosing payload, which is at most twice as large
+                ByteBuffer buffer = (ByteBuffer) object;
+                if (buffer.hasArray()) add(buffer.array());
+                else if (!buffer.isDirect()) size += arraySize(byte.class, buffer.capacity());
+            }
+        }
+        
+        private void addAll(Map<?, ?> map) {
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                add(entry.getKey());
+                add(entry.getValue());
+            }
+        }
+    
+    }
+    
+    // UTIL
+    
+    /**
+     * Returns the size of the nodes and the table of a hash map, which has the capacity of a map presized for its
+     * entries.
+     */
+    private static long hashMapSize(int size, boolean linked) {
+        if (size == 0) return 0;
+        // nodes have a hash and references to the key, the value and the next node, linked nodes also to two others
+        long node = align(OBJECT_HEADER + 4 + (linked? 5 : 3) * REFERENCE);
+        int capacity = Integer.highestOneBit(Math.max(size * 4 / 3, 1) * 2 - 1);
+        return size * node + arraySize(Object.class, capacity);
+    }
+    
+    private static long sizeOf(String string) {
+        int length = string.length();
+        boolean latin = COMPACT_STRINGS;
+        for (int i = 0; latin && i < length; i++)
+            latin = string.charAt(i) < 256;
+        return SHALLOW_SIZES.get(String.class) + (latin? arraySize(byte.class, length) : arraySize(char.class, length));
+    }
+    
+    private static long arraySize(Class<?> componentType, int length) {
+        return align(ARRAY_HEADER + (long) length * sizeOf(componentType));
+    }
+    
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        if (type == byte.class || type == boolean.class) return 1;
+        return REFERENCE;
+    }
+    
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+}
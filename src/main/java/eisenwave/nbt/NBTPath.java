@@ -0,0 +1,510 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParseException;
+import eisenwave.nbt.io.MojangsonParser;
+import eisenwave.nbt.io.NBTInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * <p>
+ *     A compiled path which selects tags inside of a tag, such as {@code Level.Sections[*].BlockStates} or
+ *     {@code Inventory[{Slot:0b}].id}.
+ * </p>
+ * <p>
+ *     A path is a sequence of the following segments, where names are separated by dots:
+ * </p>
+ * <ul>
+ *     <li>{@code name} or {@code "quoted name"} selects the entry of a compound with that name</li>
+ *     <li>{@code *} selects all entries of a compound</li>
+ *     <li>{@code [*]} or {@code []} selects all elements of a list or array</li>
+ *     <li>{@code [i]} selects the element at an index, negative indices count from the end</li>
+ *     <li>{@code [from:to]} selects the elements from an inclusive to an exclusive index, both of which may be
+ *     negative or omitted</li>
+ *     <li>{@code [{...}]} selects all elements of a list which match a compound pattern</li>
+ *     <li>{@code name{...}} selects the entry with that name if it matches a compound pattern, and a pattern at the
+ *     start of the path only lets the root tag pass if it matches</li>
+ * </ul>
+ * <p>
+ *     Patterns are written in Mojangson and evaluated using an {@link NBTMatcher} without flags. The empty path
+ *     selects the root tag itself.
+ * </p>
+ * <p>
+ *     Paths are compiled once and can be evaluated on tags or directly on binary NBT using
+ *     {@link #select(NBTInputStream)}, where only the selected tags and the candidates of patterns are constructed and
+ *     all other branches are skipped. Paths are immutable and may be shared between threads.
+ * </p>
+ */
+public final class NBTPath {
+    
+    private final String path;
+    private final Segment[] segments;
+    
+    private NBTPath(String path, Segment[] segments) {
+        this.path = path;
+        this.segments = segments;
+    }
+    
+    /**
+     * Compiles a path.
+     *
+     * @param path the path
+     * @return the compiled path
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    public static NBTPath compile(String path) {
+        return new NBTPath(path, new Parser(path).parse());
+    }
+    
+    // SELECTION
+    
+    /**
+     * Returns all tags which this path selects in a tag, in the order in which they appear in the tag. Elements of
+     * arrays are returned as new tags.
+     *
+     * @param tag the root tag
+     * @return the selected tags
+     */
+    public List<NBTTag> select(NBTTag tag) {
+        List<NBTTag> result = new ArrayList<>();
+        select(Objects.requireNonNull(tag), 0, result);
+        return result;
+    }
+    
+    /**
+     * Returns the first tag which this path selects in a tag.
+     *
+     * @param tag the root tag
+     * @return the first selected tag or an empty optional if the path selects nothing
+     */
+    public Optional<NBTTag> selectFirst(NBTTag tag) {
+        List<NBTTag> result = select(tag);
+        return result.isEmpty()? Optional.empty() : Optional.of(result.get(0));
+    }
+    
+    /**
+     * Reads a named tag from the stream and returns all tags which this path selects in it. The tag is always read
+     * completely, but only the selected tags and the candidates of compound patterns are constructed.
+     *
+     * @param stream the stream
+     * @return the selected tags, which are empty if the stream has ended
+     * @throws IOException if an I/O error occurs
+     */
+    public List<NBTTag> select(NBTInputStream stream) throws IOException {
+        List<NBTTag> result = new ArrayList<>();
+        int id = stream.read();
+        if (id == -1) return result;
+        NBTType type = NBTType.getById((byte) id);
+        if (type == NBTType.END) return result;
+        stream.skipTag(NBTType.STRING);
+        
+        select(stream, type, 0, result, new byte[64]);
+        return result;
+    }
+    
+    /**
+     * Reads a named tag from uncompressed binary NBT and returns all tags which this path selects in it.
+     *
+     * @param bytes the binary NBT
+     * @return the selected tags
+     * @throws IOException if the NBT is malformed
+     * @see #select(NBTInputStream)
+     */
+    public List<NBTTag> select(byte[] bytes) throws IOException {
+        return select(new NBTInputStream(new ByteArrayInputStream(bytes)));
+    }
+    
+    private void select(NBTTag tag, int index, List<NBTTag> result) {
+        if (index == segments.length) result.add(tag);
+        else segments[index].select(this, tag, index + 1, result);
+    }
+    
+    private void select(NBTInputStream stream, NBTType type, int index, List<NBTTag> result, byte[] buffer)
+        throws IOException {
+        if (index == segments.length) result.add(stream.readTag(type, 1));
+        else segments[index].select(this, stream, type, index + 1, result, buffer);
+    }
+    
+    // MISC
+    
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof NBTPath && ((NBTPath) obj).path.equals(path);
+    }
+    
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return path;
+    }
+    
+    // SEGMENTS
+    
+    /**
+     * A compiled segment of a path, which passes the tags it selects on to the following segment.
+     */
+    private static abstract class Segment {
+        
+        /**
+         * Selects the tags of this segment in a tag.
+         *
+         * @param path the path
+         * @param tag the tag
+         * @param next the index of the following segment
+         * @param result the list of selected tags
+         */
+        abstract void select(NBTPath path, NBTTag tag, int next, List<NBTTag> result);
+        
+        /**
+         * Reads the payload of a tag and selects the tags of this segment in it. The payload is always read
+         * completely.
+         *
+         * @param path the path
+         * @param stream the stream
+         * @param type the type of the payload
+         * @param next the index of the following segment
+         * @param result the list of selected tags
+         * @param buffer a buffer for reading keys
+         * @throws IOException if an I/O error occurs
+         */
+        abstract void select(NBTPath path, NBTInputStream stream, NBTType type, int next, List<NBTTag> result,
+                             byte[] buffer) throws IOException;
+    
+    }
+    
+    /**
+     * Selects the entry of a compound with a given name.
+     */
+    private static class ChildSegment extends Segment {
+        
+        private final NBTKey key;
+        private final byte[] keyBytes;
+        
+        ChildSegment(String name) {
+            this.key = NBTKey.of(name);
+            this.keyBytes = name.getBytes(StandardCharsets.UTF_8);
+        }
+        
+        @Override
+        void select(NBTPath path, NBTTag tag, int next, List<NBTTag> result) {
+            if (tag.getType() != NBTType.COMPOUND) return;
+            NBTTag child = ((NBTCompound) tag).tryGet(key).orElse(null);
+            if (child != null) path.select(child, next, result);
+        }
+        
+        @Override
+        void select(NBTPath path, NBTInputStream stream, NBTType type, int next, List<NBTTag> result, byte[] buffer)
+            throws IOException {
+            if (type != NBTType.COMPOUND) {
+                stream.skipTag(type);
+                return;
+            }
+            int id;
+            while ((id = stream.readByte()) != NBTType.END.getId()) {
+                NBTType valueType = NBTType.getById((byte) id);
+                int length = stream.readStringLength();
+                byte[] name = length > buffer.length? new byte[length] : buffer;
+                stream.readFully(name, 0, length);
+                
+                if (matches(name, length)) path.select(stream, valueType, next, result, buffer);
+                else stream.skipTag(valueType);
+            }
+        }
+        
+        private boolean matches(byte[] name, int length) {
+            if (keyBytes.length != length) return false;
+            for (int i = 0; i < length; i++)
+                if (keyBytes[i] != name[i]) return false;
+            return true;
+        }
+    
+    }
+    
+    /**
+     * Selects all entries of a compound.
+     */
+    private static class WildcardSegment extends Segment {
+        
+        @Override
+        void select(NBTPath path, NBTTag tag, int next, List<NBTTag> result) {
+            if (tag.getType() != NBTType.COMPOUND) return;
+            for (Map.Entry<String, NBTTag> entry : ((NBTCompound) tag).entries())
+                path.select(entry.getValue(), next, result);
+        }
+        
+        @Override
+        void select(NBTPath path, NBTInputStream stream, NBTType type, int next, List<NBTTag> result, byte[] buffer)
+            throws IOException {
+            if (type != NBTType.COMPOUND) {
+                stream.skipTag(type);
+                return;
+            }
+            int id;
+            while ((id = stream.readByte()) != NBTType.END.getId()) {
+                stream.skipTag(NBTType.STRING);
+                path.select(stream, NBTType.getById((byte) id), next, result, buffer);
+            }
+        }
+    
+    }
+    
+    /**
+     * Lets only tags pass which match a pattern. On binary NBT, the candidates are read as a whole.
+     */
+    private static class FilterSegment extends Segment {
+        
+        private final NBTMatcher matcher;
+        
+        FilterSegment(NBTCompound pattern) {
+            this.matcher = new NBTMatcher(pattern);
+        }
+        
+        @Override
+        void select(NBTPath path, NBTTag tag, int next, List<NBTTag> result) {
+            if (matcher.matches(tag)) path.select(tag, next, result);
+        }
+        
+        @Override
+        void select(NBTPath path, NBTInputStream stream, NBTType type, int next, List<NBTTag> result, byte[] buffer)
+            throws IOException {
+            if (type != NBTType.COMPOUND) {
+                stream.skipTag(type);
+                return;
+            }
+            select(path, stream.readTag(type, 1), next, result);
+        }
+    
+    }
+    
+    /**
+     * Selects a range of elements of lists and arrays.
+     */
+    private static class ElementSegment extends Segment {
+        
+        /** The bounds of the range, where {@link Integer#MAX_VALUE} as the end means the end of the list. */
+        private final int from, to;
+        private final boolean single;
+        
+        ElementSegment(int from, int to, boolean single) {
+            this.from = from;
+            this.to = to;
+            this.single = single;
+        }
+        
+        private int start(int size) {
+            return from < 0? size + from : from;
+        }
+        
+        private int end(int size) {
+            if (single) {
+                int start = start(size);
+                return start < 0? 0 : start + 1;
+            }
+            return to == Integer.MAX_VALUE? size : to < 0? size + to : to;
+        }
+        
+        @Override
+        void select(NBTPath path, NBTTag tag, int next, List<NBTTag> result) {
+            int size;
+            switch (tag.getType()) {
+                case LIST: size = ((NBTList) tag).size(); break;
+                case BYTE_ARRAY: size = ((NBTByteArray) tag).getValue().length; break;
+                case INT_ARRAY: size = ((NBTIntArray) tag).getValue().length; break;
+                case LONG_ARRAY: size = ((NBTLongArray) tag).getValue().length; break;
+                default: return;
+            }
+            int end = Math.min(end(size), size);
+            for (int i = Math.max(start(size), 0); i < end; i++) {
+                switch (tag.getType()) {
+                    case LIST: path.select(((NBTList) tag).get(i), next, result); break;
+                    case BYTE_ARRAY: path.select(new NBTByte(((NBTByteArray) tag).getValue()[i]), next, result); break;
+                    case INT_ARRAY: path.select(new NBTInt(((NBTIntArray) tag).getValue()[i]), next, result); break;
+                    default: path.select(new NBTLong(((NBTLongArray) tag).getValue()[i]), next, result); break;
+                }
+            }
+        }
+        
+        @Override
+        void select(NBTPath path, NBTInputStream stream, NBTType type, int next, List<NBTTag> result, byte[] buffer)
+            throws IOException {
+            NBTType elementType;
+            switch (type) {
+                case LIST: elementType = NBTType.getById(stream.readByte()); break;
+                case BYTE_ARRAY: elementType = NBTType.BYTE; break;
+                case INT_ARRAY: elementType = NBTType.INT; break;
+                case LONG_ARRAY: elementType = NBTType.LONG; break;
+                default: stream.skipTag(type); return;
+            }
+            int size = stream.readIntValue();
+            if (size < 0) throw new IOException("negative length: " + size);
+            int start = start(size), end = end(size);
+            
+            for (int i = 0; i < size; i++) {
+                if (i < start || i >= end) stream.skipTag(elementType);
+                else path.select(stream, elementType, next, result, buffer);
+            }
+        }
+    
+    }
+    
+    // PARSING
+    
+    private static final class Parser {
+        
+        private final String str;
+        private final List<Segment> segments = new ArrayList<>();
+        private int index;
+        
+        private Parser(String str) {
+            this.str = str;
+        }
+        
+        private Segment[] parse() {
+            if (str.isEmpty()) return new Segment[0];
+            if (currentChar() == '{') segments.add(new FilterSegment(parseCompound()));
+            else parseName();
+            
+            while (hasNext()) {
+                char c = str.charAt(index++);
+                if (c == '.') parseName();
+                else if (c == '[') parseElements();
+                else throw parseException("Expected '.' or '['");
+            }
+            return segments.toArray(new Segment[0]);
+        }
+        
+        private void parseName() {
+            if (!hasNext()) throw parseException("Expected name");
+            char c = currentChar();
+            if (c == '*') {
+                index++;
+                segments.add(new WildcardSegment());
+                return;
+            }
+            
+            String name;
+            if (c == '"') {
+                name = parseQuotedString();
+            }
+            else {
+                int start = index;
+                while (hasNext() && isNameChar(currentChar()))
+                    index++;
+                if (start == index) throw parseException("Expected name");
+                name = str.substring(start, index);
+            }
+            segments.add(new ChildSegment(name));
+            if (hasNext() && currentChar() == '{') segments.add(new FilterSegment(parseCompound()));
+        }
+        
+        private String parseQuotedString() {
+            StringBuilder builder = new StringBuilder();
+            index++;
+            while (hasNext()) {
+                char c = str.charAt(index++);
+                if (c == '"') return builder.toString();
+                if (c == '\\') {
+                    if (!hasNext()) break;
+                    c = str.charAt(index++);
+                    if (c != '\\' && c != '"') throw parseException("Invalid escape of '" + c + "'");
+                }
+                builder.append(c);
+            }
+            throw parseException("Missing termination quote");
+        }
+        
+        private void parseElements() {
+            if (hasNext() && currentChar() == '{') {
+                segments.add(new ElementSegment(0, Integer.MAX_VALUE, false));
+                segments.add(new FilterSegment(parseCompound()));
+            }
+            else if (hasNext() && currentChar() == '*') {
+                index++;
+                segments.add(new ElementSegment(0, Integer.MAX_VALUE, false));
+            }
+            else if (hasNext() && currentChar() == ']') {
+                segments.add(new ElementSegment(0, Integer.MAX_VALUE, false));
+            }
+            else {
+                Integer from = parseIndex();
+                if (hasNext() && currentChar() == ':') {
+                    index++;
+                    Integer to = parseIndex();
+                    segments.add(new ElementSegment(from == null? 0 : from, to == null? Integer.MAX_VALUE : to, false));
+                }
+                else if (from == null) {
+                    throw parseException("Expected index");
+                }
+                else {
+                    segments.add(new ElementSegment(from, from, true));
+                }
+            }
+            if (!hasNext() || str.charAt(index++) != ']') throw parseException("Expected ']'");
+        }
+        
+        private Integer parseIndex() {
+            int start = index;
+            if (hasNext() && currentChar() == '-') index++;
+            while (hasNext() && currentChar() >= '0' && currentChar() <= '9')
+                index++;
+            if (start == index) return null;
+            try {
+                return Integer.parseInt(str.substring(start, index));
+            } catch (NumberFormatException ex) {
+                throw parseException("Invalid index");
+            }
+        }
+        
+        /**
+         * Parses the compound pattern at the current index, which ends at the matching closing brace outside of quotes.
+         *
+         * @return the pattern
+         */
+        private NBTCompound parseCompound() {
+            int start = index, depth = 0;
+            boolean quoted = false;
+            while (hasNext()) {
+                char c = str.charAt(index++);
+                if (quoted) {
+                    if (c == '\\') index++;
+                    else if (c == '"') quoted = false;
+                }
+                else if (c == '"') quoted = true;
+                else if (c == '{' || c == '[') depth++;
+                else if ((c == '}' || c == ']') && --depth == 0) {
+                    try {
+                        return (NBTCompound) MojangsonParser.parse(str.substring(start, index)).getTag();
+                    } catch (MojangsonParseException ex) {
+                        throw new IllegalArgumentException("Invalid pattern in path " + str, ex);
+                    }
+                }
+            }
+            throw parseException("Missing closing brace");
+        }
+        
+        private boolean hasNext() {
+            return index < str.length();
+        }
+        
+        private char currentChar() {
+            return str.charAt(index);
+        }
+        
+        private IllegalArgumentException parseException(String message) {
+            return new IllegalArgumentException(message + " at index " + index + " of path " + str);
+        }
+        
+        private static boolean isNameChar(char c) {
+            return c != '.' && c != '[' && c != ']' && c != '{' && c != '}' && c != '"' && !Character.isWhitespace(c);
+        }
+    
+    }
+
+}
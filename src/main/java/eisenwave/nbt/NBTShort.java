@@ -5,12 +5,32 @@ package eisenwave.nbt;
  */
 public final class NBTShort extends NBTTag implements Cloneable {
 
+    private final static int CACHE_LOW = -128, CACHE_HIGH = 1024;
+    private final static NBTShort[] CACHE = new NBTShort[CACHE_HIGH - CACHE_LOW];
+    
+    static {
+        for (int i = 0; i < CACHE.length; i++)
+            CACHE[i] = (NBTShort) new NBTShort((short) (i + CACHE_LOW)).freeze();
+    }
+    
     private short value;
     
     public NBTShort(short value) {
         this.value = value;
     }
     
+    /**
+     * Returns a frozen short tag with the given value. Tags of small values are cached and shared.
+     *
+     * @param value the value
+     * @return a frozen tag
+     */
+    public static NBTShort valueOf(short value) {
+        if (value >= CACHE_LOW && value < CACHE_HIGH)
+            return CACHE[value - CACHE_LOW];
+        return (NBTShort) new NBTShort(value).freeze();
+    }
+    
     @Override
     public Short getValue() {
         return value;
@@ -21,7 +41,9 @@ public final class NBTShort extends NBTTag implements Cloneable {
     }
     
     public void setShortValue(short value) {
+        checkMutable();
         this.value = value;
+        modified();
     }
     
     @Override
@@ -45,11 +67,21 @@ public final class NBTShort extends NBTTag implements Cloneable {
         return Short.hashCode(value);
     }
     
+    @Override
+    public long contentHash() {
+        return hash(NBTType.SHORT, value);
+    }
+    
     @Override
     public String toMSONString() {
         return value+"s";
     }
     
+    @Override
+    public NBTShort toMutable() {
+        return frozen? clone() : this;
+    }
+    
     @Override
     public NBTShort clone() {
         return new NBTShort(value);
@@ -1,5 +1,7 @@
 package eisenwave.nbt;
 
+import java.util.Objects;
+
 /**
  * The {@code TAG_String} tag.
  */
@@ -17,7 +19,9 @@ public final class NBTString extends NBTTag implements Cloneable {
     }
     
     public void setValue(String value) {
-        this.value = value;
+        checkMutable();
+        this.value = Objects.requireNonNull(value);
+        modified();
     }
     
     @Override
@@ -32,11 +36,21 @@ public final class NBTString extends NBTTag implements Cloneable {
         return value.hashCode();
     }
     
+    @Override
+    public long contentHash() {
+        return hash(NBTType.STRING, hash(value));
+    }
+    
     @Override
     public String toMSONString() {
         return toMSONString(value);
     }
     
+    @Override
+    public NBTString toMutable() {
+        return frozen? clone() : this;
+    }
+    
     @Override
     public NBTString clone() {
         return new NBTString(value);
@@ -1,13 +1,33 @@
 package eisenwave.nbt;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
 /**
  * An abstract NBT-Tag.
  */
 public abstract class NBTTag {
 
+    /**
+     * The compound or list which this tag has been added to or null if it is not part of any container or
+     * {@link #shared}.
+     */
+    NBTTag parent;
+    
+    /**
+     * Whether this tag has been added to more than one container, so that its modification can not be propagated.
+     */
+    boolean shared;
+    
+    /**
+     * Whether this tag is immutable.
+     */
+    boolean frozen;
+    
     /**
      * Gets the value of this tag.
-     * 
+     *
      * @return the value of this tag
      */
     public abstract Object getValue();
@@ -35,6 +55,363 @@ public abstract class NBTTag {
      */
     public abstract String toMSONString();
     
+    /**
+     * <p>
+     *     Returns a 64-bit hash of the content of this tag.
+     * </p>
+     * <p>
+     *     Equal tags have equal content hashes. Unlike {@link #hashCode()}, the content hash is stable across different
+     *     runs of the JVM and may be persisted. The order of keys in compounds does not affect the hash.
+     * </p>
+     * <p>
+     *     Compounds and lists cache their hash until they or any of their descendants are modified.
+     * </p>
+     *
+     * @return the content hash
+     */
+    public abstract long contentHash();
+    
+    /**
+     * <p>
+     *     Returns the cached binary payload of this tag or null if there is none.
+     * </p>
+     * <p>
+     *     Payloads are cached by an {@link eisenwave.nbt.io.NBTOutputStream} with enabled caching and discarded as soon
+     *     as this tag or any of its descendants are modified. Modifications of the arrays of array tags are not tracked
+     *     and do not discard cached payloads. The returned buffer must not be modified.
+     * </p>
+     *
+     * @return the cached payload or null
+     */
+    public ByteBuffer getCachedPayload() {
+        return null;
+    }
+    
+    /**
+     * <p>
+     *     Caches the binary payload of this tag, so that it can be written without encoding this tag again.
+     * </p>
+     * <p>
+     *     Only compounds and lists whose descendants can be tracked cache their payload.
+     * </p>
+     *
+     * @param payload the payload, excluding the type and name of this tag
+     * @return whether the payload has been cached
+     */
+    public boolean cachePayload(ByteBuffer payload) {
+        return false;
+    }
+    
+    // FREEZING
+    
+    /**
+     * Returns whether this tag has been frozen and is immutable.
+     *
+     * @return whether this tag is frozen
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    /**
+     * <p>
+     *     Freezes this tag and all of its descendants in place, which makes them immutable. Returns this tag.
+     * </p>
+     * <p>
+     *     Frozen tags can be shared between any amount of compounds, lists and threads. Frozen compounds and lists
+     *     support persistent modification, which creates modified copies in {@code O(log n)} that share all unchanged
+     *     parts with the original.
+     * </p>
+     * <p>
+     *     The arrays of array tags can not be protected and must not be modified after freezing.
+     * </p>
+     *
+     * @return this tag
+     */
+    public NBTTag freeze() {
+        frozen = true;
+        return this;
+    }
+    
+    /**
+     * <p>
+     *     Returns a mutable version of this tag, which is this tag itself if it is not frozen.
+     * </p>
+     * <p>
+     *     Frozen compounds and lists are copied in {@code O(1)} by sharing their storage with the copy. Their frozen
+     *     children are copied lazily as soon as they are retrieved from the copy, so that the whole tree becomes
+     *     mutable without being copied up front. Frozen primitive and array tags are not copied lazily and should be
+     *     replaced instead.
+     * </p>
+     *
+     * @return a mutable version of this tag
+     */
+    public abstract NBTTag toMutable();
+    
+    /**
+     * Must be called before this tag is modified.
+     *
+     * @throws UnsupportedOperationException if this tag is frozen
+     */
+    void checkMutable() {
+        if (frozen) throw new UnsupportedOperationException("tag is frozen");
+    }
+    
+    /**
+     * Freezes this compound or list once all of its children have been frozen.
+     */
+    void freezeContainer() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Freezes a compound or list and all of its descendants. Descendants are frozen on an explicit stack instead of
+     * the call stack, so that the depth of the tree is not limited. The children of containers are the ones which
+     * they hash.
+     *
+     * @param root the compound or list
+     */
+    static void freezeTree(NBTTag root) {
+        // the containers which are being frozen and their remaining children
+        NBTTag[] containers = new NBTTag[16];
+        Iterator<?>[] children = new Iterator<?>[16];
+        containers[0] = root;
+        children[0] = root.hashChildren();
+        int depth = 1;
+        
+        while (depth > 0) {
+            int top = depth - 1;
+            NBTTag container = containers[top];
+            if (children[top].hasNext()) {
+                NBTTag child = container.hashChild(children[top].next());
+                if (child.frozen) continue;
+                if (!(child instanceof NBTCompound || child instanceof NBTList)) {
+                    child.freeze();
+                    continue;
+                }
+                if (depth == containers.length) {
+                    containers = Arrays.copyOf(containers, depth * 2);
+                    children = Arrays.copyOf(children, depth * 2);
+                }
+                containers[depth] = child;
+                children[depth++] = child.hashChildren();
+                continue;
+            }
+            
+            container.freezeContainer();
+            containers[top] = null;
+            children[top] = null;
+            depth--;
+        }
+    }
+    
+    // CACHING
+    
+    /**
+     * Returns whether modifications of this tag are tracked. Untracked tags can not be modified through their API and
+     * never invalidate the cached hashes of their containers.
+     *
+     * @return whether modifications of this tag are tracked
+     */
+    boolean isTracked() {
+        return !frozen;
+    }
+    
+    /**
+     * Returns whether the content hash of this tag can be relied upon by its containers without being recomputed.
+     *
+     * @return whether the hash of this tag is stable
+     */
+    boolean isHashStable() {
+        return true;
+    }
+    
+    /**
+     * Returns whether the cached payload of this tag can be relied upon by its containers.
+     *
+     * @return whether the payload of this tag is stable
+     */
+    boolean isPayloadStable() {
+        return true;
+    }
+    
+    /**
+     * Discards all cached state of this tag.
+     *
+     * @return whether any state was cached
+     */
+    boolean discardCache() {
+        return false;
+    }
+    
+    /**
+     * Must be called after this tag has been modified. Discards the caches of this tag and all of its ancestors.
+     * <p>
+     *     Containers only cache state if their children have cached the same state, so the propagation can stop at the
+     *     first ancestor without any cache.
+     * </p>
+     */
+    void modified() {
+        discardCache();
+        for (NBTTag tag = parent; tag != null && tag.discardCache(); tag = tag.parent);
+    }
+    
+    /**
+     * Must be called when a tag is added to this container.
+     *
+     * @param child the added tag
+     */
+    void adopt(NBTTag child) {
+        if (!child.isTracked() || child.shared) return;
+        if (child.parent == null) child.parent = this;
+        else {
+            child.parent = null;
+            child.shared = true;
+        }
+    }
+    
+    /**
+     * Must be called when a tag is removed from this container.
+     *
+     * @param child the removed tag or null
+     */
+    void release(NBTTag child) {
+        if (child != null && child.parent == this)
+            child.parent = null;
+    }
+    
+    /**
+     * Returns whether the hash of a child can be cached by this container.
+     *
+     * @param child the child
+     * @return whether the hash of the child can be cached
+     */
+    boolean isCacheable(NBTTag child) {
+        return !child.isTracked() || child.parent == this && child.isHashStable();
+    }
+    
+    /**
+     * Returns whether the payload of a child can be cached by this container.
+     *
+     * @param child the child
+     * @return whether the payload of the child can be cached
+     */
+    boolean isPayloadCacheable(NBTTag child) {
+        return (!child.isTracked() || child.parent == this) && child.isPayloadStable();
+    }
+    
+    // HASHING
+    
+    /**
+     * Returns the children of this container whose hashes are combined into its content hash.
+     *
+     * @return the entries of a compound or the elements of a list
+     */
+    Iterator<?> hashChildren() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Returns the tag of a child which has been returned by {@link #hashChildren()}.
+     *
+     * @param child the child
+     * @return the tag of the child
+     */
+    NBTTag hashChild(Object child) {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Returns the value which the hashes of the children of this container are combined with.
+     *
+     * @return the initial sum
+     */
+    long hashSeed() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Combines the hash of a child with the hashes of the previous children.
+     *
+     * @param sum the combined hashes of the previous children
+     * @param child the child
+     * @param hash the content hash of the child
+     * @return the combined hashes
+     */
+    long combineHash(long sum, Object child, long hash) {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Completes the content hash of this container and caches it if possible.
+     *
+     * @param sum the combined hashes of all children
+     * @param cacheable whether the hashes of all children can be cached by this container
+     * @return the content hash
+     */
+    long completeHash(long sum, boolean cacheable) {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Computes the content hash of a compound or list. Descendants whose hash is not cached are hashed on an explicit
+     * stack instead of the call stack, so that the depth of the tree is not limited.
+     *
+     * @param root the compound or list
+     * @return the content hash
+     */
+    static long hashTree(NBTTag root) {
+        // the containers which are being hashed, their remaining children and the child which is being hashed
+        NBTTag[] containers = new NBTTag[16];
+        Iterator<?>[] children = new Iterator<?>[16];
+        Object[] pending = new Object[16];
+        long[] sums = new long[16];
+        boolean[] cacheable = new boolean[16];
+        int depth = 0;
+        
+        NBTTag tag = root;
+        while (true) {
+            if (depth == containers.length) {
+                containers = Arrays.copyOf(containers, depth * 2);
+                children = Arrays.copyOf(children, depth * 2);
+                pending = Arrays.copyOf(pending, depth * 2);
+                sums = Arrays.copyOf(sums, depth * 2);
+                cacheable = Arrays.copyOf(cacheable, depth * 2);
+            }
+            containers[depth] = tag;
+            children[depth] = tag.hashChildren();
+            sums[depth] = tag.hashSeed();
+            cacheable[depth++] = true;
+            
+            // combine the hashes of children until one of them has to be hashed first
+            while (true) {
+                int top = depth - 1;
+                NBTTag container = containers[top];
+                if (children[top].hasNext()) {
+                    Object child = children[top].next();
+                    tag = container.hashChild(child);
+                    if (!tag.isHashStable()) {
+                        pending[top] = child;
+                        break;
+                    }
+                    sums[top] = container.combineHash(sums[top], child, tag.contentHash());
+                    cacheable[top] &= container.isCacheable(tag);
+                    continue;
+                }
+                
+                long hash = container.completeHash(sums[top], cacheable[top]);
+                containers[top] = null;
+                children[top] = null;
+                if (--depth == 0) return hash;
+                
+                NBTTag parent = containers[depth - 1];
+                sums[depth - 1] = parent.combineHash(sums[depth - 1], pending[depth - 1], hash);
+                cacheable[depth - 1] &= parent.isCacheable(container);
+                pending[depth - 1] = null;
+            }
+        }
+    }
+    
     // MISC
     
     @Override
@@ -49,7 +426,7 @@ public abstract class NBTTag {
     
     @Override
     public int hashCode() {
-        return getValue().hashCode();
+        return Long.hashCode(contentHash());
     }
     
     @Override
@@ -57,4 +434,47 @@ public abstract class NBTTag {
         return toMSONString();
     }
     
+    // UTIL
+    
+    /**
+     * Finalizes a 64-bit hash by spreading its bits.
+     *
+     * @param hash the hash
+     * @return the mixed hash
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    /**
+     * Returns the hash of a primitive value of the given type.
+     *
+     * @param type the type
+     * @param bits the bits of the value
+     * @return the hash
+     */
+    static long hash(NBTType type, long bits) {
+        return mix(bits + (type.getId() + 1) * 0x9e3779b97f4a7c15L);
+    }
+    
+    /**
+     * Returns the stable 64-bit hash of a string.
+     *
+     * @param str the string
+     * @return the hash
+     */
+    static long hash(String str) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < str.length(); i++) {
+            hash ^= str.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
 }
@@ -0,0 +1,148 @@
+package eisenwave.nbt;
+
+import java.util.*;
+
+/**
+ * <p>
+ *     The immutable storage of frozen compounds.
+ * </p>
+ * <p>
+ *     Entries are stored in a {@link PersistentVector} in the order in which they have been inserted, and indexed by
+ *     their key in a {@link HashTrie}. Removed entries leave a gap in the vector which is skipped during iteration
+ *     until the vector is compacted.
+ * </p>
+ */
+final class PersistentMap extends AbstractMap<String, NBTTag> {
+    
+    final static PersistentMap EMPTY = new PersistentMap(HashTrie.empty(), PersistentVector.empty());
+    
+    private final HashTrie<String, Integer> index;
+    private final PersistentVector<Map.Entry<String, NBTTag>> entries;
+    
+    private final Set<Map.Entry<String, NBTTag>> entrySet = new EntrySet();
+    
+    private PersistentMap(HashTrie<String, Integer> index, PersistentVector<Map.Entry<String, NBTTag>> entries) {
+        this.index = index;
+        this.entries = entries;
+    }
+    
+    /**
+     * Creates a new map containing the entries of the given map.
+     *
+     * @param map the map
+     * @return the new map
+     */
+    static PersistentMap of(Map<String, NBTTag> map) {
+        return of(map.entrySet(), map.size());
+    }
+    
+    /**
+     * Creates a new map containing the given entries.
+     *
+     * @param entries the entries, which must have distinct keys
+     * @param size the amount of entries
+     * @return the new map
+     */
+    static PersistentMap of(Iterable<Map.Entry<String, NBTTag>> entries, int size) {
+        List<Map.Entry<String, NBTTag>> list = new ArrayList<>(size);
+        HashTrie<String, Integer> index = HashTrie.empty();
+        for (Map.Entry<String, NBTTag> entry : entries) {
+            index = index.with(entry.getKey(), list.size());
+            list.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        return new PersistentMap(index, PersistentVector.of(list));
+    }
+    
+    // GETTERS
+    
+    @Override
+    public int size() {
+        return index.size();
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && index.get(key) != null;
+    }
+    
+    @Override
+    public NBTTag get(Object key) {
+        Integer i = key == null? null : index.get(key);
+        return i == null? null : entries.get(i).getValue();
+    }
+    
+    @Override
+    public Set<Map.Entry<String, NBTTag>> entrySet() {
+        return entrySet;
+    }
+    
+    // PERSISTENT OPERATIONS
+    
+    /**
+     * Returns a new map in which the given key is mapped to the given tag. Existing keys retain their position.
+     *
+     * @param key the key
+     * @param tag the tag
+     * @return the new map
+     */
+    PersistentMap with(String key, NBTTag tag) {
+        Integer i = index.get(key);
+        if (i != null) {
+            if (entries.get(i).getValue() == tag) return this;
+            return new PersistentMap(index, entries.with(i, new SimpleImmutableEntry<>(key, tag)));
+        }
+        return new PersistentMap(
+            index.with(key, entries.size()),
+            entries.plus(new SimpleImmutableEntry<>(key, tag)));
+    }
+    
+    /**
+     * Returns a new map in which the given key is not mapped.
+     *
+     * @param key the key
+     * @return the new map
+     */
+    PersistentMap without(String key) {
+        Integer i = index.get(key);
+        if (i == null) return this;
+        PersistentMap result = new PersistentMap(index.without(key), entries.with(i, null));
+        // compact once more than half of the vector are gaps, so that the amortized cost stays logarithmic
+        int gaps = result.entries.size() - result.size();
+        return gaps > 32 && gaps > result.size()? of(result) : result;
+    }
+    
+    private final class EntrySet extends AbstractSet<Map.Entry<String, NBTTag>> {
+        
+        @Override
+        public int size() {
+            return index.size();
+        }
+        
+        @Override
+        public Iterator<Map.Entry<String, NBTTag>> iterator() {
+            return new Iterator<Map.Entry<String, NBTTag>>() {
+                private int next = skip(0);
+                
+                private int skip(int i) {
+                    while (i < entries.size() && entries.get(i) == null) i++;
+                    return i;
+                }
+                
+                @Override
+                public boolean hasNext() {
+                    return next < entries.size();
+                }
+                
+                @Override
+                public Map.Entry<String, NBTTag> next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    Map.Entry<String, NBTTag> result = entries.get(next);
+                    next = skip(next + 1);
+                    return result;
+                }
+            };
+        }
+    
+    }
+
+}
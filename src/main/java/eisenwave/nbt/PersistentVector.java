@@ -0,0 +1,162 @@
+package eisenwave.nbt;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ *     An immutable list which is stored in a tree of 32-element arrays, so that replacing and appending elements
+ *     creates a new list in {@code O(log n)} which shares all unchanged arrays with the original.
+ * </p>
+ * <p>
+ *     The elements at the end of the list are stored in a separate tail array which is only pushed into the tree once
+ *     it is full.
+ * </p>
+ *
+ * @param <E> the type of elements
+ */
+final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+    
+    private final static int BITS = 5, WIDTH = 1 << BITS, MASK = WIDTH - 1;
+    
+    private final static Object[] EMPTY_ARRAY = new Object[0];
+    
+    private final static PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, null, EMPTY_ARRAY);
+    
+    private final int size;
+    private final int shift;
+    /** The root of the tree which contains the first {@code size - tail.length} elements, or null if it is empty. */
+    private final Object[] root;
+    private final Object[] tail;
+    
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+    
+    @SuppressWarnings("unchecked")
+    static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+    
+    /**
+     * Creates a new vector containing the given elements.
+     *
+     * @param elements the elements
+     * @param <E> the type of elements
+     * @return the new vector
+     */
+    static <E> PersistentVector<E> of(Collection<? extends E> elements) {
+        Object[] array = elements.toArray();
+        PersistentVector<E> result = empty();
+        int i = 0;
+        for (; array.length - i >= WIDTH; i += WIDTH)
+            result = result.pushLeaf(Arrays.copyOfRange(array, i, i + WIDTH));
+        Object[] tail = Arrays.copyOfRange(array, i, array.length);
+        return new PersistentVector<>(array.length, result.shift, result.root, tail);
+    }
+    
+    // GETTERS
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        int treeSize = size - tail.length;
+        if (index >= treeSize)
+            return (E) tail[index - treeSize];
+        
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS)
+            node = (Object[]) node[(index >>> level) & MASK];
+        return (E) node[index & MASK];
+    }
+    
+    // PERSISTENT OPERATIONS
+    
+    /**
+     * Returns a new vector in which the element at the given index has been replaced.
+     *
+     * @param index the index
+     * @param element the new element
+     * @return the new vector
+     */
+    PersistentVector<E> with(int index, E element) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        int treeSize = size - tail.length;
+        if (index >= treeSize) {
+            Object[] newTail = tail.clone();
+            newTail[index - treeSize] = element;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, with(shift, root, index, element), tail);
+    }
+    
+    private static Object[] with(int level, Object[] node, int index, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0)
+            copy[index & MASK] = element;
+        else {
+            int child = (index >>> level) & MASK;
+            copy[child] = with(level - BITS, (Object[]) node[child], index, element);
+        }
+        return copy;
+    }
+    
+    /**
+     * Returns a new vector with an element appended to its end.
+     *
+     * @param element the element
+     * @return the new vector
+     */
+    PersistentVector<E> plus(E element) {
+        if (tail.length < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        PersistentVector<E> pushed = pushLeaf(tail);
+        return new PersistentVector<>(size + 1, pushed.shift, pushed.root, new Object[] {element});
+    }
+    
+    /**
+     * Returns a new vector without any tail in which the given leaf has been pushed into the tree.
+     *
+     * @param leaf the full leaf
+     * @return the new vector
+     */
+    private PersistentVector<E> pushLeaf(Object[] leaf) {
+        int treeSize = size - tail.length;
+        Object[] newRoot = root;
+        int newShift = shift;
+        if (newRoot == null)
+            newRoot = new Object[WIDTH];
+        else if ((treeSize >>> BITS) == 1 << shift) {
+            // the tree is full, so it becomes the first child of a new root
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newShift += BITS;
+        }
+        newRoot = pushLeaf(newShift, newRoot, treeSize, leaf);
+        return new PersistentVector<>(treeSize + WIDTH, newShift, newRoot, EMPTY_ARRAY);
+    }
+    
+    private static Object[] pushLeaf(int level, Object[] node, int index, Object[] leaf) {
+        Object[] copy = node == null? new Object[WIDTH] : node.clone();
+        int child = (index >>> level) & MASK;
+        copy[child] = level == BITS? leaf : pushLeaf(level - BITS, (Object[]) copy[child], index, leaf);
+        return copy;
+    }
+
+}
@@ -0,0 +1,151 @@
+package eisenwave.nbt;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ *     The ordered key set of a compound, which is shared by all compounds with the same keys in the same order.
+ * </p>
+ * <p>
+ *     Shapes form a tree rooted in {@link #EMPTY}. Adding a key to a shape follows a transition to the child shape,
+ *     which is created once and then reused, so compounds which are built by putting the same keys in the same order
+ *     end up with the same shape. The last transition is remembered, which makes building many siblings of the same
+ *     shape, such as the elements of a list, a single comparison per key.
+ * </p>
+ * <p>
+ *     The tree is global and never shrinks, so it is bounded twice: every shape has at most {@link #MAX_TRANSITIONS}
+ *     transitions and at most {@link #MAX_SHAPES} shapes are shared in total. Once a bound has been reached, further
+ *     shapes are created for each compound and collected with it, so compounds with dynamic keys, such as maps keyed
+ *     by UUIDs, cost some sharing but no permanent memory.
+ * </p>
+ * <p>
+ *     Shapes with more than {@link #LINEAR_SIZE} keys map their keys to slots in a hash map, smaller shapes are
+ *     scanned linearly.
+ * </p>
+ */
+final class Shape {
+    
+    /** The shape without any keys. */
+    final static Shape EMPTY = new Shape(new String[0], true);
+    
+    private final static int LINEAR_SIZE = 8;
+    
+    /** The maximum number of transitions of a shape. Further shapes are not shared to bound the memory. */
+    private final static int MAX_TRANSITIONS = 64;
+    
+    /** The maximum number of shapes in the tree. Further shapes are not shared to bound the memory. */
+    private final static int MAX_SHAPES = 1 << 16;
+    
+    private final static AtomicInteger SHARED_SHAPES = new AtomicInteger();
+    
+    private final String[] keys;
+    private final Map<String, Integer> slots;
+    /** Whether this shape is part of the tree, shapes which are not have no transitions either. */
+    private final boolean shared;
+    
+    private volatile Map<String, Shape> transitions;
+    private volatile Shape lastTransition;
+    
+    private Shape(String[] keys, boolean shared) {
+        this.keys = keys;
+        this.shared = shared;
+        if (keys.length > LINEAR_SIZE) {
+            this.slots = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++)
+                slots.put(keys[i], i);
+        }
+        else this.slots = null;
+    }
+    
+    // GETTERS
+    
+    int size() {
+        return keys.length;
+    }
+    
+    String keyAt(int slot) {
+        return keys[slot];
+    }
+    
+    /**
+     * Returns the slot of the given key.
+     *
+     * @param key the key
+     * @return the slot or -1
+     */
+    int indexOf(Object key) {
+        if (slots != null) {
+            Integer slot = slots.get(key);
+            return slot == null? -1 : slot;
+        }
+        for (int i = 0; i < keys.length; i++)
+            if (keys[i].equals(key)) return i;
+        return -1;
+    }
+    
+    // TRANSITIONS
+    
+    /**
+     * Returns the shape with the given key appended to the keys of this shape.
+     *
+     * @param key the key, which must not be contained in this shape
+     * @return the shape
+     */
+    Shape with(String key) {
+        if (!shared) return new Shape(append(key), false);
+        Shape last = lastTransition;
+        if (last != null && last.keys[keys.length].equals(key)) return last;
+        
+        Map<String, Shape> transitions = this.transitions;
+        if (transitions == null) {
+            synchronized (this) {
+                if ((transitions = this.transitions) == null)
+                    this.transitions = transitions = new ConcurrentHashMap<>();
+            }
+        }
+        Shape result = transitions.get(key);
+        if (result == null) {
+            if (transitions.size() >= MAX_TRANSITIONS || SHARED_SHAPES.get() >= MAX_SHAPES)
+                return new Shape(append(key), false);
+            result = new Shape(append(key), true);
+            Shape previous = transitions.putIfAbsent(key, result);
+            if (previous != null) result = previous;
+            else SHARED_SHAPES.incrementAndGet();
+        }
+        lastTransition = result;
+        return result;
+    }
+    
+    /**
+     * Returns the number of shapes in the tree, excluding {@link #EMPTY}.
+     *
+     * @return the number of shared shapes
+     */
+    static int sharedCount() {
+        return SHARED_SHAPES.get();
+    }
+    
+    /**
+     * Returns the shape without the key at the given slot. The following keys move down by one slot.
+     *
+     * @param slot the slot
+     * @return the shape
+     */
+    Shape without(int slot) {
+        Shape result = EMPTY;
+        for (int i = 0; i < keys.length; i++)
+            if (i != slot) result = result.with(keys[i]);
+        return result;
+    }
+    
+    private String[] append(String key) {
+        String[] result = new String[keys.length + 1];
+        System.arraycopy(keys, 0, result, 0, keys.length);
+        result[keys.length] = key;
+        return result;
+    }
+
+}
@@ -0,0 +1,677 @@
+package eisenwave.nbt.bind;
+
+import eisenwave.nbt.*;
+import eisenwave.nbt.io.NBTInputStream;
+import eisenwave.nbt.io.NBTOutputStream;
+
+import java.io.IOException;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Converts the values of bound fields, list elements and map values to tags and back, or writes and reads them as the
+ * payloads of tags directly.
+ */
+abstract class Converter {
+    
+    /** The type of tags which this converter creates, or null if it can create tags of any type. */
+    final NBTType type;
+    
+    Converter(NBTType type) {
+        this.type = type;
+    }
+    
+    /**
+     * Converts a value to a tag.
+     *
+     * @param value the value, which is not null
+     * @return the tag
+     */
+    abstract NBTTag toTag(Object value);
+    
+    /**
+     * Converts a tag to a value.
+     *
+     * @param tag the tag, which is of the type of this converter
+     * @return the value
+     */
+    abstract Object fromTag(NBTTag tag);
+    
+    /**
+     * Converts a tag to a value after verifying its type.
+     *
+     * @param tag the tag
+     * @param name the name of the tag for the error message
+     * @return the value
+     * @throws IllegalArgumentException if the tag is not of the type of this converter
+     */
+    Object fromTag(NBTTag tag, String name) {
+        if (type != null && tag.getType() != type)
+            throw new IllegalArgumentException(name + " is not of type " + type + " but " + tag.getType());
+        return fromTag(tag);
+    }
+    
+    /**
+     * Returns the type of the tag of a value.
+     *
+     * @param value the value, which is not null
+     * @return the type of the tag
+     */
+    NBTType typeOf(Object value) {
+        return type;
+    }
+    
+    /**
+     * Writes a value as the payload of its tag.
+     *
+     * @param value the value, which is not null
+     * @param stream the stream
+     * @throws IOException if an I/O error occurs
+     */
+    abstract void write(Object value, NBTOutputStream stream) throws IOException;
+    
+    /**
+     * Reads a value from the payload of a tag.
+     *
+     * @param stream the stream
+     * @param type the type of the tag, which is the type of this converter unless it can read tags of any type
+     * @param buffer a buffer for names of entries of nested compounds
+     * @return the value
+     * @throws IOException if an I/O error occurs or the payload does not match the value
+     */
+    abstract Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException;
+    
+    /**
+     * Accounts for the tag of a value with the limits of the stream and reads the value from its payload.
+     *
+     * @param stream the stream
+     * @param type the type of the tag, which is the type of this converter unless it can read tags of any type
+     * @param buffer a buffer for names of entries of nested compounds
+     * @return the value
+     * @throws IOException if an I/O error occurs, the payload does not match the value or exceeds the limits
+     */
+    Object readChecked(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+        stream.accountTag(type);
+        return read(stream, type, buffer);
+    }
+    
+    /**
+     * Returns the converter for values of the given type.
+     *
+     * @param type the type
+     * @return the converter
+     * @throws IllegalArgumentException if values of the type can not be converted
+     */
+    static Converter of(Type type) {
+        if (type instanceof Class) return of((Class<?>) type, null);
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            return of((Class<?>) parameterized.getRawType(), parameterized.getActualTypeArguments());
+        }
+        if (type instanceof WildcardType) return of(((WildcardType) type).getUpperBounds()[0]);
+        if (type instanceof GenericArrayType) throw new IllegalArgumentException("generic arrays can not be bound");
+        throw new IllegalArgumentException("unbound type variable: " + type);
+    }
+    
+    private static Converter of(Class<?> raw, Type[] arguments) {
+        if (raw == byte.class || raw == Byte.class) return BYTE;
+        if (raw == boolean.class || raw == Boolean.class) return BOOLEAN;
+        if (raw == short.class || raw == Short.class) return SHORT;
+        if (raw == int.class || raw == Integer.class) return INT;
+        if (raw == long.class || raw == Long.class) return LONG;
+        if (raw == float.class || raw == Float.class) return FLOAT;
+        if (raw == double.class || raw == Double.class) return DOUBLE;
+        if (raw == String.class) return STRING;
+        if (raw == byte[].class) return BYTE_ARRAY;
+        if (raw == int[].class) return INT_ARRAY;
+        if (raw == long[].class) return LONG_ARRAY;
+        if (NBTTag.class.isAssignableFrom(raw)) return new TagConverter(raw);
+        if (raw.isEnum()) return new EnumConverter(raw);
+        if (raw.isArray() || raw.isPrimitive())
+            throw new IllegalArgumentException(raw + " can not be bound");
+        
+        if (raw == List.class || raw == Collection.class || raw == Iterable.class || raw == ArrayList.class)
+            return new CollectionConverter(element(raw, arguments, 0), ArrayList::new);
+        if (raw == Set.class || raw == LinkedHashSet.class)
+            return new CollectionConverter(element(raw, arguments, 0), LinkedHashSet::new);
+        if (raw == Map.class || raw == LinkedHashMap.class) {
+            if (arguments == null || arguments[0] != String.class)
+                throw new IllegalArgumentException("maps must have String keys");
+            return new MapConverter(element(raw, arguments, 1));
+        }
+        if (Iterable.class.isAssignableFrom(raw) || Map.class.isAssignableFrom(raw))
+            throw new IllegalArgumentException("unsupported collection type: " + raw);
+        return new NestedConverter(raw);
+    }
+    
+    private static Converter element(Class<?> raw, Type[] arguments, int index) {
+        if (arguments == null) throw new IllegalArgumentException("raw type can not be bound: " + raw);
+        return of(arguments[index]);
+    }
+    
+    // PRIMITIVES
+    
+    final static Converter BYTE = new Converter(NBTType.BYTE) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTByte((Byte) value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTByte) tag).getByteValue();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeByte((Byte) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readByte();
+        }
+    };
+    
+    final static Converter BOOLEAN = new Converter(NBTType.BYTE) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTByte((byte) ((Boolean) value? 1 : 0));
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTByte) tag).getByteValue() != 0;
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeByte((Boolean) value? 1 : 0);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readByte() != 0;
+        }
+    };
+    
+    final static Converter SHORT = new Converter(NBTType.SHORT) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTShort((Short) value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTShort) tag).getShortValue();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeShortValue((Short) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readShortValue();
+        }
+    };
+    
+    final static Converter INT = new Converter(NBTType.INT) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTInt((Integer) value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTInt) tag).getIntValue();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeIntValue((Integer) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readIntValue();
+        }
+    };
+    
+    final static Converter LONG = new Converter(NBTType.LONG) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTLong((Long) value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTLong) tag).getLongValue();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeLongValue((Long) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readLongValue();
+        }
+    };
+    
+    final static Converter FLOAT = new Converter(NBTType.FLOAT) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTFloat((Float) value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTFloat) tag).getFloatValue();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeFloatValue((Float) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readFloatValue();
+        }
+    };
+    
+    final static Converter DOUBLE = new Converter(NBTType.DOUBLE) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTDouble((Double) value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTDouble) tag).getDoubleValue();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeDoubleValue((Double) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readDoubleValue();
+        }
+    };
+    
+    final static Converter STRING = new Converter(NBTType.STRING) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTString((String) value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTString) tag).getValue();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeString((String) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readString();
+        }
+    };
+    
+    // arrays are copied, so that the bound object and the tag do not share their content
+    
+    final static Converter BYTE_ARRAY = new Converter(NBTType.BYTE_ARRAY) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTByteArray(((byte[]) value).clone());
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTByteArray) tag).getValue().clone();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            byte[] array = (byte[]) value;
+            stream.writeIntValue(array.length);
+            stream.write(array);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            byte[] array = new byte[stream.readCheckedLength(NBTType.BYTE_ARRAY)];
+            stream.readFully(array);
+            return array;
+        }
+    };
+    
+    final static Converter INT_ARRAY = new Converter(NBTType.INT_ARRAY) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTIntArray(((int[]) value).clone());
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTIntArray) tag).getValue().clone();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            int[] array = (int[]) value;
+            stream.writeIntValue(array.length);
+            for (int i : array)
+                stream.writeIntValue(i);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            int[] array = new int[stream.readCheckedLength(NBTType.INT_ARRAY)];
+            for (int i = 0; i < array.length; i++)
+                array[i] = stream.readIntValue();
+            return array;
+        }
+    };
+    
+    final static Converter LONG_ARRAY = new Converter(NBTType.LONG_ARRAY) {
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTLongArray(((long[]) value).clone());
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return ((NBTLongArray) tag).getValue().clone();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            long[] array = (long[]) value;
+            stream.writeIntValue(array.length);
+            for (long l : array)
+                stream.writeLongValue(l);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            long[] array = new long[stream.readCheckedLength(NBTType.LONG_ARRAY)];
+            for (int i = 0; i < array.length; i++)
+                array[i] = stream.readLongValue();
+            return array;
+        }
+    };
+    
+    // COMPOSITES
+    
+    /**
+     * Stores tags as they are.
+     */
+    private static final class TagConverter extends Converter {
+        
+        private final Class<?> tagClass;
+        
+        private TagConverter(Class<?> tagClass) {
+            super(null);
+            this.tagClass = tagClass;
+        }
+        
+        @Override
+        NBTTag toTag(Object value) {
+            return (NBTTag) value;
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return tag;
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag, String name) {
+            if (!tagClass.isInstance(tag))
+                throw new IllegalArgumentException(name + " is not a " + tagClass.getSimpleName());
+            return tag;
+        }
+        
+        @Override
+        NBTType typeOf(Object value) {
+            return ((NBTTag) value).getType();
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeTag((NBTTag) value);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            NBTTag tag = stream.readTag(type, stream.getContainerDepth());
+            if (!tagClass.isInstance(tag)) throw new IOException(type + " is not a " + tagClass.getSimpleName());
+            return tag;
+        }
+        
+        @Override
+        Object readChecked(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            // the stream accounts for the tags which it reads itself
+            return read(stream, type, buffer);
+        }
+    
+    }
+    
+    /**
+     * Stores enum constants by their name.
+     */
+    private static final class EnumConverter extends Converter {
+        
+        private final Map<String, Object> constants = new HashMap<>();
+        
+        private EnumConverter(Class<?> enumClass) {
+            super(NBTType.STRING);
+            for (Object constant : enumClass.getEnumConstants())
+                constants.put(((Enum<?>) constant).name(), constant);
+        }
+        
+        @Override
+        NBTTag toTag(Object value) {
+            return new NBTString(((Enum<?>) value).name());
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            Object constant = constants.get(((NBTString) tag).getValue());
+            if (constant == null) throw new IllegalArgumentException("unknown constant: " + tag.getValue());
+            return constant;
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            stream.writeString(((Enum<?>) value).name());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            String name = stream.readString();
+            Object constant = constants.get(name);
+            if (constant == null) throw new IOException("unknown constant: " + name);
+            return constant;
+        }
+    
+    }
+    
+    private static final class CollectionConverter extends Converter {
+        
+        private final Converter element;
+        private final Supplier<Collection<Object>> factory;
+        
+        private CollectionConverter(Converter element, Supplier<Collection<Object>> factory) {
+            super(NBTType.LIST);
+            this.element = element;
+            this.factory = factory;
+        }
+        
+        @Override
+        NBTTag toTag(Object value) {
+            Collection<?> collection = (Collection<?>) value;
+            NBTList list = new NBTList(element.type, collection.size());
+            for (Object object : collection)
+                list.add(element.toTag(Objects.requireNonNull(object, "null element")));
+            return list;
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            Collection<Object> result = factory.get();
+            for (NBTTag element : (NBTList) tag)
+                result.add(this.element.fromTag(element, "element"));
+            return result;
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            Collection<?> collection = (Collection<?>) value;
+            NBTType elementType = element.type;
+            if (elementType == null) {
+                // lists of tags are of the type of their first element like an NBTList
+                elementType = collection.isEmpty()? NBTType.END : element.typeOf(collection.iterator().next());
+            }
+            stream.writeByte(elementType.getId());
+            stream.writeIntValue(collection.size());
+            for (Object object : collection) {
+                Objects.requireNonNull(object, "null element");
+                if (element.typeOf(object) != elementType)
+                    throw new IllegalArgumentException("list elements must be of type " + elementType);
+                element.write(object, stream);
+            }
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            NBTType elementType = NBTType.getById(stream.readByte());
+            int length = stream.readCheckedLength(NBTType.LIST);
+            if (length > 0 && element.type != null && elementType != element.type)
+                throw new IOException("element is not of type " + element.type + " but " + elementType);
+            stream.enterContainer();
+            try {
+                Collection<Object> result = factory.get();
+                for (int i = 0; i < length; i++)
+                    result.add(element.readChecked(stream, elementType, buffer));
+                return result;
+            } finally {
+                stream.exitContainer();
+            }
+        }
+    
+    }
+    
+    private static final class MapConverter extends Converter {
+        
+        private final Converter value;
+        
+        private MapConverter(Converter value) {
+            super(NBTType.COMPOUND);
+            this.value = value;
+        }
+        
+        @Override
+        NBTTag toTag(Object value) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            NBTCompound compound = new NBTCompound(map.size());
+            map.forEach((k, v) -> compound.put((String) k, this.value.toTag(Objects.requireNonNull(v, "null value"))));
+            return compound;
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            ((NBTCompound) tag).forEach((k, v) -> result.put(k, value.fromTag(v, k)));
+            return result;
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                Object v = Objects.requireNonNull(entry.getValue(), "null value");
+                stream.writeByte(this.value.typeOf(v).getId());
+                stream.writeString((String) entry.getKey());
+                this.value.write(v, stream);
+            }
+            stream.writeByte(NBTType.END.getId());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            Map<String, Object> result = new LinkedHashMap<>();
+            stream.enterContainer();
+            try {
+                int id;
+                while ((id = stream.readByte()) != NBTType.END.getId()) {
+                    NBTType valueType = NBTType.getById((byte) id);
+                    String key = stream.readString();
+                    if (value.type != null && valueType != value.type)
+                        throw new IOException(key + " is not of type " + value.type + " but " + valueType);
+                    result.put(key, value.readChecked(stream, valueType, buffer));
+                }
+                return result;
+            } finally {
+                stream.exitContainer();
+            }
+        }
+    
+    }
+    
+    /**
+     * Binds values of other classes with their own codec, which is only created once it is needed so that classes
+     * can contain themselves.
+     */
+    private static final class NestedConverter extends Converter {
+        
+        private final Class<?> nestedClass;
+        private NBTCodec<Object> codec;
+        
+        private NestedConverter(Class<?> nestedClass) {
+            super(NBTType.COMPOUND);
+            this.nestedClass = nestedClass;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private NBTCodec<Object> codec() {
+            if (codec == null) codec = (NBTCodec<Object>) NBTCodec.of(nestedClass);
+            return codec;
+        }
+        
+        @Override
+        NBTTag toTag(Object value) {
+            return codec().encode(value);
+        }
+        
+        @Override
+        Object fromTag(NBTTag tag) {
+            return codec().decode((NBTCompound) tag);
+        }
+        
+        @Override
+        void write(Object value, NBTOutputStream stream) throws IOException {
+            codec().write(value, stream);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return codec().read(stream, buffer);
+        }
+    
+    }
+
+}
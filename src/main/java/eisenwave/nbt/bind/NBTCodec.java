@@ -0,0 +1,851 @@
+package eisenwave.nbt.bind;
+
+import eisenwave.nbt.NBTByte;
+import eisenwave.nbt.NBTCompound;
+import eisenwave.nbt.NBTDouble;
+import eisenwave.nbt.NBTFloat;
+import eisenwave.nbt.NBTInt;
+import eisenwave.nbt.NBTKey;
+import eisenwave.nbt.NBTLong;
+import eisenwave.nbt.NBTShort;
+import eisenwave.nbt.NBTTag;
+import eisenwave.nbt.NBTType;
+import eisenwave.nbt.io.NBTInputStream;
+import eisenwave.nbt.io.NBTLimitException;
+import eisenwave.nbt.io.NBTOutputStream;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * <p>
+ *     Binds the objects of a class to compounds.
+ * </p>
+ * <p>
+ *     The fields of classes which are marked with {@link NBTField} and all components of records are bound to the
+ *     compound entries named after them or after their {@link NBTName}. Supported are primitives and their wrappers,
+ *     where booleans are stored as bytes, strings, enums, which are stored by their name, primitive arrays, tags,
+ *     lists, sets and maps with string keys of supported values and objects of other bindable classes, which are
+ *     stored as nested compounds.
+ * </p>
+ * <p>
+ *     Codecs are created once per class and inspect the class with reflection only during their creation. Fields and
+ *     constructors are accessed through method handles, and primitive fields are read and written without boxing.
+ *     Classes must have a constructor without parameters, and bound fields must not be final.
+ * </p>
+ * <p>
+ *     Null values are not stored and absent entries leave the fields at their initial values. Entries of a different
+ *     type cause an {@link IllegalArgumentException}.
+ * </p>
+ * <p>
+ *     Objects can also be written to and read from binary NBT directly, without creating any tags in between. The
+ *     output is identical to serializing the compound which {@link #encode(Object)} returns, and entries without a
+ *     bound field are skipped while reading.
+ * </p>
+ *
+ * @param <T> the type of bound objects
+ */
+public final class NBTCodec<T> {
+    
+    private final static ClassValue<NBTCodec<?>> CODECS = new ClassValue<NBTCodec<?>>() {
+        @Override
+        protected NBTCodec<?> computeValue(Class<?> type) {
+            return new NBTCodec<>(type);
+        }
+    };
+    
+    private final static MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    
+    private final Class<T> type;
+    private final Binding[] bindings;
+    /** Constructs objects of classes without parameters and records from an array of their components. */
+    private final MethodHandle constructor;
+    private final boolean record;
+    
+    private NBTCodec(Class<T> type) {
+        this.type = type;
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isPrimitive() || type.isArray())
+            throw new IllegalArgumentException(type + " can not be bound");
+        this.record = Records.isRecord(type);
+        
+        List<Binding> bindings = new ArrayList<>();
+        try {
+            if (record) {
+                Class<?>[] parameters = Records.bind(type, bindings);
+                Constructor<T> constructor = type.getDeclaredConstructor(parameters);
+                constructor.setAccessible(true);
+                this.constructor = LOOKUP.unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, parameters.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            }
+            else {
+                for (Class<?> c = type; c != Object.class; c = c.getSuperclass())
+                    bindFields(c, bindings);
+                Constructor<T> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                this.constructor = LOOKUP.unreflectConstructor(constructor)
+                    .asType(MethodType.methodType(Object.class));
+            }
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(type + " has no constructor without parameters");
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException(type + " is not accessible", ex);
+        }
+        this.bindings = bindings.toArray(new Binding[0]);
+    }
+    
+    /**
+     * Returns the codec of the given class.
+     *
+     * @param type the class
+     * @param <T> the type of bound objects
+     * @return the codec
+     * @throws IllegalArgumentException if the class or one of its fields can not be bound
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> NBTCodec<T> of(Class<T> type) {
+        return (NBTCodec<T>) CODECS.get(type);
+    }
+    
+    private static void bindFields(Class<?> type, List<Binding> bindings) throws IllegalAccessException {
+        // superclass fields are stored first
+        List<Binding> declared = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (!field.isAnnotationPresent(NBTField.class)) continue;
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()))
+                throw new IllegalArgumentException("bound field must neither be static nor final: " + field);
+            field.setAccessible(true);
+            declared.add(Binding.of(name(field), field.getGenericType(),
+                LOOKUP.unreflectGetter(field), LOOKUP.unreflectSetter(field)));
+        }
+        bindings.addAll(0, declared);
+    }
+    
+    static String name(Field field) {
+        NBTName name = field.getAnnotation(NBTName.class);
+        return name == null? field.getName() : name.value();
+    }
+    
+    // GETTERS
+    
+    /**
+     * Returns the bound class.
+     *
+     * @return the class
+     */
+    public Class<T> getType() {
+        return type;
+    }
+    
+    // CODING
+    
+    /**
+     * Encodes an object into a new compound.
+     *
+     * @param object the object
+     * @return the compound
+     */
+    public NBTCompound encode(T object) {
+        NBTCompound compound = new NBTCompound(bindings.length);
+        encode(object, compound);
+        return compound;
+    }
+    
+    /**
+     * Puts the bound fields of an object into an existing compound.
+     *
+     * @param object the object
+     * @param compound the compound
+     */
+    public void encode(T object, NBTCompound compound) {
+        Objects.requireNonNull(object);
+        try {
+            for (Binding binding : bindings)
+                binding.encode(object, compound);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    /**
+     * Decodes an object from a compound.
+     *
+     * @param compound the compound
+     * @return a new object
+     * @throws IllegalArgumentException if an entry is not of the type of its field
+     */
+    public T decode(NBTCompound compound) {
+        try {
+            if (record) {
+                Object[] components = new Object[bindings.length];
+                for (int i = 0; i < bindings.length; i++)
+                    components[i] = bindings[i].read(compound);
+                return type.cast(constructor.invokeExact(components));
+            }
+            T object = type.cast(constructor.invokeExact());
+            decode(compound, object);
+            return object;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    /**
+     * Sets the bound fields of an existing object to the entries of a compound.
+     *
+     * @param compound the compound
+     * @param object the object
+     * @throws IllegalArgumentException if an entry is not of the type of its field
+     * @throws UnsupportedOperationException if the class is a record
+     */
+    public void decode(NBTCompound compound, T object) {
+        if (record) throw new UnsupportedOperationException("records are immutable");
+        Objects.requireNonNull(object);
+        try {
+            for (Binding binding : bindings)
+                binding.decode(compound, object);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+    
+    // BINARY CODING
+    
+    /**
+     * Writes an object as the payload of a compound, which consists of its entries followed by a {@code TAG_End}.
+     *
+     * @param object the object
+     * @param stream the stream
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(T object, NBTOutputStream stream) throws IOException {
+        Objects.requireNonNull(object);
+        try {
+            for (Binding binding : bindings)
+                binding.write(object, stream);
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        stream.writeByte(NBTType.END.getId());
+    }
+    
+    /**
+     * Writes an object as a named compound, which is the format of NBT files.
+     *
+     * @param name the name of the compound
+     * @param object the object
+     * @param stream the stream
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeNamed(String name, T object, NBTOutputStream stream) throws IOException {
+        stream.writeByte(NBTType.COMPOUND.getId());
+        stream.writeString(name);
+        write(object, stream);
+    }
+    
+    /**
+     * Reads an object from the payload of a compound. Entries which are not bound are skipped without being read.
+     *
+     * @param stream the stream
+     * @return a new object
+     * @throws IOException if an I/O error occurs or an entry is not of the type of its field
+     */
+    public T read(NBTInputStream stream) throws IOException {
+        stream.accountTag(NBTType.COMPOUND);
+        return read(stream, new byte[64]);
+    }
+    
+    /**
+     * Reads an object from a named compound, which is the format of NBT files. The name is skipped.
+     *
+     * @param stream the stream
+     * @return a new object
+     * @throws IOException if an I/O error occurs, the stream does not contain a compound or an entry is not of the
+     * type of its field
+     */
+    public T readNamed(NBTInputStream stream) throws IOException {
+        int id = stream.readByte();
+        if (id != NBTType.COMPOUND.getId()) throw new IOException("root tag is not a compound but " + id);
+        stream.readString();
+        return read(stream);
+    }
+    
+    T read(NBTInputStream stream, byte[] buffer) throws IOException {
+        stream.enterContainer();
+        try {
+            Object[] components = null;
+            Object object = null;
+            if (record) components = new Object[bindings.length];
+            else object = constructor.invokeExact();
+            
+            int id, next = 0;
+            while ((id = stream.readByte()) != NBTType.END.getId()) {
+                NBTType type = NBTType.getById((byte) id);
+                int length = stream.readCheckedStringLength();
+                byte[] name = length <= buffer.length? buffer : new byte[length];
+                stream.readFully(name, 0, length);
+                
+                int index = indexOf(name, length, next);
+                if (index < 0) {
+                    stream.skipTag(type);
+                    continue;
+                }
+                // entries are usually in the order of the bindings, so the next binding is tried first
+                next = index + 1;
+                Binding binding = bindings[index];
+                if (binding.type != null && type != binding.type)
+                    throw new IOException(binding.name + " is not of type " + binding.type + " but " + type);
+                binding.account(stream, type);
+                if (record) components[index] = binding.read(stream, type, buffer);
+                else binding.read(stream, type, buffer, object);
+            }
+            
+            if (record) {
+                for (int i = 0; i < components.length; i++)
+                    if (components[i] == null) components[i] = bindings[i].defaultValue();
+                object = constructor.invokeExact(components);
+            }
+            return type.cast(object);
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        } finally {
+            stream.exitContainer();
+        }
+    }
+    
+    private int indexOf(byte[] name, int length, int start) {
+        for (int i = start; i < bindings.length; i++)
+            if (bindings[i].matches(name, length)) return i;
+        for (int i = 0; i < start && i < bindings.length; i++)
+            if (bindings[i].matches(name, length)) return i;
+        return -1;
+    }
+    
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+    
+    /**
+     * The binding of a field or record component to a compound entry. Bindings of primitives have their own subclasses
+     * which invoke their method handles with exact primitive types.
+     */
+    static abstract class Binding {
+        
+        final String name;
+        final NBTKey key;
+        /** The UTF-8 encoded name, which is written and compared to names which are read. */
+        final byte[] nameBytes;
+        final NBTType type;
+        final MethodHandle getter, setter;
+        
+        private Binding(String name, NBTType type, MethodHandle getter, MethodHandle setter, Class<?> valueType) {
+            this.name = name;
+            this.key = NBTKey.of(name);
+            this.nameBytes = name.getBytes(UTF_8);
+            this.type = type;
+            this.getter = getter.asType(MethodType.methodType(valueType, Object.class));
+            this.setter = setter == null? null :
+                setter.asType(MethodType.methodType(void.class, Object.class, valueType));
+        }
+        
+        /**
+         * Creates the binding of a field or record component.
+         *
+         * @param name the name of the entry
+         * @param type the type of the field
+         * @param getter the getter of the field
+         * @param setter the setter of the field or null for record components
+         * @return the binding
+         */
+        static Binding of(String name, Type type, MethodHandle getter, MethodHandle setter) {
+            if (type == byte.class) return new ByteBinding(name, getter, setter);
+            if (type == boolean.class) return new BooleanBinding(name, getter, setter);
+            if (type == short.class) return new ShortBinding(name, getter, setter);
+            if (type == int.class) return new IntBinding(name, getter, setter);
+            if (type == long.class) return new LongBinding(name, getter, setter);
+            if (type == float.class) return new FloatBinding(name, getter, setter);
+            if (type == double.class) return new DoubleBinding(name, getter, setter);
+            return new ObjectBinding(name, Converter.of(type), getter, setter);
+        }
+        
+        abstract void encode(Object object, NBTCompound compound) throws Throwable;
+        
+        abstract void decode(NBTCompound compound, Object object) throws Throwable;
+        
+        /**
+         * Reads the value of the entry.
+         *
+         * @param compound the compound
+         * @return the value, which is null or zero if the entry is absent
+         */
+        abstract Object read(NBTCompound compound);
+        
+        /**
+         * Looks up the entry and verifies its type.
+         *
+         * @param compound the compound
+         * @return the tag, which is temporary if it is stored unboxed, or null if the entry is absent
+         * @throws IllegalArgumentException if the entry is of another type
+         */
+        NBTTag peek(NBTCompound compound) {
+            NBTTag tag = compound.peek(key);
+            if (tag != null && type != null && tag.getType() != type)
+                throw new IllegalArgumentException(name + " is not of type " + type);
+            return tag;
+        }
+        
+        /**
+         * Writes the entry unless its value is null.
+         *
+         * @param object the object
+         * @param stream the stream
+         */
+        abstract void write(Object object, NBTOutputStream stream) throws Throwable;
+        
+        /**
+         * Accounts for the tag of the entry with the limits of the stream before its payload is read.
+         *
+         * @param stream the stream
+         * @param type the type of the entry
+         * @throws NBTLimitException if the tag exceeds the limits
+         */
+        void account(NBTInputStream stream, NBTType type) throws NBTLimitException {
+            stream.accountTag(type);
+        }
+        
+        /**
+         * Reads the payload of the entry into the field.
+         *
+         * @param stream the stream
+         * @param type the type of the entry, which is the type of this binding if it has one
+         * @param buffer a buffer for names
+         * @param object the object
+         */
+        abstract void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable;
+        
+        /**
+         * Reads the payload of the entry.
+         *
+         * @param stream the stream
+         * @param type the type of the entry, which is the type of this binding if it has one
+         * @param buffer a buffer for names
+         * @return the value
+         */
+        abstract Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException;
+        
+        /**
+         * Returns the value of absent entries of records.
+         *
+         * @return the value, which is null or zero
+         */
+        abstract Object defaultValue();
+        
+        void writeHeader(NBTType type, NBTOutputStream stream) throws IOException {
+            stream.writeByte(type.getId());
+            stream.writeStringLength(nameBytes.length);
+            stream.write(nameBytes);
+        }
+        
+        boolean matches(byte[] name, int length) {
+            if (nameBytes.length != length) return false;
+            for (int i = 0; i < length; i++)
+                if (nameBytes[i] != name[i]) return false;
+            return true;
+        }
+    
+    }
+    
+    private static final class ByteBinding extends Binding {
+        
+        private ByteBinding(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, NBTType.BYTE, getter, setter, byte.class);
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            compound.putByte(name, (byte) getter.invokeExact(object));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = peek(compound);
+            if (tag != null) setter.invokeExact(object, ((NBTByte) tag).getByteValue());
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = peek(compound);
+            return tag != null? ((NBTByte) tag).getByteValue() : (byte) 0;
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            writeHeader(type, stream);
+            stream.writeByte((byte) getter.invokeExact(object));
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, stream.readByte());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readByte();
+        }
+        
+        @Override
+        Object defaultValue() {
+            return (byte) 0;
+        }
+    
+    }
+    
+    private static final class BooleanBinding extends Binding {
+        
+        private BooleanBinding(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, NBTType.BYTE, getter, setter, boolean.class);
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            compound.putByte(name, (byte) ((boolean) getter.invokeExact(object)? 1 : 0));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = peek(compound);
+            if (tag != null) setter.invokeExact(object, ((NBTByte) tag).getByteValue() != 0);
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = peek(compound);
+            return tag != null && ((NBTByte) tag).getByteValue() != 0;
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            writeHeader(type, stream);
+            stream.writeByte((boolean) getter.invokeExact(object)? 1 : 0);
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, stream.readByte() != 0);
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readByte() != 0;
+        }
+        
+        @Override
+        Object defaultValue() {
+            return false;
+        }
+    
+    }
+    
+    private static final class ShortBinding extends Binding {
+        
+        private ShortBinding(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, NBTType.SHORT, getter, setter, short.class);
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            compound.putShort(name, (short) getter.invokeExact(object));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = peek(compound);
+            if (tag != null) setter.invokeExact(object, ((NBTShort) tag).getShortValue());
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = peek(compound);
+            return tag != null? ((NBTShort) tag).getShortValue() : (short) 0;
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            writeHeader(type, stream);
+            stream.writeShortValue((short) getter.invokeExact(object));
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, stream.readShortValue());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readShortValue();
+        }
+        
+        @Override
+        Object defaultValue() {
+            return (short) 0;
+        }
+    
+    }
+    
+    private static final class IntBinding extends Binding {
+        
+        private IntBinding(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, NBTType.INT, getter, setter, int.class);
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            compound.putInt(name, (int) getter.invokeExact(object));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = peek(compound);
+            if (tag != null) setter.invokeExact(object, ((NBTInt) tag).getIntValue());
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = peek(compound);
+            return tag != null? ((NBTInt) tag).getIntValue() : 0;
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            writeHeader(type, stream);
+            stream.writeIntValue((int) getter.invokeExact(object));
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, stream.readIntValue());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readIntValue();
+        }
+        
+        @Override
+        Object defaultValue() {
+            return 0;
+        }
+    
+    }
+    
+    private static final class LongBinding extends Binding {
+        
+        private LongBinding(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, NBTType.LONG, getter, setter, long.class);
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            compound.putLong(name, (long) getter.invokeExact(object));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = peek(compound);
+            if (tag != null) setter.invokeExact(object, ((NBTLong) tag).getLongValue());
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = peek(compound);
+            return tag != null? ((NBTLong) tag).getLongValue() : 0L;
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            writeHeader(type, stream);
+            stream.writeLongValue((long) getter.invokeExact(object));
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, stream.readLongValue());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readLongValue();
+        }
+        
+        @Override
+        Object defaultValue() {
+            return 0L;
+        }
+    
+    }
+    
+    private static final class FloatBinding extends Binding {
+        
+        private FloatBinding(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, NBTType.FLOAT, getter, setter, float.class);
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            compound.putFloat(name, (float) getter.invokeExact(object));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = peek(compound);
+            if (tag != null) setter.invokeExact(object, ((NBTFloat) tag).getFloatValue());
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = peek(compound);
+            return tag != null? ((NBTFloat) tag).getFloatValue() : 0f;
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            writeHeader(type, stream);
+            stream.writeFloatValue((float) getter.invokeExact(object));
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, stream.readFloatValue());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readFloatValue();
+        }
+        
+        @Override
+        Object defaultValue() {
+            return 0f;
+        }
+    
+    }
+    
+    private static final class DoubleBinding extends Binding {
+        
+        private DoubleBinding(String name, MethodHandle getter, MethodHandle setter) {
+            super(name, NBTType.DOUBLE, getter, setter, double.class);
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            compound.putDouble(name, (double) getter.invokeExact(object));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = peek(compound);
+            if (tag != null) setter.invokeExact(object, ((NBTDouble) tag).getDoubleValue());
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = peek(compound);
+            return tag != null? ((NBTDouble) tag).getDoubleValue() : 0d;
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            writeHeader(type, stream);
+            stream.writeDoubleValue((double) getter.invokeExact(object));
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, stream.readDoubleValue());
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return stream.readDoubleValue();
+        }
+        
+        @Override
+        Object defaultValue() {
+            return 0d;
+        }
+    
+    }
+    
+    private static final class ObjectBinding extends Binding {
+        
+        private final Converter converter;
+        
+        private ObjectBinding(String name, Converter converter, MethodHandle getter, MethodHandle setter) {
+            super(name, converter.type, getter, setter, Object.class);
+            this.converter = converter;
+        }
+        
+        @Override
+        void encode(Object object, NBTCompound compound) throws Throwable {
+            Object value = getter.invokeExact(object);
+            if (value != null) compound.put(name, converter.toTag(value));
+        }
+        
+        @Override
+        void decode(NBTCompound compound, Object object) throws Throwable {
+            NBTTag tag = compound.tryGet(key).orElse(null);
+            if (tag != null) setter.invokeExact(object, converter.fromTag(tag, name));
+        }
+        
+        @Override
+        Object read(NBTCompound compound) {
+            NBTTag tag = compound.tryGet(key).orElse(null);
+            return tag == null? null : converter.fromTag(tag, name);
+        }
+        
+        @Override
+        void write(Object object, NBTOutputStream stream) throws Throwable {
+            Object value = getter.invokeExact(object);
+            if (value == null) return;
+            writeHeader(converter.typeOf(value), stream);
+            converter.write(value, stream);
+        }
+        
+        @Override
+        void account(NBTInputStream stream, NBTType type) {
+            // the converter accounts for the tag
+        }
+        
+        @Override
+        void read(NBTInputStream stream, NBTType type, byte[] buffer, Object object) throws Throwable {
+            setter.invokeExact(object, converter.readChecked(stream, type, buffer));
+        }
+        
+        @Override
+        Object read(NBTInputStream stream, NBTType type, byte[] buffer) throws IOException {
+            return converter.readChecked(stream, type, buffer);
+        }
+        
+        @Override
+        Object defaultValue() {
+            return null;
+        }
+    
+    }
+
+}
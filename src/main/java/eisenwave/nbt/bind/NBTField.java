@@ -0,0 +1,18 @@
+package eisenwave.nbt.bind;
+
+import java.lang.annotation.*;
+
+/**
+ * <p>
+ *     Marks a field of a class which is bound to an entry of a compound by a {@link NBTCodec}.
+ * </p>
+ * <p>
+ *     All components of records are bound, so they do not need to be marked.
+ * </p>
+ *
+ * @see NBTName
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface NBTField {}
@@ -0,0 +1,23 @@
+package eisenwave.nbt.bind;
+
+import java.lang.annotation.*;
+
+/**
+ * Specifies the key of the compound entry to which a field or record component is bound. By default, the name of the
+ * field is used.
+ *
+ * @see NBTField
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface NBTName {
+    
+    /**
+     * Returns the key of the entry.
+     *
+     * @return the key
+     */
+    String value();
+
+}
@@ -0,0 +1,78 @@
+package eisenwave.nbt.bind;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Inspects records through reflection, so that records can be bound on runtimes which support them although this
+ * library is compiled for older ones.
+ */
+final class Records {
+    
+    private final static Method IS_RECORD, GET_RECORD_COMPONENTS, GET_NAME, GET_GENERIC_TYPE, GET_TYPE, GET_ACCESSOR;
+    
+    static {
+        Method isRecord = null, getRecordComponents = null, getName = null, getGenericType = null, getType = null,
+            getAccessor = null;
+        try {
+            isRecord = Class.class.getMethod("isRecord");
+            getRecordComponents = Class.class.getMethod("getRecordComponents");
+            Class<?> component = getRecordComponents.getReturnType().getComponentType();
+            getName = component.getMethod("getName");
+            getGenericType = component.getMethod("getGenericType");
+            getType = component.getMethod("getType");
+            getAccessor = component.getMethod("getAccessor");
+        } catch (NoSuchMethodException ex) {
+            // records are not supported by this runtime
+            isRecord = null;
+        }
+        IS_RECORD = isRecord;
+        GET_RECORD_COMPONENTS = getRecordComponents;
+        GET_NAME = getName;
+        GET_GENERIC_TYPE = getGenericType;
+        GET_TYPE = getType;
+        GET_ACCESSOR = getAccessor;
+    }
+    
+    private Records() {}
+    
+    static boolean isRecord(Class<?> type) {
+        try {
+            return IS_RECORD != null && (Boolean) IS_RECORD.invoke(type);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Creates the bindings of all components of a record.
+     *
+     * @param type the record class
+     * @param bindings the list of bindings
+     * @return the types of the components
+     * @throws IllegalAccessException if an accessor is not accessible
+     */
+    static Class<?>[] bind(Class<?> type, List<NBTCodec.Binding> bindings) throws IllegalAccessException {
+        try {
+            Object[] components = (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+            Class<?>[] types = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                String name = (String) GET_NAME.invoke(components[i]);
+                types[i] = (Class<?>) GET_TYPE.invoke(components[i]);
+                Method accessor = (Method) GET_ACCESSOR.invoke(components[i]);
+                accessor.setAccessible(true);
+                // annotations of components which target fields are present on the private field of the component
+                Field field = type.getDeclaredField(name);
+                bindings.add(NBTCodec.Binding.of(NBTCodec.name(field), (Type) GET_GENERIC_TYPE.invoke(components[i]),
+                    MethodHandles.lookup().unreflect(accessor), null));
+            }
+            return types;
+        } catch (NoSuchFieldException | java.lang.reflect.InvocationTargetException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package eisenwave.nbt.io;
+
+import jdk.jfr.*;
+
+/**
+ * <p>
+ *     The Flight Recorder events of this library, which are only loaded if the runtime supports Flight Recorder.
+ * </p>
+ * <p>
+ *     The events are recorded by every running recording, such as one started with {@code -XX:StartFlightRecording},
+ *     and can be disabled by their names, for example with {@code eisenwave.nbt.Decode#enabled=false}.
+ * </p>
+ */
+final class FlightRecorderEvents {
+    
+    /** The event types indexed by the ordinals of their kinds, which tell whether a kind is recorded. */
+    private final static EventType[] TYPES = {
+        EventType.getEventType(DecodeEvent.class),
+        EventType.getEventType(EncodeEvent.class),
+        EventType.getEventType(ParseEvent.class),
+        EventType.getEventType(WriteEvent.class)
+    };
+    
+    private FlightRecorderEvents() {}
+    
+    /**
+     * Begins an event of the given kind. No event is allocated unless events of the kind are recorded.
+     *
+     * @param kind the kind
+     * @return the event or null if events of the kind are not recorded
+     */
+    static Object begin(NBTEvents.Kind kind) {
+        if (!TYPES[kind.ordinal()].isEnabled()) return null;
+        NBTEvent event;
+        switch (kind) {
+            case DECODE: event = new DecodeEvent(); break;
+            case ENCODE: event = new EncodeEvent(); break;
+            case PARSE: event = new ParseEvent(); break;
+            default: event = new WriteEvent(); break;
+        }
+        event.begin();
+        return event;
+    }
+    
+    /**
+     * Ends an event and commits it with the given measurements.
+     *
+     * @param object the event
+     * @param measurement the measurements
+     */
+    static void commit(Object object, NBTEvents measurement) {
+        NBTEvent event = (NBTEvent) object;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.source = measurement.source;
+        event.tagCount = measurement.tagCount;
+        event.maxDepth = measurement.maxDepth;
+        if (event instanceof BinaryEvent) {
+            BinaryEvent binary = (BinaryEvent) event;
+            binary.bytes = measurement.size;
+            binary.compressedBytes = measurement.compressed? measurement.rawSize : 0;
+            binary.compressionTime = measurement.compressionNanos;
+            binary.codecTime = measurement.duration - measurement.compressionNanos;
+        }
+        else {
+            ((TextEvent) event).characters = measurement.size;
+        }
+        event.commit();
+    }
+    
+    @Category({"EisenNBT"})
+    @StackTrace(false)
+    static abstract class NBTEvent extends Event {
+        
+        @Label("Source")
+        @Description("The path of the file which is read or written, if it is known")
+        String source;
+        
+        @Label("Tag Count")
+        int tagCount;
+        
+        @Label("Max Depth")
+        @Description("The depth of the deepest tag, where the root has the depth zero")
+        int maxDepth;
+    
+    }
+    
+    static abstract class BinaryEvent extends NBTEvent {
+        
+        @Label("Bytes")
+        @Description("The amount of bytes of uncompressed NBT")
+        @DataAmount
+        long bytes;
+        
+        @Label("Compressed Bytes")
+        @Description("The amount of bytes of compressed NBT or zero if it is not compressed")
+        @DataAmount
+        long compressedBytes;
+        
+        @Label("Compression Time")
+        @Description("The time spent in the compressed stream, including the I/O of the underlying stream")
+        @Timespan
+        long compressionTime;
+        
+        @Label("Codec Time")
+        @Description("The time spent reading or writing NBT, excluding compression")
+        @Timespan
+        long codecTime;
+    
+    }
+    
+    static abstract class TextEvent extends NBTEvent {
+        
+        @Label("Characters")
+        long characters;
+    
+    }
+    
+    @Name("eisenwave.nbt.Decode")
+    @Label("NBT Decode")
+    @Description("Deserialization of binary NBT")
+    static final class DecodeEvent extends BinaryEvent {}
+    
+    @Name("eisenwave.nbt.Encode")
+    @Label("NBT Encode")
+    @Description("Serialization of binary NBT")
+    static final class EncodeEvent extends BinaryEvent {}
+    
+    @Name("eisenwave.nbt.Parse")
+    @Label("Mojangson Parse")
+    @Description("Parsing of Mojangson")
+    static final class ParseEvent extends TextEvent {}
+    
+    @Name("eisenwave.nbt.Write")
+    @Label("Mojangson Write")
+    @Description("Writing of Mojangson")
+    static final class WriteEvent extends TextEvent {}
+
+}
@@ -22,7 +22,13 @@ public final class MojangsonParser {
     private int index;
     
     public static NBTNamedTag parse(String mson) throws MojangsonParseException {
-        return new MojangsonParser(mson).parseRootCompound();
+        NBTEvents event = NBTEvents.begin(NBTEvents.Kind.PARSE, null);
+        NBTNamedTag result = new MojangsonParser(mson).parseRootCompound();
+        if (event != null) {
+            event.size = mson.length();
+            event.end(result.getTag());
+        }
+        return result;
     }
     
     private MojangsonParser(String str) {
@@ -71,42 +77,81 @@ public final class MojangsonParser {
         return parseLiteral(str);
     }
     
-    private NBTTag parseLiteral(String str) {
+    private static NBTTag parseLiteral(String str) {
         try {
-            if (FLOAT.matcher(str).matches()) {
-                return new NBTFloat(Float.parseFloat(str.substring(0, str.length() - 1)));
-            }
-            if (BYTE.matcher(str).matches()) {
-                return new NBTByte(Byte.parseByte(str.substring(0, str.length() - 1)));
-            }
-            if (LONG.matcher(str).matches()) {
-                return new NBTLong(Long.parseLong(str.substring(0, str.length() - 1)));
-            }
-            if (SHORT.matcher(str).matches()) {
-                return new NBTShort(Short.parseShort(str.substring(0, str.length() - 1)));
-            }
-            if (INT.matcher(str).matches()) {
-                return new NBTInt(Integer.parseInt(str));
-            }
-            if (DOUBLE_S.matcher(str).matches()) {
-                return new NBTDouble(Double.parseDouble(str.substring(0, str.length() - 1)));
-            }
-            if (DOUBLE_NS.matcher(str).matches()) {
-                return new NBTDouble(Double.parseDouble(str));
-            }
-            if ("true".equalsIgnoreCase(str)) {
-                return new NBTByte((byte)1);
-            }
-            if ("false".equalsIgnoreCase(str)) {
-                return new NBTByte((byte)0);
+            switch (literalType(str)) {
+                case BYTE: return new NBTByte(parseByte(str));
+                case SHORT: return new NBTShort(Short.parseShort(number(str)));
+                case INT: return new NBTInt(Integer.parseInt(str));
+                case LONG: return new NBTLong(Long.parseLong(number(str)));
+                case FLOAT: return new NBTFloat(Float.parseFloat(number(str)));
+                case DOUBLE: return new NBTDouble(Double.parseDouble(number(str)));
             }
         }
         catch (NumberFormatException ex) {
-            return new NBTString(str);
+            // out of range
         }
         return new NBTString(str);
     }
     
+    /**
+     * Puts a literal into a compound without creating a tag for it, so that numbers are stored unboxed.
+     *
+     * @param compound the compound
+     * @param key the key
+     * @param str the literal
+     */
+    private static void putLiteral(NBTCompound compound, String key, String str) {
+        try {
+            switch (literalType(str)) {
+                case BYTE: compound.putByte(key, parseByte(str)); return;
+                case SHORT: compound.putShort(key, Short.parseShort(number(str))); return;
+                case INT: compound.putInt(key, Integer.parseInt(str)); return;
+                case LONG: compound.putLong(key, Long.parseLong(number(str))); return;
+                case FLOAT: compound.putFloat(key, Float.parseFloat(number(str))); return;
+                case DOUBLE: compound.putDouble(key, Double.parseDouble(number(str))); return;
+            }
+        }
+        catch (NumberFormatException ex) {
+            // out of range
+        }
+        compound.put(key, new NBTString(str));
+    }
+    
+    /**
+     * Returns the type of a literal, which is {@link NBTType#STRING} if it is neither a number nor a boolean.
+     *
+     * @param str the literal
+     * @return the type of the literal
+     */
+    private static NBTType literalType(String str) {
+        if (FLOAT.matcher(str).matches()) return NBTType.FLOAT;
+        if (BYTE.matcher(str).matches()) return NBTType.BYTE;
+        if (LONG.matcher(str).matches()) return NBTType.LONG;
+        if (SHORT.matcher(str).matches()) return NBTType.SHORT;
+        if (INT.matcher(str).matches()) return NBTType.INT;
+        if (DOUBLE_S.matcher(str).matches() || DOUBLE_NS.matcher(str).matches()) return NBTType.DOUBLE;
+        if ("true".equalsIgnoreCase(str) || "false".equalsIgnoreCase(str)) return NBTType.BYTE;
+        return NBTType.STRING;
+    }
+    
+    private static byte parseByte(String str) {
+        if ("true".equalsIgnoreCase(str)) return 1;
+        if ("false".equalsIgnoreCase(str)) return 0;
+        return Byte.parseByte(number(str));
+    }
+    
+    /**
+     * Removes the type suffix of a number.
+     *
+     * @param str the number
+     * @return the number without suffix
+     */
+    private static String number(String str) {
+        int last = str.length() - 1;
+        return Character.isLetter(str.charAt(last))? str.substring(0, last) : str;
+    }
+    
     private String parseQuotedString() throws MojangsonParseException {
         int j = ++this.index;
         StringBuilder builder = null;
@@ -182,7 +227,7 @@ public final class MojangsonParser {
             }
             expectChar(':');
             
-            compound.put(str, parseAnything());
+            parseEntry(compound, str);
             if (!advanceToNextArrayElement()) {
                 break;
             }
@@ -195,6 +240,30 @@ public final class MojangsonParser {
         return compound;
     }
     
+    /**
+     * Parses the value of an entry of a compound. Literals are put into the compound directly, so that numbers are
+     * stored unboxed without creating a tag for them first.
+     *
+     * @param compound the compound
+     * @param key the key
+     * @throws MojangsonParseException if the value is invalid
+     */
+    private void parseEntry(NBTCompound compound, String key) throws MojangsonParseException {
+        skipWhitespace();
+        if (!hasNext())
+            throw parseException("Expected value");
+        
+        char c = currentChar();
+        if (c == '{' || c == '[' || c == '"') {
+            compound.put(key, parseAnything());
+            return;
+        }
+        String str = parseSimpleString();
+        if (str.isEmpty())
+            throw parseException("Expected value");
+        putLiteral(compound, key, str);
+    }
+    
     private NBTList parseList() throws MojangsonParseException {
         expectChar('[');
         
@@ -214,7 +283,8 @@ public final class MojangsonParser {
             } else if (elementType != listType) {
                 throw parseException("Unable to insert " + elementType + " into ListTag of type " + listType);
             }
-            list.add(element);
+            // the first element determines the type of the list, so only the following ones take the fast path
+            list.append(element);
             if (!advanceToNextArrayElement()) {
                 break;
             }
@@ -0,0 +1,480 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>
+ *     A configurable pretty printer for Mojangson.
+ * </p>
+ * <p>
+ *     Tags are laid out in a single pass. Before a compound or list is written, its flat width is measured with a
+ *     lookahead which stops as soon as the remaining space on the line is exceeded. Containers which fit into the
+ *     line and have no more elements than the inline threshold are written on one line, all others are broken up into
+ *     one element per line. Leaf tags such as numbers, strings and arrays are always written on one line.
+ * </p>
+ * <p>
+ *     Output is collected in an internal character buffer and handed to the underlying {@link Writer} in large
+ *     chunks. Printers are immutable and may be shared between threads.
+ * </p>
+ */
+public class MojangsonPrettyPrinter {
+
+    public static final int
+    DEFAULT_LINE_WIDTH = 100,
+    DEFAULT_INDENT = 4,
+    DEFAULT_INLINE_THRESHOLD = 16;
+
+    private static final String NEWLINE = System.getProperty("line.separator");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int lineWidth, indent, inlineThreshold;
+
+    /**
+     * Constructs a new pretty printer.
+     *
+     * @param lineWidth the maximum width of a line which containers may be inlined into
+     * @param indent the amount of spaces per level of indentation
+     * @param inlineThreshold the maximum amount of elements of an inlined compound or list
+     * @throws IllegalArgumentException if any parameter is negative
+     */
+    public MojangsonPrettyPrinter(int lineWidth, int indent, int inlineThreshold) {
+        if (lineWidth < 0) throw new IllegalArgumentException("negative line width: " + lineWidth);
+        if (indent < 0) throw new IllegalArgumentException("negative indent: " + indent);
+        if (inlineThreshold < 0) throw new IllegalArgumentException("negative inline threshold: " + inlineThreshold);
+        this.lineWidth = lineWidth;
+        this.indent = indent;
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    /**
+     * Constructs a new pretty printer with default line width, indent and inline threshold.
+     */
+    public MojangsonPrettyPrinter() {
+        this(DEFAULT_LINE_WIDTH, DEFAULT_INDENT, DEFAULT_INLINE_THRESHOLD);
+    }
+
+    // GETTERS
+
+    /**
+     * Returns the maximum width of a line which containers may be inlined into.
+     *
+     * @return the line width
+     */
+    public int getLineWidth() {
+        return lineWidth;
+    }
+
+    /**
+     * Returns the amount of spaces per level of indentation.
+     *
+     * @return the indent
+     */
+    public int getIndent() {
+        return indent;
+    }
+
+    /**
+     * Returns the maximum amount of elements of an inlined compound or list.
+     *
+     * @return the inline threshold
+     */
+    public int getInlineThreshold() {
+        return inlineThreshold;
+    }
+
+    // PRINT
+
+    /**
+     * Prints a named tag. The name is omitted if it is empty.
+     *
+     * @param name the name
+     * @param tag the tag
+     * @param writer the writer
+     * @throws IOException if an I/O error occurs
+     */
+    public void print(String name, NBTTag tag, Writer writer) throws IOException {
+        Layout layout = new Layout(Objects.requireNonNull(writer));
+        if (!name.isEmpty()) {
+            layout.writeQuoted(name);
+            layout.write(':');
+            layout.write(' ');
+        }
+        layout.writeTag(tag, 0);
+        layout.flushBuffer();
+    }
+
+    /**
+     * Prints a named tag. The name is omitted if it is empty.
+     *
+     * @param tag the named tag
+     * @param writer the writer
+     * @throws IOException if an I/O error occurs
+     */
+    public void print(NBTNamedTag tag, Writer writer) throws IOException {
+        print(tag.getName(), tag.getTag(), writer);
+    }
+
+    /**
+     * Prints an unnamed tag.
+     *
+     * @param tag the tag
+     * @param writer the writer
+     * @throws IOException if an I/O error occurs
+     */
+    public void print(NBTTag tag, Writer writer) throws IOException {
+        print("", tag, writer);
+    }
+
+    // MEASURE
+
+    /**
+     * Returns the width of a tag written on a single line or any number greater than {@code budget} if it does not fit
+     * into the budget. Measurement stops as soon as the budget is exceeded.
+     *
+     * @param tag the tag
+     * @param budget the maximum width of interest
+     * @return the width of the tag
+     */
+    private static int measure(NBTTag tag, int budget) {
+        switch (tag.getType()) {
+            case END: return 3;
+            case BYTE: return digits(Byte.toUnsignedInt(((NBTByte) tag).getByteValue())) + 1;
+            case SHORT: return digits(((NBTShort) tag).getShortValue()) + 1;
+            case INT: return digits(((NBTInt) tag).getIntValue());
+            case LONG: return digits(((NBTLong) tag).getLongValue()) + 1;
+            case FLOAT: return Float.toString(((NBTFloat) tag).getFloatValue()).length() + 1;
+            case DOUBLE: return Double.toString(((NBTDouble) tag).getDoubleValue()).length() + 1;
+            case STRING: return quotedLength(((NBTString) tag).getValue());
+            case BYTE_ARRAY: {
+                byte[] array = ((NBTByteArray) tag).getValue();
+                int width = 4;
+                for (int i = 0; i < array.length && width <= budget; i++)
+                    width += digits(array[i]) + (i == 0? 1 : 2);
+                return width;
+            }
+            case INT_ARRAY: {
+                int[] array = ((NBTIntArray) tag).getValue();
+                int width = 4;
+                for (int i = 0; i < array.length && width <= budget; i++)
+                    width += digits(array[i]) + (i == 0? 0 : 1);
+                return width;
+            }
+            case LONG_ARRAY: {
+                long[] array = ((NBTLongArray) tag).getValue();
+                int width = 4;
+                for (int i = 0; i < array.length && width <= budget; i++)
+                    width += digits(array[i]) + (i == 0? 1 : 2);
+                return width;
+            }
+            case LIST: {
+                int width = 2;
+                boolean first = true;
+                for (NBTTag element : (NBTList) tag) {
+                    if (first) first = false;
+                    else width += 2;
+                    width += measure(element, budget - width);
+                    if (width > budget) break;
+                }
+                return width;
+            }
+            case COMPOUND: {
+                int width = 2;
+                boolean first = true;
+                for (Map.Entry<String, NBTTag> entry : ((NBTCompound) tag).entries()) {
+                    if (first) first = false;
+                    else width += 2;
+                    String key = entry.getKey();
+                    width += (isSimpleString(key)? key.length() : quotedLength(key)) + 2;
+                    if (width > budget) break;
+                    width += measure(entry.getValue(), budget - width);
+                    if (width > budget) break;
+                }
+                return width;
+            }
+            default: throw new AssertionError(tag.getType());
+        }
+    }
+
+    private static int digits(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) return 20;
+            return digits(-value) + 1;
+        }
+        int digits = 1;
+        for (long limit = 10; digits < 19 && value >= limit; limit *= 10)
+            digits++;
+        return digits;
+    }
+
+    private static int quotedLength(String str) {
+        int length = str.length() + 2;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '\\' || c == '"') length++;
+        }
+        return length;
+    }
+
+    private static boolean isSimpleString(String str) {
+        if (str.isEmpty()) return false;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            boolean simple = (c >= '0' && c <= '9')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= 'a' && c <= 'z')
+                || c == '_'
+                || c == '-'
+                || c == '.'
+                || c == '+';
+            if (!simple) return false;
+        }
+        return true;
+    }
+
+    // LAYOUT
+
+    /**
+     * The state of a single print operation.
+     */
+    private class Layout {
+
+        private final Writer writer;
+        private final char[] buffer = new char[BUFFER_SIZE];
+
+        private int position;
+        /** The amount of characters flushed before the buffer start and the offset of the current line. */
+        private long flushed, lineStart;
+
+        private Layout(Writer writer) {
+            this.writer = writer;
+        }
+
+        private int column() {
+            return (int) (flushed + position - lineStart);
+        }
+
+        private void writeTag(NBTTag tag, int depth) throws IOException {
+            switch (tag.getType()) {
+                case COMPOUND: writeCompound((NBTCompound) tag, depth); break;
+                case LIST: writeList((NBTList) tag, depth); break;
+                default: writeLeaf(tag);
+            }
+        }
+
+        private boolean isInline(NBTTag tag, int size) {
+            if (size > inlineThreshold) return false;
+            // reserve one character for a trailing comma
+            int budget = lineWidth - column() - 1;
+            return budget >= 0 && measure(tag, budget) <= budget;
+        }
+
+        private void writeCompound(NBTCompound compound, int depth) throws IOException {
+            write('{');
+            if (!compound.isEmpty()) {
+                boolean inline = isInline(compound, compound.size());
+                if (!inline) newLine(depth + 1);
+
+                boolean first = true;
+                for (Map.Entry<String, NBTTag> entry : compound.entries()) {
+                    if (first) first = false;
+                    else if (inline) write(", ");
+                    else {
+                        write(',');
+                        newLine(depth + 1);
+                    }
+                    writeKey(entry.getKey());
+                    write(": ");
+                    if (inline) writeFlat(entry.getValue());
+                    else writeTag(entry.getValue(), depth + 1);
+                }
+
+                if (!inline) newLine(depth);
+            }
+            write('}');
+        }
+
+        private void writeList(NBTList list, int depth) throws IOException {
+            write('[');
+            if (!list.isEmpty()) {
+                boolean inline = isInline(list, list.size());
+                if (!inline) newLine(depth + 1);
+
+                boolean first = true;
+                for (NBTTag element : list) {
+                    if (first) first = false;
+                    else if (inline) write(", ");
+                    else {
+                        write(',');
+                        newLine(depth + 1);
+                    }
+                    if (inline) writeFlat(element);
+                    else writeTag(element, depth + 1);
+                }
+
+                if (!inline) newLine(depth);
+            }
+            write(']');
+        }
+
+        /**
+         * Writes a tag on a single line without measuring it again.
+         *
+         * @param tag the tag
+         * @throws IOException if an I/O error occurs
+         */
+        private void writeFlat(NBTTag tag) throws IOException {
+            switch (tag.getType()) {
+                case COMPOUND: {
+                    write('{');
+                    boolean first = true;
+                    for (Map.Entry<String, NBTTag> entry : ((NBTCompound) tag).entries()) {
+                        if (first) first = false;
+                        else write(", ");
+                        writeKey(entry.getKey());
+                        write(": ");
+                        writeFlat(entry.getValue());
+                    }
+                    write('}');
+                    break;
+                }
+                case LIST: {
+                    write('[');
+                    boolean first = true;
+                    for (NBTTag element : (NBTList) tag) {
+                        if (first) first = false;
+                        else write(", ");
+                        writeFlat(element);
+                    }
+                    write(']');
+                    break;
+                }
+                default: writeLeaf(tag);
+            }
+        }
+
+        private void writeLeaf(NBTTag tag) throws IOException {
+            switch (tag.getType()) {
+                case END: write("END"); break;
+                case BYTE: writeLong(Byte.toUnsignedInt(((NBTByte) tag).getByteValue())); write('b'); break;
+                case SHORT: writeLong(((NBTShort) tag).getShortValue()); write('s'); break;
+                case INT: writeLong(((NBTInt) tag).getIntValue()); break;
+                case LONG: writeLong(((NBTLong) tag).getLongValue()); write('L'); break;
+                case FLOAT: write(Float.toString(((NBTFloat) tag).getFloatValue())); write('f'); break;
+                case DOUBLE: write(Double.toString(((NBTDouble) tag).getDoubleValue())); write('d'); break;
+                case STRING: writeQuoted(((NBTString) tag).getValue()); break;
+                case BYTE_ARRAY: {
+                    write("[B;");
+                    byte[] array = ((NBTByteArray) tag).getValue();
+                    for (int i = 0; i < array.length; i++) {
+                        if (i != 0) write(',');
+                        writeLong(array[i]);
+                        write('B');
+                    }
+                    write(']');
+                    break;
+                }
+                case INT_ARRAY: {
+                    write("[I;");
+                    int[] array = ((NBTIntArray) tag).getValue();
+                    for (int i = 0; i < array.length; i++) {
+                        if (i != 0) write(',');
+                        writeLong(array[i]);
+                    }
+                    write(']');
+                    break;
+                }
+                case LONG_ARRAY: {
+                    write("[L;");
+                    long[] array = ((NBTLongArray) tag).getValue();
+                    for (int i = 0; i < array.length; i++) {
+                        if (i != 0) write(',');
+                        writeLong(array[i]);
+                        write('L');
+                    }
+                    write(']');
+                    break;
+                }
+                default: throw new AssertionError(tag.getType());
+            }
+        }
+
+        private void writeKey(String key) throws IOException {
+            if (isSimpleString(key)) write(key);
+            else writeQuoted(key);
+        }
+
+        private void writeQuoted(String str) throws IOException {
+            write('"');
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                if (c == '\\' || c == '"') write('\\');
+                write(c);
+            }
+            write('"');
+        }
+
+        private void writeLong(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                write(Long.toString(value));
+                return;
+            }
+            int length = digits(value);
+            ensure(length);
+            int end = position + length;
+            if (value < 0) {
+                buffer[position] = '-';
+                value = -value;
+            }
+            for (int i = end - 1; i >= position && (i == end - 1 || value != 0); i--) {
+                buffer[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+            position = end;
+        }
+
+        private void newLine(int depth) throws IOException {
+            write(NEWLINE);
+            lineStart = flushed + position;
+            for (int i = depth * indent; i > 0; i--)
+                write(' ');
+        }
+
+        // BUFFER
+
+        private void write(char c) throws IOException {
+            if (position == buffer.length) flushBuffer();
+            buffer[position++] = c;
+        }
+
+        private void write(String str) throws IOException {
+            int length = str.length();
+            if (length > buffer.length) {
+                flushBuffer();
+                writer.write(str);
+                flushed += length;
+                return;
+            }
+            ensure(length);
+            str.getChars(0, length, buffer, position);
+            position += length;
+        }
+
+        private void ensure(int length) throws IOException {
+            if (position + length > buffer.length) flushBuffer();
+        }
+
+        private void flushBuffer() throws IOException {
+            writer.write(buffer, 0, position);
+            flushed += position;
+            position = 0;
+        }
+
+    }
+
+}
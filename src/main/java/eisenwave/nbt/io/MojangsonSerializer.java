@@ -9,7 +9,16 @@ import java.io.Writer;
 
 public class MojangsonSerializer implements TextSerializer<NBTNamedTag> {
     
-    private final boolean pretty;
+    private final MojangsonPrettyPrinter printer;
+    
+    /**
+     * Constructs a new {@code MojangsonSerializer} which pretty-prints using the given printer.
+     *
+     * @param printer the pretty printer or null if pretty printing is disabled
+     */
+    public MojangsonSerializer(MojangsonPrettyPrinter printer) {
+        this.printer = printer;
+    }
     
     /**
      * Constructs a new {@code MojangsonSerializer}.
@@ -17,7 +26,7 @@ public class MojangsonSerializer implements TextSerializer<NBTNamedTag> {
      * @param pretty whether to "pretty-print", adding whitespace, line breaks and indent
      */
     public MojangsonSerializer(boolean pretty) {
-        this.pretty = pretty;
+        this(pretty? new MojangsonPrettyPrinter() : null);
     }
     
     /**
@@ -29,7 +38,7 @@ public class MojangsonSerializer implements TextSerializer<NBTNamedTag> {
     
     @Override
     public void toWriter(NBTNamedTag nbt, Writer writer) throws IOException {
-        MojangsonWriter msonWriter = new MojangsonWriter(writer, pretty);
+        MojangsonWriter msonWriter = new MojangsonWriter(writer, printer);
         msonWriter.writeNamedTag(nbt);
         msonWriter.endLn(); // end last line to comply with POSIX standard
     }
@@ -4,23 +4,25 @@ import eisenwave.nbt.*;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
-import java.util.regex.Pattern;
 
 public class MojangsonWriter extends Writer {
     
-    private static final String
-    NEWLINE = System.getProperty("line.separator"),
-    INDENT = "    ";
-    
-    private static final Pattern SIMPLE_STRING = Pattern.compile("[A-Za-z0-9._+-]+");
+    private static final String NEWLINE = System.getProperty("line.separator");
     
     private final Writer writer;
-    private final boolean pretty;
+    private final MojangsonPrettyPrinter printer;
     
-    private int indent = 0;
+    /**
+     * Constructs a new writer which pretty-prints using the given printer.
+     *
+     * @param writer the writer
+     * @param printer the pretty printer or null if pretty printing is disabled
+     */
+    public MojangsonWriter(Writer writer, MojangsonPrettyPrinter printer) {
+        this.writer = Objects.requireNonNull(writer);
+        this.printer = printer;
+    }
     
     /**
      * Constructs a new writer.
@@ -29,8 +31,7 @@ public class MojangsonWriter extends Writer {
      * @param pretty whether to "pretty-print", adding whitespace, line breaks and indent
      */
     public MojangsonWriter(Writer writer, boolean pretty) {
-        this.writer = Objects.requireNonNull(writer);
-        this.pretty = pretty;
+        this(writer, pretty? new MojangsonPrettyPrinter() : null);
     }
     
     /**
@@ -43,13 +44,19 @@ public class MojangsonWriter extends Writer {
     }
     
     public void writeNamedTag(String name, NBTTag root) throws IOException {
-        if (!name.isEmpty()) {
-            write((new NBTString(name).toMSONString()));
-            write(':');
-            if (pretty) write(' ');
+        NBTEvents event = NBTEvents.begin(NBTEvents.Kind.WRITE, null);
+        Writer writer = event == null? this.writer : event.count(this.writer);
+        if (printer != null) {
+            printer.print(name, root, writer);
+        }
+        else {
+            if (!name.isEmpty()) {
+                writer.write(new NBTString(name).toMSONString());
+                writer.write(':');
+            }
+            writer.write(root.toMSONString());
         }
-        
-        writeTag(root);
+        if (event != null) event.end(root);
     }
     
     public void writeNamedTag(NBTNamedTag nbt) throws IOException {
@@ -57,125 +64,11 @@ public class MojangsonWriter extends Writer {
     }
     
     public void writeTag(NBTTag tag) throws IOException {
-        if (!pretty) {
-            write(tag.toMSONString());
-            return;
-        }
-        
-        NBTType type = tag.getType();
-        if (type == NBTType.END || type.isPrimitive() || type.isArray()) {
-            writer.write(tag.toMSONString());
-        }
-        else if (type == NBTType.COMPOUND) {
-            writeCompound((NBTCompound) tag);
-        }
-        else if (type == NBTType.LIST) {
-            writeList((NBTList) tag);
-        } else {
-            throw new AssertionError(type);
-        }
-    }
-    
-    private void writeCompound(NBTCompound compound) throws IOException {
-        if (!pretty) {
-            write(compound.toMSONString());
-            return;
-        }
-        
-        write('{');
-        
-        if (!compound.isEmpty()) {
-            boolean simple = isPrimitive(compound);
-            
-            if (!simple) {
-                indent++;
-                endLn();
-            }
-    
-            Map<String, NBTTag> map = compound.getValue();
-            Set<String> keys = map.keySet();
-            boolean first = true;
-            
-            if (simple) for (String key : keys) {
-                if (first) first = false;
-                else write(", ");
-                write(SIMPLE_STRING.matcher(key).matches()? key : NBTString.toMSONString(key));
-                write(": ");
-                writeTag(map.get(key));
-            }
-            else for (String key : keys) {
-                if (first) first = false;
-                else {
-                    write(",");
-                    endLn();
-                }
-                write(SIMPLE_STRING.matcher(key).matches()? key : NBTString.toMSONString(key));
-                write(": ");
-                writeTag(map.get(key));
-            }
-            
-            if (!simple) {
-                indent--;
-                endLn();
-            }
-        }
-        
-        write('}');
-    }
-    
-    private void writeList(NBTList list) throws IOException {
-        if (!pretty) {
-            write(list.toMSONString());
-            return;
-        }
-        
-        write('[');
-    
-        if (!list.isEmpty()) {
-            boolean simple = isPrimitive(list);
-            if (!simple) {
-                indent++;
-                endLn();
-            }
-            
-            boolean first = true;
-    
-            if (simple) for (NBTTag tag : list) {
-                if (first) first = false;
-                else write(", ");
-                writeTag(tag);
-            }
-            else for (NBTTag tag : list) {
-                if (first) first = false;
-                else {
-                    write(",");
-                    endLn();
-                }
-                writeTag(tag);
-            }
-    
-            if (!simple) {
-                indent--;
-                endLn();
-            }
-        }
-        
-        write(']');
-    }
-    
-    /**
-     * Writes the indentation as many times as necessary.
-     *
-     * @throws IOException if an I/O error occurs
-     */
-    protected void indent() throws IOException {
-        if (indent == 1) {
-            writer.write(INDENT);
-        }
-        else if (indent > 0) {
-            for (int i = 0; i < indent; i++)
-                writer.append(INDENT);
-        }
+        NBTEvents event = NBTEvents.begin(NBTEvents.Kind.WRITE, null);
+        Writer writer = event == null? this.writer : event.count(this.writer);
+        if (printer == null) writer.write(tag.toMSONString());
+        else printer.print(tag, writer);
+        if (event != null) event.end(tag);
     }
     
     /**
@@ -185,7 +78,6 @@ public class MojangsonWriter extends Writer {
      */
     protected void endLn() throws IOException {
         writer.write(NEWLINE);
-        indent();
     }
     
     // WRITER IMPL
@@ -215,19 +107,4 @@ public class MojangsonWriter extends Writer {
         writer.close();
     }
     
-    // UTIL
-    
-    private static boolean isPrimitive(NBTList list) {
-        return list.isEmpty() || list.getElementType().isPrimitive();
-    }
-    
-    private static boolean isPrimitive(NBTCompound compound) {
-        if (compound.isEmpty()) return true;
-        for (NBTTag val : compound.getValue().values()) {
-            if (!val.getType().isPrimitive())
-                return false;
-        }
-        return true;
-    }
-    
 }
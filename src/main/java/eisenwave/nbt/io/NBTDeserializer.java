@@ -1,15 +1,58 @@
 package eisenwave.nbt.io;
 
 import eisenwave.io.Deserializer;
+import eisenwave.nbt.NBTInterner;
 import eisenwave.nbt.NBTNamedTag;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.util.Objects;
 import java.util.zip.GZIPInputStream;
 
 public class NBTDeserializer implements Deserializer<NBTNamedTag> {
     
     private final boolean compressed;
+    private final NBTFormat format;
+    private final NBTInterner interner;
+    private final NBTLimits limits;
+    
+    /**
+     * Constructs a new NBT-Deserializer which reads NBT in the given format, such as {@link NBTFormat#LITTLE_ENDIAN}
+     * for files of the Bedrock Edition, within the given limits.
+     *
+     * @param compressed whether the input is g-zip compressed
+     * @param format the format of the input
+     * @param interner the interner or null if tags are not to be interned
+     * @param limits the limits
+     */
+    public NBTDeserializer(boolean compressed, NBTFormat format, NBTInterner interner, NBTLimits limits) {
+        this.compressed = compressed;
+        this.format = Objects.requireNonNull(format);
+        this.interner = interner;
+        this.limits = Objects.requireNonNull(limits);
+    }
+    
+    /**
+     * Constructs a new NBT-Deserializer which reads NBT within the given limits, such as {@link NBTLimits#UNTRUSTED}
+     * for documents uploaded by users. Documents which exceed the limits cause an {@link NBTLimitException}.
+     *
+     * @param compressed whether the input is g-zip compressed
+     * @param interner the interner or null if tags are not to be interned
+     * @param limits the limits
+     */
+    public NBTDeserializer(boolean compressed, NBTInterner interner, NBTLimits limits) {
+        this(compressed, NBTFormat.BIG_ENDIAN, interner, limits);
+    }
+    
+    /**
+     * Constructs a new NBT-Deserializer which interns all tags that it reads. The tags are therefore frozen and
+     * identical subtrees are shared with all other documents which have been interned by the same interner.
+     *
+     * @param compressed whether the input is g-zip compressed
+     * @param interner the interner or null if tags are not to be interned
+     */
+    public NBTDeserializer(boolean compressed, NBTInterner interner) {
+        this(compressed, interner, NBTLimits.UNLIMITED);
+    }
     
     /**
      * Constructs a new NBT-Deserializer.
@@ -17,7 +60,7 @@ public class NBTDeserializer implements Deserializer<NBTNamedTag> {
      * @param compressed whether the input is g-zip compressed
      */
     public NBTDeserializer(boolean compressed) {
-        this.compressed = compressed;
+        this(compressed, null);
     }
     
     /**
@@ -29,14 +72,35 @@ public class NBTDeserializer implements Deserializer<NBTNamedTag> {
     
     @Override
     public NBTNamedTag fromStream(InputStream stream) throws IOException {
-        NBTInputStream nbtStream = compressed?
-            new NBTInputStream(new GZIPInputStream(stream)) :
-            new NBTInputStream(stream);
+        return fromStream(stream, null);
+    }
+    
+    @Override
+    public NBTNamedTag fromFile(File file) throws IOException {
+        try (InputStream stream = new FileInputStream(file)) {
+            try (BufferedInputStream buffStream = new BufferedInputStream(stream)) {
+                return fromStream(buffStream, file.getPath());
+            }
+        }
+    }
+    
+    private NBTNamedTag fromStream(InputStream stream, String source) throws IOException {
+        NBTEvents event = NBTEvents.begin(NBTEvents.Kind.DECODE, source);
+        if (event != null) stream = event.raw(stream);
+        if (compressed) {
+            stream = new GZIPInputStream(stream);
+            if (event != null) stream = event.decompressing(stream);
+        }
+        NBTInputStream nbtStream = new NBTInputStream(stream, format, limits);
         
         NBTNamedTag tag = nbtStream.readNamedTag();
         if (tag == null)
             throw new IOException("failed to read NBT tag due to EOS");
-        else return tag;
+        else if (interner != null)
+            tag = new NBTNamedTag(tag.getName(), interner.intern(tag.getTag()));
+        
+        if (event != null) event.end(nbtStream);
+        return tag;
     }
     
 }
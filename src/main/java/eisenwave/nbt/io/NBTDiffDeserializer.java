@@ -0,0 +1,149 @@
+package eisenwave.nbt.io;
+
+import eisenwave.io.Deserializer;
+import eisenwave.nbt.NBTDiff;
+import eisenwave.nbt.NBTTag;
+import eisenwave.nbt.NBTType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ *     Deserializes {@link NBTDiff patches} which have been written by a {@link NBTDiffSerializer}.
+ * </p>
+ * <p>
+ *     The tags of patches are read within the {@link NBTLimits} of the deserializer. The amount of edits is also
+ *     limited by the maximum array length and the length of paths by the maximum depth, so patches received from the
+ *     network are bounded like documents.
+ * </p>
+ */
+public class NBTDiffDeserializer implements Deserializer<NBTDiff> {
+    
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final static NBTDiff.Operation[] OPERATIONS = NBTDiff.Operation.values();
+    
+    /** The maximum length of names in bytes, which are limited to an unsigned short in NBT. */
+    private final static int MAX_NAME_LENGTH = 0xFFFF;
+    
+    private final boolean compressed;
+    private final NBTLimits limits;
+    
+    /**
+     * Constructs a new patch deserializer which reads patches within the given limits.
+     *
+     * @param compressed whether the input is g-zip compressed
+     * @param limits the limits
+     */
+    public NBTDiffDeserializer(boolean compressed, NBTLimits limits) {
+        this.compressed = compressed;
+        this.limits = Objects.requireNonNull(limits);
+    }
+    
+    /**
+     * Constructs a new patch deserializer.
+     *
+     * @param compressed whether the input is g-zip compressed
+     */
+    public NBTDiffDeserializer(boolean compressed) {
+        this(compressed, NBTLimits.UNLIMITED);
+    }
+    
+    /**
+     * Constructs a new patch deserializer for uncompressed input.
+     */
+    public NBTDiffDeserializer() {
+        this(false);
+    }
+    
+    @Override
+    public NBTDiff fromStream(InputStream stream) throws IOException {
+        NBTInputStream nbtStream = compressed?
+            new NBTInputStream(new GZIPInputStream(stream), limits) :
+            new NBTInputStream(stream, limits);
+        
+        int count = readLength(nbtStream);
+        if (count > limits.getMaxArrayLength())
+            throw new NBTLimitException("patch exceeds the maximum of " + limits.getMaxArrayLength() + " edits");
+        List<NBTDiff.Edit> edits = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++)
+            edits.add(readEdit(nbtStream, limits));
+        return new NBTDiff(edits);
+    }
+    
+    private static NBTDiff.Edit readEdit(NBTInputStream stream, NBTLimits limits) throws IOException {
+        int id = stream.readUnsignedByte();
+        if (id >= OPERATIONS.length)
+            throw new IOException("invalid operation: " + id);
+        NBTDiff.Operation operation = OPERATIONS[id];
+        
+        int length = readLength(stream);
+        if (length > limits.getMaxDepth())
+            throw new NBTLimitException("path exceeds the maximum depth of " + limits.getMaxDepth());
+        List<Object> path = new ArrayList<>(Math.min(length, 64));
+        for (int i = 0; i < length; i++) {
+            int key = readLength(stream);
+            if ((key & 1) != 0) {
+                path.add(key >>> 1);
+            }
+            else {
+                if (key >>> 1 > MAX_NAME_LENGTH)
+                    throw new IOException("name is longer than " + MAX_NAME_LENGTH + " bytes: " + (key >>> 1));
+                byte[] bytes = new byte[key >>> 1];
+                stream.readFully(bytes);
+                path.add(new String(bytes, UTF_8));
+            }
+        }
+        
+        try {
+            switch (operation) {
+                case PUT: return new NBTDiff.Edit(operation, path, 0, 0, readTag(stream));
+                case REMOVE: return new NBTDiff.Edit(operation, path, 0, 0, null);
+                case SPLICE: {
+                    int index = readLength(stream), deleteCount = readLength(stream);
+                    return new NBTDiff.Edit(operation, path, index, deleteCount, stream.readTagList(1));
+                }
+                default: {
+                    int index = readLength(stream), deleteCount = readLength(stream);
+                    return new NBTDiff.Edit(operation, path, index, deleteCount, readTag(stream));
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("invalid edit", ex);
+        }
+    }
+    
+    private static NBTTag readTag(NBTInputStream stream) throws IOException {
+        int id = stream.readUnsignedByte();
+        if (id >= NBTType.values().length)
+            throw new IOException("invalid tag type: " + id);
+        return stream.readTag(NBTType.getById((byte) id), 1);
+    }
+    
+    /**
+     * Reads a count, length or index, which is never negative.
+     */
+    private static int readLength(NBTInputStream stream) throws IOException {
+        int length = readVarInt(stream);
+        if (length < 0) throw new IOException("negative length: " + length);
+        return length;
+    }
+    
+    private static int readVarInt(NBTInputStream stream) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = stream.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IOException("variable-length integer is too long");
+    }
+
+}
@@ -0,0 +1,106 @@
+package eisenwave.nbt.io;
+
+import eisenwave.io.Serializer;
+import eisenwave.nbt.NBTDiff;
+import eisenwave.nbt.NBTList;
+import eisenwave.nbt.NBTTag;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ *     Serializes {@link NBTDiff patches} into a compact binary format.
+ * </p>
+ * <p>
+ *     Counts, indices and path keys are written as variable-length integers, tags are written in the regular NBT
+ *     format. The format can be read using a {@link NBTDiffDeserializer}.
+ * </p>
+ */
+public class NBTDiffSerializer implements Serializer<NBTDiff> {
+    
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final boolean compress;
+    
+    /**
+     * Constructs a new patch serializer.
+     *
+     * @param compress whether to use gzip compression.
+     */
+    public NBTDiffSerializer(boolean compress) {
+        this.compress = compress;
+    }
+    
+    /**
+     * Constructs a new patch serializer without compression, since most patches are too small to benefit from it.
+     */
+    public NBTDiffSerializer() {
+        this(false);
+    }
+    
+    @Override
+    public void toStream(NBTDiff diff, OutputStream stream) throws IOException {
+        if (compress) {
+            GZIPOutputStream gzipStream = new GZIPOutputStream(stream);
+            write(diff, new NBTOutputStream(gzipStream));
+            gzipStream.finish();
+        }
+        else {
+            write(diff, new NBTOutputStream(stream));
+        }
+    }
+    
+    private static void write(NBTDiff diff, NBTOutputStream stream) throws IOException {
+        writeVarInt(stream, diff.size());
+        for (NBTDiff.Edit edit : diff) {
+            stream.writeByte(edit.getOperation().ordinal());
+            writeVarInt(stream, edit.getPath().size());
+            for (Object key : edit.getPath()) {
+                if (key instanceof Integer) {
+                    writeVarInt(stream, (Integer) key << 1 | 1);
+                }
+                else {
+                    byte[] bytes = ((String) key).getBytes(UTF_8);
+                    writeVarInt(stream, bytes.length << 1);
+                    stream.write(bytes);
+                }
+            }
+            
+            NBTTag tag = edit.getTag();
+            switch (edit.getOperation()) {
+                case PUT: {
+                    stream.writeByte(tag.getTypeId());
+                    stream.writeTag(tag);
+                    break;
+                }
+                case REMOVE: break;
+                case SPLICE: {
+                    writeVarInt(stream, edit.getIndex());
+                    writeVarInt(stream, edit.getDeleteCount());
+                    stream.writeTagList((NBTList) tag);
+                    break;
+                }
+                case ARRAY_SPLICE: {
+                    writeVarInt(stream, edit.getIndex());
+                    writeVarInt(stream, edit.getDeleteCount());
+                    stream.writeByte(tag.getTypeId());
+                    stream.writeTag(tag);
+                    break;
+                }
+            }
+        }
+        stream.flush();
+    }
+    
+    private static void writeVarInt(NBTOutputStream stream, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            stream.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        stream.writeByte(value);
+    }
+
+}
@@ -0,0 +1,272 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.NBTCompound;
+import eisenwave.nbt.NBTList;
+import eisenwave.nbt.NBTTag;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ *     Measures a single decode, encode, parse or write operation for a Flight Recorder event.
+ * </p>
+ * <p>
+ *     Measurements only exist while the event is being recorded, {@link #begin(Kind, String)} returns null otherwise,
+ *     so instrumented code only pays for a null check when nothing is recorded. On runtimes without Flight Recorder,
+ *     the event classes in {@link FlightRecorderEvents} are never loaded.
+ * </p>
+ */
+final class NBTEvents {
+    
+    enum Kind {DECODE, ENCODE, PARSE, WRITE}
+    
+    private final static boolean SUPPORTED = isSupported();
+    
+    final Kind kind;
+    final String source;
+    /** The Flight Recorder event, which is typed as object so that this class can be loaded without Flight Recorder. */
+    private final Object event;
+    private final long start = System.nanoTime();
+    
+    /** The amount of bytes or characters of NBT and the amount of bytes of the stream, which may be compressed. */
+    long size, rawSize;
+    long compressionNanos;
+    boolean compressed;
+    int tagCount, maxDepth;
+    long duration;
+    
+    private NBTEvents(Kind kind, String source, Object event) {
+        this.kind = kind;
+        this.source = source;
+        this.event = event;
+    }
+    
+    private static boolean isSupported() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Begins measuring an operation.
+     *
+     * @param kind the kind of operation
+     * @param source the path of the file which is read or written or null if it is unknown
+     * @return the measurement or null if the event is not recorded
+     */
+    static NBTEvents begin(Kind kind, String source) {
+        if (!SUPPORTED) return null;
+        Object event = FlightRecorderEvents.begin(kind);
+        return event == null? null : new NBTEvents(kind, source, event);
+    }
+    
+    /**
+     * Ends the measurement and commits the event.
+     *
+     * @param tag the tag which has been read or written
+     */
+    void end(NBTTag tag) {
+        stop();
+        measure(tag);
+        FlightRecorderEvents.commit(event, this);
+    }
+    
+    /**
+     * Ends the measurement of a decode operation and commits the event. The tags have already been counted by the
+     * stream, so the tree is not walked again.
+     *
+     * @param stream the stream which has read the tag
+     */
+    void end(NBTInputStream stream) {
+        stop();
+        tagCount = (int) Math.min(stream.getTagsRead(), Integer.MAX_VALUE);
+        maxDepth = stream.getMaxDepthRead();
+        FlightRecorderEvents.commit(event, this);
+    }
+    
+    private void stop() {
+        duration = System.nanoTime() - start;
+        if (!compressed) size = Math.max(size, rawSize);
+    }
+    
+    private void measure(NBTTag root) {
+        // the tags which remain to be counted and their depths
+        NBTTag[] tags = new NBTTag[16];
+        int[] depths = new int[16];
+        tags[0] = root;
+        int size = 1;
+        while (size > 0) {
+            NBTTag tag = tags[--size];
+            int depth = depths[size];
+            tags[size] = null;
+            tagCount++;
+            maxDepth = Math.max(maxDepth, depth);
+            
+            int children;
+            if (tag instanceof NBTList) children = ((NBTList) tag).size();
+            else if (tag instanceof NBTCompound) children = ((NBTCompound) tag).size();
+            else continue;
+            if (size + children > tags.length) {
+                int capacity = Math.max(tags.length * 2, size + children);
+                tags = Arrays.copyOf(tags, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+            
+            if (tag instanceof NBTList) {
+                for (NBTTag element : (NBTList) tag) {
+                    tags[size] = element;
+                    depths[size++] = depth + 1;
+                }
+            }
+            else {
+                for (Map.Entry<String, NBTTag> entry : ((NBTCompound) tag).entries()) {
+                    tags[size] = entry.getValue();
+                    depths[size++] = depth + 1;
+                }
+            }
+        }
+    }
+    
+    // STREAMS
+    
+    /**
+     * Counts the bytes which are read from the given stream.
+     */
+    InputStream raw(InputStream stream) {
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b != -1) rawSize++;
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = in.read(b, off, len);
+                if (n > 0) rawSize += n;
+                return n;
+            }
+        };
+    }
+    
+    /**
+     * Counts the bytes which are read from a decompressing stream and the time spent inflating them.
+     */
+    InputStream decompressing(InputStream stream) {
+        compressed = true;
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                int b = in.read();
+                compressionNanos += System.nanoTime() - start;
+                if (b != -1) size++;
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                int n = in.read(b, off, len);
+                compressionNanos += System.nanoTime() - start;
+                if (n > 0) size += n;
+                return n;
+            }
+        };
+    }
+    
+    /**
+     * Counts the bytes which are written to the given stream.
+     */
+    OutputStream raw(OutputStream stream) {
+        return new FilterOutputStream(stream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                rawSize++;
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                rawSize += len;
+            }
+        };
+    }
+    
+    /**
+     * Counts the bytes which are written to a compressing stream and the time spent deflating them.
+     */
+    CompressingStream compressing(GZIPOutputStream stream) {
+        compressed = true;
+        return new CompressingStream(stream);
+    }
+    
+    /**
+     * Counts the characters which are written to the given writer.
+     */
+    Writer count(Writer writer) {
+        return new FilterWriter(writer) {
+            @Override
+            public void write(int c) throws IOException {
+                out.write(c);
+                size++;
+            }
+            
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                out.write(cbuf, off, len);
+                size += len;
+            }
+            
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                out.write(str, off, len);
+                size += len;
+            }
+        };
+    }
+    
+    final class CompressingStream extends FilterOutputStream {
+        
+        private CompressingStream(GZIPOutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            compressionNanos += System.nanoTime() - start;
+            size++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            compressionNanos += System.nanoTime() - start;
+            size += len;
+        }
+        
+        /**
+         * Finishes the compressed stream without closing it.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        void finish() throws IOException {
+            long start = System.nanoTime();
+            ((GZIPOutputStream) out).finish();
+            compressionNanos += System.nanoTime() - start;
+        }
+    
+    }
+
+}
@@ -0,0 +1,34 @@
+package eisenwave.nbt.io;
+
+/**
+ * <p>
+ *     The binary encodings of NBT, which only differ in how numbers and lengths are encoded.
+ * </p>
+ * <table>
+ *     <caption>Encodings of numbers and lengths</caption>
+ *     <tr>
+ *         <th>Format</th><th>Short, Float, Double</th><th>Int, Long, array and list lengths</th><th>String lengths</th>
+ *     </tr>
+ *     <tr><td>{@link #BIG_ENDIAN}</td><td>big-endian</td><td>big-endian</td><td>big-endian unsigned short</td></tr>
+ *     <tr>
+ *         <td>{@link #LITTLE_ENDIAN}</td><td>little-endian</td><td>little-endian</td>
+ *         <td>little-endian unsigned short</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@link #NETWORK}</td><td>little-endian</td><td>zig-zag encoded VarInt or VarLong</td>
+ *         <td>unsigned VarInt</td>
+ *     </tr>
+ * </table>
+ */
+public enum NBTFormat {
+    
+    /** The format of the Java Edition. */
+    BIG_ENDIAN,
+    
+    /** The format of files of the Bedrock Edition, such as {@code level.dat}. */
+    LITTLE_ENDIAN,
+    
+    /** The format of the network protocol of the Bedrock Edition, which is much more compact for small numbers. */
+    NETWORK
+
+}
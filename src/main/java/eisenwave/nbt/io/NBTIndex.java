@@ -0,0 +1,443 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.NBTTag;
+import eisenwave.nbt.NBTType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     An index of the byte offsets of the tags in a large uncompressed NBT file, which allows reading single subtrees
+ *     without parsing anything before them.
+ * </p>
+ * <p>
+ *     Scanning a file once records the type, offset and length of the payload of every compound entry and of every
+ *     element of lists which do not consist of primitives, up to a maximum depth. The index can be saved as a compact
+ *     sidecar file and loaded again, and its entries are navigated like the tags themselves. A single subtree, such as
+ *     element 50,000 of a large list of entities, is then loaded with one positional read from a {@link FileChannel}.
+ * </p>
+ * <p>
+ *     Indices are immutable once scanned or loaded, so entries may be looked up and read from any amount of threads in
+ *     parallel.
+ * </p>
+ */
+public final class NBTIndex {
+    
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final static NBTType[] TYPES = NBTType.values();
+    
+    /** The magic number of sidecar files, which is "NBTI" in ASCII. */
+    private final static int MAGIC = 0x4E425449;
+    
+    // the nodes in depth-first order, where the root is the first node
+    private int size;
+    private int[] parents = new int[32];
+    private byte[] types = new byte[32];
+    private long[] offsets = new long[32], lengths = new long[32];
+    private String[] names = new String[32];
+    
+    /** The children of node {@code i} are {@code children[firstChildren[i]]} until {@code firstChildren[i + 1]}. */
+    private int[] children, firstChildren;
+    
+    private NBTIndex() {}
+    
+    /**
+     * Scans an uncompressed named tag and indexes all of its tags up to a maximum depth.
+     *
+     * @param stream the stream, whose first byte is the offset zero of the index
+     * @param maxDepth the maximum depth of indexed tags, where the root tag has the depth zero
+     * @return the index
+     * @throws IOException if an I/O error occurs or the stream does not contain a named tag
+     */
+    public static NBTIndex scan(InputStream stream, int maxDepth) throws IOException {
+        if (maxDepth < 0) throw new IllegalArgumentException("negative depth: " + maxDepth);
+        CountingInputStream counter = new CountingInputStream(stream);
+        NBTInputStream in = new NBTInputStream(counter);
+        
+        int id = in.read();
+        if (id == -1) throw new EOFException();
+        NBTType type = NBTType.getById((byte) id);
+        if (type == NBTType.END)
+            throw new IOException("TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+        
+        NBTIndex index = new NBTIndex();
+        index.scan(in, counter, type, -1, in.readString(), 0, maxDepth);
+        index.link();
+        return index;
+    }
+    
+    /**
+     * Scans an uncompressed NBT file and indexes all of its tags up to a maximum depth.
+     *
+     * @param file the file
+     * @param maxDepth the maximum depth of indexed tags, where the root tag has the depth zero
+     * @return the index
+     * @throws IOException if an I/O error occurs or the file does not contain a named tag
+     */
+    public static NBTIndex scan(Path file, int maxDepth) throws IOException {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            return scan(stream, maxDepth);
+        }
+    }
+    
+    private void scan(NBTInputStream in, CountingInputStream counter, NBTType type, int parent, String name,
+                      int depth, int maxDepth) throws IOException {
+        int node = add(parent, type, name, counter.position);
+        if (depth < maxDepth && type == NBTType.COMPOUND) {
+            int id;
+            while ((id = in.readByte()) != NBTType.END.getId()) {
+                NBTType valueType = NBTType.getById((byte) id);
+                scan(in, counter, valueType, node, in.readString(), depth + 1, maxDepth);
+            }
+        }
+        else if (depth < maxDepth && type == NBTType.LIST) {
+            NBTType elementType = NBTType.getById(in.readByte());
+            int length = in.readInt();
+            if (length < 0) throw new IOException("negative length: " + length);
+            // elements of primitive lists are small and can not be read individually, so only the list is indexed
+            boolean indexed = !isPrimitive(elementType);
+            for (int i = 0; i < length; i++) {
+                if (indexed) scan(in, counter, elementType, node, null, depth + 1, maxDepth);
+                else in.skipTag(elementType);
+            }
+        }
+        else {
+            in.skipTag(type);
+        }
+        lengths[node] = counter.position - offsets[node];
+    }
+    
+    private int add(int parent, NBTType type, String name, long offset) {
+        if (size == parents.length) {
+            int capacity = size * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            types = Arrays.copyOf(types, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        parents[size] = parent;
+        types[size] = type.getId();
+        offsets[size] = offset;
+        names[size] = name;
+        return size++;
+    }
+    
+    /**
+     * Groups the nodes by their parents. Since the nodes are in depth-first order, the children of every node are in
+     * the order in which they appear in the file.
+     */
+    private void link() {
+        firstChildren = new int[size + 1];
+        for (int i = 1; i < size; i++)
+            firstChildren[parents[i] + 1]++;
+        for (int i = 0; i < size; i++)
+            firstChildren[i + 1] += firstChildren[i];
+        
+        children = new int[Math.max(size - 1, 0)];
+        int[] next = Arrays.copyOf(firstChildren, size);
+        for (int i = 1; i < size; i++)
+            children[next[parents[i]]++] = i;
+    }
+    
+    private static boolean isPrimitive(NBTType type) {
+        switch (type) {
+            case END:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE: return true;
+            default: return false;
+        }
+    }
+    
+    // SIDECAR FILES
+    
+    /**
+     * Writes this index in the sidecar format.
+     *
+     * @param stream the stream
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(parents[i]);
+            out.writeByte(types[i]);
+            out.writeLong(offsets[i]);
+            out.writeLong(lengths[i]);
+            if (names[i] == null) {
+                out.writeInt(-1);
+            }
+            else {
+                byte[] name = names[i].getBytes(UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+        }
+        out.flush();
+    }
+    
+    /**
+     * Writes this index into a sidecar file.
+     *
+     * @param file the file
+     * @throws IOException if an I/O error occurs
+     */
+    public void save(Path file) throws IOException {
+        try (OutputStream stream = Files.newOutputStream(file)) {
+            write(stream);
+        }
+    }
+    
+    /**
+     * Reads an index in the sidecar format.
+     *
+     * @param stream the stream
+     * @return the index
+     * @throws IOException if an I/O error occurs or the stream does not contain a valid index
+     */
+    public static NBTIndex read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) throw new IOException("not an NBT index");
+        int size = in.readInt();
+        if (size < 1) throw new IOException("invalid size: " + size);
+        
+        NBTIndex index = new NBTIndex();
+        for (int i = 0; i < size; i++) {
+            int parent = in.readInt();
+            byte type = in.readByte();
+            if (i == 0? parent != -1 : parent < 0 || parent >= i)
+                throw new IOException("invalid parent of node " + i + ": " + parent);
+            if (type < 0 || type >= TYPES.length || type == NBTType.END.getId())
+                throw new IOException("invalid type of node " + i + ": " + type);
+            long offset = in.readLong();
+            
+            index.add(parent, TYPES[type], null, offset);
+            index.lengths[i] = in.readLong();
+            int length = in.readInt();
+            if (length >= 0) {
+                byte[] name = new byte[length];
+                in.readFully(name);
+                index.names[i] = new String(name, UTF_8);
+            }
+        }
+        index.link();
+        return index;
+    }
+    
+    /**
+     * Reads an index from a sidecar file.
+     *
+     * @param file the file
+     * @return the index
+     * @throws IOException if an I/O error occurs or the file does not contain a valid index
+     */
+    public static NBTIndex load(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            return read(stream);
+        }
+    }
+    
+    // GETTERS
+    
+    /**
+     * Returns the amount of indexed tags.
+     *
+     * @return the amount of indexed tags
+     */
+    public int getNodeCount() {
+        return size;
+    }
+    
+    /**
+     * Returns the entry of the root tag.
+     *
+     * @return the root entry
+     */
+    public Entry root() {
+        return new Entry(0);
+    }
+    
+    /**
+     * An indexed tag. Entries are immutable.
+     */
+    public final class Entry {
+        
+        private final int node;
+        
+        private Entry(int node) {
+            this.node = node;
+        }
+        
+        /**
+         * Returns the type of the tag.
+         *
+         * @return the type
+         */
+        public NBTType getType() {
+            return TYPES[types[node]];
+        }
+        
+        /**
+         * Returns the name of the tag.
+         *
+         * @return the name or null if the tag is an element of a list
+         */
+        public String getName() {
+            return names[node];
+        }
+        
+        /**
+         * Returns the offset of the payload of the tag in the file.
+         *
+         * @return the offset
+         */
+        public long getOffset() {
+            return offsets[node];
+        }
+        
+        /**
+         * Returns the length of the payload of the tag in bytes.
+         *
+         * @return the length
+         */
+        public long getLength() {
+            return lengths[node];
+        }
+        
+        /**
+         * Returns the amount of indexed entries or elements of the tag, which is zero if they are not indexed.
+         *
+         * @return the amount of indexed children
+         */
+        public int size() {
+            return firstChildren[node + 1] - firstChildren[node];
+        }
+        
+        /**
+         * Returns the parent of the tag.
+         *
+         * @return the parent entry or null if this is the root entry
+         */
+        public Entry parent() {
+            return node == 0? null : new Entry(parents[node]);
+        }
+        
+        /**
+         * Returns the entry of the compound with the given key.
+         *
+         * @param key the key
+         * @return the entry or null if it is absent or not indexed
+         */
+        public Entry find(String key) {
+            for (int i = firstChildren[node]; i < firstChildren[node + 1]; i++)
+                if (key.equals(names[children[i]])) return new Entry(children[i]);
+            return null;
+        }
+        
+        /**
+         * Returns the element of the list at the given index.
+         *
+         * @param index the index
+         * @return the entry or null if the index is out of bounds or the elements are not indexed
+         */
+        public Entry element(int index) {
+            if (getType() != NBTType.LIST || index < 0 || index >= size()) return null;
+            return new Entry(children[firstChildren[node] + index]);
+        }
+        
+        /**
+         * Reads the tag from the indexed file with a single positional read. The position of the channel is not
+         * changed, so the same channel can be used by multiple threads in parallel.
+         *
+         * @param channel the channel of the indexed file
+         * @return the tag
+         * @throws IOException if an I/O error occurs or the file does not match the index
+         */
+        public NBTTag read(FileChannel channel) throws IOException {
+            long length = getLength();
+            if (length > Integer.MAX_VALUE - 8) throw new IOException("tag is too large to be read at once");
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            long offset = getOffset();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException();
+            }
+            
+            NBTInputStream stream = new NBTInputStream(new ByteArrayInputStream(buffer.array()));
+            return stream.readTag(getType(), 1);
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Entry && ((Entry) obj).node == node && ((Entry) obj).index() == NBTIndex.this;
+        }
+        
+        @Override
+        public int hashCode() {
+            return node;
+        }
+        
+        @Override
+        public String toString() {
+            return getType() + "@" + getOffset() + "+" + getLength();
+        }
+        
+        private NBTIndex index() {
+            return NBTIndex.this;
+        }
+    
+    }
+    
+    /**
+     * Counts the bytes which have been read or skipped.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        
+        private long position;
+        
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) position++;
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) position += n;
+            return n;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) position += skipped;
+            return skipped;
+        }
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    
+    }
+
+}
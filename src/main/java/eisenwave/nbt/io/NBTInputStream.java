@@ -3,20 +3,46 @@ package eisenwave.nbt.io;
 import eisenwave.nbt.*;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
- * An NBTInputStream extends {@link DataInputStream} by allowing to read named tags.
+ * <p>
+ *     An NBTInputStream extends {@link DataInputStream} by allowing to read named tags.
+ * </p>
+ * <p>
+ *     Compounds and lists are read iteratively using an explicit stack, which is reused by all reads of the stream,
+ *     so the nesting depth of tags does not depend on the size of the thread stack.
+ * </p>
+ * <p>
+ *     Numbers and lengths are read in the {@link NBTFormat} of the stream, which is big-endian by default. Code which
+ *     reads payloads directly should use {@link #readShortValue()}, {@link #readIntValue()} and the other value
+ *     methods rather than the big-endian methods of {@link DataInputStream}.
+ * </p>
  */
 public final class NBTInputStream extends DataInputStream {
 
     private final static Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final static int MAX_PRESIZE = 1024;
+    
+    private final NBTFormat format;
+    private final NBTLimits limits;
+    private long bytes, tags;
+    private int maxDepth;
+    /** The amount of containers which are being read directly. */
+    private int depth;
+    
+    /** The containers which are being read, the names under which they are put and the remaining list elements. */
+    private NBTTag[] containers = new NBTTag[16];
+    private String[] names = new String[16];
+    private NBTType[] elementTypes = new NBTType[16];
+    private int[] remaining = new int[16], depths = new int[16];
+    private int size;
 
     /**
      * Creates a new {@code NBTInputStream}, which will source its data from the specified input stream.
@@ -24,7 +50,52 @@ public final class NBTInputStream extends DataInputStream {
      * @param in the input stream
      */
     public NBTInputStream(InputStream in) {
+        this(in, NBTLimits.UNLIMITED);
+    }
+    
+    /**
+     * Creates a new {@code NBTInputStream}, which will source its data from the specified input stream and throws an
+     * {@link NBTLimitException} as soon as the tags which it reads exceed the given limits.
+     *
+     * @param in the input stream
+     * @param limits the limits
+     */
+    public NBTInputStream(InputStream in, NBTLimits limits) {
+        this(in, NBTFormat.BIG_ENDIAN, limits);
+    }
+    
+    /**
+     * Creates a new {@code NBTInputStream}, which will source its data in the given format from the specified input
+     * stream.
+     *
+     * @param in the input stream
+     * @param format the format
+     */
+    public NBTInputStream(InputStream in, NBTFormat format) {
+        this(in, format, NBTLimits.UNLIMITED);
+    }
+    
+    /**
+     * Creates a new {@code NBTInputStream}, which will source its data in the given format from the specified input
+     * stream and throws an {@link NBTLimitException} as soon as the tags which it reads exceed the given limits.
+     *
+     * @param in the input stream
+     * @param format the format
+     * @param limits the limits
+     */
+    public NBTInputStream(InputStream in, NBTFormat format, NBTLimits limits) {
         super(in);
+        this.format = Objects.requireNonNull(format);
+        this.limits = Objects.requireNonNull(limits);
+    }
+    
+    /**
+     * Returns the format in which this stream reads NBT.
+     *
+     * @return the format
+     */
+    public NBTFormat getFormat() {
+        return format;
     }
     
     /**
@@ -70,6 +141,7 @@ public final class NBTInputStream extends DataInputStream {
         int id = read();
         if (id == -1) return null;
         NBTType type = NBTType.getById((byte) id);
+        account(1);
 
         String name = type!= NBTType.END? readString() : "";
 
@@ -98,18 +170,20 @@ public final class NBTInputStream extends DataInputStream {
      * @throws IOException if an I/O error occurs.
      */
     public NBTTag readTag(NBTType type, int depth) throws IOException {
+        countTag();
+        if (depth > maxDepth) maxDepth = depth;
         switch (type) {
             case END: return readTagEnd(depth);
-            case BYTE: return new NBTByte(readByte());
-            case SHORT: return new NBTShort(readShort());
-            case INT: return new NBTInt(readInt());
-            case LONG: return new NBTLong(readLong());
-            case FLOAT: return new NBTFloat(readFloat());
-            case DOUBLE: return new NBTDouble(readDouble());
+            case BYTE: account(1); return new NBTByte(readByte());
+            case SHORT: account(2); return new NBTShort(readShortValue());
+            case INT: account(4); return new NBTInt(readIntValue());
+            case LONG: account(8); return new NBTLong(readLongValue());
+            case FLOAT: account(4); return new NBTFloat(readFloatValue());
+            case DOUBLE: account(8); return new NBTDouble(readDoubleValue());
             case BYTE_ARRAY: return readTagByteArray();
             case STRING: return readTagString();
-            case LIST: return readTagList(depth);
-            case COMPOUND: return readTagCompound(depth);
+            case LIST:
+            case COMPOUND: return readContainer(type, depth);
             case INT_ARRAY: return readTagIntArray();
             case LONG_ARRAY: return readTagLongArray();
             default: throw new IOException("invalid tag type: " + type);
@@ -123,7 +197,7 @@ public final class NBTInputStream extends DataInputStream {
     }
 
     public NBTByteArray readTagByteArray() throws IOException {
-        int length = readInt();
+        int length = readLength(1);
         byte[] bytes = new byte[length];
         readFully(bytes);
         return new NBTByteArray(bytes);
@@ -134,59 +208,550 @@ public final class NBTInputStream extends DataInputStream {
     }
 
     public NBTList readTagList(int depth) throws IOException {
-        NBTType elementType = NBTType.getById(readByte());
-        int length = readInt();
-        
-        if (elementType == NBTType.END && length > 0)
-            throw new IOException("List is of type TAG_End but not empty");
-
-        List<NBTTag> tagList = new ArrayList<>();
-        for (int i = 0; i < length; ++i) {
-            NBTTag tag = readTag(elementType, depth + 1);
-            tagList.add(tag);
-        }
-
-        return new NBTList(elementType, tagList);
+        return (NBTList) readContainer(NBTType.LIST, depth);
     }
 
     public NBTCompound readTagCompound(int depth) throws IOException {
-        Map<String, NBTTag> tagMap = new HashMap<>();
-        while (true) {
-            NBTNamedTag namedTag = readNamedTag(depth + 1);
-            if (namedTag == null) throw new IOException("NBT ends inside a list");
-            
-            NBTTag tag = namedTag.getTag();
-            if (tag instanceof NBTEnd) break;
-            else tagMap.put(namedTag.getName(), tag);
-        }
-
-        return new NBTCompound(tagMap);
+        return (NBTCompound) readContainer(NBTType.COMPOUND, depth);
     }
 
     public NBTIntArray readTagIntArray() throws IOException {
-        int length = readInt();
+        int length = readLength(4);
         int[] data = new int[length];
         for (int i = 0; i < length; i++)
-            data[i] = readInt();
+            data[i] = readIntValue();
 
         return new NBTIntArray(data);
     }
     
     public NBTLongArray readTagLongArray() throws IOException {
-        int length = readInt();
+        int length = readLength(8);
         long[] data = new long[length];
         for (int i = 0; i < length; i++)
-            data[i] = readLong();
+            data[i] = readLongValue();
         
         return new NBTLongArray(data);
     }
     
+    /**
+     * <p>
+     *     Skips the payload of a tag given the type without constructing it.
+     * </p>
+     * <p>
+     *     Compounds and lists are skipped including all of their elements, only their structure is read.
+     * </p>
+     *
+     * <p>
+     *     Skipped tags are only subject to the maximum depth of the {@link NBTLimits} of this stream, since skipping
+     *     allocates nothing.
+     * </p>
+     *
+     * @param type the type
+     * @throws IOException if an I/O error occurs
+     */
+    public void skipTag(NBTType type) throws IOException {
+        switch (type) {
+            case END: break;
+            case BYTE: skipFully(1); break;
+            case SHORT: skipFully(2); break;
+            case INT: skipNumbers(NBTType.INT, 1); break;
+            case FLOAT: skipFully(4); break;
+            case LONG: skipNumbers(NBTType.LONG, 1); break;
+            case DOUBLE: skipFully(8); break;
+            case BYTE_ARRAY: skipFully(readIntValue()); break;
+            case STRING: skipFully(readStringLength()); break;
+            case LIST:
+            case COMPOUND: skipContainer(type); break;
+            case INT_ARRAY: skipNumbers(NBTType.INT, readIntValue()); break;
+            case LONG_ARRAY: skipNumbers(NBTType.LONG, readIntValue()); break;
+            default: throw new IOException("invalid tag type: " + type);
+        }
+    }
+    
+    /**
+     * Skips ints or longs, which only have a fixed size if they are not encoded as VarInts.
+     */
+    private void skipNumbers(NBTType type, int count) throws IOException {
+        if (format != NBTFormat.NETWORK) {
+            skipFully((type == NBTType.INT? 4L : 8L) * count);
+            return;
+        }
+        if (count < 0) throw new IOException("negative length: " + count);
+        for (int i = 0; i < count; i++) {
+            for (int b = readByte(); (b & 0x80) != 0; b = readByte()) {}
+        }
+    }
+    
+    private void skipFully(long length) throws IOException {
+        if (length < 0) throw new IOException("negative length: " + length);
+        while (length > 0) {
+            long skipped = skip(length);
+            if (skipped <= 0) {
+                if (read() == -1) throw new EOFException();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+    
     public String readString() throws IOException {
-        int length = readUnsignedShort();
+        int length = readStringLength();
+        if (length < 0) throw new IOException("negative length: " + length);
+        account(2 + length);
         byte[] bytes = new byte[length];
         readFully(bytes);
 
         return new String(bytes, UTF_8);
     }
+    
+    // VALUES
+    
+    /**
+     * Reads the payload of a {@code TAG_Short} in the format of this stream.
+     *
+     * @return the short
+     * @throws IOException if an I/O error occurs
+     */
+    public short readShortValue() throws IOException {
+        short value = readShort();
+        return format == NBTFormat.BIG_ENDIAN? value : Short.reverseBytes(value);
+    }
+    
+    /**
+     * Reads the payload of a {@code TAG_Int} or the length of an array or list in the format of this stream.
+     *
+     * @return the int
+     * @throws IOException if an I/O error occurs
+     */
+    public int readIntValue() throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) return readInt();
+        if (format == NBTFormat.LITTLE_ENDIAN) return Integer.reverseBytes(readInt());
+        int zigZag = readVarInt();
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+    
+    /**
+     * Reads the payload of a {@code TAG_Long} in the format of this stream.
+     *
+     * @return the long
+     * @throws IOException if an I/O error occurs
+     */
+    public long readLongValue() throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) return readLong();
+        if (format == NBTFormat.LITTLE_ENDIAN) return Long.reverseBytes(readLong());
+        long zigZag = readVarLong();
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+    
+    /**
+     * Reads the payload of a {@code TAG_Float} in the format of this stream.
+     *
+     * @return the float
+     * @throws IOException if an I/O error occurs
+     */
+    public float readFloatValue() throws IOException {
+        return format == NBTFormat.BIG_ENDIAN? readFloat() : Float.intBitsToFloat(Integer.reverseBytes(readInt()));
+    }
+    
+    /**
+     * Reads the payload of a {@code TAG_Double} in the format of this stream.
+     *
+     * @return the double
+     * @throws IOException if an I/O error occurs
+     */
+    public double readDoubleValue() throws IOException {
+        return format == NBTFormat.BIG_ENDIAN? readDouble() : Double.longBitsToDouble(Long.reverseBytes(readLong()));
+    }
+    
+    /**
+     * Reads the length of a string or name in bytes in the format of this stream.
+     *
+     * @return the length
+     * @throws IOException if an I/O error occurs
+     */
+    public int readStringLength() throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) return readUnsignedShort();
+        if (format == NBTFormat.LITTLE_ENDIAN) return Short.reverseBytes(readShort()) & 0xFFFF;
+        return readVarInt();
+    }
+    
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt is too long");
+    }
+    
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarLong is too long");
+    }
+    
+    // STACK
+    
+    /**
+     * Reads a compound or list including all of its elements without recursion.
+     *
+     * @param type the type of the container
+     * @param depth the depth of the container
+     * @return the container
+     * @throws IOException if an I/O error occurs
+     */
+    private NBTTag readContainer(NBTType type, int depth) throws IOException {
+        int base = size;
+        try {
+            readHeader(type, depth, null);
+            NBTTag result = null;
+            while (size > base) {
+                int top = size - 1;
+                NBTTag container = containers[top];
+                int childDepth = depths[top] + 1;
+                
+                if (elementTypes[top] != null) {
+                    if (remaining[top] == 0) {
+                        result = pop(base);
+                        continue;
+                    }
+                    remaining[top]--;
+                    NBTType elementType = elementTypes[top];
+                    if (elementType == NBTType.LIST || elementType == NBTType.COMPOUND) {
+                        countTag();
+                        readHeader(elementType, childDepth, null);
+                    }
+                    else ((NBTList) container).append(readTag(elementType, childDepth));
+                    continue;
+                }
+                
+                int id = read();
+                if (id == -1) throw new IOException("NBT ends inside a list");
+                account(1);
+                NBTType childType = NBTType.getById((byte) id);
+                if (childType == NBTType.END) {
+                    result = pop(base);
+                    continue;
+                }
+                
+                String name = readString();
+                NBTCompound compound = (NBTCompound) container;
+                if (childDepth > maxDepth) maxDepth = childDepth;
+                // primitives are stored unboxed
+                switch (childType) {
+                    case BYTE: countTag(); account(1); compound.putByte(name, readByte()); break;
+                    case SHORT: countTag(); account(2); compound.putShort(name, readShortValue()); break;
+                    case INT: countTag(); account(4); compound.putInt(name, readIntValue()); break;
+                    case LONG: countTag(); account(8); compound.putLong(name, readLongValue()); break;
+                    case FLOAT: countTag(); account(4); compound.putFloat(name, readFloatValue()); break;
+                    case DOUBLE: countTag(); account(8); compound.putDouble(name, readDoubleValue()); break;
+                    case LIST:
+                    case COMPOUND: countTag(); readHeader(childType, childDepth, name); break;
+                    default: compound.put(name, readTag(childType, childDepth));
+                }
+            }
+            return result;
+        } finally {
+            clear(base);
+        }
+    }
+    
+    /**
+     * Skips a compound or list including all of its elements without recursion.
+     *
+     * @param type the type of the container
+     * @throws IOException if an I/O error occurs
+     */
+    private void skipContainer(NBTType type) throws IOException {
+        int base = size;
+        try {
+            skipHeader(type, 0);
+            while (size > base) {
+                int top = size - 1;
+                int childDepth = depths[top] + 1;
+                NBTType childType;
+                if (elementTypes[top] != null) {
+                    if (remaining[top] <= 0) {
+                        size--;
+                        continue;
+                    }
+                    remaining[top]--;
+                    childType = elementTypes[top];
+                }
+                else {
+                    int id = readByte();
+                    if (id == NBTType.END.getId()) {
+                        size--;
+                        continue;
+                    }
+                    skipFully(readStringLength());
+                    childType = NBTType.getById((byte) id);
+                }
+                
+                if (childType == NBTType.LIST || childType == NBTType.COMPOUND) skipHeader(childType, childDepth);
+                else skipTag(childType);
+            }
+        } finally {
+            clear(base);
+        }
+    }
+    
+    /**
+     * Skips the header of a container and pushes it onto the stack, unless it is a list of primitives which is skipped
+     * entirely.
+     */
+    private void skipHeader(NBTType type, int depth) throws IOException {
+        if (type == NBTType.COMPOUND) {
+            checkDepth(depth);
+            push(null, null, null, 0, depth);
+            return;
+        }
+        NBTType elementType = NBTType.getById(readByte());
+        int length = readIntValue();
+        switch (elementType) {
+            case BYTE: skipFully(length); break;
+            case SHORT: skipFully(2L * length); break;
+            case FLOAT: skipFully(4L * length); break;
+            case DOUBLE: skipFully(8L * length); break;
+            case INT:
+            case LONG: skipNumbers(elementType, length); break;
+            default: {
+                checkDepth(depth);
+                push(null, null, elementType, length, depth);
+            }
+        }
+    }
+    
+    /**
+     * Reads the header of a container and pushes it onto the stack.
+     *
+     * @param name the name under which the container is put into its parent compound or null
+     */
+    private void readHeader(NBTType type, int depth, String name) throws IOException {
+        checkDepth(depth);
+        if (depth > maxDepth) maxDepth = depth;
+        NBTTag container;
+        NBTType elementType = null;
+        int length = 0;
+        if (type == NBTType.LIST) {
+            account(1);
+            elementType = NBTType.getById(readByte());
+            length = readLength(0);
+            if (elementType == NBTType.END && length > 0)
+                throw new IOException("List is of type TAG_End but not empty");
+            
+            // the length has not been verified yet, so only moderate lengths are trusted for presizing
+            container = new NBTList(elementType, Math.min(length, MAX_PRESIZE));
+        }
+        else container = new NBTCompound();
+        push(container, name, elementType, length, depth);
+    }
+    
+    private void push(NBTTag container, String name, NBTType elementType, int length, int depth) {
+        if (size == containers.length) {
+            int capacity = size * 2;
+            containers = Arrays.copyOf(containers, capacity);
+            names = Arrays.copyOf(names, capacity);
+            elementTypes = Arrays.copyOf(elementTypes, capacity);
+            remaining = Arrays.copyOf(remaining, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+        }
+        containers[size] = container;
+        names[size] = name;
+        elementTypes[size] = elementType;
+        remaining[size] = length;
+        depths[size] = depth;
+        size++;
+    }
+    
+    /**
+     * Pops a container off the stack and adds it to its parent, once it has been read completely.
+     *
+     * @param base the size of the stack before the outermost container was pushed
+     */
+    private NBTTag pop(int base) {
+        int top = --size;
+        NBTTag container = containers[top];
+        String name = names[top];
+        containers[top] = null;
+        names[top] = null;
+        
+        if (top > base) {
+            NBTTag parent = containers[top - 1];
+            if (name != null) ((NBTCompound) parent).put(name, container);
+            else ((NBTList) parent).append(container);
+        }
+        return container;
+    }
+    
+    private void clear(int base) {
+        for (int i = base; i < size; i++) {
+            containers[i] = null;
+            names[i] = null;
+        }
+        size = base;
+    }
+    
+    // CHECKED READING
+    
+    /**
+     * Accounts for a tag whose payload is read directly with the value methods, such as by a codec of bound objects,
+     * so that it is subject to the same limits as the tags which are read by this stream. Counts the tag at the depth
+     * of the entered containers and the bytes of primitive payloads, while strings, arrays and containers are accounted
+     * for by their lengths.
+     *
+     * @param type the type of the tag
+     * @throws NBTLimitException if the tag exceeds the limits of this stream
+     */
+    public void accountTag(NBTType type) throws NBTLimitException {
+        countTag();
+        if (depth > maxDepth) maxDepth = depth;
+        switch (type) {
+            case BYTE: account(1); break;
+            case SHORT: account(2); break;
+            case INT:
+            case FLOAT: account(4); break;
+            case LONG:
+            case DOUBLE: account(8); break;
+            default: break;
+        }
+    }
+    
+    /**
+     * Reads the length of the payload of an array or list and accounts for it before anything is allocated. The type
+     * of the elements of a list must already have been read.
+     *
+     * @param type the type of the array or list
+     * @return the length
+     * @throws IOException if an I/O error occurs, the length is negative or exceeds the limits of this stream
+     * @throws IllegalArgumentException if the type is neither an array nor a list
+     */
+    public int readCheckedLength(NBTType type) throws IOException {
+        switch (type) {
+            case BYTE_ARRAY: return readLength(1);
+            case INT_ARRAY: return readLength(4);
+            case LONG_ARRAY: return readLength(8);
+            case LIST: return readLength(0);
+            default: throw new IllegalArgumentException(type + " has no length");
+        }
+    }
+    
+    /**
+     * Reads the length of a string or name and accounts for its bytes before they are read into a buffer.
+     *
+     * @return the length
+     * @throws IOException if an I/O error occurs, the length is negative or exceeds the limits of this stream
+     */
+    public int readCheckedStringLength() throws IOException {
+        int length = readStringLength();
+        if (length < 0) throw new IOException("negative length: " + length);
+        account(2 + (long) length);
+        return length;
+    }
+    
+    /**
+     * Begins reading the payload of a compound or list directly and checks its depth, which is the amount of
+     * containers which have been entered but not exited yet.
+     *
+     * @throws NBTLimitException if the container exceeds the maximum depth of this stream
+     */
+    public void enterContainer() throws NBTLimitException {
+        checkDepth(depth);
+        if (depth > maxDepth) maxDepth = depth;
+        depth++;
+    }
+    
+    /**
+     * Ends reading the payload of a compound or list which has been entered with {@link #enterContainer()}.
+     */
+    public void exitContainer() {
+        if (depth == 0) throw new IllegalStateException("no container has been entered");
+        depth--;
+    }
+    
+    /**
+     * Returns the depth of the tags in the container which is being read directly, which is zero if no container has
+     * been entered.
+     *
+     * @return the depth
+     */
+    public int getContainerDepth() {
+        return depth;
+    }
+    
+    // LIMITS
+    
+    /**
+     * Returns the limits of this stream.
+     *
+     * @return the limits
+     */
+    public NBTLimits getLimits() {
+        return limits;
+    }
+    
+    /**
+     * Returns the amount of bytes of all tags which have been read so far.
+     *
+     * @return the amount of bytes
+     */
+    public long getBytesRead() {
+        return bytes;
+    }
+    
+    /**
+     * Returns the amount of tags which have been read so far.
+     *
+     * @return the amount of tags
+     */
+    public long getTagsRead() {
+        return tags;
+    }
+    
+    /**
+     * Returns the greatest depth of all tags which have been read so far, where the root has the depth zero. Tags
+     * which have been skipped are not taken into account.
+     *
+     * @return the greatest depth
+     */
+    public int getMaxDepthRead() {
+        return maxDepth;
+    }
+    
+    private void account(long length) throws NBTLimitException {
+        if ((bytes += length) > limits.getMaxBytes())
+            throw new NBTLimitException("NBT exceeds the maximum of " + limits.getMaxBytes() + " bytes");
+    }
+    
+    private void countTag() throws NBTLimitException {
+        if (++tags > limits.getMaxTagCount())
+            throw new NBTLimitException("NBT exceeds the maximum of " + limits.getMaxTagCount() + " tags");
+    }
+    
+    private void checkDepth(int depth) throws NBTLimitException {
+        if (depth > limits.getMaxDepth())
+            throw new NBTLimitException("NBT exceeds the maximum depth of " + limits.getMaxDepth());
+    }
+    
+    /**
+     * Reads the length of an array or list and accounts for the length and the elements, before anything is
+     * allocated.
+     *
+     * @param elementSize the size of an element or zero if the elements are accounted for when they are read
+     */
+    private int readLength(int elementSize) throws IOException {
+        int length = readIntValue();
+        if (length < 0)
+            throw new IOException("negative length: " + length);
+        if (length > limits.getMaxArrayLength())
+            throw new NBTLimitException("length " + length + " exceeds the maximum of " + limits.getMaxArrayLength());
+        account(4 + (long) length * elementSize);
+        return length;
+    }
 
 }
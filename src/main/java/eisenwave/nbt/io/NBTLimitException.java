@@ -0,0 +1,14 @@
+package eisenwave.nbt.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown if NBT exceeds the {@link NBTLimits} of the stream which reads it.
+ */
+public class NBTLimitException extends IOException {
+    
+    public NBTLimitException(String msg) {
+        super(msg);
+    }
+
+}
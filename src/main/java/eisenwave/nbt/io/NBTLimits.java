@@ -0,0 +1,76 @@
+package eisenwave.nbt.io;
+
+/**
+ * <p>
+ *     Limits the resources which an {@link NBTInputStream} may consume while reading tags, so that NBT from untrusted
+ *     sources can be read without the risk of exhausting the heap or the stack.
+ * </p>
+ * <p>
+ *     Bytes are accounted for by the payloads which are read, so the lengths of arrays are checked before the arrays
+ *     are allocated. Payloads are accounted for by their size in the {@link NBTFormat#BIG_ENDIAN big-endian} format,
+ *     regardless of the format of the stream. The limits apply to the total of all tags which are read from one
+ *     stream.
+ * </p>
+ */
+public final class NBTLimits {
+    
+    /** No limits, which is the default of every stream. */
+    public final static NBTLimits UNLIMITED = new NBTLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+        Long.MAX_VALUE);
+    
+    /**
+     * Limits which are suitable for documents uploaded by users, such as schematics: 64 MiB, a depth of 512, arrays
+     * and lists of 16 Mi elements and 16 Mi tags.
+     */
+    public final static NBTLimits UNTRUSTED = new NBTLimits(64 << 20, 512, 16 << 20, 16 << 20);
+    
+    private final long maxBytes;
+    private final int maxDepth;
+    private final int maxArrayLength;
+    private final long maxTagCount;
+    
+    /**
+     * Constructs new limits.
+     *
+     * @param maxBytes the maximum amount of bytes of all tags which are read
+     * @param maxDepth the maximum depth of lists and compounds, where the root has the depth zero
+     * @param maxArrayLength the maximum length of arrays and lists
+     * @param maxTagCount the maximum amount of tags, including all elements of lists and compounds
+     * @throws IllegalArgumentException if any limit is negative
+     */
+    public NBTLimits(long maxBytes, int maxDepth, int maxArrayLength, long maxTagCount) {
+        if (maxBytes < 0 || maxDepth < 0 || maxArrayLength < 0 || maxTagCount < 0)
+            throw new IllegalArgumentException("negative limit");
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        this.maxArrayLength = maxArrayLength;
+        this.maxTagCount = maxTagCount;
+    }
+    
+    // GETTERS
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    public int getMaxArrayLength() {
+        return maxArrayLength;
+    }
+    
+    public long getMaxTagCount() {
+        return maxTagCount;
+    }
+    
+    // MISC
+    
+    @Override
+    public String toString() {
+        return "NBTLimits{maxBytes=" + maxBytes + ", maxDepth=" + maxDepth + ", maxArrayLength=" + maxArrayLength
+            + ", maxTagCount=" + maxTagCount + "}";
+    }
+
+}
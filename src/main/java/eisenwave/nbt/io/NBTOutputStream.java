@@ -2,31 +2,130 @@ package eisenwave.nbt.io;
 
 import eisenwave.nbt.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 /**
- * An NBTInputStream extends {@link DataOutputStream} by allowing to write named tags.
+ * <p>
+ *     An NBTInputStream extends {@link DataOutputStream} by allowing to write named tags.
+ * </p>
+ * <p>
+ *     If caching is enabled, the payloads of written compounds and lists are {@link NBTTag#cachePayload(ByteBuffer)
+ *     cached} and copied verbatim when they are written again without having been modified in between.
+ * </p>
+ * <p>
+ *     Compounds and lists are written iteratively using an explicit stack, which is reused by all writes of the
+ *     stream, so the nesting depth of tags does not depend on the size of the thread stack.
+ * </p>
+ * <p>
+ *     Numbers and lengths are written in the {@link NBTFormat} of the stream, which is big-endian by default. Code
+ *     which writes payloads directly should use {@link #writeShortValue(int)}, {@link #writeIntValue(int)} and the
+ *     other value methods rather than the big-endian methods of {@link DataOutputStream}.
+ * </p>
  */
 public final class NBTOutputStream extends DataOutputStream {
 
     private final static Charset UTF_8 = Charset.forName("UTF-8");
     
     private final static int END_ID = NBTType.END.getId();
+    
+    private final NBTFormat format;
+    private final boolean cache;
+    /** A buffer for encoding VarInts, so that they are written at once. */
+    private final byte[] varBuffer = new byte[10];
+    
+    /** The stream which is written to while the payload of a container is being recorded, or null. */
+    private ByteArrayOutputStream recorder;
+    /** The recorded containers in the order in which they have been completed, with their offsets in the recording. */
+    private final List<NBTTag> recorded = new ArrayList<>();
+    private final List<int[]> recordedRanges = new ArrayList<>();
+    /** The stream which is written to once the recording is complete and the frame of the outermost recorded tag. */
+    private OutputStream recordingTarget;
+    private int recordingFrame;
+    
+    /** The containers which are being written, the iterators over their elements and their recording offsets. */
+    private NBTTag[] containers = new NBTTag[16];
+    private Iterator<?>[] iterators = new Iterator<?>[16];
+    private int[] starts = new int[16];
+    private int size;
 
     /**
      * Creates a new {@code NBTOutputStream}, which will write data to the
      * specified underlying output stream.
      * 
      * @param out the output stream
+     * @param cache whether the payloads of compounds and lists are cached
      */
-    public NBTOutputStream(OutputStream out) {
+    public NBTOutputStream(OutputStream out, boolean cache) {
+        this(out, NBTFormat.BIG_ENDIAN, cache);
+    }
+    
+    /**
+     * <p>
+     *     Creates a new {@code NBTOutputStream}, which will write data in the given format to the specified underlying
+     *     output stream.
+     * </p>
+     * <p>
+     *     Cached payloads are stored in the big-endian format, so caching only applies to big-endian streams.
+     * </p>
+     *
+     * @param out the output stream
+     * @param format the format
+     * @param cache whether the payloads of compounds and lists are cached
+     */
+    public NBTOutputStream(OutputStream out, NBTFormat format, boolean cache) {
         super(out);
+        this.format = Objects.requireNonNull(format);
+        this.cache = cache && format == NBTFormat.BIG_ENDIAN;
+    }
+    
+    /**
+     * Creates a new {@code NBTOutputStream}, which will write data in the given format to the specified underlying
+     * output stream.
+     *
+     * @param out the output stream
+     * @param format the format
+     */
+    public NBTOutputStream(OutputStream out, NBTFormat format) {
+        this(out, format, false);
+    }
+    
+    /**
+     * Creates a new {@code NBTOutputStream}, which will write data to the
+     * specified underlying output stream.
+     *
+     * @param out the output stream
+     */
+    public NBTOutputStream(OutputStream out) {
+        this(out, false);
+    }
+    
+    /**
+     * Returns the format in which this stream writes NBT.
+     *
+     * @return the format
+     */
+    public NBTFormat getFormat() {
+        return format;
+    }
+    
+    /**
+     * Returns whether this stream caches the payloads of compounds and lists.
+     *
+     * @return whether caching is enabled
+     */
+    public boolean isCaching() {
+        return cache;
     }
 
     /**
@@ -42,7 +141,7 @@ public final class NBTOutputStream extends DataOutputStream {
         byte[] nameBytes = name.getBytes(UTF_8);
 
         writeByte(typeId);
-        writeShort(nameBytes.length);
+        writeStringLength(nameBytes.length);
         write(nameBytes);
 
         if (typeId == END_ID)
@@ -71,15 +170,15 @@ public final class NBTOutputStream extends DataOutputStream {
         switch (tag.getType()) {
             case END: break;
             case BYTE: writeByte(((NBTByte) tag).getByteValue()); break;
-            case SHORT: writeShort(((NBTShort) tag).getShortValue()); break;
-            case INT: writeInt(((NBTInt) tag).getIntValue()); break;
-            case LONG: writeLong(((NBTLong) tag).getLongValue()); break;
-            case FLOAT: writeFloat(((NBTFloat) tag).getFloatValue()); break;
-            case DOUBLE: writeDouble(((NBTDouble) tag).getDoubleValue()); break;
+            case SHORT: writeShortValue(((NBTShort) tag).getShortValue()); break;
+            case INT: writeIntValue(((NBTInt) tag).getIntValue()); break;
+            case LONG: writeLongValue(((NBTLong) tag).getLongValue()); break;
+            case FLOAT: writeFloatValue(((NBTFloat) tag).getFloatValue()); break;
+            case DOUBLE: writeDoubleValue(((NBTDouble) tag).getDoubleValue()); break;
             case BYTE_ARRAY: writeTagByteArray((NBTByteArray) tag); break;
             case STRING: writeTagString((NBTString) tag); break;
-            case LIST: writeTagList((NBTList) tag); break;
-            case COMPOUND: writeTagCompound((NBTCompound) tag); break;
+            case LIST:
+            case COMPOUND: writeContainer(tag); break;
             case INT_ARRAY: writeTagIntArray((NBTIntArray) tag); break;
             case LONG_ARRAY: writeTagLongArray((NBTLongArray) tag); break;
             default: throw new IOException("invalid tag type: " + tag.getType());
@@ -93,8 +192,18 @@ public final class NBTOutputStream extends DataOutputStream {
      * @throws IOException if an I/O error occurs
      */
     public void writeTagString(NBTString tag) throws IOException {
-        byte[] bytes = tag.getValue().getBytes(UTF_8);
-        writeShort(bytes.length);
+        writeString(tag.getValue());
+    }
+    
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes, which is the payload of a {@code TAG_String}.
+     *
+     * @param string the string
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeString(String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        writeStringLength(bytes.length);
         write(bytes);
     }
 
@@ -106,7 +215,7 @@ public final class NBTOutputStream extends DataOutputStream {
      */
     public void writeTagByteArray(NBTByteArray tag) throws IOException {
         byte[] bytes = tag.getValue();
-        writeInt(bytes.length);
+        writeIntValue(bytes.length);
         write(bytes);
     }
 
@@ -117,14 +226,7 @@ public final class NBTOutputStream extends DataOutputStream {
      * @throws IOException if an I/O error occurs
      */
     public void writeTagList(NBTList tag) throws IOException {
-        NBTType type = tag.getElementType();
-        List<? extends NBTTag> tags = tag.getValue();
-        int size = tags.size();
-
-        writeByte(type.getId());
-        writeInt(size);
-        for (NBTTag element : tags)
-            writeTag(element);
+        writeContainer(tag);
     }
     
     /**
@@ -134,10 +236,7 @@ public final class NBTOutputStream extends DataOutputStream {
      * @throws IOException if an I/O error occurs
      */
     public void writeTagCompound(NBTCompound tag) throws IOException {
-        for (Map.Entry<String, NBTTag> entry : tag.getValue().entrySet()) {
-            writeNamedTag(entry.getKey(), entry.getValue());
-        }
-        writeByte(END_ID);
+        writeContainer(tag);
     }
 
     /**
@@ -147,9 +246,9 @@ public final class NBTOutputStream extends DataOutputStream {
      * @throws IOException if an I/O error occurs
      */
     public void writeTagIntArray(NBTIntArray tag) throws IOException {
-        writeInt(tag.length());
+        writeIntValue(tag.length());
         for (int aData : tag.getValue())
-            writeInt(aData);
+            writeIntValue(aData);
     }
     
     /**
@@ -159,9 +258,416 @@ public final class NBTOutputStream extends DataOutputStream {
      * @throws IOException if an I/O error occurs
      */
     public void writeTagLongArray(NBTLongArray tag) throws IOException {
-        writeInt(tag.length());
+        writeIntValue(tag.length());
         for (long aData : tag.getValue())
-            writeLong(aData);
+            writeLongValue(aData);
+    }
+    
+    // VALUES
+    
+    /**
+     * Writes the payload of a {@code TAG_Short} in the format of this stream.
+     *
+     * @param value the short
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeShortValue(int value) throws IOException {
+        writeShort(format == NBTFormat.BIG_ENDIAN? value : Short.reverseBytes((short) value));
+    }
+    
+    /**
+     * Writes the payload of a {@code TAG_Int} or the length of an array or list in the format of this stream.
+     *
+     * @param value the int
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeIntValue(int value) throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) writeInt(value);
+        else if (format == NBTFormat.LITTLE_ENDIAN) writeInt(Integer.reverseBytes(value));
+        else writeVarLong(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Writes the payload of a {@code TAG_Long} in the format of this stream.
+     *
+     * @param value the long
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeLongValue(long value) throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) writeLong(value);
+        else if (format == NBTFormat.LITTLE_ENDIAN) writeLong(Long.reverseBytes(value));
+        else writeVarLong((value << 1) ^ (value >> 63));
+    }
+    
+    /**
+     * Writes the payload of a {@code TAG_Float} in the format of this stream.
+     *
+     * @param value the float
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeFloatValue(float value) throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) writeFloat(value);
+        else writeInt(Integer.reverseBytes(Float.floatToIntBits(value)));
     }
     
+    /**
+     * Writes the payload of a {@code TAG_Double} in the format of this stream.
+     *
+     * @param value the double
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeDoubleValue(double value) throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) writeDouble(value);
+        else writeLong(Long.reverseBytes(Double.doubleToLongBits(value)));
+    }
+    
+    /**
+     * Writes the length of a string or name in bytes in the format of this stream.
+     *
+     * @param length the length
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeStringLength(int length) throws IOException {
+        if (format == NBTFormat.BIG_ENDIAN) writeShort(length);
+        else if (format == NBTFormat.LITTLE_ENDIAN) writeShort(Short.reverseBytes((short) length));
+        else writeVarLong(length & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Writes an unsigned VarInt or VarLong, which are encoded identically.
+     */
+    private void writeVarLong(long value) throws IOException {
+        int length = 0;
+        while ((value & ~0x7FL) != 0) {
+            varBuffer[length++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        varBuffer[length++] = (byte) value;
+        write(varBuffer, 0, length);
+    }
+    
+    // TRANSCODING
+    
+    /**
+     * <p>
+     *     Reads a named tag from a stream and writes it to this stream without constructing any tags, which converts
+     *     it from the format of the input stream to the format of this stream.
+     * </p>
+     * <p>
+     *     False is returned if the id of the tag can not be read due to the input stream ending (expected end).
+     * </p>
+     *
+     * @param in the stream to read from
+     * @return false if the input stream has ended
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean transcodeNamedTag(NBTInputStream in) throws IOException {
+        int id = in.read();
+        if (id == -1) return false;
+        NBTType type = NBTType.getById((byte) id);
+        if (type == NBTType.END)
+            throw new IOException("TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+        writeByte(id);
+        transcodeString(in);
+        transcodeTag(in, type);
+        return true;
+    }
+    
+    /**
+     * Reads a tag payload from a stream and writes it to this stream without constructing any tags, which converts it
+     * from the format of the input stream to the format of this stream. Compounds and lists are transcoded without
+     * recursion. The tags are subject to the {@link NBTLimits} of the input stream, just like tags which are read.
+     *
+     * @param in the stream to read from
+     * @param type the type of the tag
+     * @throws IOException if an I/O error occurs
+     */
+    public void transcodeTag(NBTInputStream in, NBTType type) throws IOException {
+        // the element types of lists or null for compounds, and the remaining elements of lists
+        NBTType[] types = new NBTType[8];
+        int[] remaining = new int[8];
+        int depth = 0;
+        
+        try {
+            while (true) {
+                in.accountTag(type);
+                switch (type) {
+                    case END: break;
+                    case BYTE: writeByte(in.readByte()); break;
+                    case SHORT: writeShortValue(in.readShortValue()); break;
+                    case INT: writeIntValue(in.readIntValue()); break;
+                    case LONG: writeLongValue(in.readLongValue()); break;
+                    case FLOAT: writeFloatValue(in.readFloatValue()); break;
+                    case DOUBLE: writeDoubleValue(in.readDoubleValue()); break;
+                    case BYTE_ARRAY: {
+                        int length = transcodeLength(in, type);
+                        transcodeBytes(in, length);
+                        break;
+                    }
+                    case STRING: transcodeString(in); break;
+                    case INT_ARRAY: {
+                        for (int i = transcodeLength(in, type); i > 0; i--)
+                            writeIntValue(in.readIntValue());
+                        break;
+                    }
+                    case LONG_ARRAY: {
+                        for (int i = transcodeLength(in, type); i > 0; i--)
+                            writeLongValue(in.readLongValue());
+                        break;
+                    }
+                    case LIST:
+                    case COMPOUND: {
+                        if (depth == types.length) {
+                            types = Arrays.copyOf(types, depth * 2);
+                            remaining = Arrays.copyOf(remaining, depth * 2);
+                        }
+                        if (type == NBTType.LIST) {
+                            NBTType elementType = NBTType.getById(in.readByte());
+                            writeByte(elementType.getId());
+                            types[depth] = elementType;
+                            remaining[depth] = transcodeLength(in, type);
+                        }
+                        else types[depth] = null;
+                        in.enterContainer();
+                        depth++;
+                        break;
+                    }
+                    default: throw new IOException("invalid tag type: " + type);
+                }
+                
+                // continue with the next element of the innermost container which has one left
+                while (true) {
+                    if (depth == 0) return;
+                    int top = depth - 1;
+                    if (types[top] != null) {
+                        if (remaining[top] > 0) {
+                            remaining[top]--;
+                            type = types[top];
+                            break;
+                        }
+                    }
+                    else {
+                        int id = in.readByte();
+                        writeByte(id);
+                        if (id != END_ID) {
+                            transcodeString(in);
+                            type = NBTType.getById((byte) id);
+                            break;
+                        }
+                    }
+                    in.exitContainer();
+                    depth--;
+                }
+            }
+        } finally {
+            // only a failed transcoding leaves containers entered
+            for (; depth > 0; depth--)
+                in.exitContainer();
+        }
+    }
+    
+    private int transcodeLength(NBTInputStream in, NBTType type) throws IOException {
+        int length = in.readCheckedLength(type);
+        writeIntValue(length);
+        return length;
+    }
+    
+    private void transcodeString(NBTInputStream in) throws IOException {
+        int length = in.readCheckedStringLength();
+        writeStringLength(length);
+        transcodeBytes(in, length);
+    }
+    
+    private void transcodeBytes(NBTInputStream in, int length) throws IOException {
+        byte[] buffer = new byte[Math.min(length, 8192)];
+        while (length > 0) {
+            int chunk = Math.min(length, buffer.length);
+            in.readFully(buffer, 0, chunk);
+            write(buffer, 0, chunk);
+            length -= chunk;
+        }
+    }
+    
+    // STACK
+    
+    /**
+     * Writes a compound or list including all of its elements without recursion.
+     *
+     * @param root the compound or list
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeContainer(NBTTag root) throws IOException {
+        int base = size;
+        try {
+            push(root);
+            while (size > base) {
+                int top = size - 1;
+                Iterator<?> iterator = iterators[top];
+                boolean compound = containers[top] instanceof NBTCompound;
+                if (!iterator.hasNext()) {
+                    if (compound) writeByte(END_ID);
+                    pop();
+                    continue;
+                }
+                
+                NBTTag child;
+                if (compound) {
+                    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) iterator.next();
+                    child = Objects.requireNonNull((NBTTag) entry.getValue());
+                    int typeId = child.getType().getId();
+                    byte[] nameBytes = ((String) entry.getKey()).getBytes(UTF_8);
+                    writeByte(typeId);
+                    writeStringLength(nameBytes.length);
+                    write(nameBytes);
+                    if (typeId == END_ID)
+                        throw new IOException("Named TAG_End not permitted.");
+                }
+                else child = (NBTTag) iterator.next();
+                
+                NBTType type = child.getType();
+                if (type == NBTType.LIST || type == NBTType.COMPOUND) push(child);
+                else writeTag(child);
+            }
+        } finally {
+            for (int i = base; i < size; i++) {
+                containers[i] = null;
+                iterators[i] = null;
+            }
+            size = base;
+            if (recorder != null && recordingFrame >= base) {
+                out = recordingTarget;
+                recordingTarget = null;
+                recorder = null;
+                recorded.clear();
+                recordedRanges.clear();
+            }
+        }
+    }
+    
+    /**
+     * Writes the cached payload of a container or writes its header and pushes it onto the stack, while recording its
+     * payload if caching is enabled.
+     *
+     * @param tag the compound or list
+     * @throws IOException if an I/O error occurs
+     */
+    private void push(NBTTag tag) throws IOException {
+        if (cache) {
+            ByteBuffer cached = tag.getCachedPayload();
+            if (cached != null) {
+                writeCached(cached);
+                return;
+            }
+            if (recorder == null) {
+                recorder = new ByteArrayOutputStream(512);
+                recordingTarget = out;
+                recordingFrame = size;
+                out = recorder;
+            }
+        }
+        
+        if (size == containers.length) {
+            int capacity = size * 2;
+            containers = Arrays.copyOf(containers, capacity);
+            iterators = Arrays.copyOf(iterators, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+        }
+        containers[size] = tag;
+        starts[size] = recorder == null? 0 : recorder.size();
+        
+        if (tag instanceof NBTCompound) {
+            iterators[size] = ((NBTCompound) tag).entries().iterator();
+        }
+        else {
+            NBTList list = (NBTList) tag;
+            NBTType type = list.getElementType();
+            List<? extends NBTTag> tags = list.getValue();
+            // empty lists without a type are written as TAG_End lists
+            writeByte(type == null? END_ID : type.getId());
+            writeIntValue(tags.size());
+            iterators[size] = tags.iterator();
+        }
+        size++;
+    }
+    
+    /**
+     * Pops the container on top of the stack, once it has been written completely.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void pop() throws IOException {
+        int top = --size;
+        NBTTag tag = containers[top];
+        containers[top] = null;
+        iterators[top] = null;
+        if (recorder == null) return;
+        
+        recorded.add(tag);
+        recordedRanges.add(new int[] {starts[top], recorder.size()});
+        if (top == recordingFrame) {
+            byte[] bytes = recorder.toByteArray();
+            out = recordingTarget;
+            recordingTarget = null;
+            recorder = null;
+            out.write(bytes);
+            cacheRecorded(bytes);
+            recorded.clear();
+            recordedRanges.clear();
+        }
+    }
+    
+    // CACHING
+    
+    /**
+     * Caches the payloads of all recorded containers. A payload shares the array of its closest recorded ancestor if
+     * it covers at least half of it and is copied into its own array otherwise, so a cached payload never keeps more
+     * than twice its size alive while nested payloads are not copied over and over again.
+     *
+     * @param bytes the recording of the outermost container
+     */
+    private void cacheRecorded(byte[] bytes) {
+        int count = recorded.size();
+        byte[][] arrays = new byte[count][];
+        int[] bases = new int[count], rangeStarts = new int[count], rangeEnds = new int[count];
+        ByteBuffer[] payloads = new ByteBuffer[count];
+        int top = -1;
+        // the containers have been recorded in post-order, so every container is visited before its children
+        for (int i = count - 1; i >= 0; i--) {
+            int[] range = recordedRanges.get(i);
+            while (top >= 0 && (range[0] < rangeStarts[top] || range[1] > rangeEnds[top])) top--;
+            byte[] array = top < 0? bytes : arrays[top];
+            int base = top < 0? 0 : bases[top];
+            int length = range[1] - range[0];
+            if (2L * length < array.length) {
+                array = Arrays.copyOfRange(bytes, range[0], range[1]);
+                base = range[0];
+            }
+            payloads[i] = ByteBuffer.wrap(array, range[0] - base, length).slice();
+            top++;
+            arrays[top] = array;
+            bases[top] = base;
+            rangeStarts[top] = range[0];
+            rangeEnds[top] = range[1];
+        }
+        // a container can only cache its payload once its children have cached theirs
+        for (int i = 0; i < count; i++)
+            recorded.get(i).cachePayload(payloads[i]);
+    }
+    
+    /**
+     * Writes the cached payload of a container.
+     *
+     * @param cached the cached payload
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeCached(ByteBuffer cached) throws IOException {
+        if (cached.hasArray())
+            write(cached.array(), cached.arrayOffset() + cached.position(), cached.remaining());
+        else {
+            byte[] bytes = new byte[cached.remaining()];
+            cached.duplicate().get(bytes);
+            write(bytes);
+        }
+    }
+
 }
@@ -0,0 +1,561 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * <p>
+ *     Collects statistics about the keys of many documents, such as all saves of a world or all packets of a session.
+ * </p>
+ * <p>
+ *     Tags are aggregated by their normalized path, in which every element of a list is replaced with {@code [*]}, so
+ *     that the lore of all items of an inventory shares the path {@code Inventory[*].tag.display.Lore[*]}. Normalized
+ *     paths are valid {@link NBTPath NBT paths} which select all of the aggregated tags. For every path, the profiler
+ *     counts the occurrences of each type, sums up the serialized size including the names of compound entries and
+ *     records a histogram of the lengths of strings in bytes and of arrays and lists in elements. Sizes are those of
+ *     the {@link NBTFormat#BIG_ENDIAN big-endian} format, even if a stream in another format is profiled.
+ * </p>
+ * <p>
+ *     Documents can be profiled as tags or directly as binary NBT, in which case no tags are constructed. Profilers
+ *     are not thread-safe, but the profilers of multiple threads can be {@link #merge(NBTProfiler) merged}.
+ * </p>
+ */
+public class NBTProfiler {
+    
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    
+    /** The amount of buckets of length histograms, the bucket {@code i > 0} contains lengths below {@code 2^i}. */
+    private final static int BUCKETS = 33;
+    
+    private final Entry root = new Entry(null, null);
+    private long documents;
+    
+    // PROFILING
+    
+    /**
+     * Profiles a tag as a document.
+     *
+     * @param tag the tag
+     */
+    public void profile(NBTTag tag) {
+        documents++;
+        walk(Objects.requireNonNull(tag), 0);
+    }
+    
+    /**
+     * Profiles a named tag as a document. The size of the root also includes its name.
+     *
+     * @param tag the named tag
+     */
+    public void profile(NBTNamedTag tag) {
+        documents++;
+        walk(tag.getTag(), 3 + tag.getName().getBytes(UTF_8).length);
+    }
+    
+    /**
+     * Reads a named tag from the stream and profiles it as a document without constructing any tags.
+     *
+     * @param stream the stream
+     * @return false if the stream has ended
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean profile(NBTInputStream stream) throws IOException {
+        int id = stream.read();
+        if (id == -1) return false;
+        NBTType type = NBTType.getById((byte) id);
+        if (type == NBTType.END)
+            throw new IOException("TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+        int name = stream.readStringLength();
+        skipFully(stream, name);
+        
+        documents++;
+        walk(stream, type, 3 + name);
+        return true;
+    }
+    
+    /**
+     * Profiles a document in uncompressed binary NBT without constructing any tags.
+     *
+     * @param bytes the binary NBT
+     * @throws IOException if the NBT is malformed
+     */
+    public void profile(byte[] bytes) throws IOException {
+        if (!profile(new NBTInputStream(new ByteArrayInputStream(bytes))))
+            throw new IOException("empty NBT");
+    }
+    
+    /**
+     * Walks a tag and records it and all of its descendants. Descendants are walked on an explicit stack instead of
+     * the call stack, so that the depth of the tree is not limited.
+     *
+     * @param tag the tag
+     * @param header the size of the type and name of the tag
+     */
+    private void walk(NBTTag tag, int header) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        Entry entry = root;
+        while (true) {
+            if (tag instanceof NBTList) {
+                NBTList list = (NBTList) tag;
+                stack.push(new Frame(NBTType.LIST, entry, header, 5, list.size(), list, null));
+            }
+            else if (tag instanceof NBTCompound) {
+                Iterator<Map.Entry<String, NBTTag>> entries = ((NBTCompound) tag).entries().iterator();
+                stack.push(new Frame(NBTType.COMPOUND, entry, header, 1, -1, null, entries));
+            }
+            else {
+                long size;
+                int length = -1;
+                switch (tag.getType()) {
+                    case BYTE: size = 1; break;
+                    case SHORT: size = 2; break;
+                    case INT:
+                    case FLOAT: size = 4; break;
+                    case LONG:
+                    case DOUBLE: size = 8; break;
+                    case STRING: {
+                        length = ((NBTString) tag).getValue().getBytes(UTF_8).length;
+                        size = 2 + length;
+                        break;
+                    }
+                    case BYTE_ARRAY: length = ((NBTByteArray) tag).getValue().length; size = 4 + length; break;
+                    case INT_ARRAY: length = ((NBTIntArray) tag).getValue().length; size = 4 + 4L * length; break;
+                    case LONG_ARRAY: length = ((NBTLongArray) tag).getValue().length; size = 4 + 8L * length; break;
+                    default: size = 0; break;
+                }
+                entry.record(tag.getType(), header + size, length);
+                if (stack.isEmpty()) return;
+                stack.peek().size += header + size;
+            }
+            
+            // find the next child or complete the containers which have no children left
+            while (true) {
+                Frame top = stack.peek();
+                if (top.list != null && top.index < top.length) {
+                    // peeking does not thaw the elements of the profiled list
+                    tag = top.list.peek(top.index++);
+                    entry = top.entry.elements();
+                    header = 0;
+                    break;
+                }
+                if (top.entries != null && top.entries.hasNext()) {
+                    Map.Entry<String, NBTTag> child = top.entries.next();
+                    tag = child.getValue();
+                    entry = top.entry.child(child.getKey());
+                    header = 3 + child.getKey().getBytes(UTF_8).length;
+                    break;
+                }
+                stack.pop();
+                top.entry.record(top.type, top.header + top.size, top.length);
+                if (stack.isEmpty()) return;
+                stack.peek().size += top.header + top.size;
+            }
+        }
+    }
+    
+    /**
+     * Reads the payload of a tag and records it and all of its descendants. Descendants are read on an explicit stack
+     * instead of the call stack, so that the depth of the tree is not limited.
+     *
+     * @param stream the stream
+     * @param type the type of the tag
+     * @param header the size of the type and name of the tag
+     * @throws IOException if an I/O error occurs
+     */
+    private void walk(NBTInputStream stream, NBTType type, int header) throws IOException {
+        Deque<Frame> stack = new ArrayDeque<>();
+        Entry entry = root;
+        while (true) {
+            if (type == NBTType.LIST) {
+                NBTType elementType = NBTType.getById(stream.readByte());
+                int length = stream.readIntValue();
+                if (length < 0) throw new IOException("negative length: " + length);
+                Frame frame = new Frame(type, entry, header, 5, length, null, null);
+                frame.elementType = elementType;
+                stack.push(frame);
+            }
+            else if (type == NBTType.COMPOUND) {
+                stack.push(new Frame(type, entry, header, 1, -1, null, null));
+            }
+            else {
+                long size;
+                int length = -1;
+                switch (type) {
+                    case BYTE:
+                    case SHORT:
+                    case INT:
+                    case FLOAT:
+                    case LONG:
+                    case DOUBLE: {
+                        stream.skipTag(type);
+                        size = type == NBTType.BYTE? 1 : type == NBTType.SHORT? 2 :
+                            type == NBTType.INT || type == NBTType.FLOAT? 4 : 8;
+                        break;
+                    }
+                    case STRING: {
+                        length = stream.readStringLength();
+                        skipFully(stream, length);
+                        size = 2 + length;
+                        break;
+                    }
+                    case BYTE_ARRAY:
+                    case INT_ARRAY:
+                    case LONG_ARRAY: {
+                        length = stream.readIntValue();
+                        if (length < 0) throw new IOException("negative length: " + length);
+                        long width = type == NBTType.BYTE_ARRAY? 1 : type == NBTType.INT_ARRAY? 4 : 8;
+                        if (width == 1 || stream.getFormat() != NBTFormat.NETWORK)
+                            skipFully(stream, width * length);
+                        // VarInts have no fixed width
+                        else for (int i = 0; i < length; i++)
+                            stream.skipTag(width == 4? NBTType.INT : NBTType.LONG);
+                        size = 4 + width * length;
+                        break;
+                    }
+                    default: throw new IOException("invalid tag type: " + type);
+                }
+                entry.record(type, header + size, length);
+                if (stack.isEmpty()) return;
+                stack.peek().size += header + size;
+            }
+            
+            // read the next child or complete the containers which have no children left
+            while (true) {
+                Frame top = stack.peek();
+                if (top.type == NBTType.LIST) {
+                    if (top.index < top.length) {
+                        top.index++;
+                        type = top.elementType;
+                        entry = top.entry.elements();
+                        header = 0;
+                        break;
+                    }
+                }
+                else {
+                    int id = stream.readByte();
+                    if (id != NBTType.END.getId()) {
+                        type = NBTType.getById((byte) id);
+                        String name = stream.readString();
+                        entry = top.entry.child(name);
+                        header = 3 + name.getBytes(UTF_8).length;
+                        break;
+                    }
+                }
+                stack.pop();
+                top.entry.record(top.type, top.header + top.size, top.length);
+                if (stack.isEmpty()) return;
+                stack.peek().size += top.header + top.size;
+            }
+        }
+    }
+    
+    private static void skipFully(NBTInputStream stream, long length) throws IOException {
+        while (length > 0) {
+            int skipped = stream.skipBytes((int) Math.min(length, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                stream.readByte();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+    
+    /**
+     * Adds the statistics of another profiler to the statistics of this profiler.
+     *
+     * @param other the other profiler
+     */
+    public void merge(NBTProfiler other) {
+        documents += other.documents;
+        root.merge(other.root);
+    }
+    
+    // GETTERS
+    
+    /**
+     * Returns the amount of profiled documents.
+     *
+     * @return the amount of documents
+     */
+    public long getDocumentCount() {
+        return documents;
+    }
+    
+    /**
+     * Returns the statistics of all paths which have been encountered, in the order in which they were first
+     * encountered.
+     *
+     * @return the entries
+     */
+    public List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<>();
+        Deque<Entry> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Entry entry = stack.pop();
+            if (entry.count != 0) result.add(entry);
+            if (entry.elements != null) stack.push(entry.elements);
+            if (entry.children != null) {
+                List<Entry> children = new ArrayList<>(entry.children.values());
+                for (int i = children.size() - 1; i >= 0; i--)
+                    stack.push(children.get(i));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the statistics of a normalized path.
+     *
+     * @param path the normalized path
+     * @return the entry or null if the path has not been encountered
+     */
+    public Entry getEntry(String path) {
+        for (Entry entry : getEntries())
+            if (entry.getPath().equals(path)) return entry;
+        return null;
+    }
+    
+    // REPORTS
+    
+    /**
+     * Writes a report of all paths as a table, ordered by the total serialized size of the path in descending order.
+     *
+     * @param out the output
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeReport(Appendable out) throws IOException {
+        List<Entry> entries = getEntries();
+        entries.sort(Comparator.comparingLong(Entry::getTotalBytes).reversed());
+        
+        out.append(String.format(Locale.ROOT, "%d documents%n", documents));
+        out.append(String.format(Locale.ROOT, "%14s %12s %10s  %-24s %s%n",
+            "bytes", "count", "avg", "types", "path / lengths"));
+        for (Entry entry : entries) {
+            StringBuilder types = new StringBuilder();
+            for (NBTType type : NBTType.values()) {
+                long count = entry.getCount(type);
+                if (count == 0) continue;
+                if (types.length() != 0) types.append(',');
+                types.append(type.name().toLowerCase(Locale.ROOT));
+                if (count != entry.count) types.append('=').append(count);
+            }
+            out.append(String.format(Locale.ROOT, "%14d %12d %10.1f  %-24s %s%n", entry.bytes, entry.count,
+                (double) entry.bytes / entry.count, types, entry.getPath().isEmpty()? "<root>" : entry.getPath()));
+            
+            if (entry.lengths != null) {
+                StringBuilder lengths = new StringBuilder();
+                for (int i = 0; i < BUCKETS; i++) {
+                    if (entry.lengths[i] == 0) continue;
+                    lengths.append(lengths.length() == 0? "" : " ")
+                        .append(i == 0? "0" : "<" + (1L << i)).append(':').append(entry.lengths[i]);
+                }
+                out.append(String.format(Locale.ROOT, "%64s max %d: %s%n", "", entry.maxLength, lengths));
+            }
+        }
+    }
+    
+    /**
+     * Returns a report of all paths as a table.
+     *
+     * @return the report
+     * @see #writeReport(Appendable)
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeReport(builder);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return builder.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return report();
+    }
+    
+    /**
+     * A compound or list which is being walked, with the size of its payload so far.
+     */
+    private static final class Frame {
+        
+        private final NBTType type;
+        private final Entry entry;
+        private final int header, length;
+        private final NBTList list;
+        private final Iterator<Map.Entry<String, NBTTag>> entries;
+        private NBTType elementType;
+        private long size;
+        private int index;
+        
+        private Frame(NBTType type, Entry entry, int header, long size, int length, NBTList list,
+            Iterator<Map.Entry<String, NBTTag>> entries) {
+            this.type = type;
+            this.entry = entry;
+            this.header = header;
+            this.size = size;
+            this.length = length;
+            this.list = list;
+            this.entries = entries;
+        }
+    
+    }
+    
+    /**
+     * The statistics of a normalized path.
+     */
+    public static final class Entry {
+        
+        private final Entry parent;
+        private final String name;
+        
+        private Map<String, Entry> children;
+        private Entry elements;
+        
+        private long count, bytes;
+        private final long[] types = new long[NBTType.values().length];
+        private long[] lengths;
+        private int maxLength;
+        
+        private Entry(Entry parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+        
+        private Entry child(String name) {
+            if (children == null) children = new LinkedHashMap<>();
+            Entry child = children.get(name);
+            if (child == null) children.put(name, child = new Entry(this, name));
+            return child;
+        }
+        
+        private Entry elements() {
+            if (elements == null) elements = new Entry(this, null);
+            return elements;
+        }
+        
+        private void record(NBTType type, long size, int length) {
+            count++;
+            bytes += size;
+            types[type.ordinal()]++;
+            if (length >= 0) {
+                if (lengths == null) lengths = new long[BUCKETS];
+                lengths[32 - Integer.numberOfLeadingZeros(length)]++;
+                maxLength = Math.max(maxLength, length);
+            }
+        }
+        
+        private void merge(Entry other) {
+            // pairs of entries of this profiler and of the other one, merged on an explicit stack
+            Deque<Entry[]> stack = new ArrayDeque<>();
+            stack.push(new Entry[] {this, other});
+            while (!stack.isEmpty()) {
+                Entry[] pair = stack.pop();
+                Entry target = pair[0], source = pair[1];
+                target.count += source.count;
+                target.bytes += source.bytes;
+                for (int i = 0; i < target.types.length; i++)
+                    target.types[i] += source.types[i];
+                if (source.lengths != null) {
+                    if (target.lengths == null) target.lengths = new long[BUCKETS];
+                    for (int i = 0; i < BUCKETS; i++)
+                        target.lengths[i] += source.lengths[i];
+                    target.maxLength = Math.max(target.maxLength, source.maxLength);
+                }
+                if (source.children != null)
+                    source.children.forEach((name, child) -> stack.push(new Entry[] {target.child(name), child}));
+                if (source.elements != null)
+                    stack.push(new Entry[] {target.elements(), source.elements});
+            }
+        }
+        
+        /**
+         * Returns the normalized path, which is empty for the roots of documents.
+         *
+         * @return the normalized path
+         */
+        public String getPath() {
+            Deque<Entry> entries = new ArrayDeque<>();
+            for (Entry entry = this; entry.parent != null; entry = entry.parent)
+                entries.push(entry);
+            StringBuilder path = new StringBuilder();
+            for (Entry entry : entries) {
+                if (entry.name == null) path.append("[*]");
+                else path.append(path.length() == 0? "" : ".").append(quote(entry.name));
+            }
+            return path.toString();
+        }
+        
+        /**
+         * Returns how often the path occurred.
+         *
+         * @return the amount of tags
+         */
+        public long getCount() {
+            return count;
+        }
+        
+        /**
+         * Returns how often the path occurred with a given type.
+         *
+         * @param type the type
+         * @return the amount of tags of the type
+         */
+        public long getCount(NBTType type) {
+            return types[type.ordinal()];
+        }
+        
+        /**
+         * Returns the total serialized size of all tags of the path, including their descendants and, for entries of
+         * compounds, their types and names.
+         *
+         * @return the total size in bytes
+         */
+        public long getTotalBytes() {
+            return bytes;
+        }
+        
+        /**
+         * Returns the largest length of all strings, arrays and lists of the path.
+         *
+         * @return the largest length or 0 if there are none
+         */
+        public int getMaxLength() {
+            return maxLength;
+        }
+        
+        /**
+         * Returns the histogram of the lengths of strings in bytes and of arrays and lists in elements. The bucket
+         * {@code 0} contains the amount of empty values and the bucket {@code i > 0} the amount of lengths from
+         * {@code 2^(i-1)} to {@code 2^i - 1}.
+         *
+         * @return a copy of the histogram, which is empty if there are no strings, arrays or lists
+         */
+        public long[] getLengthHistogram() {
+            return lengths == null? new long[0] : lengths.clone();
+        }
+        
+        @Override
+        public String toString() {
+            return getPath() + ": " + count + " tags, " + bytes + " bytes";
+        }
+    
+    }
+    
+    private static String quote(String name) {
+        boolean simple = !name.isEmpty() && !name.equals("*");
+        for (int i = 0; simple && i < name.length(); i++) {
+            char c = name.charAt(i);
+            simple = c != '.' && c != '[' && c != ']' && c != '{' && c != '}' && c != '"' && !Character.isWhitespace(c);
+        }
+        return simple? name : '"' + name.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+}
@@ -3,13 +3,53 @@ package eisenwave.nbt.io;
 import eisenwave.io.Serializer;
 import eisenwave.nbt.NBTNamedTag;
 
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
+import java.util.Objects;
 import java.util.zip.GZIPOutputStream;
 
 public class NBTSerializer implements Serializer<NBTNamedTag> {
     
     private final boolean compress;
+    private final boolean cache;
+    private final NBTFormat format;
+    
+    /**
+     * Constructs a new NBT-Serializer which writes NBT in the given format.
+     *
+     * @param compress whether to use gzip compression.
+     * @param cache whether to cache the payloads of compounds and lists, which only applies to
+     * {@link NBTFormat#BIG_ENDIAN}
+     * @param format the format of the output
+     * @see NBTOutputStream#NBTOutputStream(OutputStream, NBTFormat, boolean)
+     */
+    public NBTSerializer(boolean compress, boolean cache, NBTFormat format) {
+        this.compress = compress;
+        this.cache = cache;
+        this.format = Objects.requireNonNull(format);
+    }
+    
+    /**
+     * Constructs a new NBT-Serializer which writes NBT in the given format, such as {@link NBTFormat#NETWORK} for the
+     * network protocol of the Bedrock Edition.
+     *
+     * @param compress whether to use gzip compression.
+     * @param format the format of the output
+     */
+    public NBTSerializer(boolean compress, NBTFormat format) {
+        this(compress, false, format);
+    }
+    
+    /**
+     * Constructs a new NBT-Serializer.
+     *
+     * @param compress whether to use gzip compression.
+     * @param cache whether to cache the payloads of compounds and lists, so that unmodified subtrees are copied
+     * verbatim when they are serialized again
+     * @see NBTOutputStream#NBTOutputStream(OutputStream, boolean)
+     */
+    public NBTSerializer(boolean compress, boolean cache) {
+        this(compress, cache, NBTFormat.BIG_ENDIAN);
+    }
     
     /**
      * Constructs a new NBT-Serializer.
@@ -17,7 +57,7 @@ public class NBTSerializer implements Serializer<NBTNamedTag> {
      * @param compress whether to use gzip compression.
      */
     public NBTSerializer(boolean compress) {
-        this.compress = compress;
+        this(compress, false);
     }
     
     /**
@@ -29,15 +69,37 @@ public class NBTSerializer implements Serializer<NBTNamedTag> {
     
     @Override
     public void toStream(NBTNamedTag tag, OutputStream stream) throws IOException {
+        toStream(tag, stream, null);
+    }
+    
+    @Override
+    public void toFile(NBTNamedTag tag, File file) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            try (BufferedOutputStream buffStream = new BufferedOutputStream(stream)) {
+                toStream(tag, buffStream, file.getPath());
+            }
+        }
+    }
+    
+    private void toStream(NBTNamedTag tag, OutputStream stream, String source) throws IOException {
+        NBTEvents event = NBTEvents.begin(NBTEvents.Kind.ENCODE, source);
+        if (event != null) stream = event.raw(stream);
         if (compress) {
             GZIPOutputStream gzipStream = new GZIPOutputStream(stream);
-            NBTOutputStream nbtStream = new NBTOutputStream(gzipStream);
-            nbtStream.writeNamedTag(tag);
-            gzipStream.finish();
+            if (event != null) {
+                NBTEvents.CompressingStream compressing = event.compressing(gzipStream);
+                new NBTOutputStream(compressing, format, cache).writeNamedTag(tag);
+                compressing.finish();
+            }
+            else {
+                new NBTOutputStream(gzipStream, format, cache).writeNamedTag(tag);
+                gzipStream.finish();
+            }
         }
         else {
-            new NBTOutputStream(stream).writeNamedTag(tag);
+            new NBTOutputStream(stream, format, cache).writeNamedTag(tag);
         }
+        if (event != null) event.end(tag.getTag());
     }
     
 }
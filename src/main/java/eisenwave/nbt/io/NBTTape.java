@@ -0,0 +1,632 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     A flat, read-only representation of an uncompressed NBT document.
+ * </p>
+ * <p>
+ *     Decoding a tape validates the document and records every tag in two {@code long} words of a single array: the
+ *     type and the offset of the name of the tag, and the offset of its payload in the original bytes together with
+ *     the index of the node which follows its subtree. No tags are created, so decoding is a single pass over the bytes
+ *     and the tape only consists of two arrays.
+ * </p>
+ * <p>
+ *     Tapes are navigated with a {@link Cursor}, which skips to the next sibling of a tag in {@code O(1)}. Primitive
+ *     values are read directly from the bytes and any subtree can be materialized into ordinary tags on demand.
+ * </p>
+ */
+public final class NBTTape {
+    
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final static NBTType[] TYPES = NBTType.values();
+    
+    private final byte[] bytes;
+    private final int start, end;
+    
+    private long[] nodes = new long[32];
+    private int size;
+    
+    private NBTTape(byte[] bytes, int start, int end) {
+        this.bytes = bytes;
+        this.start = start;
+        this.end = end;
+    }
+    
+    /**
+     * Decodes a named tag into a tape. The bytes are not copied and must not be modified while the tape is in use.
+     *
+     * @param bytes the uncompressed NBT bytes
+     * @return the tape
+     * @throws IOException if the bytes are not a valid named tag
+     */
+    public static NBTTape decode(byte[] bytes) throws IOException {
+        return decode(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * Decodes a named tag into a tape. The bytes are not copied and must not be modified while the tape is in use.
+     *
+     * @param bytes the uncompressed NBT bytes
+     * @param offset the offset of the named tag
+     * @param length the maximum length of the named tag
+     * @return the tape
+     * @throws IOException if the bytes are not a valid named tag
+     */
+    public static NBTTape decode(byte[] bytes, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > bytes.length)
+            throw new IndexOutOfBoundsException();
+        NBTTape tape = new NBTTape(bytes, offset, offset + length);
+        
+        NBTType type = tape.readType(tape.require(offset, 1));
+        if (type == NBTType.END)
+            throw new IOException("TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+        int name = offset + 1;
+        tape.scan(type, name, tape.skipString(name));
+        tape.nodes = Arrays.copyOf(tape.nodes, tape.size * 2);
+        return tape;
+    }
+    
+    // GETTERS
+    
+    /**
+     * Returns the amount of tags in this tape.
+     *
+     * @return the amount of tags
+     */
+    public int getNodeCount() {
+        return size;
+    }
+    
+    /**
+     * Returns the amount of bytes of the named tag.
+     *
+     * @return the length of the named tag
+     */
+    public int getLength() {
+        return payloadOffset(0) + payloadLength(0) - start;
+    }
+    
+    /**
+     * Returns a new cursor which is positioned at the root tag.
+     *
+     * @return a new cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+    
+    /**
+     * Materializes the root tag.
+     *
+     * @return a new named tag
+     */
+    public NBTNamedTag toNamedTag() {
+        return new NBTNamedTag(name(0), materialize(0));
+    }
+    
+    // DECODING
+    
+    /**
+     * Records a tag and its subtree. Containers are tracked on an explicit stack instead of the call stack, so the
+     * depth of the tree is only limited by the length of the bytes.
+     *
+     * @param type the type of the tag
+     * @param name the offset of the name or -1
+     * @param pos the offset of the payload
+     * @return the offset following the payload
+     * @throws IOException if the payload is invalid
+     */
+    private int scan(NBTType type, int name, int pos) throws IOException {
+        // the open containers and the amount of remaining elements of lists or -1 for compounds
+        int[] containers = new int[16];
+        int[] remaining = new int[16];
+        int depth = 0;
+        
+        while (true) {
+            int node = size;
+            if (size * 2 == nodes.length)
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            nodes[size * 2] = (long) type.getId() << 56 | (name + 1L);
+            nodes[size * 2 + 1] = (long) pos << 32;
+            size++;
+            
+            int elements = -1;
+            switch (type) {
+                case BYTE: pos = require(pos, 1) + 1; break;
+                case SHORT: pos = require(pos, 2) + 2; break;
+                case INT:
+                case FLOAT: pos = require(pos, 4) + 4; break;
+                case LONG:
+                case DOUBLE: pos = require(pos, 8) + 8; break;
+                case STRING: pos = skipString(pos); break;
+                case BYTE_ARRAY: pos = skipArray(pos, 1); break;
+                case INT_ARRAY: pos = skipArray(pos, 4); break;
+                case LONG_ARRAY: pos = skipArray(pos, 8); break;
+                case LIST: {
+                    NBTType elementType = readType(require(pos, 5));
+                    elements = readInt(pos + 1);
+                    if (elements < 0) throw new IOException("negative length: " + elements);
+                    if (elementType == NBTType.END && elements > 0)
+                        throw new IOException("List is of type TAG_End but not empty");
+                    pos += 5;
+                    break;
+                }
+                case COMPOUND: break;
+                default: throw new IOException("invalid tag type: " + type);
+            }
+            
+            if (type == NBTType.LIST || type == NBTType.COMPOUND) {
+                if (depth == containers.length) {
+                    containers = Arrays.copyOf(containers, depth * 2);
+                    remaining = Arrays.copyOf(remaining, depth * 2);
+                }
+                containers[depth] = node;
+                remaining[depth++] = elements;
+            }
+            else nodes[node * 2 + 1] |= size;
+            
+            // find the next tag, closing every container which has no children left
+            while (true) {
+                if (depth == 0) return pos;
+                int container = containers[depth - 1];
+                if (remaining[depth - 1] > 0) {
+                    remaining[depth - 1]--;
+                    type = TYPES[bytes[payloadOffset(container)]];
+                    name = -1;
+                    break;
+                }
+                if (remaining[depth - 1] < 0) {
+                    NBTType childType = readType(require(pos, 1));
+                    pos++;
+                    if (childType != NBTType.END) {
+                        type = childType;
+                        name = pos;
+                        pos = skipString(pos);
+                        break;
+                    }
+                }
+                // the index of the next node is only known once the subtree has been recorded
+                nodes[container * 2 + 1] |= size;
+                depth--;
+            }
+        }
+    }
+    
+    private int require(int pos, int length) throws IOException {
+        if (pos + (long) length > end) throw new EOFException();
+        return pos;
+    }
+    
+    private NBTType readType(int pos) throws IOException {
+        int id = bytes[pos];
+        if (id < 0 || id >= TYPES.length) throw new IOException("invalid tag type: " + id);
+        return TYPES[id];
+    }
+    
+    private int skipString(int pos) throws IOException {
+        int length = readUnsignedShort(require(pos, 2));
+        return require(pos + 2, length) + length;
+    }
+    
+    private int skipArray(int pos, int width) throws IOException {
+        int length = readInt(require(pos, 4));
+        if (length < 0) throw new IOException("negative length: " + length);
+        long bytes = (long) length * width;
+        if (bytes > Integer.MAX_VALUE) throw new EOFException();
+        return require(pos + 4, (int) bytes) + (int) bytes;
+    }
+    
+    // NODE ACCESS
+    
+    private NBTType type(int node) {
+        return TYPES[(int) (nodes[node * 2] >>> 56)];
+    }
+    
+    private int nameOffset(int node) {
+        return (int) nodes[node * 2] - 1;
+    }
+    
+    private int payloadOffset(int node) {
+        return (int) (nodes[node * 2 + 1] >>> 32);
+    }
+    
+    /**
+     * Returns the index of the node which follows the subtree of the given node.
+     */
+    private int next(int node) {
+        return (int) nodes[node * 2 + 1];
+    }
+    
+    private int payloadLength(int node) {
+        // the payload of a container ends after its last descendant and the end tags of all compounds in between
+        int ends = 0;
+        int last = node;
+        while (type(last) == NBTType.LIST || type(last) == NBTType.COMPOUND) {
+            if (type(last) == NBTType.COMPOUND) ends++;
+            int next = next(last);
+            if (next == last + 1)
+                return payloadOffset(last) + (type(last) == NBTType.LIST? 5 : 0) + ends - payloadOffset(node);
+            int child = last + 1;
+            while (next(child) != next) child = next(child);
+            last = child;
+        }
+        return payloadOffset(last) + valueLength(last) + ends - payloadOffset(node);
+    }
+    
+    private int valueLength(int node) {
+        int pos = payloadOffset(node);
+        switch (type(node)) {
+            case BYTE: return 1;
+            case SHORT: return 2;
+            case INT:
+            case FLOAT: return 4;
+            case LONG:
+            case DOUBLE: return 8;
+            case STRING: return 2 + readUnsignedShort(pos);
+            case BYTE_ARRAY: return 4 + readInt(pos);
+            case INT_ARRAY: return 4 + readInt(pos) * 4;
+            case LONG_ARRAY: return 4 + readInt(pos) * 8;
+            default: throw new AssertionError(type(node));
+        }
+    }
+    
+    private String name(int node) {
+        int pos = nameOffset(node);
+        return pos < 0? null : new String(bytes, pos + 2, readUnsignedShort(pos), UTF_8);
+    }
+    
+    /**
+     * Materializes a tag and its subtree. Containers are filled on an explicit stack, so that the depth of the tree is
+     * not limited by the call stack.
+     *
+     * @param node the node of the tag
+     * @return a new tag
+     */
+    private NBTTag materialize(int node) {
+        NBTTag root = create(node);
+        // the containers which are being filled and the next child of each of them
+        int[] containers = new int[16];
+        NBTTag[] tags = new NBTTag[16];
+        int[] children = new int[16];
+        int depth = 0;
+        if (next(node) != node + 1) {
+            containers[0] = node;
+            tags[0] = root;
+            children[depth++] = node + 1;
+        }
+        
+        while (depth > 0) {
+            int child = children[depth - 1];
+            if (child == next(containers[depth - 1])) {
+                tags[--depth] = null;
+                continue;
+            }
+            children[depth - 1] = next(child);
+            NBTTag container = tags[depth - 1];
+            
+            NBTTag tag;
+            if (container instanceof NBTList) {
+                tag = create(child);
+                ((NBTList) container).append(tag);
+            }
+            else {
+                NBTCompound compound = (NBTCompound) container;
+                String name = name(child);
+                int pos = payloadOffset(child);
+                // primitives are stored unboxed
+                switch (type(child)) {
+                    case BYTE: compound.putByte(name, bytes[pos]); continue;
+                    case SHORT: compound.putShort(name, (short) readUnsignedShort(pos)); continue;
+                    case INT: compound.putInt(name, readInt(pos)); continue;
+                    case LONG: compound.putLong(name, readLong(pos)); continue;
+                    case FLOAT: compound.putFloat(name, Float.intBitsToFloat(readInt(pos))); continue;
+                    case DOUBLE: compound.putDouble(name, Double.longBitsToDouble(readLong(pos))); continue;
+                    default: {
+                        tag = create(child);
+                        compound.put(name, tag);
+                    }
+                }
+            }
+            
+            if (next(child) != child + 1) {
+                if (depth == containers.length) {
+                    containers = Arrays.copyOf(containers, depth * 2);
+                    tags = Arrays.copyOf(tags, depth * 2);
+                    children = Arrays.copyOf(children, depth * 2);
+                }
+                containers[depth] = child;
+                tags[depth] = tag;
+                children[depth++] = child + 1;
+            }
+        }
+        return root;
+    }
+    
+    /**
+     * Creates a tag without its children.
+     */
+    private NBTTag create(int node) {
+        int pos = payloadOffset(node);
+        switch (type(node)) {
+            case BYTE: return new NBTByte(bytes[pos]);
+            case SHORT: return new NBTShort((short) readUnsignedShort(pos));
+            case INT: return new NBTInt(readInt(pos));
+            case LONG: return new NBTLong(readLong(pos));
+            case FLOAT: return new NBTFloat(Float.intBitsToFloat(readInt(pos)));
+            case DOUBLE: return new NBTDouble(Double.longBitsToDouble(readLong(pos)));
+            case STRING: return new NBTString(new String(bytes, pos + 2, readUnsignedShort(pos), UTF_8));
+            case BYTE_ARRAY: return new NBTByteArray(Arrays.copyOfRange(bytes, pos + 4, pos + 4 + readInt(pos)));
+            case INT_ARRAY: {
+                int[] array = new int[readInt(pos)];
+                for (int i = 0; i < array.length; i++)
+                    array[i] = readInt(pos + 4 + i * 4);
+                return new NBTIntArray(array);
+            }
+            case LONG_ARRAY: {
+                long[] array = new long[readInt(pos)];
+                for (int i = 0; i < array.length; i++)
+                    array[i] = readLong(pos + 4 + i * 8);
+                return new NBTLongArray(array);
+            }
+            case LIST: return new NBTList(TYPES[bytes[pos]], readInt(pos + 1));
+            case COMPOUND: return new NBTCompound();
+            default: throw new AssertionError(type(node));
+        }
+    }
+    
+    // UTIL
+    
+    private int readUnsignedShort(int pos) {
+        return (bytes[pos] & 0xFF) << 8 | bytes[pos + 1] & 0xFF;
+    }
+    
+    private int readInt(int pos) {
+        return bytes[pos] << 24 | (bytes[pos + 1] & 0xFF) << 16 | (bytes[pos + 2] & 0xFF) << 8 | bytes[pos + 3] & 0xFF;
+    }
+    
+    private long readLong(int pos) {
+        return (long) readInt(pos) << 32 | readInt(pos + 4) & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * <p>
+     *     A position in a tape.
+     * </p>
+     * <p>
+     *     A cursor is positioned at a single tag. It moves into containers with {@link #firstChild()},
+     *     {@link #find(String)} and {@link #element(int)}, along the children of a container with
+     *     {@link #nextSibling()} and back out of them with {@link #parent()}.
+     * </p>
+     */
+    public final class Cursor {
+        
+        private int node;
+        private int depth;
+        /** The containers which this cursor has moved into. */
+        private int[] parents = new int[8];
+        
+        private Cursor() {}
+        
+        // GETTERS
+        
+        /**
+         * Returns the tape of this cursor.
+         *
+         * @return the tape
+         */
+        public NBTTape getTape() {
+            return NBTTape.this;
+        }
+        
+        /**
+         * Returns the type of the current tag.
+         *
+         * @return the type
+         */
+        public NBTType getType() {
+            return type(node);
+        }
+        
+        /**
+         * Returns the name of the current tag.
+         *
+         * @return the name or null if the tag is an element of a list
+         */
+        public String getName() {
+            return name(node);
+        }
+        
+        /**
+         * Returns the depth of the current tag, which is 0 for the root tag.
+         *
+         * @return the depth
+         */
+        public int getDepth() {
+            return depth;
+        }
+        
+        /**
+         * Returns the amount of entries, elements or characters of the current compound, list, array or string.
+         * Counting the entries of a compound skips over its children.
+         *
+         * @return the size of the current tag
+         * @throws IllegalStateException if the current tag is a number
+         */
+        public int size() {
+            int pos = payloadOffset(node);
+            switch (type(node)) {
+                case STRING: return getString().length();
+                case BYTE_ARRAY:
+                case INT_ARRAY:
+                case LONG_ARRAY: return readInt(pos);
+                case LIST: return readInt(pos + 1);
+                case COMPOUND: {
+                    int count = 0;
+                    for (int child = node + 1, end = next(node); child < end; child = next(child))
+                        count++;
+                    return count;
+                }
+                default: throw new IllegalStateException(type(node) + " has no size");
+            }
+        }
+        
+        // NAVIGATION
+        
+        /**
+         * Moves to the first child of the current compound or list.
+         *
+         * @return whether the cursor has moved, which is false if the current tag has no children
+         */
+        public boolean firstChild() {
+            if (next(node) == node + 1) return false;
+            push();
+            node++;
+            return true;
+        }
+        
+        /**
+         * Moves to the next child of the container of the current tag in {@code O(1)}.
+         *
+         * @return whether the cursor has moved, which is false if the current tag is the last child or the root
+         */
+        public boolean nextSibling() {
+            int next = next(node);
+            if (depth == 0 || next >= next(parents[depth - 1])) return false;
+            node = next;
+            return true;
+        }
+        
+        /**
+         * Moves to the container of the current tag.
+         *
+         * @return whether the cursor has moved, which is false if the current tag is the root
+         */
+        public boolean parent() {
+            if (depth == 0) return false;
+            node = parents[--depth];
+            return true;
+        }
+        
+        /**
+         * Moves to the entry of the current compound with the given key. Keys are compared without decoding the
+         * names of the entries.
+         *
+         * @param key the key
+         * @return whether the cursor has moved, which is false if there is no such entry
+         * @throws IllegalStateException if the current tag is not a compound
+         */
+        public boolean find(String key) {
+            check(NBTType.COMPOUND);
+            byte[] encoded = key.getBytes(UTF_8);
+            for (int child = node + 1, end = next(node); child < end; child = next(child)) {
+                int pos = nameOffset(child);
+                if (readUnsignedShort(pos) == encoded.length && regionMatches(pos + 2, encoded)) {
+                    push();
+                    node = child;
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Moves to the element of the current list at the given index, skipping over all previous elements.
+         *
+         * @param index the index
+         * @return whether the cursor has moved, which is false if the index is out of bounds
+         * @throws IllegalStateException if the current tag is not a list
+         */
+        public boolean element(int index) {
+            check(NBTType.LIST);
+            if (index < 0) return false;
+            int child = node + 1, end = next(node);
+            for (int i = 0; i < index && child < end; i++)
+                child = next(child);
+            if (child >= end) return false;
+            push();
+            node = child;
+            return true;
+        }
+        
+        /**
+         * Returns a new cursor at the same position.
+         *
+         * @return a copy of this cursor
+         */
+        public Cursor copy() {
+            Cursor copy = new Cursor();
+            copy.node = node;
+            copy.depth = depth;
+            copy.parents = parents.clone();
+            return copy;
+        }
+        
+        // VALUES
+        
+        public byte getByte() {
+            return bytes[payloadOffset(check(NBTType.BYTE))];
+        }
+        
+        public short getShort() {
+            return (short) readUnsignedShort(payloadOffset(check(NBTType.SHORT)));
+        }
+        
+        public int getInt() {
+            return readInt(payloadOffset(check(NBTType.INT)));
+        }
+        
+        public long getLong() {
+            return readLong(payloadOffset(check(NBTType.LONG)));
+        }
+        
+        public float getFloat() {
+            return Float.intBitsToFloat(readInt(payloadOffset(check(NBTType.FLOAT))));
+        }
+        
+        public double getDouble() {
+            return Double.longBitsToDouble(readLong(payloadOffset(check(NBTType.DOUBLE))));
+        }
+        
+        public String getString() {
+            int pos = payloadOffset(check(NBTType.STRING));
+            return new String(bytes, pos + 2, readUnsignedShort(pos), UTF_8);
+        }
+        
+        /**
+         * Materializes the current tag and its subtree into ordinary tags.
+         *
+         * @return a new tag
+         */
+        public NBTTag toTag() {
+            return materialize(node);
+        }
+        
+        private int check(NBTType type) {
+            if (type(node) != type)
+                throw new IllegalStateException("expected " + type + " but found " + type(node));
+            return node;
+        }
+        
+        private void push() {
+            if (depth == parents.length)
+                parents = Arrays.copyOf(parents, depth * 2);
+            parents[depth++] = node;
+        }
+        
+        private boolean regionMatches(int pos, byte[] key) {
+            for (int i = 0; i < key.length; i++)
+                if (bytes[pos + i] != key[i]) return false;
+            return true;
+        }
+    
+    }
+
+}
@@ -0,0 +1,49 @@
+package eisenwave.nbt.io;
+
+import eisenwave.io.Deserializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Deserializes NBT into a read-only {@link NBTTape} instead of a tree of tags.
+ */
+public class NBTTapeDeserializer implements Deserializer<NBTTape> {
+    
+    private final boolean compressed;
+    
+    /**
+     * Constructs a new tape deserializer.
+     *
+     * @param compressed whether the input is g-zip compressed
+     */
+    public NBTTapeDeserializer(boolean compressed) {
+        this.compressed = compressed;
+    }
+    
+    /**
+     * Constructs a new tape deserializer with enabled g-zip decompression.
+     */
+    public NBTTapeDeserializer() {
+        this(true);
+    }
+    
+    @Override
+    public NBTTape fromStream(InputStream stream) throws IOException {
+        if (compressed) stream = new GZIPInputStream(stream);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = stream.read(buffer)) != -1; )
+            bytes.write(buffer, 0, n);
+        return NBTTape.decode(bytes.toByteArray());
+    }
+    
+    @Override
+    public NBTTape fromBytes(byte[] bytes) throws IOException {
+        // uncompressed bytes are decoded in place
+        return compressed? Deserializer.super.fromBytes(bytes) : NBTTape.decode(bytes);
+    }
+
+}
@@ -0,0 +1,167 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.NBTDeserializer;
+import eisenwave.nbt.io.NBTSerializer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NBTCompactTest {
+    
+    @Test
+    public void unboxedValues() throws IOException {
+        NBTCompound compound = new NBTCompound();
+        compound.putByte("b", (byte) -1);
+        compound.putShort("s", (short) 300);
+        compound.putInt("i", 123456789);
+        compound.putLong("l", Long.MIN_VALUE);
+        compound.putFloat("f", -0.5f);
+        compound.putDouble("d", -2.25);
+        assertEquals(5, compound.incrementInt("i", -123456784));
+        
+        assertEquals(-1, compound.getByte("b"));
+        assertEquals(300, compound.getShort("s"));
+        assertEquals(5, compound.getInt("i"));
+        assertEquals(Long.MIN_VALUE, compound.getLong("l"));
+        assertEquals(-0.5f, compound.getFloat("f"), 0);
+        assertEquals(-2.25, compound.getDouble("d"), 0);
+        
+        NBTCompound boxed = new NBTCompound();
+        boxed.put("b", new NBTByte((byte) -1));
+        boxed.put("s", new NBTShort((short) 300));
+        boxed.put("i", new NBTInt(5));
+        boxed.put("l", new NBTLong(Long.MIN_VALUE));
+        boxed.put("f", new NBTFloat(-0.5f));
+        boxed.put("d", new NBTDouble(-2.25));
+        assertEquals(boxed, compound);
+        assertEquals(boxed.contentHash(), compound.contentHash());
+        assertEquals(boxed.toMSONString(), compound.toMSONString());
+        
+        byte[] bytes = new NBTSerializer(false).toBytes(new NBTNamedTag("root", compound));
+        assertArrayEquals(new NBTSerializer(false).toBytes(new NBTNamedTag("root", boxed)), bytes);
+        assertEquals(compound, new NBTDeserializer(false).fromBytes(bytes).getTag());
+    }
+    
+    @Test
+    public void boxedTagsAreTracked() {
+        NBTCompound compound = new NBTCompound();
+        compound.putInt("a", 1);
+        long hash = compound.contentHash();
+        
+        NBTInt tag = (NBTInt) compound.getTag("a");
+        assertSame(tag, compound.getTag("a"));
+        tag.setIntValue(2);
+        assertEquals(2, compound.getInt("a"));
+        assertNotEquals(hash, compound.contentHash());
+        
+        compound.putInt("a", 3);
+        tag.setIntValue(4);
+        assertEquals(3, compound.getInt("a"));
+    }
+    
+    @Test
+    public void removedValuesAreMaterialized() {
+        NBTCompound compound = new NBTCompound();
+        compound.putInt("a", 1000);
+        compound.putInt("b", 2000);
+        
+        NBTInt removed = (NBTInt) compound.remove("a");
+        assertEquals(1000, removed.getIntValue());
+        assertFalse(removed.isFrozen());
+        removed.setIntValue(3);
+        assertEquals(1, compound.size());
+        
+        NBTInt replaced = (NBTInt) compound.getValue().put("b", new NBTString("x"));
+        assertEquals(2000, replaced.getIntValue());
+        assertFalse(replaced.isFrozen());
+        assertEquals("x", compound.getString("b"));
+    }
+    
+    @Test
+    public void shapeTransitions() {
+        NBTCompound a = new NBTCompound(), b = new NBTCompound();
+        for (String key : new String[] {"x", "y", "z"}) {
+            a.putInt(key, key.charAt(0));
+            b.putString(key, key);
+        }
+        a.remove("y");
+        b.remove("x");
+        a.putInt("y", 1);
+        
+        assertEquals("{x:120,z:122,y:1}", a.toMSONString());
+        assertEquals("{y:\"y\",z:\"z\"}", b.toMSONString());
+        assertEquals(122, a.getInt("z"));
+        assertEquals("y", b.getString("y"));
+    }
+    
+    @Test
+    public void keyHandles() {
+        NBTKey health = NBTKey.of("Health"), name = NBTKey.of("Name");
+        List<NBTCompound> compounds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            NBTCompound compound = new NBTCompound();
+            if (i != 1) compound.putString("Name", "mob" + i);
+            compound.putFloat("Health", i);
+            compounds.add(compound);
+        }
+        NBTCompound large = new NBTCompound();
+        for (int i = 0; i < 40; i++) large.putInt("k" + i, i);
+        large.putFloat("Health", 7);
+        compounds.add(large);
+        
+        for (int i = 0; i < compounds.size(); i++) {
+            NBTCompound compound = compounds.get(i);
+            assertEquals(i == 3? 7 : i, compound.getFloat(health, -1), 0);
+            assertEquals(i == 0 || i == 2? "mob" + i : "none", compound.getString(name, "none"));
+            assertEquals(-1, compound.getInt(health, -1));
+            assertFalse(compound.getOptionalInt(name).isPresent());
+            assertTrue(compound.tryGet(health).isPresent());
+        }
+        assertEquals(39, large.getOptionalInt("k39").getAsInt());
+        assertFalse(large.tryGet("k40").isPresent());
+        assertFalse(large.hasKey(name));
+    }
+    
+    @Test
+    public void promotion() {
+        NBTCompound compound = new NBTCompound();
+        for (int i = 0; i < 40; i++)
+            compound.putInt("k" + (39 - i), i);
+        compound.remove("k10");
+        compound.putInt("k0", -1);
+        
+        assertEquals(39, compound.size());
+        assertEquals(-1, compound.getInt("k0"));
+        assertEquals(Arrays.asList("k39", "k38", "k37"), new ArrayList<>(compound.getKeys()).subList(0, 3));
+        assertEquals("k0", new ArrayList<>(compound.getKeys()).get(38));
+        
+        NBTCompound frozen = compound.freeze();
+        assertEquals(25, frozen.toMutable().getInt("k14"));
+    }
+
+    @Test
+    public void dynamicKeysAreBounded() {
+        // every compound has distinct keys, like a map keyed by UUIDs
+        for (int i = 0; i < 40_000; i++) {
+            NBTCompound compound = new NBTCompound();
+            compound.putInt("uuid-" + i, i);
+            compound.putInt("uuid-" + i + "-second", i);
+            assertEquals(i, compound.getInt("uuid-" + i + "-second"));
+        }
+        assertTrue(Shape.sharedCount() <= 1 << 16);
+        
+        // shapes which are no longer shared still work
+        NBTCompound compound = new NBTCompound();
+        compound.putInt("a", 1);
+        compound.putInt("b", 2);
+        compound.remove("a");
+        assertEquals(2, compound.getInt("b"));
+        assertFalse(compound.hasKey("a"));
+    }
+
+}
@@ -0,0 +1,59 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.NBTDeserializer;
+import eisenwave.nbt.io.NBTSerializer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NBTConcurrentTest {
+    
+    @Test
+    public void atomicIncrements() throws InterruptedException {
+        NBTCompound compound = NBTCompound.concurrent();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    compound.incrementInt("counter", 1);
+                    compound.putInt("key" + (i + offset) % 100, i);
+                    compound.remove("key" + (i + offset + 50) % 100);
+                    compound.getValue().forEach((key, tag) -> assertNotNull(tag));
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        
+        assertEquals(80000, compound.getInt("counter"));
+        assertEquals(compound.size(), compound.getKeys().size());
+    }
+    
+    @Test
+    public void insertionOrder() throws IOException {
+        NBTCompound compound = NBTCompound.concurrent();
+        compound.putInt("c", 1);
+        compound.putInt("a", 2);
+        compound.putInt("b", 3);
+        compound.remove("c");
+        compound.putInt("c", 4);
+        compound.merge("a", new NBTInt(5),
+            (x, y) -> new NBTInt(((NBTInt) x).getIntValue() + ((NBTInt) y).getIntValue()));
+        
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(compound.getKeys()));
+        assertEquals(7, compound.getInt("a"));
+        assertEquals("{a:7,b:3,c:4}", compound.toMSONString());
+        
+        NBTNamedTag read = new NBTDeserializer(false).fromBytes(
+            new NBTSerializer(false, true).toBytes(new NBTNamedTag("", compound)));
+        assertEquals(compound, read.getTag());
+        assertNull(compound.getCachedPayload());
+    }
+
+}
@@ -0,0 +1,177 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import eisenwave.nbt.io.NBTDiffDeserializer;
+import eisenwave.nbt.io.NBTDiffSerializer;
+import eisenwave.nbt.io.NBTLimitException;
+import eisenwave.nbt.io.NBTLimits;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class NBTDiffTest {
+    
+    private static NBTTag parse(String mson) throws IOException {
+        return MojangsonParser.parse(mson).getTag();
+    }
+    
+    private static void assertPatch(String before, String after) throws IOException {
+        NBTTag a = parse(before), b = parse(after);
+        NBTDiff diff = NBTDiff.compute(a, b);
+        
+        byte[] bytes = new NBTDiffSerializer().toBytes(diff);
+        NBTDiff decoded = new NBTDiffDeserializer().fromBytes(bytes);
+        assertEquals(diff.size(), decoded.size());
+        
+        assertEquals(b, NBTDiff.apply(diff, parse(before)));
+        assertEquals(b, NBTDiff.apply(decoded, a));
+    }
+    
+    @Test
+    public void equalTagsProduceEmptyPatch() throws IOException {
+        assertTrue(NBTDiff.compute(parse("{a: 1, b: [1, 2]}"), parse("{b: [1, 2], a: 1}")).isEmpty());
+    }
+    
+    @Test
+    public void minimalEdits() throws IOException {
+        NBTDiff diff = NBTDiff.compute(
+            parse("{a: 1, b: {c: \"x\", d: [1, 2, 3]}, e: 5L}"),
+            parse("{a: 1, b: {c: \"y\", d: [1, 2, 3]}, f: 5L}"));
+        
+        assertEquals(3, diff.size());
+        NBTDiff.Edit first = diff.getEdits().get(0);
+        assertEquals(NBTDiff.Operation.REMOVE, first.getOperation());
+        assertEquals("e", first.getPath().get(0));
+    }
+    
+    @Test
+    public void patches() throws IOException {
+        assertPatch("{a: 1, b: {c: 2}}", "{a: 2, b: {c: 2, d: \"x\"}}");
+        assertPatch("{a: [1, 2, 3, 4]}", "{a: [1, 5, 6, 4, 7]}");
+        assertPatch("{a: [{b: 1}, {b: 2}, {b: 3}]}", "{a: [{b: 1}, {b: 4}, {b: 3}]}");
+        assertPatch("{a: [{b: 1}, {b: 2}]}", "{a: [{b: 0}, {b: 1}, {b: 2}]}");
+        assertPatch("{a: [I; 1, 2, 3, 4]}", "{a: [I; 1, 9, 4]}");
+        assertPatch("{a: [B; 1b, 2b]}", "{a: [B; 0b, 1b, 2b, 3b]}");
+        assertPatch("{a: [1, 2]}", "{a: [\"x\"]}");
+        assertPatch("{a: []}", "{a: [[L; 1L], [L;]]}");
+        assertPatch("{a: {b: 1}}", "{a: [1, 2]}");
+    }
+    
+    @Test
+    public void replaceRoot() throws IOException {
+        NBTTag before = new NBTIntArray(new int[] {1, 2}), after = new NBTIntArray(new int[] {1, 2, 3});
+        assertEquals(after, NBTDiff.apply(NBTDiff.compute(before, after), before));
+        assertEquals(new NBTInt(3), NBTDiff.apply(NBTDiff.compute(before, new NBTInt(3)), before));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void missingPath() throws IOException {
+        NBTDiff diff = NBTDiff.compute(parse("{a: {b: 1}}"), parse("{a: {b: 2}}"));
+        NBTDiff.apply(diff, parse("{c: 1}"));
+    }
+
+    @Test
+    public void maliciousPatches() {
+        // a name which claims to be about 2 GB long and a name which is longer than NBT allows
+        assertMalformed(new byte[] {1, 0, 1, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        assertMalformed(new byte[] {1, 0, 1, (byte) 0x80, (byte) 0x80, 0x10});
+        // more edits and a longer path than the limits permit
+        try {
+            new NBTDiffDeserializer(false, NBTLimits.UNTRUSTED).fromBytes(new byte[] {-1, -1, -1, 0x7F});
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex instanceof NBTLimitException);
+        }
+        try {
+            new NBTDiffDeserializer(false, NBTLimits.UNTRUSTED).fromBytes(new byte[] {1, 0, (byte) 0xFF, 0x7F});
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex instanceof NBTLimitException);
+        }
+    }
+    
+    private static void assertMalformed(byte[] bytes) {
+        try {
+            new NBTDiffDeserializer().fromBytes(bytes);
+            fail();
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void deepEdits() {
+        // far deeper than a recursive implementation could handle with a default thread stack
+        NBTCompound root = new NBTCompound();
+        NBTCompound compound = root;
+        for (int i = 0; i < 100_000; i++) {
+            NBTList list = new NBTList(NBTType.COMPOUND);
+            NBTCompound child = new NBTCompound();
+            child.putInt("i", i);
+            list.add(child);
+            compound.put("l", list);
+            compound = child;
+        }
+        
+        NBTDiff.Edit edit = new NBTDiff.Edit(NBTDiff.Operation.PUT, Collections.emptyList(), 0, 0, root);
+        assertTrue(edit.getTag().isFrozen());
+        assertFalse(root.isFrozen());
+        assertSame(edit.getTag(), edit.getTag());
+        
+        NBTTag patched = NBTDiff.apply(new NBTDiff(Collections.singletonList(edit)), new NBTCompound());
+        assertFalse(patched.isFrozen());
+        assertEquals(root.contentHash(), patched.contentHash());
+    }
+    
+    @Test
+    public void hashCollision() {
+        // solves mix(hash("b") * C + hash(LONG, x)) = e(a, 1) + e(b, 2) - e(a, 3) for x, so both compounds collide
+        long c = 0x9e3779b97f4a7c15L;
+        long target = entryHash("a", 1) + entryHash("b", 2) - entryHash("a", 3);
+        long x = unmix(unmix(target) - NBTTag.hash("b") * c) - (NBTType.LONG.getId() + 1) * c;
+        
+        NBTCompound before = new NBTCompound(), after = new NBTCompound();
+        before.putLong("a", 1);
+        before.putLong("b", 2);
+        after.putLong("a", 3);
+        after.putLong("b", x);
+        assertEquals(before.contentHash(), after.contentHash());
+        assertNotEquals(before, after);
+        
+        NBTDiff diff = NBTDiff.compute(before, after);
+        assertFalse(diff.isEmpty());
+        assertEquals(after, NBTDiff.apply(diff, before.toMutable()));
+        
+        NBTList list = new NBTList(NBTType.COMPOUND), other = new NBTList(NBTType.COMPOUND);
+        list.add(before);
+        other.add(after);
+        assertEquals(after, ((NBTList) NBTDiff.apply(NBTDiff.compute(list, other), list)).get(0));
+    }
+    
+    private static long entryHash(String key, long value) {
+        return NBTTag.mix(NBTTag.hash(key) * 0x9e3779b97f4a7c15L + NBTTag.hash(NBTType.LONG, value));
+    }
+    
+    /**
+     * Inverts {@link NBTTag#mix(long)}, whose shifts by 33 bits are their own inverse.
+     */
+    private static long unmix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= inverse(0xc4ceb9fe1a85ec53L);
+        hash ^= hash >>> 33;
+        hash *= inverse(0xff51afd7ed558ccdL);
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    private static long inverse(long odd) {
+        long inverse = odd;
+        for (int i = 0; i < 5; i++)
+            inverse *= 2 - odd * inverse;
+        return inverse;
+    }
+
+}
@@ -0,0 +1,97 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class NBTHashTest {
+    
+    private static NBTTag parse(String mson) throws IOException {
+        return MojangsonParser.parse(mson).getTag();
+    }
+    
+    @Test
+    public void equalTagsHaveEqualHashes() throws IOException {
+        NBTTag a = parse("{a: 1, b: [1.0f, -0.0f], c: {d: [I; 1, 2], e: \"x\"}, f: []}");
+        NBTTag b = parse("{c: {e: \"x\", d: [I; 1, 2]}, b: [1.0f, 0.0f], a: 1, f: []}");
+        
+        assertEquals(a, b);
+        assertEquals(a.contentHash(), b.contentHash());
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a.contentHash(), parse("{a: 1}").contentHash());
+    }
+    
+    @Test
+    public void modificationInvalidatesAncestors() throws IOException {
+        NBTCompound root = (NBTCompound) parse("{a: {b: [{c: 1}]}}");
+        long before = root.contentHash();
+        NBTCompound inner = (NBTCompound) root.getCompoundTag("a").getTagList("b").get(0);
+        
+        ((NBTInt) inner.getTag("c")).setIntValue(2);
+        assertNotEquals(before, root.contentHash());
+        assertEquals(parse("{a: {b: [{c: 2}]}}"), root);
+        
+        inner.put("c", new NBTInt(1));
+        assertEquals(before, root.contentHash());
+        
+        root.getCompoundTag("a").getTagList("b").getValue().add(new NBTCompound());
+        assertEquals(parse("{a: {b: [{c: 1}, {}]}}").contentHash(), root.contentHash());
+    }
+    
+    @Test
+    public void sharedTagsInvalidateAllContainers() {
+        NBTInt shared = new NBTInt(1);
+        NBTCompound a = new NBTCompound(), b = new NBTCompound();
+        a.put("x", shared);
+        b.put("x", shared);
+        long hash = a.contentHash();
+        assertEquals(hash, b.contentHash());
+        
+        shared.setIntValue(2);
+        assertNotEquals(hash, a.contentHash());
+        assertNotEquals(hash, b.contentHash());
+    }
+    
+    @Test
+    public void deepNesting() {
+        // far deeper than a recursive implementation could handle with a default thread stack
+        NBTCompound a = nest(200_000), b = nest(200_000);
+        assertEquals(a.contentHash(), b.contentHash());
+        
+        NBTCompound deepest = b;
+        while (deepest.hasKey("l"))
+            deepest = (NBTCompound) deepest.getTagList("l").get(0);
+        deepest.putInt("i", 1);
+        assertNotEquals(a.contentHash(), b.contentHash());
+    }
+    
+    private static NBTCompound nest(int depth) {
+        NBTCompound root = new NBTCompound();
+        NBTCompound compound = root;
+        for (int i = 0; i < depth; i++) {
+            NBTList list = new NBTList(NBTType.COMPOUND);
+            NBTCompound child = new NBTCompound();
+            list.add(child);
+            compound.put("l", list);
+            compound = child;
+        }
+        return root;
+    }
+    
+    @Test
+    public void usableAsHashKey() throws IOException {
+        Set<NBTTag> set = new HashSet<>();
+        NBTCompound key = (NBTCompound) parse("{a: [1, 2]}");
+        set.add(key);
+        
+        assertTrue(set.contains(parse("{a: [1, 2]}")));
+        key.getTagList("a").add(new NBTInt(3));
+        assertFalse(set.contains(parse("{a: [1, 2]}")));
+    }
+
+}
@@ -0,0 +1,67 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import eisenwave.nbt.io.NBTDeserializer;
+import eisenwave.nbt.io.NBTSerializer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class NBTInternerTest {
+    
+    @Test
+    public void sharedSubtrees() throws IOException {
+        String mson = "{Inventory: [{id: \"sword\", tag: {Enchantments: [{id: \"sharpness\", lvl: 5s}]}}], "
+            + "Health: 20f}";
+        NBTInterner interner = new NBTInterner();
+        NBTDeserializer deserializer = new NBTDeserializer(false, interner);
+        byte[] bytes = new NBTSerializer(false).toBytes(MojangsonParser.parse(mson));
+        
+        NBTCompound a = (NBTCompound) deserializer.fromBytes(bytes).getTag();
+        NBTCompound b = (NBTCompound) deserializer.fromBytes(bytes).getTag();
+        assertTrue(a.isFrozen());
+        assertSame(a, b);
+        
+        NBTCompound c = interner.intern(a.with("Health", new NBTFloat(10)));
+        assertNotSame(a, c);
+        assertSame(a.getTagList("Inventory"), c.getTagList("Inventory"));
+        assertEquals(10, c.getFloat("Health"), 0);
+    }
+    
+    @Test
+    public void identicalBytes() {
+        NBTInterner interner = new NBTInterner();
+        NBTFloat zero = interner.intern(new NBTFloat(0f));
+        assertNotSame(zero, interner.intern(new NBTFloat(-0f)));
+        assertSame(zero, interner.intern(new NBTFloat(0f)));
+        
+        NBTList ints = interner.intern(new NBTList(NBTType.INT));
+        assertEquals(NBTType.STRING, interner.intern(new NBTList(NBTType.STRING)).getElementType());
+        assertEquals(NBTType.INT, ints.getElementType());
+    }
+    
+    @Test
+    public void deepNesting() throws IOException {
+        // far deeper than a recursive implementation could handle with a default thread stack
+        ByteArrayOutputStream lists = new ByteArrayOutputStream();
+        lists.write(new byte[] {9, 0, 0});
+        for (int i = 0; i < 100_000; i++)
+            lists.write(new byte[] {9, 0, 0, 0, 1});
+        lists.write(new byte[] {0, 0, 0, 0, 0});
+        
+        NBTInterner interner = new NBTInterner();
+        NBTTag a = new NBTDeserializer(false, interner).fromBytes(lists.toByteArray()).getTag();
+        NBTTag b = new NBTDeserializer(false, interner).fromBytes(lists.toByteArray()).getTag();
+        assertSame(a, b);
+        assertEquals(100_001, interner.size());
+        
+        NBTTag tag = a;
+        for (int i = 0; i < 100_000; i++)
+            tag = ((NBTList) tag).get(0);
+        assertEquals(new NBTList(NBTType.END), tag);
+    }
+
+}
@@ -0,0 +1,84 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NBTMatcherIndexTest {
+    
+    private static NBTTag parse(String mson) throws IOException {
+        return MojangsonParser.parse(mson).getTag();
+    }
+    
+    @Test
+    public void matchesLikeMatcher() throws IOException {
+        String[] patterns = {
+            "{}",
+            "{id: \"stone\"}",
+            "{id: \"stone\", Count: 1b}",
+            "{id: \"dirt\"}",
+            "{tag: {}}",
+            "{tag: {Damage: 3}}",
+            "{tag: {Enchantments: [{id: \"sharpness\"}]}}",
+            "{Pos: [0.0d, 64.0d, 0.0d]}"
+        };
+        String[] tags = {
+            "{id: \"stone\", Count: 1b}",
+            "{id: \"stone\", Count: 2b, tag: {Damage: 3}}",
+            "{id: \"dirt\", tag: {Enchantments: [{id: \"sharpness\", lvl: 5s}]}}",
+            "{Pos: [0.0d, 64.0d, 0.0d], tag: 5}"
+        };
+        
+        NBTMatcherIndex<Integer> index = new NBTMatcherIndex<>();
+        for (int i = 0; i < patterns.length; i++)
+            index.put(i, parse(patterns[i]));
+        assertEquals(patterns.length, index.size());
+        
+        for (String mson : tags) {
+            NBTTag tag = parse(mson);
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < patterns.length; i++)
+                if (new NBTMatcher(parse(patterns[i])).matches(tag))
+                    expected.add(i);
+            assertEquals(mson, expected, index.match(tag));
+        }
+    }
+    
+    @Test
+    public void putAndRemove() throws IOException {
+        NBTMatcherIndex<String> index = new NBTMatcherIndex<>();
+        index.put("a", parse("{id: \"stone\"}"));
+        index.put("b", parse("{id: \"stone\"}"));
+        NBTTag tag = parse("{id: \"stone\"}");
+        
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), index.match(tag));
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertEquals(Collections.singleton("b"), index.match(tag));
+        
+        index.put("b", parse("{id: \"dirt\"}"));
+        index.put("c", parse("{id: \"stone\"}"));
+        assertEquals(Collections.singleton("c"), index.match(tag));
+    }
+    
+    @Test
+    public void matchingDoesNotModify() throws IOException {
+        NBTCompound thawing = ((NBTCompound) parse("{a: {b: 2}, c: 3}")).freeze().toMutable();
+        NBTCompound tag = new NBTCompound();
+        tag.putInt("x", 1);
+        tag.put("y", thawing);
+        long bytes = NBTMemory.estimateRetainedBytes(tag);
+        
+        NBTMatcherIndex<String> index = new NBTMatcherIndex<>();
+        index.put("a", parse("{x: 1, y: {a: {b: 2}}}"));
+        index.put("b", parse("{x: 1, y: {a: {b: 2}, c: 3, d: 4}}"));
+        assertEquals(Collections.singleton("a"), index.match(tag));
+        assertEquals(bytes, NBTMemory.estimateRetainedBytes(tag));
+        assertTrue(thawing.peek(NBTKey.of("a")).isFrozen());
+    }
+
+}
@@ -0,0 +1,104 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import eisenwave.nbt.io.NBTSerializer;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class NBTMatcherTest {
+    
+    private static NBTTag parse(String mson) throws IOException {
+        return MojangsonParser.parse(mson).getTag();
+    }
+    
+    @Test
+    public void matchSubset() throws IOException {
+        NBTMatcher matcher = new NBTMatcher(parse("{id: \"stone\", tag: {Damage: 3}}"));
+        
+        assertTrue(matcher.matches(parse("{id: \"stone\", Count: 1b, tag: {Damage: 3, Unbreakable: 1b}}")));
+        assertFalse(matcher.matches(parse("{id: \"stone\", tag: {Damage: 4}}")));
+        assertFalse(matcher.matches(parse("{id: \"stone\"}")));
+        assertFalse(matcher.matches(parse("{id: \"dirt\", tag: {Damage: 3}}")));
+    }
+    
+    @Test
+    public void matchListSubset() throws IOException {
+        NBTMatcher matcher = new NBTMatcher(parse("{Tags: [\"b\"], Empty: []}"));
+        
+        assertTrue(matcher.matches(parse("{Tags: [\"a\", \"b\"], Empty: []}")));
+        assertFalse(matcher.matches(parse("{Tags: [\"a\", \"c\"], Empty: []}")));
+        assertFalse(matcher.matches(parse("{Tags: [\"b\"], Empty: [1]}")));
+    }
+    
+    @Test
+    public void matchExact() throws IOException {
+        NBTMatcher matcher = new NBTMatcher(parse("{a: 1, b: [1, 2]}"), NBTMatcher.EXACT);
+        
+        assertTrue(matcher.matches(parse("{b: [1, 2], a: 1}")));
+        assertFalse(matcher.matches(parse("{a: 1, b: [1, 2], c: 3}")));
+        assertFalse(matcher.matches(parse("{a: 1, b: [2, 1]}")));
+    }
+    
+    @Test
+    public void matchTypesOnly() throws IOException {
+        NBTMatcher matcher = new NBTMatcher(parse("{a: 1, b: \"\", c: [B;]}"), NBTMatcher.TYPES_ONLY);
+        
+        assertTrue(matcher.matches(parse("{a: 5, b: \"text\", c: [B; 1B, 2B]}")));
+        assertFalse(matcher.matches(parse("{a: 5s, b: \"text\", c: [B; 1B, 2B]}")));
+    }
+    
+    @Test
+    public void patternIsCopied() throws IOException {
+        NBTCompound pattern = (NBTCompound) parse("{a: 1}");
+        NBTMatcher matcher = new NBTMatcher(pattern);
+        pattern.putInt("a", 2);
+        
+        assertTrue(matcher.matches(parse("{a: 1}")));
+    }
+    
+    @Test
+    public void matchBinary() throws IOException {
+        String[] patterns = {
+            "{id: \"stone\", tag: {Damage: 3}}",
+            "{Tags: [\"b\"], Empty: []}",
+            "{a: 1, b: [1, 2]}",
+            "{c: [I; 1, 2], d: 5.0d}"
+        };
+        String[] tags = {
+            "{id: \"stone\", Count: 1b, tag: {Damage: 3, Unbreakable: 1b}}",
+            "{id: \"stone\", tag: {Damage: 4}}",
+            "{Tags: [\"a\", \"b\"], Empty: []}",
+            "{a: 1, b: [1, 2], c: [I; 1, 2], d: 5.0d}",
+            "{a: 1, b: [2, 1], c: [I; 1], d: 5.0d}"
+        };
+        
+        for (String pattern : patterns) {
+            for (int flags = 0; flags <= (NBTMatcher.EXACT | NBTMatcher.TYPES_ONLY); flags++) {
+                NBTMatcher matcher = new NBTMatcher(parse(pattern), flags);
+                for (String mson : tags) {
+                    NBTNamedTag tag = MojangsonParser.parse(mson);
+                    byte[] bytes = new NBTSerializer(false).toBytes(tag);
+                    assertEquals(pattern + " / " + mson, matcher.matches(tag.getTag()), matcher.matches(bytes));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void matchingDoesNotModify() throws IOException {
+        NBTCompound thawing = ((NBTCompound) parse("{a: {b: [{c: 1}, {c: 2}]}}")).freeze().toMutable();
+        NBTCompound tag = new NBTCompound();
+        tag.putInt("x", 1);
+        tag.put("y", thawing);
+        long bytes = NBTMemory.estimateRetainedBytes(tag);
+        
+        assertTrue(new NBTMatcher(parse("{x: 1, y: {a: {b: [{c: 2}]}}}")).matches(tag));
+        assertTrue(new NBTMatcher(parse("{x: 1, y: {a: {b: [{c: 1}, {c: 2}]}}}"), NBTMatcher.EXACT).matches(tag));
+        assertEquals(bytes, NBTMemory.estimateRetainedBytes(tag));
+        assertTrue(thawing.peek(NBTKey.of("a")).isFrozen());
+    }
+
+}
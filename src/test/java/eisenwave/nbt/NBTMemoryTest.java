@@ -0,0 +1,66 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class NBTMemoryTest {
+    
+    @Test
+    public void primitives() {
+        NBTInt tag = new NBTInt(1);
+        assertEquals(NBTMemory.approximateRetainedBytes(tag), NBTMemory.estimateRetainedBytes(tag));
+        assertEquals(0, NBTMemory.estimateRetainedBytes(tag) % 8);
+        assertTrue(NBTMemory.estimateRetainedBytes(new NBTString("abcdefghijklmnopqrstuvwxyz"))
+            > NBTMemory.estimateRetainedBytes(new NBTString("a")));
+        assertTrue(NBTMemory.estimateRetainedBytes(new NBTLongArray(new long[100])) > 800);
+    }
+    
+    @Test
+    public void sharedInstances() {
+        NBTList shared = new NBTList(NBTType.INT_ARRAY);
+        shared.add(new NBTIntArray(new int[1000]));
+        shared.freeze();
+        
+        NBTCompound twice = new NBTCompound(), copies = new NBTCompound();
+        twice.put("a", shared);
+        twice.put("b", shared);
+        copies.put("a", shared.toMutable());
+        copies.put("b", new NBTList(NBTType.INT_ARRAY));
+        copies.getTagList("b").add(new NBTIntArray(new int[1000]));
+        
+        assertTrue(NBTMemory.estimateRetainedBytes(twice) + 4000 < NBTMemory.estimateRetainedBytes(copies));
+        assertEquals(NBTMemory.approximateRetainedBytes(twice), NBTMemory.approximateRetainedBytes(copies));
+    }
+    
+    @Test
+    public void approximationIsUpperBound() throws IOException {
+        NBTTag tag = MojangsonParser.parse("{id: \"stone\", Count: 64b, Damage: 3s, tag: {Unbreakable: 1b, "
+            + "display: {Name: \"Rock\", Lore: [\"a\", \"b\"]}, Enchantments: [{id: 16s, lvl: 5s}]}}").getTag();
+        long exact = NBTMemory.estimateRetainedBytes(tag);
+        assertTrue(exact > 0);
+        assertTrue(NBTMemory.approximateRetainedBytes(tag) >= exact);
+    }
+
+    @Test
+    public void attachedSubtree() throws IOException {
+        NBTCompound child = (NBTCompound) MojangsonParser.parse("{a: 1, b: \"x\", c: [1, 2]}").getTag();
+        long detached = NBTMemory.estimateRetainedBytes(child);
+        
+        NBTCompound root = new NBTCompound();
+        root.put("large", new NBTLongArray(new long[100_000]));
+        root.put("child", child);
+        assertEquals(detached, NBTMemory.estimateRetainedBytes(child));
+        
+        NBTList list = new NBTList(NBTType.COMPOUND);
+        list.add(child);
+        root.put("list", list);
+        
+        // a tag which has been added to multiple containers is not retained by them either
+        assertEquals(detached, NBTMemory.estimateRetainedBytes(root.getCompoundTag("child")));
+    }
+
+}
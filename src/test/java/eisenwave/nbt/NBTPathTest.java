@@ -0,0 +1,82 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import eisenwave.nbt.io.NBTSerializer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+import static org.junit.Assert.*;
+
+public class NBTPathTest {
+    
+    private final static String CHUNK = "{Level: {Sections: [{Y: 0b, BlockStates: [L; 1L, 2L]}, "
+        + "{Y: 1b, BlockStates: [L; 3L]}, {Y: 2b}]}, "
+        + "Inventory: [{Slot: 0b, id: \"stone\"}, {Slot: 1b, id: \"dirt\"}, {Slot: 2b, id: \"sand\"}], "
+        + "\"odd.key\": 5}";
+    
+    /**
+     * Evaluates a path on the tag and on its binary form and verifies that both select the same tags.
+     */
+    private static List<Object> select(String path) throws IOException {
+        NBTNamedTag chunk = MojangsonParser.parse(CHUNK);
+        NBTPath compiled = NBTPath.compile(path);
+        List<NBTTag> tags = compiled.select(chunk.getTag());
+        assertEquals(tags, compiled.select(new NBTSerializer(false).toBytes(chunk)));
+        
+        List<Object> values = new ArrayList<>();
+        for (NBTTag tag : tags)
+            values.add(tag.getValue());
+        return values;
+    }
+    
+    @Test
+    public void children() throws IOException {
+        assertEquals(1, select("Level.Sections").size());
+        assertEquals(asList("stone", "dirt", "sand"), select("Inventory[*].id"));
+        assertEquals(asList(5), select("\"odd.key\""));
+        assertEquals(Collections.emptyList(), select("Level.Missing.id"));
+        assertEquals(3, select("*").size());
+        assertEquals(1, select("").size());
+    }
+    
+    @Test
+    public void indices() throws IOException {
+        assertEquals(asList("stone"), select("Inventory[0].id"));
+        assertEquals(asList("sand"), select("Inventory[-1].id"));
+        assertEquals(Collections.emptyList(), select("Inventory[3].id"));
+        assertEquals(Collections.emptyList(), select("Inventory[-4].id"));
+        assertEquals(asList("dirt", "sand"), select("Inventory[1:].id"));
+        assertEquals(asList("stone", "dirt"), select("Inventory[:-1].id"));
+        assertEquals(asList(2L, 3L), select("Level.Sections[*].BlockStates[-1]"));
+        assertEquals(asList(1L, 2L, 3L), select("Level.Sections[].BlockStates[]"));
+    }
+    
+    @Test
+    public void filters() throws IOException {
+        assertEquals(asList("stone"), select("Inventory[{Slot: 0b}].id"));
+        assertEquals(Collections.emptyList(), select("Inventory[{Slot: 5b}].id"));
+        assertEquals(asList((byte) 1), select("Level.Sections[{BlockStates: [L; 3L]}].Y"));
+        assertEquals(1, select("Level{Sections: [{Y: 2b}]}.Sections").size());
+        assertEquals(1, select("{\"odd.key\": 5}.Level").size());
+        assertEquals(Collections.emptyList(), select("{\"odd.key\": 6}.Level"));
+    }
+    
+    @Test
+    public void malformed() {
+        for (String path : new String[] {"a.", "a[", "a[x]", "a]", "a{b:", "\"a", ".a", "a..b"}) {
+            try {
+                NBTPath.compile(path);
+                fail(path);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+}
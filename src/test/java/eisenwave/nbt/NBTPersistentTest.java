@@ -0,0 +1,130 @@
+package eisenwave.nbt;
+
+import eisenwave.nbt.io.MojangsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NBTPersistentTest {
+    
+    private static NBTTag parse(String mson) throws IOException {
+        return MojangsonParser.parse(mson).getTag();
+    }
+    
+    @Test
+    public void frozenTagsAreImmutable() throws IOException {
+        NBTCompound root = ((NBTCompound) parse("{a: {b: [1, 2]}, c: 3}")).freeze();
+        assertTrue(root.getCompoundTag("a").getTagList("b").isFrozen());
+        
+        try {
+            root.putInt("d", 4);
+            fail();
+        } catch (UnsupportedOperationException ignored) {}
+        try {
+            ((NBTInt) root.getTag("c")).setIntValue(4);
+            fail();
+        } catch (UnsupportedOperationException ignored) {}
+        try {
+            root.getCompoundTag("a").getTagList("b").add(new NBTInt(3));
+            fail();
+        } catch (UnsupportedOperationException ignored) {}
+    }
+    
+    @Test
+    public void persistentOperations() throws IOException {
+        NBTCompound before = ((NBTCompound) parse("{a: {b: 1}, c: 2, d: 3}")).freeze();
+        NBTCompound after = before.with("c", NBTInt.valueOf(5)).without("d").with("e", new NBTString("x"));
+        
+        assertEquals(parse("{a: {b: 1}, c: 2, d: 3}"), before);
+        assertEquals(parse("{a: {b: 1}, c: 5, e: \"x\"}"), after);
+        assertSame(before.getTag("a"), after.getTag("a"));
+        assertEquals(Arrays.asList("a", "c", "e"), new ArrayList<>(after.getKeys()));
+        
+        NBTList list = new NBTList(NBTType.INT).freeze();
+        for (int i = 0; i < 2000; i++)
+            list = list.plus(NBTInt.valueOf(i));
+        list = list.with(1500, NBTInt.valueOf(-1)).without(0);
+        assertEquals(1999, list.size());
+        assertEquals(-1, ((NBTInt) list.get(1499)).getIntValue());
+        assertEquals(1999, ((NBTInt) list.get(1998)).getIntValue());
+    }
+    
+    @Test
+    public void persistentMapMatchesHashMap() {
+        Random random = new Random(1);
+        Map<String, NBTTag> expected = new HashMap<>();
+        NBTCompound compound = new NBTCompound().freeze();
+        for (int i = 0; i < 20000; i++) {
+            String key = Integer.toString(random.nextInt(3000), 36);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                compound = compound.without(key);
+            }
+            else {
+                NBTInt tag = NBTInt.valueOf(i);
+                expected.put(key, tag);
+                compound = compound.with(key, tag);
+            }
+        }
+        assertEquals(expected, compound.getValue());
+        assertEquals(expected.size(), compound.size());
+        
+        // "Aa" and "BB" have the same hash code
+        compound = compound.with("Aa", NBTInt.valueOf(1)).with("BB", NBTInt.valueOf(2)).without("Aa");
+        assertFalse(compound.hasKey("Aa"));
+        assertEquals(2, compound.getInt("BB"));
+    }
+    
+    @Test
+    public void toMutableThawsLazily() throws IOException {
+        NBTCompound frozen = ((NBTCompound) parse("{a: {b: [{c: 1}]}, d: 2}")).freeze();
+        long hash = frozen.contentHash();
+        
+        NBTCompound mutable = frozen.toMutable();
+        assertFalse(mutable.isFrozen());
+        assertEquals(hash, mutable.contentHash());
+        
+        NBTCompound inner = (NBTCompound) mutable.getCompoundTag("a").getTagList("b").get(0);
+        assertFalse(inner.isFrozen());
+        inner.putInt("c", 5);
+        
+        assertNotEquals(hash, mutable.contentHash());
+        assertEquals(parse("{a: {b: [{c: 5}]}, d: 2}"), mutable);
+        assertEquals(parse("{a: {b: [{c: 1}]}, d: 2}"), frozen);
+        assertEquals(hash, frozen.contentHash());
+    }
+    
+    @Test
+    public void deepFreeze() {
+        // far deeper than a recursive implementation could handle with a default thread stack
+        NBTCompound root = new NBTCompound();
+        NBTCompound compound = root;
+        for (int i = 0; i < 100_000; i++) {
+            NBTList list = new NBTList(NBTType.COMPOUND);
+            NBTCompound child = new NBTCompound();
+            child.putInt("i", i);
+            list.add(child);
+            compound.put("l", list);
+            compound = child;
+        }
+        
+        root.freeze();
+        assertTrue(compound.isFrozen());
+        assertTrue(root.getTagList("l").isFrozen());
+        try {
+            compound.putInt("i", 0);
+            fail();
+        } catch (UnsupportedOperationException ignored) {}
+    }
+    
+    @Test
+    public void flyweights() {
+        assertSame(NBTInt.valueOf(7), NBTInt.valueOf(7));
+        assertSame(NBTByte.valueOf((byte) -3), NBTByte.valueOf((byte) -3));
+        assertTrue(NBTLong.valueOf(1L << 40).isFrozen());
+    }
+
+}
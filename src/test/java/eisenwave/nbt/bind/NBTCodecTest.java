@@ -0,0 +1,170 @@
+package eisenwave.nbt.bind;
+
+import eisenwave.nbt.*;
+import eisenwave.nbt.io.NBTInputStream;
+import eisenwave.nbt.io.NBTLimitException;
+import eisenwave.nbt.io.NBTLimits;
+import eisenwave.nbt.io.NBTOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NBTCodecTest {
+    
+    enum Slot {HEAD, FEET}
+    
+    static class Enchantment {
+        @NBTField String id;
+        @NBTField @NBTName("lvl") short level;
+    }
+    
+    static class Base {
+        @NBTField @NBTName("Health") float health = 20;
+    }
+    
+    static class Entity extends Base {
+        @NBTField @NBTName("UUID") long[] uuid;
+        @NBTField boolean glowing;
+        @NBTField int age;
+        @NBTField Double scale;
+        @NBTField Slot slot;
+        @NBTField List<Enchantment> enchantments = new ArrayList<>();
+        @NBTField Map<String, Integer> scores;
+        @NBTField Entity passenger;
+        @NBTField NBTCompound extra;
+        int ignored = 7;
+    }
+    
+    private static Entity sample() {
+        Entity entity = new Entity();
+        entity.uuid = new long[] {1, 2};
+        entity.glowing = true;
+        entity.age = 1200;
+        entity.slot = Slot.FEET;
+        Enchantment enchantment = new Enchantment();
+        enchantment.id = "sharpness";
+        enchantment.level = 5;
+        entity.enchantments.add(enchantment);
+        entity.scores = Collections.singletonMap("kills", 3);
+        entity.passenger = new Entity();
+        entity.extra = new NBTCompound();
+        entity.extra.putString("custom", "x");
+        entity.ignored = 0;
+        return entity;
+    }
+    
+    @Test
+    public void roundTrip() {
+        Entity entity = sample();
+        NBTCodec<Entity> codec = NBTCodec.of(Entity.class);
+        NBTCompound compound = codec.encode(entity);
+        assertEquals(20, compound.getFloat("Health"), 0);
+        assertEquals(1, compound.getByte("glowing"));
+        assertEquals("FEET", compound.getString("slot"));
+        assertEquals(5, ((NBTCompound) compound.getTagList("enchantments").get(0)).getShort("lvl"));
+        assertFalse(compound.hasKey("scale"));
+        assertFalse(compound.hasKey("ignored"));
+        
+        Entity decoded = codec.decode(compound);
+        assertArrayEquals(entity.uuid, decoded.uuid);
+        assertTrue(decoded.glowing);
+        assertEquals(1200, decoded.age);
+        assertNull(decoded.scale);
+        assertEquals(Slot.FEET, decoded.slot);
+        assertEquals("sharpness", decoded.enchantments.get(0).id);
+        assertEquals(Integer.valueOf(3), decoded.scores.get("kills"));
+        assertNull(decoded.passenger.passenger);
+        assertEquals("x", decoded.extra.getString("custom"));
+        assertEquals(7, decoded.ignored);
+        assertEquals(compound, codec.encode(decoded));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void typeMismatch() {
+        NBTCompound compound = new NBTCompound();
+        compound.putString("age", "old");
+        NBTCodec.of(Entity.class).decode(compound);
+    }
+    
+    @Test
+    public void binaryRoundTrip() throws IOException {
+        Entity entity = sample();
+        NBTCodec<Entity> codec = NBTCodec.of(Entity.class);
+        NBTCompound compound = codec.encode(entity);
+        
+        ByteArrayOutputStream direct = new ByteArrayOutputStream(), tags = new ByteArrayOutputStream();
+        codec.writeNamed("entity", entity, new NBTOutputStream(direct));
+        new NBTOutputStream(tags).writeNamedTag("entity", compound);
+        assertArrayEquals(tags.toByteArray(), direct.toByteArray());
+        
+        // unknown entries are skipped
+        compound.put("unknown", new NBTList(NBTType.COMPOUND, Collections.singletonList(new NBTCompound())));
+        compound.putString("other", "value");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new NBTOutputStream(bytes).writeNamedTag("entity", compound);
+        Entity decoded = codec.readNamed(new NBTInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertArrayEquals(entity.uuid, decoded.uuid);
+        assertEquals(Slot.FEET, decoded.slot);
+        assertEquals(5, decoded.enchantments.get(0).level);
+        assertEquals("x", decoded.extra.getString("custom"));
+        assertEquals(codec.encode(entity), codec.encode(decoded));
+    }
+    
+    @Test(expected = IOException.class)
+    public void binaryTypeMismatch() throws IOException {
+        NBTCompound compound = new NBTCompound();
+        compound.putString("age", "old");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new NBTOutputStream(bytes).writeTagCompound(compound);
+        NBTCodec.of(Entity.class).read(new NBTInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+    
+    @Test
+    public void limits() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NBTCodec.of(Entity.class).writeNamed("", sample(), new NBTOutputStream(bytes));
+        NBTInputStream tree = new NBTInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        NBTInputStream codec = new NBTInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        tree.readNamedTag();
+        NBTCodec.of(Entity.class).readNamed(codec);
+        assertEquals(tree.getTagsRead(), codec.getTagsRead());
+        assertEquals(tree.getMaxDepthRead(), codec.getMaxDepthRead());
+        
+        // a long array and a list which claim to have 2^31 - 1 elements
+        assertLimitExceeded(new byte[] {10, 0, 0, 12, 0, 4, 'U', 'U', 'I', 'D', 0x7f, -1, -1, -1});
+        assertLimitExceeded(new byte[] {10, 0, 0, 9, 0, 12, 'e', 'n', 'c', 'h', 'a', 'n', 't', 'm', 'e', 'n', 't', 's',
+            10, 0x7f, -1, -1, -1});
+        
+        // passengers nested deeper than the maximum depth
+        ByteArrayOutputStream deep = new ByteArrayOutputStream();
+        deep.write(new byte[] {10, 0, 0});
+        for (int i = 0; i < 1000; i++)
+            deep.write(new byte[] {10, 0, 9, 'p', 'a', 's', 's', 'e', 'n', 'g', 'e', 'r'});
+        assertLimitExceeded(deep.toByteArray());
+    }
+    
+    /**
+     * Asserts that both the tree reader and the codec reject the bytes with the untrusted limits.
+     */
+    private static void assertLimitExceeded(byte[] bytes) throws IOException {
+        try {
+            new NBTInputStream(new ByteArrayInputStream(bytes), NBTLimits.UNTRUSTED).readNamedTag();
+            fail("tree reader accepts the bytes");
+        } catch (NBTLimitException ex) {
+            // expected
+        }
+        try {
+            NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(bytes), NBTLimits.UNTRUSTED);
+            NBTCodec.of(Entity.class).readNamed(in);
+            fail("codec accepts the bytes");
+        } catch (NBTLimitException ex) {
+            // expected
+        }
+    }
+
+}
@@ -37,4 +37,29 @@ public class MojangsonParserTest {
         assertEquals((byte) 10, compound.getByte("test"));
     }
     
-}
\ No newline at end of file
+    @Test
+    public void parseLiterals() throws Exception {
+        NBTCompound compound = (NBTCompound) MojangsonParser.parse("{b: 1b, s: 2s, i: 3, l: 4L, f: 5.5f, d: 6.5d, "
+            + "e: 7.5, t: true, u: false, o: 300b, a: abc}").getTag();
+        
+        assertEquals((byte) 1, compound.getByte("b"));
+        assertEquals((short) 2, compound.getShort("s"));
+        assertEquals(3, compound.getInt("i"));
+        assertEquals(4L, compound.getLong("l"));
+        assertEquals(5.5f, compound.getFloat("f"), 0);
+        assertEquals(6.5d, compound.getDouble("d"), 0);
+        assertEquals(7.5d, compound.getDouble("e"), 0);
+        assertEquals((byte) 1, compound.getByte("t"));
+        assertEquals((byte) 0, compound.getByte("u"));
+        assertEquals("300b", compound.getString("o"));
+        assertEquals("abc", compound.getString("a"));
+        
+        // literals in lists are parsed into tags, literals in compounds are put directly
+        for (String literal : new String[] {"1b", "2s", "3", "4L", "5.5f", "6.5d", "7.5", "true", "300b", "abc"}) {
+            NBTCompound entry = (NBTCompound) MojangsonParser.parse("{v: " + literal + "}").getTag();
+            NBTCompound element = (NBTCompound) MojangsonParser.parse("{v: [" + literal + "]}").getTag();
+            assertEquals(literal, element.getTagList("v").get(0), entry.getTag("v"));
+        }
+    }
+
+}
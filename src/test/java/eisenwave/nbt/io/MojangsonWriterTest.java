@@ -5,8 +5,11 @@ import org.junit.Test;
 
 import java.io.StringWriter;
 
+import static org.junit.Assert.*;
+
 public class MojangsonWriterTest {
     
+    private static final String NEWLINE = System.getProperty("line.separator");
     
     @Test
     public void test() throws Exception {
@@ -16,4 +19,43 @@ public class MojangsonWriterTest {
         new MojangsonWriter(writer).writeNamedTag(tag);
     }
     
-}
\ No newline at end of file
+    @Test
+    public void prettyInline() throws Exception {
+        NBTNamedTag tag = MojangsonParser.parse("{a: 1, b: [1s, 2s], c: {d: \"e\"}}");
+        
+        StringWriter writer = new StringWriter();
+        new MojangsonPrettyPrinter().print(tag, writer);
+        
+        assertEquals("{a: 1, b: [1s, 2s], c: {d: \"e\"}}", writer.toString());
+    }
+    
+    @Test
+    public void prettyBreaksLongLines() throws Exception {
+        NBTNamedTag tag = MojangsonParser.parse("{a: [1, 2, 3], b: {c: 4L, d: [L; 5L, 6L]}}");
+        
+        StringWriter writer = new StringWriter();
+        new MojangsonPrettyPrinter(20, 2, 16).print(tag, writer);
+        
+        String expected = String.join(NEWLINE,
+            "{",
+            "  a: [1, 2, 3],",
+            "  b: {",
+            "    c: 4L,",
+            "    d: [L;5L,6L]",
+            "  }",
+            "}");
+        assertEquals(expected, writer.toString());
+        assertEquals(tag, MojangsonParser.parse(writer.toString()));
+    }
+    
+    @Test
+    public void prettyInlineThreshold() throws Exception {
+        NBTNamedTag tag = MojangsonParser.parse("{a: 1, b: 2}");
+        
+        StringWriter writer = new StringWriter();
+        new MojangsonPrettyPrinter(100, 4, 1).print(tag, writer);
+        
+        assertEquals(String.join(NEWLINE, "{", "    a: 1,", "    b: 2", "}"), writer.toString());
+    }
+    
+}
@@ -0,0 +1,70 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NBTEventsTest {
+    
+    private final static String MSON = "{Inventory: [{id: \"stone\", Count: 1b}, {id: \"dirt\"}], Health: 20.0f}";
+    
+    @Test
+    public void recordsEvents() throws IOException {
+        File file = File.createTempFile("events", ".nbt");
+        Path dump = Files.createTempFile("events", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"Decode", "Encode", "Parse", "Write"})
+                recording.enable("eisenwave.nbt." + name).withoutThreshold();
+            recording.start();
+            
+            NBTNamedTag document = MojangsonParser.parse(MSON);
+            new NBTSerializer(true).toFile(document, file);
+            new NBTDeserializer(true).fromFile(file);
+            new MojangsonWriter(new StringWriter()).writeNamedTag(document);
+            
+            recording.stop();
+            recording.dump(dump);
+            
+            Map<String, RecordedEvent> events = new HashMap<>();
+            List<RecordedEvent> recorded = RecordingFile.readAllEvents(dump);
+            for (RecordedEvent event : recorded)
+                events.put(event.getEventType().getName(), event);
+            
+            RecordedEvent parse = events.get("eisenwave.nbt.Parse");
+            assertEquals(MSON.length(), parse.getLong("characters"));
+            assertEquals(8, parse.getInt("tagCount"));
+            assertEquals(3, parse.getInt("maxDepth"));
+            
+            byte[] uncompressed = new NBTSerializer(false).toBytes(document);
+            for (String name : new String[] {"eisenwave.nbt.Encode", "eisenwave.nbt.Decode"}) {
+                RecordedEvent event = events.get(name);
+                assertEquals(file.getPath(), event.getString("source"));
+                assertEquals(uncompressed.length, event.getLong("bytes"));
+                assertEquals(file.length(), event.getLong("compressedBytes"));
+                assertEquals(8, event.getInt("tagCount"));
+                assertEquals(3, event.getInt("maxDepth"));
+            }
+            
+            RecordedEvent write = events.get("eisenwave.nbt.Write");
+            assertTrue(write.getLong("characters") > 0);
+            assertNull(write.getString("source"));
+        } finally {
+            Files.deleteIfExists(file.toPath());
+            Files.deleteIfExists(dump);
+        }
+    }
+
+}
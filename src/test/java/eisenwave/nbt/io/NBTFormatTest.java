@@ -0,0 +1,103 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class NBTFormatTest {
+    
+    private final static String MSON = "{a: 1, b: -300, c: 2147483647L, d: -1L, e: 1.5f, f: 2.5d, g: 3s, "
+        + "h: \"h\u00e9\", i: [I; 0, -1, 64], j: [L; 1L, -2L], k: [B; 1b, 2b], l: [{m: [[5, 6]]}, {}], n: [], "
+        + "o: [7L]}";
+    
+    @Test
+    public void encoding() throws IOException {
+        NBTNamedTag tag = new NBTNamedTag("", new NBTCompound(new NBTNamedTag("a", new NBTInt(1))));
+        assertArrayEquals(new byte[] {10, 0, 0, 3, 0, 1, 'a', 0, 0, 0, 1, 0},
+            new NBTSerializer(false, NBTFormat.BIG_ENDIAN).toBytes(tag));
+        assertArrayEquals(new byte[] {10, 0, 0, 3, 1, 0, 'a', 1, 0, 0, 0, 0},
+            new NBTSerializer(false, NBTFormat.LITTLE_ENDIAN).toBytes(tag));
+        assertArrayEquals(new byte[] {10, 0, 3, 1, 'a', 2, 0},
+            new NBTSerializer(false, NBTFormat.NETWORK).toBytes(tag));
+    }
+    
+    @Test
+    public void roundTrip() throws IOException {
+        NBTNamedTag document = MojangsonParser.parse(MSON);
+        for (NBTFormat format : NBTFormat.values()) {
+            byte[] bytes = new NBTSerializer(true, format).toBytes(document);
+            NBTNamedTag read = new NBTDeserializer(true, format, null, NBTLimits.UNLIMITED).fromBytes(bytes);
+            assertEquals(format.name(), document, read);
+            
+            byte[] uncompressed = new NBTSerializer(false, format).toBytes(document);
+            NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(uncompressed), format);
+            assertEquals(NBTType.COMPOUND.getId(), in.readByte());
+            in.readString();
+            in.skipTag(NBTType.COMPOUND);
+            assertEquals(-1, in.read());
+        }
+    }
+    
+    @Test
+    public void transcode() throws IOException {
+        NBTNamedTag document = MojangsonParser.parse(MSON);
+        for (NBTFormat from : NBTFormat.values()) {
+            byte[] input = new NBTSerializer(false, from).toBytes(document);
+            for (NBTFormat to : NBTFormat.values()) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                NBTOutputStream out = new NBTOutputStream(output, to);
+                NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(input), from);
+                assertTrue(out.transcodeNamedTag(in));
+                assertFalse(out.transcodeNamedTag(in));
+                assertArrayEquals(from + " to " + to, new NBTSerializer(false, to).toBytes(document),
+                    output.toByteArray());
+            }
+        }
+    }
+    
+    @Test
+    public void transcodeLimits() throws IOException {
+        byte[] input = new NBTSerializer(false).toBytes(MojangsonParser.parse(MSON));
+        NBTInputStream tree = new NBTInputStream(new ByteArrayInputStream(input));
+        NBTInputStream transcoded = new NBTInputStream(new ByteArrayInputStream(input));
+        tree.readNamedTag();
+        new NBTOutputStream(new ByteArrayOutputStream(), NBTFormat.NETWORK).transcodeNamedTag(transcoded);
+        assertEquals(tree.getTagsRead(), transcoded.getTagsRead());
+        assertEquals(tree.getMaxDepthRead(), transcoded.getMaxDepthRead());
+        assertEquals(0, transcoded.getContainerDepth());
+        
+        // an int array which claims to have 2^31 - 1 elements and lists nested deeper than the maximum depth
+        ByteArrayOutputStream deep = new ByteArrayOutputStream();
+        deep.write(new byte[] {9, 0, 0});
+        for (int i = 0; i < 1000; i++)
+            deep.write(new byte[] {9, 0, 0, 0, 1});
+        byte[][] hostile = {{11, 0, 0, 0x7f, -1, -1, -1}, deep.toByteArray()};
+        for (byte[] bytes : hostile) {
+            NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(bytes), NBTLimits.UNTRUSTED);
+            try {
+                new NBTOutputStream(new ByteArrayOutputStream()).transcodeNamedTag(in);
+                fail();
+            } catch (NBTLimitException ex) {
+                // expected
+            }
+            assertEquals(0, in.getContainerDepth());
+        }
+    }
+    
+    @Test
+    public void streamingQueries() throws IOException {
+        byte[] bytes = new NBTSerializer(false, NBTFormat.NETWORK).toBytes(MojangsonParser.parse(MSON));
+        NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(bytes), NBTFormat.NETWORK);
+        assertEquals(new NBTInt(6), NBTPath.compile("l[0].m[0][1]").select(in).get(0));
+        
+        NBTTag pattern = MojangsonParser.parse("{b: -300, h: \"h\u00e9\", i: [I; 0, -1, 64]}").getTag();
+        NBTMatcher matcher = new NBTMatcher(pattern);
+        assertTrue(matcher.matches(new NBTInputStream(new ByteArrayInputStream(bytes), NBTFormat.NETWORK)));
+    }
+
+}
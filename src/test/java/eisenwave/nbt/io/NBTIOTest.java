@@ -47,4 +47,132 @@ public class NBTIOTest {
         }
     }
     
-}
\ No newline at end of file
+    @Test
+    public void cachedPayloads() throws IOException {
+        NBTCompound root = (NBTCompound) MojangsonParser.parse(
+            "{a: {b: [1, 2], c: \"x\"}, d: [{e: 1L}, {e: 2L}], f: [B; 1b]}").getTag();
+        NBTCompound a = root.getCompoundTag("a");
+        
+        byte[] expected = new NBTSerializer(false).toBytes(new NBTNamedTag("", root));
+        NBTSerializer serializer = new NBTSerializer(false, true);
+        assertArrayEquals(expected, serializer.toBytes(new NBTNamedTag("", root)));
+        assertNotNull(root.getCachedPayload());
+        assertNotNull(a.getCachedPayload());
+        assertTrue(a.getCachedPayload().array().length <= 2 * a.getCachedPayload().remaining());
+        assertArrayEquals(expected, serializer.toBytes(new NBTNamedTag("", root)));
+        
+        ((NBTInt) a.getTagList("b").get(1)).setIntValue(3);
+        assertNull(root.getCachedPayload());
+        assertNull(a.getCachedPayload());
+        assertNotNull(root.getTagList("d").getCachedPayload());
+        
+        expected = new NBTSerializer(false).toBytes(new NBTNamedTag("", root));
+        assertArrayEquals(expected, serializer.toBytes(new NBTNamedTag("", root)));
+    }
+
+    @Test
+    public void limits() throws IOException {
+        byte[] document = new NBTSerializer(false).toBytes(MojangsonParser.parse(
+            "{a: {b: [1, 2], c: \"x\"}, d: [{e: 1L}, {e: 2L}], f: [I; 1, 2], g: 1b}"));
+        NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(document), NBTLimits.UNTRUSTED);
+        assertNotNull(in.readNamedTag());
+        assertEquals(document.length, in.getBytesRead());
+        assertEquals(13, in.getTagsRead());
+        
+        assertLimitExceeded(document, new NBTLimits(document.length - 1, 8, 8, 64));
+        assertLimitExceeded(document, new NBTLimits(1024, 1, 8, 64));
+        assertLimitExceeded(document, new NBTLimits(1024, 8, 1, 64));
+        assertLimitExceeded(document, new NBTLimits(1024, 8, 8, 12));
+        
+        // an int array which claims to have 2^31 - 1 elements in only 12 bytes
+        byte[] malicious = {10, 0, 0, 11, 0, 1, 'a', 0x7f, -1, -1, -1, 0};
+        assertLimitExceeded(malicious, NBTLimits.UNTRUSTED);
+        
+        // lists nested deeper than the stack could handle
+        ByteArrayOutputStream deep = new ByteArrayOutputStream();
+        deep.write(new byte[] {9, 0, 0});
+        for (int i = 0; i < 100_000; i++)
+            deep.write(new byte[] {9, 0, 0, 0, 1});
+        assertLimitExceeded(deep.toByteArray(), NBTLimits.UNTRUSTED);
+    }
+    
+    @Test
+    public void deepNesting() throws IOException {
+        // far deeper than a recursive implementation could handle with a default thread stack
+        NBTCompound root = new NBTCompound();
+        NBTCompound compound = root;
+        for (int i = 0; i < 200_000; i++) {
+            NBTList list = new NBTList(NBTType.COMPOUND);
+            NBTCompound child = new NBTCompound();
+            child.putInt("i", i);
+            list.add(child);
+            compound.put("l", list);
+            compound = child;
+        }
+        
+        byte[] bytes = new NBTSerializer(false).toBytes(new NBTNamedTag("", root));
+        assertEquals(3 + 200_000 * (4 + 5 + 8 + 1) + 1, bytes.length);
+        assertArrayEquals(bytes, new NBTSerializer(false, true).toBytes(new NBTNamedTag("", root)));
+        
+        NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(bytes));
+        NBTNamedTag read = in.readNamedTag();
+        assertNull(in.readNamedTag());
+        assertArrayEquals(bytes, new NBTSerializer(false).toBytes(read));
+        
+        in = new NBTInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(NBTType.COMPOUND.getId(), in.readByte());
+        in.readString();
+        in.skipTag(NBTType.COMPOUND);
+        assertEquals(-1, in.read());
+    }
+    
+    @Test
+    public void checkedReading() throws IOException {
+        // an int array which claims to have 2^31 - 1 elements and a string of 2^16 - 1 bytes
+        NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(new byte[] {0x7f, -1, -1, -1, -1, -1}),
+            new NBTLimits(1024, 1, 8, 2));
+        in.enterContainer();
+        in.enterContainer();
+        assertEquals(2, in.getContainerDepth());
+        try {
+            in.enterContainer();
+            fail();
+        } catch (NBTLimitException ex) {
+            // expected
+        }
+        in.exitContainer();
+        assertEquals(1, in.getMaxDepthRead());
+        
+        in.accountTag(NBTType.INT);
+        in.accountTag(NBTType.COMPOUND);
+        try {
+            in.accountTag(NBTType.BYTE);
+            fail();
+        } catch (NBTLimitException ex) {
+            // expected
+        }
+        
+        try {
+            in.readCheckedLength(NBTType.INT_ARRAY);
+            fail();
+        } catch (NBTLimitException ex) {
+            // expected
+        }
+        try {
+            in.readCheckedStringLength();
+            fail();
+        } catch (NBTLimitException ex) {
+            // expected
+        }
+    }
+    
+    private static void assertLimitExceeded(byte[] bytes, NBTLimits limits) throws IOException {
+        try {
+            new NBTInputStream(new ByteArrayInputStream(bytes), limits).readNamedTag();
+            fail("limits are not exceeded: " + limits);
+        } catch (NBTLimitException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class NBTIndexTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void randomAccess() throws IOException {
+        NBTList entities = new NBTList(NBTType.COMPOUND);
+        for (int i = 0; i < 2000; i++) {
+            NBTCompound entity = new NBTCompound();
+            entity.putString("id", "zombie");
+            entity.putInt("index", i);
+            entity.put("Pos", new NBTList(NBTType.DOUBLE));
+            entities.add(entity);
+        }
+        NBTCompound root = new NBTCompound();
+        root.putString("name", "archive");
+        root.put("Entities", entities);
+        root.put("Data", new NBTIntArray(new int[] {1, 2, 3}));
+        
+        Path file = folder.newFile("archive.nbt").toPath(), sidecar = folder.newFile("archive.nbti").toPath();
+        Files.write(file, new NBTSerializer(false).toBytes(new NBTNamedTag("level", root)));
+        NBTIndex.scan(file, 2).save(sidecar);
+        NBTIndex index = NBTIndex.load(sidecar);
+        
+        // the root, its three entries and the entities, but not the entries of the entities
+        assertEquals(1 + 3 + 2000, index.getNodeCount());
+        assertEquals("level", index.root().getName());
+        assertEquals(2000, index.root().find("Entities").size());
+        assertNull(index.root().find("Missing"));
+        assertNull(index.root().find("Entities").element(2000));
+        assertNull(index.root().find("Entities").element(7).find("id"));
+        
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertEquals(root, index.root().read(channel));
+            assertEquals(new NBTIntArray(new int[] {1, 2, 3}), index.root().find("Data").read(channel));
+            
+            NBTIndex.Entry list = index.root().find("Entities");
+            assertTrue(IntStream.range(0, 2000).parallel().allMatch(i -> {
+                try {
+                    return list.element(i).read(channel).equals(entities.get(i));
+                } catch (IOException ex) {
+                    throw new AssertionError(ex);
+                }
+            }));
+            assertEquals(index.root(), list.element(5).parent().parent());
+        }
+    }
+
+}
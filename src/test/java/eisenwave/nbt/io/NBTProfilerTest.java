@@ -0,0 +1,79 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NBTProfilerTest {
+    
+    private final static String MSON = "{Inventory: [{id: \"stone\", tag: {display: {Lore: [\"a\", \"bb\", \"\"]}}}, "
+        + "{id: \"dirt\", Count: 2b}], \"odd.key\": [I; 1, 2, 3], Mixed: 1}";
+    
+    @Test
+    public void treesAndStreams() throws IOException {
+        NBTNamedTag document = MojangsonParser.parse(MSON);
+        byte[] bytes = new NBTSerializer(false).toBytes(document);
+        NBTProfiler trees = new NBTProfiler(), streams = new NBTProfiler();
+        trees.profile(document);
+        streams.profile(bytes);
+        assertEquals(trees.report(), streams.report());
+        
+        NBTProfiler profiler = trees;
+        assertEquals(bytes.length, profiler.getEntry("").getTotalBytes());
+        assertEquals(2, profiler.getEntry("Inventory[*].id").getCount());
+        assertEquals(3, profiler.getEntry("Inventory[*].tag.display.Lore[*]").getCount());
+        assertEquals(2, profiler.getEntry("Inventory[*].tag.display.Lore[*]").getMaxLength());
+        // one empty string, one string of length 1 and one of length 2
+        assertArrayEquals(new long[] {1, 1, 1}, Arrays.copyOf(
+            profiler.getEntry("Inventory[*].tag.display.Lore[*]").getLengthHistogram(), 3));
+        assertEquals(3 + 7 + 4 + 12, profiler.getEntry("\"odd.key\"").getTotalBytes());
+        assertNull(profiler.getEntry("Missing"));
+        
+        // normalized paths select all aggregated tags
+        for (NBTProfiler.Entry entry : profiler.getEntries())
+            assertEquals(entry.getCount(), NBTPath.compile(entry.getPath()).select(document.getTag()).size());
+        
+        NBTCompound other = new NBTCompound();
+        other.putString("Mixed", "text");
+        profiler.profile(other);
+        assertEquals(2, profiler.getDocumentCount());
+        assertEquals(1, profiler.getEntry("Mixed").getCount(NBTType.STRING));
+        assertEquals(1, profiler.getEntry("Mixed").getCount(NBTType.INT));
+        
+        streams.merge(profiler);
+        assertEquals(3, streams.getDocumentCount());
+        assertEquals(6, streams.getEntry("Inventory[*].tag.display.Lore[*]").getCount());
+    }
+    
+    @Test
+    public void deepNesting() throws IOException {
+        // far deeper than a recursive implementation could handle with a default thread stack
+        ByteArrayOutputStream lists = new ByteArrayOutputStream();
+        lists.write(new byte[] {9, 0, 0});
+        for (int i = 0; i < 100_000; i++)
+            lists.write(new byte[] {9, 0, 0, 0, 1});
+        lists.write(new byte[] {0, 0, 0, 0, 0});
+        byte[] bytes = lists.toByteArray();
+        
+        NBTProfiler trees = new NBTProfiler(), streams = new NBTProfiler();
+        trees.profile(new NBTDeserializer(false).fromBytes(bytes));
+        streams.profile(bytes);
+        List<NBTProfiler.Entry> entries = streams.getEntries();
+        assertEquals(100_001, entries.size());
+        assertEquals(bytes.length, entries.get(0).getTotalBytes());
+        assertEquals(5, entries.get(100_000).getTotalBytes());
+        assertEquals(trees.getEntries().size(), entries.size());
+        assertEquals(5, trees.getEntries().get(100_000).getTotalBytes());
+        
+        streams.merge(trees);
+        assertEquals(2 * bytes.length, streams.getEntries().get(0).getTotalBytes());
+        assertEquals(2, streams.getEntries().get(100_000).getCount(NBTType.LIST));
+    }
+
+}
@@ -0,0 +1,104 @@
+package eisenwave.nbt.io;
+
+import eisenwave.nbt.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class NBTTapeTest {
+    
+    private final static String MSON =
+        "{name: \"root\", items: [{id: \"stone\", n: 3b}, {id: \"dirt\", n: 64b}, {}], " +
+        "pos: [I; 1, 2, 3], empty: [], nested: {deep: {value: 1.5d, big: 123456789012L}}}";
+    
+    @Test
+    public void navigation() throws IOException {
+        NBTCompound root = (NBTCompound) MojangsonParser.parse(MSON).getTag();
+        byte[] bytes = new NBTSerializer(false).toBytes(new NBTNamedTag("level", root));
+        NBTTape tape = new NBTTapeDeserializer(false).fromBytes(bytes);
+        
+        assertEquals(bytes.length, tape.getLength());
+        assertEquals(root, tape.toNamedTag().getTag());
+        assertEquals("level", tape.toNamedTag().getName());
+        
+        NBTTape.Cursor cursor = tape.cursor();
+        assertEquals(5, cursor.size());
+        assertFalse(cursor.nextSibling());
+        
+        assertTrue(cursor.find("items"));
+        assertEquals(3, cursor.size());
+        assertTrue(cursor.element(1));
+        assertTrue(cursor.find("n"));
+        assertEquals(64, cursor.getByte());
+        assertTrue(cursor.parent());
+        assertTrue(cursor.nextSibling());
+        assertFalse(cursor.firstChild());
+        assertFalse(cursor.nextSibling());
+        assertTrue(cursor.parent());
+        
+        assertTrue(cursor.nextSibling());
+        assertEquals("pos", cursor.getName());
+        assertEquals(new NBTIntArray(new int[] {1, 2, 3}), cursor.toTag());
+        
+        assertTrue(cursor.parent());
+        assertFalse(cursor.find("missing"));
+        assertTrue(cursor.find("nested") && cursor.find("deep") && cursor.find("big"));
+        assertEquals(123456789012L, cursor.getLong());
+        assertEquals(3, cursor.getDepth());
+        try {
+            cursor.getInt();
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void deepNesting() throws IOException {
+        // far deeper than a recursive implementation could handle with a default thread stack
+        ByteArrayOutputStream lists = new ByteArrayOutputStream();
+        lists.write(new byte[] {9, 0, 0});
+        for (int i = 0; i < 200_000; i++)
+            lists.write(new byte[] {9, 0, 0, 0, 1});
+        lists.write(new byte[] {0, 0, 0, 0, 0});
+        NBTTape tape = NBTTape.decode(lists.toByteArray());
+        assertEquals(200_001, tape.getNodeCount());
+        assertEquals(lists.size(), tape.getLength());
+        
+        NBTTag tag = tape.toNamedTag().getTag();
+        for (int i = 0; i < 200_000; i++)
+            tag = ((NBTList) tag).get(0);
+        assertEquals(new NBTList(NBTType.END), tag);
+        
+        NBTCompound root = new NBTCompound();
+        NBTCompound compound = root;
+        for (int i = 0; i < 200_000; i++) {
+            NBTCompound child = new NBTCompound();
+            compound.put("c", child);
+            compound = child;
+        }
+        compound.putInt("i", 1);
+        byte[] bytes = new NBTSerializer(false).toBytes(new NBTNamedTag("", root));
+        tape = NBTTape.decode(bytes);
+        assertEquals(bytes.length, tape.getLength());
+        assertArrayEquals(bytes, new NBTSerializer(false).toBytes(tape.toNamedTag()));
+    }
+    
+    @Test
+    public void truncatedInput() throws IOException {
+        NBTCompound root = (NBTCompound) MojangsonParser.parse(MSON).getTag();
+        byte[] bytes = new NBTSerializer(false).toBytes(new NBTNamedTag("", root));
+        try {
+            NBTTape.decode(Arrays.copyOf(bytes, bytes.length - 1));
+            fail();
+        } catch (EOFException ex) {
+            // expected
+        }
+    }
+
+}